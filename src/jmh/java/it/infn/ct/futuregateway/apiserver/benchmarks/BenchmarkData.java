@@ -0,0 +1,205 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.benchmarks;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Params;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFile;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileInput;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileOutput;
+import it.infn.ct.futuregateway.apiserver.resources.TaskList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import javax.ws.rs.core.Link;
+
+/**
+ * Resources used by the benchmarks.
+ * The resources have a fixed content, similar to the one returned by the
+ * server, so results of different runs can be compared.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class BenchmarkData {
+
+    /**
+     * Base URI of the links.
+     */
+    public static final String BASEURI = "http://localhost:8080/v1.0/";
+
+    /**
+     * Number of parameters, arguments and files of every resource.
+     */
+    private static final int ELEMENTS = 3;
+
+    /**
+     * Creation date of the resources.
+     */
+    private static final Date DATE = new Date(1451606400000L);
+
+
+    /**
+     * Avoid the class instantiation.
+     */
+    private BenchmarkData() {
+    }
+
+
+    /**
+     * Create a task.
+     *
+     * @param id The task identifier
+     * @param withLinks True to add the links injected by the server
+     * @return The task
+     */
+    public static Task newTask(final String id, final boolean withLinks) {
+        Task task = new Task();
+        task.setId(id);
+        task.setApplicationId("app-0");
+        task.setDescription("Benchmark task " + id);
+        task.setUserName("benchmark");
+        task.setStatus(Task.STATUS.RUNNING);
+        task.setDateCreated(DATE);
+        task.setLastChange(DATE);
+        List<String> arguments = new ArrayList<>();
+        List<TaskFileInput> inputs = new ArrayList<>();
+        List<TaskFileOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < ELEMENTS; i++) {
+            arguments.add("--arg" + i);
+            TaskFileInput in = new TaskFileInput();
+            in.setName("input" + i + ".txt");
+            in.setStatus(TaskFile.FILESTATUS.READY);
+            inputs.add(in);
+            TaskFileOutput out = new TaskFileOutput();
+            out.setName("output" + i + ".txt");
+            outputs.add(out);
+        }
+        task.setArguments(arguments);
+        task.setInputFiles(inputs);
+        task.setOutputFiles(outputs);
+        if (withLinks) {
+            task.setLinks(Arrays.asList(
+                    newLink("tasks/" + id, "self"),
+                    newLink("tasks/" + id + "/input", "input")));
+        }
+        return task;
+    }
+
+
+    /**
+     * Create a list of tasks.
+     *
+     * @param size The number of tasks in the list
+     * @param withLinks True to add the links injected by the server
+     * @return The task list
+     */
+    public static TaskList newTaskList(final int size,
+            final boolean withLinks) {
+        List<Task> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tasks.add(newTask("task-" + i, withLinks));
+        }
+        return new TaskList(tasks);
+    }
+
+
+    /**
+     * Create an application.
+     *
+     * @param withLinks True to add the links injected by the server
+     * @return The application
+     */
+    public static Application newApplication(final boolean withLinks) {
+        Application app = new Application();
+        app.setId("app-0");
+        app.setName("Benchmark application");
+        app.setDescription("Application used by the benchmarks");
+        app.setDateCreated(DATE);
+        app.setEnabled(true);
+        app.setParameters(newParams());
+        List<String> infras = new ArrayList<>();
+        for (int i = 0; i < ELEMENTS; i++) {
+            infras.add("infra-" + i);
+        }
+        app.setInfrastructureIds(infras);
+        if (withLinks) {
+            app.setLinks(Arrays.asList(
+                    newLink("applications/app-0", "self")));
+        }
+        return app;
+    }
+
+
+    /**
+     * Create an infrastructure.
+     *
+     * @param withLinks True to add the links injected by the server
+     * @return The infrastructure
+     */
+    public static Infrastructure newInfrastructure(final boolean withLinks) {
+        Infrastructure infra = new Infrastructure();
+        infra.setId("infra-0");
+        infra.setName("Benchmark infrastructure");
+        infra.setDescription("Infrastructure used by the benchmarks");
+        infra.setDateCreated(DATE);
+        infra.setEnabled(true);
+        infra.setParameters(newParams());
+        if (withLinks) {
+            infra.setLinks(Arrays.asList(
+                    newLink("infrastructures/infra-0", "self")));
+        }
+        return infra;
+    }
+
+
+    /**
+     * Create a link.
+     *
+     * @param path The path relative to the base URI
+     * @param rel The relation
+     * @return The link
+     */
+    public static Link newLink(final String path, final String rel) {
+        return Link.fromUri(BASEURI + path).rel(rel).build();
+    }
+
+
+    /**
+     * Create a set of parameters.
+     *
+     * @return The parameters
+     */
+    private static List<Params> newParams() {
+        List<Params> params = new ArrayList<>();
+        for (int i = 0; i < ELEMENTS; i++) {
+            Params p = new Params();
+            p.setName("param" + i);
+            p.setValue("value" + i);
+            p.setDescription("Parameter " + i);
+            params.add(p);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,220 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.benchmarks;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskList;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.linking.DeclarativeLinkingFeature;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Requests processed by Jersey with and without the declarative linking.
+ * The requests are handled in memory, without a container, by resources
+ * returning prebuilt entities. Comparing the two configurations gives the
+ * cost of the {@code @InjectLinks} processing on the responses.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeclarativeLinkingBenchmark {
+
+    /**
+     * Base URI of the requests.
+     */
+    private static final URI BASEURI = URI.create(BenchmarkData.BASEURI);
+
+    /**
+     * Initial size of the output buffer.
+     */
+    private static final int BUFFERSIZE = 64 * 1024;
+
+    /**
+     * Register the declarative linking feature.
+     */
+    @Param({"true", "false"})
+    private boolean linking;
+
+    /**
+     * Number of tasks in the list.
+     */
+    @Param({"10", "100"})
+    private int listSize;
+
+    /**
+     * Jersey application.
+     */
+    private ApplicationHandler handler;
+
+    /**
+     * Output buffer reused by the responses.
+     */
+    private ByteArrayOutputStream output;
+
+
+    /**
+     * Create the application.
+     */
+    @Setup
+    public final void setup() {
+        ResourceConfig config = new ResourceConfig();
+        config.registerInstances(new TaskResources(
+                BenchmarkData.newTask("task-0", false),
+                BenchmarkData.newTaskList(listSize, false)));
+        if (linking) {
+            config.register(DeclarativeLinkingFeature.class);
+        }
+        handler = new ApplicationHandler(config);
+        output = new ByteArrayOutputStream(BUFFERSIZE);
+    }
+
+
+    /**
+     * Request a task.
+     *
+     * @return The number of bytes written
+     * @throws Exception If the request fails
+     */
+    @Benchmark
+    public final int getTask() throws Exception {
+        return get("tasks/task-0");
+    }
+
+
+    /**
+     * Request the task list.
+     *
+     * @return The number of bytes written
+     * @throws Exception If the request fails
+     */
+    @Benchmark
+    public final int getTaskList() throws Exception {
+        return get("tasks");
+    }
+
+
+    /**
+     * Perform a request.
+     *
+     * @param path The path of the resource
+     * @return The number of bytes written
+     * @throws InterruptedException If the thread is interrupted
+     * @throws ExecutionException If the request fails
+     */
+    private int get(final String path)
+            throws InterruptedException, ExecutionException {
+        output.reset();
+        ContainerRequest request = new ContainerRequest(BASEURI,
+                BASEURI.resolve(path), HttpMethod.GET, null,
+                new MapPropertiesDelegate());
+        request.header(HttpHeaders.ACCEPT, Constants.INDIGOMIMETYPE);
+        ContainerResponse response = handler.apply(request, output).get();
+        if (response.getStatus()
+                != Response.Status.OK.getStatusCode()) {
+            throw new IllegalStateException("Unexpected status "
+                    + response.getStatus() + " for " + path);
+        }
+        return output.size();
+    }
+
+
+    /**
+     * Resources returning prebuilt tasks.
+     */
+    @Path("tasks")
+    public static class TaskResources {
+
+        /**
+         * Task returned.
+         */
+        private final Task task;
+
+        /**
+         * Task list returned.
+         */
+        private final TaskList taskList;
+
+        /**
+         * Create the resources.
+         *
+         * @param aTask The task returned
+         * @param aTaskList The task list returned
+         */
+        public TaskResources(final Task aTask, final TaskList aTaskList) {
+            this.task = aTask;
+            this.taskList = aTaskList;
+        }
+
+        /**
+         * Retrieve the task list.
+         *
+         * @return The task list
+         */
+        @GET
+        @Produces(Constants.INDIGOMIMETYPE)
+        public final TaskList getTaskList() {
+            return taskList;
+        }
+
+        /**
+         * Retrieve the task.
+         *
+         * @return The task
+         */
+        @GET
+        @Path("task-0")
+        @Produces(Constants.INDIGOMIMETYPE)
+        public final Task getTask() {
+            return task;
+        }
+    }
+}
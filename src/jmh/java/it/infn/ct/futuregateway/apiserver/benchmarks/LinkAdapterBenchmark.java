@@ -0,0 +1,105 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.benchmarks;
+
+import it.infn.ct.futuregateway.apiserver.utils.LinkJaxb;
+import it.infn.ct.futuregateway.apiserver.utils.LinkJaxbAdapter;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Link;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of the links by the {@link LinkJaxbAdapter}.
+ * The adapter is invoked for every link of every resource written or read,
+ * so for a list the cost is multiplied by the number of elements.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LinkAdapterBenchmark {
+
+    /**
+     * The adapter.
+     */
+    private LinkJaxbAdapter adapter;
+
+    /**
+     * Link to marshal.
+     */
+    private Link link;
+
+    /**
+     * Link to unmarshal.
+     */
+    private LinkJaxb linkJaxb;
+
+
+    /**
+     * Prepare the links.
+     *
+     * @throws Exception If the link cannot be converted
+     */
+    @Setup
+    public final void setup() throws Exception {
+        adapter = new LinkJaxbAdapter();
+        link = BenchmarkData.newLink("tasks/task-0/input", "input");
+        linkJaxb = adapter.marshal(link);
+    }
+
+
+    /**
+     * Convert a link for the serialization.
+     *
+     * @return The converted link
+     * @throws Exception If the link cannot be converted
+     */
+    @Benchmark
+    public final LinkJaxb marshal() throws Exception {
+        return adapter.marshal(link);
+    }
+
+
+    /**
+     * Convert a deserialized link.
+     *
+     * @return The converted link
+     * @throws Exception If the link cannot be converted
+     */
+    @Benchmark
+    public final Link unmarshal() throws Exception {
+        return adapter.unmarshal(linkJaxb);
+    }
+}
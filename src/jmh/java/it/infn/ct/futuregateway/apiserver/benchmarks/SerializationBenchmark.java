@@ -0,0 +1,301 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.benchmarks;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskList;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization of the resources.
+ * Resources are written and read with the MOXy provider used by the server
+ * for the media type {@link Constants#INDIGOMIMETYPE}. The links are
+ * included, so the cost of the {@link
+ * it.infn.ct.futuregateway.apiserver.utils.LinkJaxbAdapter} is part of the
+ * measure.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * Media type used by the server.
+     */
+    private static final MediaType MEDIATYPE =
+            MediaType.valueOf(Constants.INDIGOMIMETYPE);
+
+    /**
+     * Annotations of the resource methods, none for the benchmarks.
+     */
+    private static final Annotation[] ANNOTATIONS = new Annotation[0];
+
+    /**
+     * Initial size of the output buffer.
+     */
+    private static final int BUFFERSIZE = 64 * 1024;
+
+    /**
+     * Number of tasks in the list.
+     */
+    @Param({"10", "100"})
+    private int listSize;
+
+    /**
+     * JSON provider.
+     */
+    private MOXyJsonProvider provider;
+
+    /**
+     * Output buffer reused by the serializations.
+     */
+    private ByteArrayOutputStream output;
+
+    /**
+     * Task to serialize.
+     */
+    private Task task;
+
+    /**
+     * Task list to serialize.
+     */
+    private TaskList taskList;
+
+    /**
+     * Application to serialize.
+     */
+    private Application application;
+
+    /**
+     * Infrastructure to serialize.
+     */
+    private Infrastructure infrastructure;
+
+    /**
+     * Serialized task.
+     */
+    private byte[] taskJson;
+
+    /**
+     * Serialized task list.
+     */
+    private byte[] taskListJson;
+
+    /**
+     * Serialized application.
+     */
+    private byte[] applicationJson;
+
+    /**
+     * Serialized infrastructure.
+     */
+    private byte[] infrastructureJson;
+
+
+    /**
+     * Prepare the provider and the resources.
+     *
+     * @throws IOException If the resources cannot be serialized
+     */
+    @Setup
+    public final void setup() throws IOException {
+        provider = new MOXyJsonProvider();
+        output = new ByteArrayOutputStream(BUFFERSIZE);
+        task = BenchmarkData.newTask("task-0", true);
+        taskList = BenchmarkData.newTaskList(listSize, true);
+        application = BenchmarkData.newApplication(true);
+        infrastructure = BenchmarkData.newInfrastructure(true);
+        taskJson = serialize(task);
+        taskListJson = serialize(taskList);
+        applicationJson = serialize(application);
+        infrastructureJson = serialize(infrastructure);
+    }
+
+
+    /**
+     * Write a task.
+     *
+     * @return The number of bytes written
+     * @throws IOException If the task cannot be written
+     */
+    @Benchmark
+    public final int writeTask() throws IOException {
+        return write(task);
+    }
+
+
+    /**
+     * Read a task.
+     *
+     * @return The task
+     * @throws IOException If the task cannot be read
+     */
+    @Benchmark
+    public final Object readTask() throws IOException {
+        return read(Task.class, taskJson);
+    }
+
+
+    /**
+     * Write a task list.
+     *
+     * @return The number of bytes written
+     * @throws IOException If the list cannot be written
+     */
+    @Benchmark
+    public final int writeTaskList() throws IOException {
+        return write(taskList);
+    }
+
+
+    /**
+     * Read a task list.
+     *
+     * @return The task list
+     * @throws IOException If the list cannot be read
+     */
+    @Benchmark
+    public final Object readTaskList() throws IOException {
+        return read(TaskList.class, taskListJson);
+    }
+
+
+    /**
+     * Write an application.
+     *
+     * @return The number of bytes written
+     * @throws IOException If the application cannot be written
+     */
+    @Benchmark
+    public final int writeApplication() throws IOException {
+        return write(application);
+    }
+
+
+    /**
+     * Read an application.
+     *
+     * @return The application
+     * @throws IOException If the application cannot be read
+     */
+    @Benchmark
+    public final Object readApplication() throws IOException {
+        return read(Application.class, applicationJson);
+    }
+
+
+    /**
+     * Write an infrastructure.
+     *
+     * @return The number of bytes written
+     * @throws IOException If the infrastructure cannot be written
+     */
+    @Benchmark
+    public final int writeInfrastructure() throws IOException {
+        return write(infrastructure);
+    }
+
+
+    /**
+     * Read an infrastructure.
+     *
+     * @return The infrastructure
+     * @throws IOException If the infrastructure cannot be read
+     */
+    @Benchmark
+    public final Object readInfrastructure() throws IOException {
+        return read(Infrastructure.class, infrastructureJson);
+    }
+
+
+    /**
+     * Write a resource in the output buffer.
+     *
+     * @param resource The resource
+     * @return The number of bytes written
+     * @throws IOException If the resource cannot be written
+     */
+    private int write(final Object resource) throws IOException {
+        output.reset();
+        provider.writeTo(resource, resource.getClass(), resource.getClass(),
+                ANNOTATIONS, MEDIATYPE,
+                new MultivaluedHashMap<String, Object>(), output);
+        return output.size();
+    }
+
+
+    /**
+     * Read a resource.
+     *
+     * @param type The class of the resource
+     * @param json The serialized resource
+     * @return The resource
+     * @throws IOException If the resource cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    private Object read(final Class<?> type, final byte[] json)
+            throws IOException {
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        return provider.readFrom((Class<Object>) type, type, ANNOTATIONS,
+                MEDIATYPE, headers, new ByteArrayInputStream(json));
+    }
+
+
+    /**
+     * Serialize a resource.
+     *
+     * @param resource The resource
+     * @return The serialized resource
+     * @throws IOException If the resource cannot be written
+     */
+    private byte[] serialize(final Object resource) throws IOException {
+        write(resource);
+        return output.toByteArray();
+    }
+}
@@ -21,8 +21,25 @@
  */
 package it.infn.ct.futuregateway.apiserver;
 
+import it.infn.ct.futuregateway.apiserver.inframanager.InfrastructureLimiter;
+import it.infn.ct.futuregateway.apiserver.inframanager.InputStager;
+import it.infn.ct.futuregateway.apiserver.inframanager.JobMonitor;
+import it.infn.ct.futuregateway.apiserver.inframanager.OutputStager;
+import it.infn.ct.futuregateway.apiserver.inframanager.SessionCache;
+import it.infn.ct.futuregateway.apiserver.inframanager.SubmissionQueue;
+import it.infn.ct.futuregateway.apiserver.inframanager.scheduler.InfrastructureScheduler;
+import it.infn.ct.futuregateway.apiserver.inframanager.scheduler.Schedulers;
+import it.infn.ct.futuregateway.apiserver.resources.observers.SubmissionTrigger;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TransitionCounter;
+import it.infn.ct.futuregateway.apiserver.storage.Storage;
+import it.infn.ct.futuregateway.apiserver.storage.StorageCleaner;
+import it.infn.ct.futuregateway.apiserver.storage.StorageReaper;
+import it.infn.ct.futuregateway.apiserver.storage.Storages;
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.utils.PersistenceStatistics;
 import it.infn.ct.futuregateway.apiserver.utils.ThreadPoolFactory;
+import it.infn.ct.futuregateway.apiserver.v1.TaskEventBroadcaster;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -58,24 +75,68 @@ public class APIContextListener implements ServletContextListener {
      */
     private EntityManagerFactory entityManagerFactory;
 
+    /**
+     * Queue of the tasks to submit.
+     */
+    private SubmissionQueue submissionQueue;
+
+    /**
+     * Monitor of the submitted jobs.
+     */
+    private JobMonitor jobMonitor;
+
+    /**
+     * Stager of the input files.
+     */
+    private InputStager inputStager;
+
+    /**
+     * Stager of the output files.
+     */
+    private OutputStager outputStager;
+
+    /**
+     * Statistics of the persistence layer.
+     */
+    private PersistenceStatistics persistenceStatistics;
+
+    /**
+     * Thread pool for the slow requests.
+     */
+    private ExecutorService asyncPool;
+
+    /**
+     * Remover of the files of deleted resources.
+     */
+    private StorageCleaner storageCleaner;
+
+    /**
+     * Remover of the files not needed anymore.
+     */
+    private StorageReaper storageReaper;
+
+    /**
+     * Publisher of the task transitions to the clients.
+     */
+    private TaskEventBroadcaster taskEvents;
+
     @Override
     public final void contextInitialized(final ServletContextEvent sce) {
-        log.info("Creation of the Hibernate SessionFactory for the context");
-        try {
-            entityManagerFactory = Persistence.createEntityManagerFactory(
-                    "it.infn.ct.futuregateway.apiserver.container"
-            );
-        } catch (Exception ex) {
-            log.warn("Resource 'jdbc/FutureGatewayDB' not accessuible or"
-                    + " not properly configured for the application. An"
-                    + " alternative resource is created on the fly.");
-            entityManagerFactory = Persistence.createEntityManagerFactory(
-                    "it.infn.ct.futuregateway.apiserver.app"
+        entityManagerFactory = (EntityManagerFactory) sce.getServletContext().
+                getAttribute(Constants.SESSIONFACTORY);
+        if (entityManagerFactory != null) {
+            log.info("Hibernate SessionFactory provided by the context");
+        } else {
+            entityManagerFactory = createEntityManagerFactory();
+            sce.getServletContext().setAttribute(
+                    Constants.SESSIONFACTORY, entityManagerFactory
             );
         }
+        persistenceStatistics = new PersistenceStatistics(
+                entityManagerFactory);
+        persistenceStatistics.register();
         sce.getServletContext().setAttribute(
-                Constants.SESSIONFACTORY, entityManagerFactory
-        );
+                Constants.PERSISTENCESTATISTICS, persistenceStatistics);
         String path = sce.getServletContext().getInitParameter("CacheDir");
         if (path == null || path.isEmpty()) {
             path = sce.getServletContext().getRealPath("/")
@@ -85,14 +146,33 @@ public class APIContextListener implements ServletContextListener {
         }
         log.info("Created the cache directory: " + path);
         sce.getServletContext().setAttribute(Constants.CACHEDIR, path);
+        boolean deduplicate = Boolean.parseBoolean(sce.getServletContext().
+                getInitParameter("StorageDeduplication"));
+        sce.getServletContext().setAttribute(
+                Constants.STORAGEDEDUPLICATION, deduplicate);
+        String localPath = Storages.getLocalPath(path);
+        if (localPath == null) {
+            log.info("Cache in the remote storage " + path);
+        } else {
+            try {
+                Files.createDirectories(Paths.get(localPath));
+                log.info("Cache dir enabled");
+            } catch (FileAlreadyExistsException faee) {
+                log.debug("Message for '" + path + "':"
+                        + faee.getMessage());
+                log.info("Cache dir enabled");
+            } catch (Exception e) {
+                log.error("Impossible to initialise the temporary store");
+            }
+        }
+        int queueSize = Constants.DEFAULTSUBMISSIONQUEUESIZE;
         try {
-            Files.createDirectories(Paths.get(path));
-            log.info("Cache dir enabled");
-        } catch (FileAlreadyExistsException faee) {
-            log.debug("Message for '" + path + "':" + faee.getMessage());
-            log.info("Cache dir enabled");
-        } catch (Exception e) {
-            log.error("Impossible to initialise the temporary store");
+            queueSize = Integer.parseInt(sce.getServletContext().
+                    getInitParameter("SubmissionQueueSize"));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter 'SubmissionQueueSize' has a wrong value or it"
+                    + " is not present. Default value " + queueSize
+                    + " is used");
         }
         ExecutorService tpe;
         try {
@@ -103,25 +183,243 @@ public class APIContextListener implements ServletContextListener {
             log.warn("Submitter thread not defined in the container. A thread "
                     + "pool is created using provided configuration parameters "
                     + "and defaults values");
-            int threadPoolSize = Constants.DEFAULTTHREADPOOLSIZE;
-            try {
-                threadPoolSize = Integer.parseInt(sce.getServletContext().
-                    getInitParameter("SubmissioneThreadPoolSize"));
-            } catch (NumberFormatException nfe) {
-                log.info("Parameter 'SubmissioneThreadPoolSize' has a wrong"
-                        + " value or it is not present. Default value "
-                        + "10 is used");
-            }
-            tpe = ThreadPoolFactory.getThreadPool(
-                    threadPoolSize,
-                    Constants.MAXTHREADPOOLSIZETIMES * threadPoolSize,
-                    Constants.MAXTHREADIDLELIFE);
+            tpe = createSubmissionExecutor(sce, queueSize);
+        }
+        int maxPerInfra = Constants.DEFAULTMAXPERINFRASTRUCTURE;
+        try {
+            maxPerInfra = Integer.parseInt(sce.getServletContext().
+                    getInitParameter("SubmissionMaxPerInfrastructure"));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter 'SubmissionMaxPerInfrastructure' has a wrong"
+                    + " value or it is not present. Default value "
+                    + maxPerInfra + " is used");
         }
         sce.getServletContext().setAttribute(Constants.SUBMISSIONPOOL, tpe);
+        TaskStateMachine tsm = new TaskStateMachine(entityManagerFactory);
+        TransitionCounter ttc = new TransitionCounter();
+        InfrastructureScheduler scheduler = createScheduler(sce);
+        InfrastructureLimiter limiter = new InfrastructureLimiter(maxPerInfra);
+        InfrastructureLimiter transferLimiter = new InfrastructureLimiter(
+                (int) getLongParameter(sce, "StagingMaxPerInfrastructure",
+                        Constants.DEFAULTSTAGINGPERINFRASTRUCTURE));
+        int stagingThreads = (int) getLongParameter(sce, "StagingThreads",
+                Constants.DEFAULTSTAGINGTHREADS);
+        Storage storage = Storages.getStorage(path, deduplicate);
+        inputStager = new InputStager(storage, transferLimiter,
+                stagingThreads);
+        submissionQueue = new SubmissionQueue(entityManagerFactory, tpe, tsm,
+                limiter, scheduler, inputStager, queueSize);
+        outputStager = new OutputStager(entityManagerFactory, tsm, storage,
+                transferLimiter, stagingThreads);
+        InfrastructureLimiter monitorLimiter = new InfrastructureLimiter(
+                (int) getLongParameter(sce, "MonitorMaxPerInfrastructure",
+                        Constants.DEFAULTMONITORPERINFRASTRUCTURE));
+        jobMonitor = new JobMonitor(entityManagerFactory, tsm,
+                monitorLimiter, outputStager,
+                (int) getLongParameter(sce, "MonitorThreads",
+                        Constants.DEFAULTMONITORTHREADS),
+                getLongParameter(sce, "MonitorMinInterval",
+                        Constants.MONITORMININTERVAL),
+                getLongParameter(sce, "MonitorMaxInterval",
+                        Constants.MONITORMAXINTERVAL));
+        tsm.addListener(scheduler);
+        tsm.addListener(jobMonitor);
+        tsm.addListener(new SubmissionTrigger(submissionQueue));
+        tsm.addListener(ttc);
+        taskEvents = new TaskEventBroadcaster();
+        tsm.addListener(taskEvents);
+        sce.getServletContext().setAttribute(Constants.TASKEVENTS, taskEvents);
+        sce.getServletContext().setAttribute(Constants.TASKSTATEMACHINE, tsm);
+        sce.getServletContext().setAttribute(
+                Constants.TASKTRANSITIONCOUNTER, ttc);
+        sce.getServletContext().setAttribute(
+                Constants.SUBMISSIONQUEUE, submissionQueue);
+        sce.getServletContext().setAttribute(
+                Constants.JOBMONITOR, jobMonitor);
+        sce.getServletContext().setAttribute(
+                Constants.OUTPUTSTAGER, outputStager);
+        inputStager.start();
+        submissionQueue.start();
+        outputStager.start();
+        jobMonitor.start();
+        asyncPool = createAsyncExecutor(sce);
+        sce.getServletContext().setAttribute(Constants.ASYNCPOOL, asyncPool);
+        storageCleaner = new StorageCleaner();
+        sce.getServletContext().setAttribute(
+                Constants.STORAGECLEANER, storageCleaner);
+        storageReaper = new StorageReaper(entityManagerFactory, storage,
+                (int) getLongParameter(sce, "ReaperBatchSize",
+                        Constants.DEFAULTREAPERBATCHSIZE),
+                getLongParameter(sce, "ReaperBatchPause",
+                        Constants.DEFAULTREAPERBATCHPAUSE),
+                getLongParameter(sce, "OutputRetention",
+                        Constants.DEFAULTOUTPUTRETENTION));
+        storageReaper.start(getLongParameter(sce, "ReaperInterval",
+                Constants.DEFAULTREAPERINTERVAL));
+    }
+
+    /**
+     * Read a numeric context parameter.
+     *
+     * @param sce The servlet context event
+     * @param name The name of the parameter
+     * @param defaultValue The value used if the parameter is not present or
+     * not valid
+     * @return The value of the parameter
+     */
+    private long getLongParameter(final ServletContextEvent sce,
+            final String name, final long defaultValue) {
+        try {
+            return Long.parseLong(sce.getServletContext().
+                    getInitParameter(name));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter '" + name + "' has a wrong value or it is"
+                    + " not present. Default value " + defaultValue
+                    + " is used");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Create the scheduler selecting the infrastructure of the tasks.
+     * The policy is set with the context parameter
+     * <i>InfrastructureScheduler</i>, see
+     * {@link Schedulers#getScheduler(String)}.
+     *
+     * @param sce The servlet context event
+     * @return The scheduler
+     */
+    private InfrastructureScheduler createScheduler(
+            final ServletContextEvent sce) {
+        String policy = sce.getServletContext().
+                getInitParameter("InfrastructureScheduler");
+        try {
+            return Schedulers.getScheduler(policy);
+        } catch (IllegalArgumentException iae) {
+            log.warn("Parameter 'InfrastructureScheduler' has a wrong value: "
+                    + policy + ". Default scheduler is used");
+            return Schedulers.getScheduler(null);
+        }
+    }
+
+    /**
+     * Create the executor for the slow requests.
+     * The pool has a fixed number of threads and a bounded queue, set with
+     * the context parameters <i>AsyncThreadPoolSize</i> and
+     * <i>AsyncQueueSize</i>.
+     *
+     * @param sce The servlet context event
+     * @return The executor
+     */
+    private ExecutorService createAsyncExecutor(
+            final ServletContextEvent sce) {
+        int poolSize = Constants.DEFAULTASYNCPOOLSIZE;
+        try {
+            poolSize = Integer.parseInt(sce.getServletContext().
+                    getInitParameter("AsyncThreadPoolSize"));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter 'AsyncThreadPoolSize' has a wrong value or it"
+                    + " is not present. Default value " + poolSize
+                    + " is used");
+        }
+        int queueSize = Constants.DEFAULTASYNCQUEUESIZE;
+        try {
+            queueSize = Integer.parseInt(sce.getServletContext().
+                    getInitParameter("AsyncQueueSize"));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter 'AsyncQueueSize' has a wrong value or it"
+                    + " is not present. Default value " + queueSize
+                    + " is used");
+        }
+        return ThreadPoolFactory.getThreadPool(poolSize, poolSize,
+                Constants.MAXTHREADIDLELIFE, queueSize);
+    }
+
+    /**
+     * Create the EntityManagerFactory.
+     * The container resource is used if available, otherwise the DB is
+     * created by the application.
+     *
+     * @return The EntityManagerFactory
+     */
+    private EntityManagerFactory createEntityManagerFactory() {
+        log.info("Creation of the Hibernate SessionFactory for the context");
+        try {
+            return Persistence.createEntityManagerFactory(
+                    "it.infn.ct.futuregateway.apiserver.container"
+            );
+        } catch (Exception ex) {
+            log.warn("Resource 'jdbc/FutureGatewayDB' not accessuible or"
+                    + " not properly configured for the application. An"
+                    + " alternative resource is created on the fly.");
+            return Persistence.createEntityManagerFactory(
+                    "it.infn.ct.futuregateway.apiserver.app"
+            );
+        }
+    }
+
+    /**
+     * Create the executor for the submission.
+     * The context parameter <i>SubmissionThreadMode</i> selects between a
+     * pool of platform threads, the default, and virtual threads.
+     *
+     * @param sce The servlet context event
+     * @param queueSize The size of the queue of the pool
+     * @return The executor
+     */
+    private ExecutorService createSubmissionExecutor(
+            final ServletContextEvent sce, final int queueSize) {
+        if (Constants.THREADMODEVIRTUAL.equalsIgnoreCase(sce.
+                getServletContext().getInitParameter("SubmissionThreadMode"))) {
+            return ThreadPoolFactory.getVirtualThreadExecutor();
+        }
+        int threadPoolSize = Constants.DEFAULTTHREADPOOLSIZE;
+        try {
+            threadPoolSize = Integer.parseInt(sce.getServletContext().
+                getInitParameter("SubmissioneThreadPoolSize"));
+        } catch (NumberFormatException nfe) {
+            log.info("Parameter 'SubmissioneThreadPoolSize' has a wrong"
+                    + " value or it is not present. Default value "
+                    + "10 is used");
+        }
+        return ThreadPoolFactory.getThreadPool(
+                threadPoolSize,
+                Constants.MAXTHREADPOOLSIZETIMES * threadPoolSize,
+                Constants.MAXTHREADIDLELIFE,
+                queueSize);
     }
 
     @Override
     public final void contextDestroyed(final ServletContextEvent sce) {
+        if (submissionQueue != null) {
+            submissionQueue.stop();
+        }
+        if (jobMonitor != null) {
+            jobMonitor.stop();
+        }
+        if (outputStager != null) {
+            outputStager.stop();
+        }
+        if (inputStager != null) {
+            inputStager.stop();
+        }
+        if (taskEvents != null) {
+            taskEvents.shutdown();
+        }
+        if (asyncPool != null) {
+            asyncPool.shutdown();
+        }
+        if (storageReaper != null) {
+            storageReaper.stop();
+        }
+        if (storageCleaner != null) {
+            storageCleaner.shutdown();
+        }
+        Storages.shutdown();
+        SessionCache.getDefault().shutdown();
+        if (persistenceStatistics != null) {
+            persistenceStatistics.unregister();
+        }
         ExecutorService exServ;
         try {
             Context ctx = new InitialContext();
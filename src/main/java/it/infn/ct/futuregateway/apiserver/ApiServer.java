@@ -37,6 +37,7 @@ public class ApiServer extends Application {
     public final Set<Class<?>> getClasses() {
         final Set<Class<?>> classes = new HashSet<>();
         classes.add(BaseService.class);
+        classes.add(MetricsService.class);
         return classes;
     }
 
@@ -0,0 +1,235 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.JobMonitor;
+import it.infn.ct.futuregateway.apiserver.inframanager.OutputStager;
+import it.infn.ct.futuregateway.apiserver.inframanager.SubmissionQueue;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.metrics.PrometheusWriter;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TransitionCounter;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.utils.PersistenceStatistics;
+import it.infn.ct.futuregateway.apiserver.v1.TaskEventBroadcaster;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+
+/**
+ * Metrics of the server in the Prometheus text format.
+ * The metrics registered in {@link Metrics} are exported together with the
+ * values read, at every request, from the submission pool and queue, the
+ * task state machine and the persistence statistics.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@Path("/metrics")
+public class MetricsService {
+
+    /**
+     * Context holding the objects to monitor.
+     */
+    @Context
+    private ServletContext context;
+
+    /**
+     * Retrieves the metrics.
+     *
+     * @return The metrics text
+     * @throws IOException If the metrics cannot be written
+     */
+    @GET
+    @Produces(PrometheusWriter.CONTENTTYPE)
+    public final String getMetrics() throws IOException {
+        StringWriter text = new StringWriter();
+        PrometheusWriter out = new PrometheusWriter(text);
+        Metrics.getDefault().writeTo(out);
+        Object pool = context.getAttribute(Constants.SUBMISSIONPOOL);
+        if (pool instanceof ThreadPoolExecutor) {
+            writePool(out, (ThreadPoolExecutor) pool);
+        }
+        Object queue = context.getAttribute(Constants.SUBMISSIONQUEUE);
+        if (queue instanceof SubmissionQueue) {
+            writeQueue(out, (SubmissionQueue) queue);
+        }
+        Object counter = context.getAttribute(
+                Constants.TASKTRANSITIONCOUNTER);
+        if (counter instanceof TransitionCounter) {
+            writeTransitions(out, (TransitionCounter) counter);
+        }
+        Object events = context.getAttribute(Constants.TASKEVENTS);
+        if (events instanceof TaskEventBroadcaster) {
+            String name = "fgapiserver_task_event_subscribers";
+            out.family(name, "Clients subscribed to the task events",
+                    PrometheusWriter.GAUGE);
+            out.sample(name, "",
+                    ((TaskEventBroadcaster) events).getSubscriberCount());
+        }
+        Object monitor = context.getAttribute(Constants.JOBMONITOR);
+        if (monitor instanceof JobMonitor) {
+            String name = "fgapiserver_monitored_jobs";
+            out.family(name, "Jobs monitored in the infrastructures",
+                    PrometheusWriter.GAUGE);
+            out.sample(name, "", ((JobMonitor) monitor).getMonitored());
+        }
+        Object stager = context.getAttribute(Constants.OUTPUTSTAGER);
+        if (stager instanceof OutputStager) {
+            String name = "fgapiserver_staging_tasks";
+            out.family(name, "Tasks whose output files are in transfer",
+                    PrometheusWriter.GAUGE);
+            out.sample(name, "", ((OutputStager) stager).getStaging());
+        }
+        Object stats = context.getAttribute(Constants.PERSISTENCESTATISTICS);
+        if (stats instanceof PersistenceStatistics) {
+            writePersistence(out, (PersistenceStatistics) stats);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write the metrics of the submission thread pool.
+     *
+     * @param out The writer
+     * @param pool The pool
+     * @throws IOException If the metrics cannot be written
+     */
+    private static void writePool(final PrometheusWriter out,
+            final ThreadPoolExecutor pool) throws IOException {
+        String name = "fgapiserver_submission_pool_threads";
+        out.family(name, "Threads of the submission pool",
+                PrometheusWriter.GAUGE);
+        out.sample(name, PrometheusWriter.labels("state", "active"),
+                pool.getActiveCount());
+        out.sample(name, PrometheusWriter.labels("state", "total"),
+                pool.getPoolSize());
+        out.sample(name, PrometheusWriter.labels("state", "max"),
+                pool.getMaximumPoolSize());
+        name = "fgapiserver_submission_pool_queued";
+        out.family(name, "Activities waiting for a thread of the submission"
+                + " pool", PrometheusWriter.GAUGE);
+        out.sample(name, "", pool.getQueue().size());
+        name = "fgapiserver_submission_pool_completed_total";
+        out.family(name, "Activities completed by the submission pool",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", pool.getCompletedTaskCount());
+    }
+
+    /**
+     * Write the metrics of the submission queue.
+     *
+     * @param out The writer
+     * @param queue The queue
+     * @throws IOException If the metrics cannot be written
+     */
+    private static void writeQueue(final PrometheusWriter out,
+            final SubmissionQueue queue) throws IOException {
+        String name = "fgapiserver_submission_queue_tasks";
+        out.family(name, "Tasks in the submission queue",
+                PrometheusWriter.GAUGE);
+        out.sample(name, PrometheusWriter.labels("state", "waiting"),
+                queue.getDepth());
+        out.sample(name, PrometheusWriter.labels("state", "capacity"),
+                queue.getCapacity());
+        name = "fgapiserver_submission_queue_submitted_total";
+        out.family(name, "Tasks handed to a submission thread",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", queue.getSubmitted());
+        name = "fgapiserver_submission_queue_rejected_total";
+        out.family(name, "Tasks rejected because the queue was full",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", queue.getRejected());
+        name = "fgapiserver_submission_queue_wait_seconds_total";
+        out.family(name, "Time the tasks waited in the queue",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", queue.getTotalWaitTime()
+                / (double) TimeUnit.SECONDS.toMillis(1));
+    }
+
+    /**
+     * Write the transitions of the tasks.
+     *
+     * @param out The writer
+     * @param counter The transition counter
+     * @throws IOException If the metrics cannot be written
+     */
+    private static void writeTransitions(final PrometheusWriter out,
+            final TransitionCounter counter) throws IOException {
+        String name = "fgapiserver_task_transitions_total";
+        out.family(name, "Tasks entering a status",
+                PrometheusWriter.COUNTER);
+        for (Task.STATUS st: Task.STATUS.values()) {
+            out.sample(name, PrometheusWriter.labels("status", st.name()),
+                    counter.getTransitions(st));
+        }
+    }
+
+    /**
+     * Write the metrics of the persistence.
+     *
+     * @param out The writer
+     * @param stats The persistence statistics
+     * @throws IOException If the metrics cannot be written
+     */
+    private static void writePersistence(final PrometheusWriter out,
+            final PersistenceStatistics stats) throws IOException {
+        String name = "fgapiserver_jpa_sessions_total";
+        out.family(name, "Entity managers opened and closed",
+                PrometheusWriter.COUNTER);
+        out.sample(name, PrometheusWriter.labels("event", "open"),
+                stats.getSessionOpenCount());
+        out.sample(name, PrometheusWriter.labels("event", "close"),
+                stats.getSessionCloseCount());
+        name = "fgapiserver_jpa_transactions_total";
+        out.family(name, "Transactions completed", PrometheusWriter.COUNTER);
+        out.sample(name, "", stats.getTransactionCount());
+        name = "fgapiserver_jpa_connections_total";
+        out.family(name, "Connections requested to the DB",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", stats.getConnectCount());
+        name = "fgapiserver_jpa_queries_total";
+        out.family(name, "Queries executed on the DB",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", stats.getQueryExecutionCount());
+        name = "fgapiserver_jpa_entity_loads_total";
+        out.family(name, "Entities loaded from the DB",
+                PrometheusWriter.COUNTER);
+        out.sample(name, "", stats.getEntityLoadCount());
+        name = "fgapiserver_jpa_cache_requests_total";
+        out.family(name, "Requests to the second level and query caches",
+                PrometheusWriter.COUNTER);
+        out.sample(name, PrometheusWriter.labels("cache", "entity",
+                "result", "hit"), stats.getSecondLevelCacheHitCount());
+        out.sample(name, PrometheusWriter.labels("cache", "entity",
+                "result", "miss"), stats.getSecondLevelCacheMissCount());
+        out.sample(name, PrometheusWriter.labels("cache", "query",
+                "result", "hit"), stats.getQueryCacheHitCount());
+        out.sample(name, PrometheusWriter.labels("cache", "query",
+                "result", "miss"), stats.getQueryCacheMissCount());
+    }
+}
@@ -0,0 +1,367 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Circuit breaker of an infrastructure.
+ * The outcome of the recent submissions is kept in a window. When the
+ * failed or slow submissions exceed the threshold the circuit opens and the
+ * infrastructure is not used. After a while the circuit becomes half-open
+ * and a single trial submission is allowed: if it succeeds the circuit
+ * closes, otherwise it opens again.
+ * <p>
+ * Every submission holds a {@link Permit} tagged with the period of the
+ * circuit it was admitted in. The outcomes of the submissions admitted
+ * before the circuit changed state are ignored, so in the half-open state
+ * only the trial submission decides whether the circuit closes.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class CircuitBreaker {
+
+    /**
+     * Status of the circuit.
+     */
+    public enum STATE {
+        /**
+         * The infrastructure is used.
+         */
+        CLOSED("closed"),
+        /**
+         * The infrastructure is not used.
+         */
+        OPEN("open"),
+        /**
+         * A trial submission is allowed.
+         */
+        HALF_OPEN("half-open");
+
+        /**
+         * Name of the state in the API.
+         */
+        private final String label;
+
+        /**
+         * Create a state.
+         *
+         * @param aLabel The name of the state in the API
+         */
+        STATE(final String aLabel) {
+            this.label = aLabel;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+    /**
+     * Identifier of the infrastructure.
+     */
+    private final String infrastructureId;
+
+    /**
+     * Outcome of the recent submissions, true for the failures.
+     */
+    private final boolean[] outcomes = new boolean[Constants.BREAKERWINDOW];
+
+    /**
+     * Position of the next outcome in the window.
+     */
+    private int next;
+
+    /**
+     * Number of outcomes in the window.
+     */
+    private int calls;
+
+    /**
+     * Number of failures in the window.
+     */
+    private int failures;
+
+    /**
+     * Current state.
+     */
+    private STATE state = STATE.CLOSED;
+
+    /**
+     * Time the circuit was opened.
+     */
+    private long openedAt;
+
+    /**
+     * True if the trial submission is in progress.
+     */
+    private boolean trial;
+
+    /**
+     * Period of the circuit, increased when the circuit opens or closes.
+     */
+    private long period;
+
+    /**
+     * Time in milliseconds the circuit stays open.
+     */
+    private final long openTime;
+
+
+    /**
+     * Create a closed circuit.
+     *
+     * @param anInfrastructureId The infrastructure identifier
+     */
+    public CircuitBreaker(final String anInfrastructureId) {
+        this(anInfrastructureId,
+                TimeUnit.SECONDS.toMillis(Constants.BREAKEROPENTIME));
+    }
+
+
+    /**
+     * Create a closed circuit with a custom open time.
+     *
+     * @param anInfrastructureId The infrastructure identifier
+     * @param anOpenTime Time in milliseconds the circuit stays open
+     */
+    CircuitBreaker(final String anInfrastructureId, final long anOpenTime) {
+        this.infrastructureId = anInfrastructureId;
+        this.openTime = anOpenTime;
+    }
+
+
+    /**
+     * Retrieves the state of the circuit.
+     *
+     * @return The state
+     */
+    public final synchronized STATE getState() {
+        if (state == STATE.OPEN
+                && System.currentTimeMillis() - openedAt >= openTime) {
+            state = STATE.HALF_OPEN;
+            trial = false;
+        }
+        return state;
+    }
+
+
+    /**
+     * Checks if a submission would be allowed.
+     *
+     * @return True if the circuit is closed or waiting for the trial
+     */
+    public final synchronized boolean isAvailable() {
+        STATE current = getState();
+        return current == STATE.CLOSED
+                || (current == STATE.HALF_OPEN && !trial);
+    }
+
+
+    /**
+     * Ask the permission for a submission.
+     * Every permission granted has to be followed by a call to
+     * {@link #success(Permit, long)}, {@link #failure(Permit)} or
+     * {@link #release(Permit)}.
+     *
+     * @return The permission or null if the submission is not allowed
+     */
+    public final synchronized Permit tryAcquire() {
+        if (!isAvailable()) {
+            return null;
+        }
+        if (state == STATE.HALF_OPEN) {
+            trial = true;
+            return new Permit(period, true);
+        }
+        return new Permit(period, false);
+    }
+
+
+    /**
+     * Account a completed submission.
+     *
+     * @param permit The permission of the submission
+     * @param elapsed The time spent to submit the task, in milliseconds
+     */
+    public final synchronized void success(final Permit permit,
+            final long elapsed) {
+        if (!isCurrent(permit)) {
+            return;
+        }
+        boolean slow = elapsed
+                > TimeUnit.SECONDS.toMillis(Constants.BREAKERSLOWSUBMISSION);
+        if (state == STATE.HALF_OPEN) {
+            if (slow) {
+                open();
+            } else {
+                log.info("Circuit of the infrastructure " + infrastructureId
+                        + " closed");
+                state = STATE.CLOSED;
+                trial = false;
+                period++;
+                reset();
+            }
+            return;
+        }
+        record(slow);
+    }
+
+
+    /**
+     * Account a failed submission.
+     *
+     * @param permit The permission of the submission
+     */
+    public final synchronized void failure(final Permit permit) {
+        if (!isCurrent(permit)) {
+            return;
+        }
+        if (state == STATE.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+    }
+
+
+    /**
+     * Release the permission without an outcome.
+     * This is the case of the submissions interrupted or failed for reasons
+     * not depending on the infrastructure.
+     *
+     * @param permit The permission of the submission
+     */
+    public final synchronized void release(final Permit permit) {
+        if (isCurrent(permit) && state == STATE.HALF_OPEN) {
+            trial = false;
+        }
+    }
+
+
+    /**
+     * Checks if the outcome of a submission has to be accounted.
+     * Only the submissions admitted in the current period count and, in the
+     * half-open state, only the trial one.
+     *
+     * @param permit The permission of the submission
+     * @return True if the outcome is accounted
+     */
+    private boolean isCurrent(final Permit permit) {
+        if (permit.period != period) {
+            log.debug("Outcome of a submission to " + infrastructureId
+                    + " admitted before the circuit changed, ignored");
+            return false;
+        }
+        return state != STATE.HALF_OPEN || permit.trial;
+    }
+
+
+    /**
+     * Add an outcome to the window and open the circuit if needed.
+     *
+     * @param failed True if the submission failed
+     */
+    private void record(final boolean failed) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+        if (state == STATE.CLOSED && calls >= Constants.BREAKERMINCALLS
+                && failures >= calls * Constants.BREAKERFAILURERATIO) {
+            open();
+        }
+    }
+
+
+    /**
+     * Open the circuit.
+     */
+    private void open() {
+        log.warn("Circuit of the infrastructure " + infrastructureId
+                + " opened");
+        state = STATE.OPEN;
+        openedAt = System.currentTimeMillis();
+        trial = false;
+        period++;
+        reset();
+        Metrics.getDefault().counter(Metrics.CIRCUITOPENED,
+                "Circuits opened for the infrastructures",
+                "infrastructure", infrastructureId).increment();
+    }
+
+
+    /**
+     * Remove the outcomes from the window.
+     */
+    private void reset() {
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+
+    /**
+     * Permission for a submission.
+     */
+    public static final class Permit {
+
+        /**
+         * Period of the circuit the submission was admitted in.
+         */
+        private final long period;
+
+        /**
+         * True for the trial submission of the half-open state.
+         */
+        private final boolean trial;
+
+        /**
+         * Create the permission.
+         *
+         * @param aPeriod The period of the circuit
+         * @param isTrial True for the trial submission
+         */
+        private Permit(final long aPeriod, final boolean isTrial) {
+            this.period = aPeriod;
+            this.trial = isTrial;
+        }
+    }
+}
@@ -27,21 +27,30 @@ import it.infn.ct.futuregateway.apiserver.inframanager.occi.OCCISessionBuilder;
 import it.infn.ct.futuregateway.apiserver.inframanager.ssh.SSHSessionBuilder;
 import it.infn.ct.futuregateway.apiserver.resources.Params;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ogf.saga.error.AuthenticationFailedException;
 import org.ogf.saga.error.AuthorizationFailedException;
 import org.ogf.saga.error.BadParameterException;
+import org.ogf.saga.error.DoesNotExistException;
 import org.ogf.saga.error.IncorrectURLException;
 import org.ogf.saga.error.NoSuccessException;
 import org.ogf.saga.error.NotImplementedException;
 import org.ogf.saga.error.PermissionDeniedException;
+import org.ogf.saga.error.SagaException;
 import org.ogf.saga.error.TimeoutException;
 import org.ogf.saga.job.Job;
 import org.ogf.saga.job.JobDescription;
 import org.ogf.saga.job.JobFactory;
 import org.ogf.saga.job.JobService;
+import org.ogf.saga.session.Session;
+import org.ogf.saga.task.State;
 import org.ogf.saga.url.URLFactory;
 
 /**
@@ -56,23 +65,142 @@ public final class CustomJobFactory {
      */
     private static final Log LOG = LogFactory.getLog(SessionBuilder.class);
 
+    /**
+     * Job providers registered for the infrastructure types.
+     */
+    private static final ConcurrentMap<String, JobProvider> PROVIDERS =
+            new ConcurrentHashMap<>();
+
     /**
      * Avoid the class be instantiable.
      */
     private CustomJobFactory() { }
 
+    /**
+     * Register a job provider.
+     * The provider creates the jobs for the infrastructures of the given
+     * type in place of jSAGA.
+     *
+     * @param infraType The infrastructure type
+     * @param provider The provider
+     */
+    public static void registerProvider(final String infraType,
+            final JobProvider provider) {
+        PROVIDERS.put(infraType, provider);
+    }
+
+    /**
+     * Remove a job provider.
+     *
+     * @param infraType The infrastructure type
+     */
+    public static void unregisterProvider(final String infraType) {
+        PROVIDERS.remove(infraType);
+    }
+
     /**
      * Create the JobService for the infrastructure.
+     * The file transfers are added to the job description, they are not
+     * used by the registered job providers.
      *
      * @param task The task requesting the JobService
+     * @param fileTransfers Additional file transfers for the job
      * @return The JobService
      * @throws InfrastructureException If the infrastructure cannot be used for
      * some problem in the configuration or in the infrastructure
      * @throws BadParameterException The task cannot be submitted because some
      * parameters are missed or not correct
      */
-    public static Job createJob(final Task task)
+    public static Job createJob(final Task task,
+            final List<String> fileTransfers)
             throws InfrastructureException, BadParameterException {
+        String infraType = getInfrastructureType(task);
+        JobProvider provider = PROVIDERS.get(infraType);
+        if (provider != null) {
+            return provider.createJob(task);
+        }
+
+        JobDescription jd;
+        try {
+            jd = JobDescriptionFactory.createJobDescription(task,
+                    fileTransfers);
+        } catch (NotImplementedException | NoSuccessException ne) {
+            throw new InfrastructureException("Impossible to create a job"
+                    + "description ");
+        }
+        JobService js = createJobService(task, infraType);
+        try {
+            return js.createJob(jd);
+        } catch (AuthenticationFailedException | AuthorizationFailedException
+                | NoSuccessException | NotImplementedException
+                | PermissionDeniedException | TimeoutException ex) {
+            LOG.error(ex);
+            throw new InfrastructureException("Impossibile to generate a job"
+                    + "for the infrastructure "
+                    + task.getAssociatedInfrastructureId());
+        }
+    }
+
+    /**
+     * Retrieves the state of the jobs submitted for a task.
+     * The jobs have to belong to the infrastructure and the user of the
+     * task, so they are all checked with the same JobService. Jobs not
+     * known by the infrastructure anymore are reported as <i>FAILED</i>,
+     * jobs whose state cannot be retrieved are not included in the result.
+     *
+     * @param task A task of the user on the infrastructure
+     * @param nativeIds The identifiers of the jobs
+     * @return The state of the jobs
+     * @throws InfrastructureException If the infrastructure cannot be
+     * contacted
+     */
+    public static Map<String, State> getJobStates(final Task task,
+            final Collection<String> nativeIds)
+            throws InfrastructureException {
+        String infraType = getInfrastructureType(task);
+        JobProvider provider = PROVIDERS.get(infraType);
+        JobService js = null;
+        if (provider == null) {
+            try {
+                js = createJobService(task, infraType);
+            } catch (BadParameterException bpe) {
+                throw new InfrastructureException("Impossible to contact the"
+                        + " infrastructure "
+                        + task.getAssociatedInfrastructureId() + ": "
+                        + bpe.getMessage());
+            }
+        }
+        Map<String, State> states = new HashMap<>();
+        for (String nativeId: nativeIds) {
+            try {
+                Job job;
+                if (provider != null) {
+                    job = provider.getJob(task, nativeId);
+                } else {
+                    job = js.getJob(nativeId);
+                }
+                states.put(nativeId, job.getState());
+            } catch (DoesNotExistException dnee) {
+                LOG.warn("Job " + nativeId + " not found in the "
+                        + "infrastructure");
+                states.put(nativeId, State.FAILED);
+            } catch (SagaException se) {
+                LOG.warn("Impossible to retrieve the state of the job "
+                        + nativeId + ": " + se.getMessage());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Retrieves the type of the infrastructure associated with a task.
+     *
+     * @param task The task
+     * @return The infrastructure type
+     * @throws InfrastructureException If the type is not defined
+     */
+    private static String getInfrastructureType(final Task task)
+            throws InfrastructureException {
         List<Params> infraParams = task.getAssociatedInfrastructure()
                 .getParameters();
         String infraType = Utilities.getParamterValue(infraParams, "type");
@@ -92,40 +220,89 @@ public final class CustomJobFactory {
                 infraType = infraType.substring(0, infraType.indexOf(":"));
             }
         }
+        return infraType;
+    }
 
-        SessionBuilder sb;
-        JobDescription jd;
+    /**
+     * Retrieves the session to access the infrastructure of a task.
+     * The session is created for the user of the task and can be used for
+     * the data services of the infrastructure, as to retrieve the output
+     * files of the jobs.
+     *
+     * @param task The task
+     * @return The session
+     * @throws InfrastructureException If the infrastructure cannot be used
+     */
+    public static Session getSession(final Task task)
+            throws InfrastructureException {
+        return createSessionBuilder(task, getInfrastructureType(task)).
+                getSession();
+    }
+
+    /**
+     * Create the jSAGA JobService for the infrastructure of a task.
+     *
+     * @param task The task
+     * @param infraType The infrastructure type
+     * @return The JobService
+     * @throws InfrastructureException If the infrastructure cannot be used
+     * @throws BadParameterException If the service URL is not correct
+     */
+    private static JobService createJobService(final Task task,
+            final String infraType)
+            throws InfrastructureException, BadParameterException {
+        List<Params> infraParams = task.getAssociatedInfrastructure()
+                .getParameters();
+        SessionBuilder sb = createSessionBuilder(task, infraType);
         String resource = Utilities.getParamterValue(infraParams, "jobservice");
+        if (sb instanceof GridSessionBuilder) {
+            ResourceDiscovery rd = new ResourceDiscovery(infraParams,
+                    sb.getVO());
+            try {
+                resource = rd.getJobResource(
+                        ResourceDiscovery.ResourceType.WMS);
+            } catch (NoResorucesAvailable nra) {
+                throw new InfrastructureException("No service resources"
+                        + " available for the infrastructure "
+                        + task.getAssociatedInfrastructureId());
+            }
+        }
         try {
-            jd = JobDescriptionFactory.createJobDescription(task);
-        } catch (NotImplementedException | NoSuccessException ne) {
-            throw new InfrastructureException("Impossible to create a job"
-                    + "description ");
+            return JobFactory.createJobService(sb.getSession(),
+                    URLFactory.createURL(resource));
+        } catch (AuthenticationFailedException | AuthorizationFailedException
+                | IncorrectURLException | NoSuccessException
+                | NotImplementedException | PermissionDeniedException
+                | TimeoutException ex) {
+            LOG.error(ex);
+            throw new InfrastructureException("Impossibile to generate a job"
+                    + "for the infrastructure "
+                    + task.getAssociatedInfrastructureId());
         }
+    }
 
+    /**
+     * Create the builder of the sessions for the infrastructure of a task.
+     *
+     * @param task The task
+     * @param infraType The infrastructure type
+     * @return The session builder
+     * @throws InfrastructureException If the infrastructure type is not
+     * supported
+     */
+    private static SessionBuilder createSessionBuilder(final Task task,
+            final String infraType) throws InfrastructureException {
         switch (infraType) {
             case "wsgram":
             case "gatekeeper":
             case "gLite:":
             case "wms:":
-                sb = new GridSessionBuilder(
+                return new GridSessionBuilder(
                         task.getAssociatedInfrastructure(), task.getUserName());
-                ResourceDiscovery rd = new ResourceDiscovery(infraParams,
-                        sb.getVO());
-                try {
-                    resource = rd.getJobResource(
-                            ResourceDiscovery.ResourceType.WMS);
-                } catch (NoResorucesAvailable nra) {
-                    throw new InfrastructureException("No service resources"
-                            + " available for the infrastructure "
-                            + task.getAssociatedInfrastructureId());
-                }
-                break;
             case "rocci":
             case "occi":
-                sb = new OCCISessionBuilder(
+                return new OCCISessionBuilder(
                         task.getAssociatedInfrastructure(), task.getUserName());
-                break;
             case "unicore":
                 throw new UnsupportedOperationException("Infrastructures "
                         + infraType + " not yet supported");
@@ -139,9 +316,8 @@ public final class CustomJobFactory {
                 throw new UnsupportedOperationException("Infrastructures "
                         + infraType + " not yet supported");
             case "ssh":
-                sb = new SSHSessionBuilder(
+                return new SSHSessionBuilder(
                         task.getAssociatedInfrastructure(), task.getUserName());
-                break;
             case "openstack":
                 throw new UnsupportedOperationException("Infrastructures "
                         + infraType + " not yet supported");
@@ -152,19 +328,5 @@ public final class CustomJobFactory {
                 throw new InfrastructureException("Infrastructure type '"
                         + infraType + "' not supported");
         }
-        try {
-            JobService js = JobFactory.createJobService(sb.getSession(),
-                    URLFactory.createURL(resource));
-            return js.createJob(jd);
-        } catch (AuthenticationFailedException | AuthorizationFailedException
-                | IncorrectURLException | NoSuccessException
-                | NotImplementedException | PermissionDeniedException
-                | TimeoutException ex) {
-            LOG.error(ex);
-            throw new InfrastructureException("Impossibile to generate a job"
-                    + "for the infrastructure "
-                    + task.getAssociatedInfrastructureId());
-        }
     }
-
 }
@@ -0,0 +1,121 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Health of the infrastructures.
+ * Every infrastructure has a {@link CircuitBreaker} driven by the outcome of
+ * the submissions, so a remote service not responding does not keep the
+ * submission threads waiting for the network timeouts.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class InfrastructureHealth {
+
+    /**
+     * Health shared by the application.
+     */
+    private static final InfrastructureHealth DEFAULT =
+            new InfrastructureHealth();
+
+    /**
+     * Circuit breakers of the infrastructures.
+     */
+    private final ConcurrentMap<String, CircuitBreaker> breakers =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Create an empty registry.
+     */
+    private InfrastructureHealth() {
+    }
+
+
+    /**
+     * Retrieves the health shared by the application.
+     *
+     * @return The infrastructure health
+     */
+    public static InfrastructureHealth getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Retrieves the circuit breaker of an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return The circuit breaker
+     */
+    public CircuitBreaker getBreaker(final String infrastructureId) {
+        CircuitBreaker breaker = breakers.get(infrastructureId);
+        if (breaker == null) {
+            CircuitBreaker newBreaker = new CircuitBreaker(infrastructureId);
+            breaker = breakers.putIfAbsent(infrastructureId, newBreaker);
+            if (breaker == null) {
+                breaker = newBreaker;
+            }
+        }
+        return breaker;
+    }
+
+
+    /**
+     * Checks if an infrastructure can receive submissions.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return True if the circuit of the infrastructure is not open
+     */
+    public boolean isAvailable(final String infrastructureId) {
+        CircuitBreaker breaker = breakers.get(infrastructureId);
+        return breaker == null || breaker.isAvailable();
+    }
+
+
+    /**
+     * Retrieves the state of the circuit of an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return The state
+     */
+    public CircuitBreaker.STATE getState(final String infrastructureId) {
+        CircuitBreaker breaker = breakers.get(infrastructureId);
+        if (breaker == null) {
+            return CircuitBreaker.STATE.CLOSED;
+        }
+        return breaker.getState();
+    }
+
+
+    /**
+     * Remove the state of an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     */
+    public void remove(final String infrastructureId) {
+        breakers.remove(infrastructureId);
+    }
+}
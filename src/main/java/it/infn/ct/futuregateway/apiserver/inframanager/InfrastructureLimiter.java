@@ -0,0 +1,184 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the concurrent operations on every infrastructure.
+ * Each infrastructure has its own semaphore so a slow infrastructure
+ * cannot take all the submission threads and the remote services do not
+ * receive more requests than they can manage. Components sharing the
+ * limiter without waiting on it can register a listener to know when a
+ * permission is released.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class InfrastructureLimiter {
+
+    /**
+     * Maximum concurrent operations for an infrastructure.
+     */
+    private final int limit;
+
+    /**
+     * Semaphores of the infrastructures.
+     */
+    private final ConcurrentMap<String, Semaphore> semaphores =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Listeners notified when a permission is released.
+     */
+    private final List<ReleaseListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Create the limiter.
+     *
+     * @param aLimit Maximum concurrent operations for an infrastructure. A
+     * value lower than 1 disables the limit
+     */
+    public InfrastructureLimiter(final int aLimit) {
+        this.limit = aLimit;
+    }
+
+
+    /**
+     * Wait the permission to operate on an infrastructure.
+     * Every successful call has to be followed by a call to
+     * {@link #release(java.lang.String)}.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public final void acquire(final String infrastructureId)
+            throws InterruptedException {
+        if (limit > 0) {
+            getSemaphore(infrastructureId).acquire();
+        }
+    }
+
+
+    /**
+     * Take the permission to operate on an infrastructure if available.
+     * The caller does not wait, so the threads of a shared pool are not
+     * blocked by a busy infrastructure. Every successful call has to be
+     * followed by a call to {@link #release(java.lang.String)}.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return True if the permission is granted
+     */
+    public final boolean tryAcquire(final String infrastructureId) {
+        return limit <= 0 || getSemaphore(infrastructureId).tryAcquire();
+    }
+
+
+    /**
+     * Release the permission to operate on an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     */
+    public final void release(final String infrastructureId) {
+        if (limit > 0) {
+            getSemaphore(infrastructureId).release();
+            for (ReleaseListener listener: listeners) {
+                listener.released(infrastructureId);
+            }
+        }
+    }
+
+
+    /**
+     * Register a listener for the released permissions.
+     *
+     * @param aListener The listener
+     */
+    public final void addReleaseListener(final ReleaseListener aListener) {
+        listeners.add(aListener);
+    }
+
+
+    /**
+     * Remove a listener for the released permissions.
+     *
+     * @param aListener The listener
+     */
+    public final void removeReleaseListener(final ReleaseListener aListener) {
+        listeners.remove(aListener);
+    }
+
+
+    /**
+     * Retrieves the number of operations waiting for an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return The number of waiting operations
+     */
+    public final int getWaiting(final String infrastructureId) {
+        Semaphore sem = semaphores.get(infrastructureId);
+        if (sem == null) {
+            return 0;
+        }
+        return sem.getQueueLength();
+    }
+
+
+    /**
+     * Retrieve the semaphore of an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return The semaphore
+     */
+    private Semaphore getSemaphore(final String infrastructureId) {
+        Semaphore sem = semaphores.get(infrastructureId);
+        if (sem == null) {
+            Semaphore newSem = new Semaphore(limit, true);
+            sem = semaphores.putIfAbsent(infrastructureId, newSem);
+            if (sem == null) {
+                sem = newSem;
+            }
+        }
+        return sem;
+    }
+
+
+    /**
+     * Listener of the released permissions.
+     * The listener is executed by the thread releasing the permission so it
+     * has to return quickly.
+     */
+    public interface ReleaseListener {
+
+        /**
+         * Notify a permission has been released.
+         *
+         * @param infrastructureId The infrastructure identifier
+         */
+        void released(String infrastructureId);
+    }
+}
@@ -0,0 +1,465 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileInput;
+import it.infn.ct.futuregateway.apiserver.storage.Storage;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ogf.saga.buffer.Buffer;
+import org.ogf.saga.buffer.BufferFactory;
+import org.ogf.saga.error.DoesNotExistException;
+import org.ogf.saga.error.SagaException;
+import org.ogf.saga.file.File;
+import org.ogf.saga.file.FileFactory;
+import org.ogf.saga.namespace.Flags;
+import org.ogf.saga.session.Session;
+import org.ogf.saga.url.URL;
+import org.ogf.saga.url.URLFactory;
+
+/**
+ * Transfers the input files of the tasks to the infrastructures.
+ * The files uploaded by the users are copied, before the submission, in the
+ * location defined by the parameter <i>inputurl</i> of the application or,
+ * if missing, of the infrastructure. The job description receives a file
+ * transfer for every input so the job finds the files in its working
+ * directory. Without the parameter the inputs are not transferred and the
+ * job uses only the transfers defined by the application.
+ * <p>
+ * Files are stored in a directory of the application with their checksum
+ * as name, so an input shared by many tasks of the application, as in a
+ * parameter sweep, is transferred once. Files already present with the
+ * same size are not transferred again and concurrent submissions requiring
+ * the same file wait for a single transfer. A transfer is reused for
+ * {@link Constants#STAGEDINPUTSTTL} seconds, then the file is checked again
+ * in the infrastructure, which could have removed it. A file is written
+ * with a temporary name and renamed when complete.
+ * <p>
+ * The files of a task are transferred in parallel by a pool of threads,
+ * with a limit for every infrastructure. The sessions are taken from the
+ * {@link SessionCache} so all the transfers of a user on an infrastructure
+ * share a single session.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class InputStager {
+
+    /**
+     * Name of the parameter with the location of the input files.
+     */
+    public static final String INPUTURLPARAMETER = "inputurl";
+
+    /**
+     * Suffix of the files in transfer.
+     */
+    private static final String PARTSUFFIX = ".part";
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(InputStager.class);
+
+    /**
+     * Storage with the input files.
+     */
+    private final Storage storage;
+
+    /**
+     * Limiter of the concurrent transfers to the infrastructures.
+     */
+    private final InfrastructureLimiter limiter;
+
+    /**
+     * Number of threads transferring the files.
+     */
+    private final int threads;
+
+    /**
+     * Transfers performed or in progress, by remote URL.
+     */
+    private final ConcurrentMap<String, StagedInput> staged =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Threads transferring the files.
+     */
+    private ExecutorService transfers;
+
+
+    /**
+     * Create the stager.
+     *
+     * @param aStorage The storage with the input files
+     * @param aLimiter The limiter of the concurrent transfers to the
+     * infrastructures
+     * @param someThreads Number of threads transferring the files
+     */
+    public InputStager(final Storage aStorage,
+            final InfrastructureLimiter aLimiter, final int someThreads) {
+        this.storage = aStorage;
+        this.limiter = aLimiter;
+        this.threads = someThreads;
+    }
+
+
+    /**
+     * Start the stager.
+     */
+    public final void start() {
+        transfers = Executors.newFixedThreadPool(threads);
+    }
+
+
+    /**
+     * Stop the stager.
+     */
+    public final void stop() {
+        if (transfers != null) {
+            transfers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Transfer the input files of a task to its infrastructure.
+     * The call returns when all the files are available.
+     *
+     * @param task The task, with the infrastructure selected
+     * @return The file transfers to add to the job description
+     * @throws InfrastructureException If a file cannot be transferred
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * the transfers
+     */
+    public final List<String> stage(final Task task)
+            throws InfrastructureException, InterruptedException {
+        List<String> fileTransfers = new ArrayList<>();
+        if (task.getInputFiles() == null || task.getInputFiles().isEmpty()) {
+            return fileTransfers;
+        }
+        String baseUrl = getInputUrl(task);
+        if (baseUrl == null) {
+            return fileTransfers;
+        }
+        if (!baseUrl.endsWith("/")) {
+            baseUrl += "/";
+        }
+        baseUrl += task.getApplicationDetail().getId() + "/";
+        Session session = CustomJobFactory.getSession(task);
+        Map<String, Future<String>> pending = new LinkedHashMap<>();
+        for (TaskFileInput tfi: task.getInputFiles()) {
+            String remoteName = tfi.getChecksum();
+            if (remoteName == null) {
+                remoteName = task.getId() + "/" + tfi.getName();
+            }
+            pending.put(tfi.getName(), schedule(new InputTransfer(session,
+                    task, tfi.getName(), baseUrl + remoteName)));
+        }
+        for (Map.Entry<String, Future<String>> file: pending.entrySet()) {
+            try {
+                fileTransfers.add(file.getValue().get() + " > "
+                        + file.getKey());
+            } catch (ExecutionException ee) {
+                throw new InfrastructureException("Impossible to transfer "
+                        + "the input " + file.getKey() + " of the task "
+                        + task.getId() + ": " + ee.getCause().getMessage());
+            }
+        }
+        return fileTransfers;
+    }
+
+
+    /**
+     * Schedule the transfer of a file if it is not already done or in
+     * progress.
+     *
+     * @param transfer The transfer
+     * @return The result of the transfer, the remote URL of the file
+     * @throws InfrastructureException If the transfer cannot be scheduled
+     */
+    private Future<String> schedule(final InputTransfer transfer)
+            throws InfrastructureException {
+        String url = transfer.remoteUrl;
+        long now = System.currentTimeMillis();
+        StagedInput current = staged.get(url);
+        if (current != null) {
+            if (current.isValid(now)) {
+                return current;
+            }
+            staged.remove(url, current);
+        }
+        if (staged.size() >= Constants.STAGEDINPUTSCACHESIZE) {
+            for (Map.Entry<String, StagedInput> e: staged.entrySet()) {
+                if (e.getValue().isDone()) {
+                    staged.remove(e.getKey(), e.getValue());
+                }
+            }
+        }
+        StagedInput ft = new StagedInput(transfer);
+        current = staged.putIfAbsent(url, ft);
+        if (current != null) {
+            return current;
+        }
+        try {
+            transfers.execute(ft);
+        } catch (RejectedExecutionException ree) {
+            staged.remove(url, ft);
+            throw new InfrastructureException("Input transfers not "
+                    + "available, the stager is stopped");
+        }
+        return ft;
+    }
+
+
+    /**
+     * Retrieves the location of the input files of a task.
+     * The application parameter has the precedence on the infrastructure
+     * one.
+     *
+     * @param task The task
+     * @return The URL of the directory for the inputs or null if not defined
+     */
+    private static String getInputUrl(final Task task) {
+        String url = null;
+        if (task.getApplicationDetail() != null
+                && task.getApplicationDetail().getParameters() != null) {
+            url = Utilities.getParamterValue(
+                    task.getApplicationDetail().getParameters(),
+                    INPUTURLPARAMETER);
+        }
+        if (url == null && task.getAssociatedInfrastructure() != null) {
+            url = Utilities.getParamterValue(
+                    task.getAssociatedInfrastructure().getParameters(),
+                    INPUTURLPARAMETER);
+        }
+        return url;
+    }
+
+
+    /**
+     * Transfer of an input file remembered by the stager.
+     * A failed transfer is forgotten, a completed one is valid for
+     * {@link Constants#STAGEDINPUTSTTL} seconds.
+     */
+    private final class StagedInput extends FutureTask<String> {
+
+        /**
+         * The remote URL of the file.
+         */
+        private final String url;
+
+        /**
+         * Completion time of the transfer, in the future until it is done.
+         */
+        private volatile long completed = Long.MAX_VALUE;
+
+        /**
+         * Create the transfer.
+         *
+         * @param transfer The transfer to perform
+         */
+        StagedInput(final InputTransfer transfer) {
+            super(transfer);
+            this.url = transfer.remoteUrl;
+        }
+
+        @Override
+        protected void setException(final Throwable t) {
+            staged.remove(url, this);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            completed = System.currentTimeMillis();
+        }
+
+        /**
+         * Checks if the transfer can be reused.
+         *
+         * @param now The current time
+         * @return True if the transfer is in progress or completed
+         * recently
+         */
+        boolean isValid(final long now) {
+            return now - completed < TimeUnit.SECONDS.toMillis(
+                    Constants.STAGEDINPUTSTTL);
+        }
+    }
+
+
+    /**
+     * Transfer of an input file.
+     */
+    private final class InputTransfer implements Callable<String> {
+
+        /**
+         * The session to access the infrastructure.
+         */
+        private final Session session;
+
+        /**
+         * The task providing the file.
+         */
+        private final String taskId;
+
+        /**
+         * The infrastructure receiving the file.
+         */
+        private final String infrastructureId;
+
+        /**
+         * The file name.
+         */
+        private final String fileName;
+
+        /**
+         * The remote URL of the file.
+         */
+        private final String remoteUrl;
+
+
+        /**
+         * Create the transfer.
+         *
+         * @param aSession The session to access the infrastructure
+         * @param aTask The task providing the file
+         * @param aFileName The file name
+         * @param aRemoteUrl The remote URL of the file
+         */
+        InputTransfer(final Session aSession, final Task aTask,
+                final String aFileName, final String aRemoteUrl) {
+            this.session = aSession;
+            this.taskId = aTask.getId();
+            this.infrastructureId = aTask.getAssociatedInfrastructureId();
+            this.fileName = aFileName;
+            this.remoteUrl = aRemoteUrl;
+        }
+
+        @Override
+        public String call() throws IOException, SagaException,
+                InterruptedException {
+            long size = storage.getFileSize(Storage.RESOURCE.TASKS, taskId,
+                    fileName, null);
+            if (size < 0) {
+                throw new IOException("Input " + fileName + " not stored");
+            }
+            URL target = URLFactory.createURL(remoteUrl);
+            limiter.acquire(infrastructureId);
+            try {
+                if (getRemoteSize(target) == size) {
+                    log.debug("Input " + fileName + " of the task " + taskId
+                            + " already available in " + remoteUrl);
+                    return remoteUrl;
+                }
+                upload(target);
+            } finally {
+                limiter.release(infrastructureId);
+            }
+            log.debug("Input " + fileName + " of the task " + taskId
+                    + " transferred to " + remoteUrl);
+            return remoteUrl;
+        }
+
+        /**
+         * Retrieves the size of a remote file.
+         *
+         * @param url The file URL
+         * @return The size in bytes or -1 if the file does not exist
+         * @throws SagaException If the file cannot be accessed
+         */
+        private long getRemoteSize(final URL url) throws SagaException {
+            File remote;
+            try {
+                remote = FileFactory.createFile(session, url,
+                        Flags.READ.getValue());
+            } catch (DoesNotExistException dnee) {
+                return -1;
+            }
+            try {
+                return remote.getSize();
+            } finally {
+                remote.close();
+            }
+        }
+
+        /**
+         * Write the file in a temporary location and move it to the target.
+         *
+         * @param target The URL of the file
+         * @throws IOException If the stored file cannot be read
+         * @throws SagaException If the remote file cannot be written
+         */
+        private void upload(final URL target)
+                throws IOException, SagaException {
+            File remote = FileFactory.createFile(session,
+                    URLFactory.createURL(remoteUrl + PARTSUFFIX),
+                    Flags.WRITE.getValue() | Flags.CREATE.getValue()
+                    | Flags.CREATEPARENTS.getValue()
+                    | Flags.TRUNCATE.getValue());
+            try (SeekableByteChannel input = storage.openFile(
+                    Storage.RESOURCE.TASKS, taskId, fileName, null)) {
+                byte[] block = new byte[Constants.STAGINGBLOCKSIZE];
+                ByteBuffer bb = ByteBuffer.wrap(block);
+                while (input.read(bb) >= 0 || bb.position() > 0) {
+                    int len = bb.position();
+                    Buffer buf = BufferFactory.createBuffer(block);
+                    int written;
+                    try {
+                        written = remote.write(buf, len);
+                    } finally {
+                        buf.close();
+                    }
+                    if (written <= 0) {
+                        throw new IOException("Impossible to write "
+                                + remoteUrl);
+                    }
+                    System.arraycopy(block, written, block, 0,
+                            len - written);
+                    bb.position(len - written);
+                }
+                remote.move(target, Flags.OVERWRITE.getValue());
+            } finally {
+                remote.close();
+            }
+        }
+    }
+}
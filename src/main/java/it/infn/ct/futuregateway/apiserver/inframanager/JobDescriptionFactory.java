@@ -22,6 +22,8 @@
 package it.infn.ct.futuregateway.apiserver.inframanager;
 
 import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -71,11 +73,41 @@ public final class JobDescriptionFactory {
     public static JobDescription createJobDescription(final Task task)
             throws NoSuccessException, NotImplementedException,
             BadParameterException {
+        return createJobDescription(task, Collections.<String>emptyList());
+    }
+
+
+    /**
+     * Create a job description for a task with additional file transfers.
+     * The transfers, as the input files staged by the {@link InputStager},
+     * are added to the ones defined by the application.
+     *
+     * @param task The task requiring the job description
+     * @param fileTransfers The additional file transfers
+     * @return The job description
+     * @throws NoSuccessException Impossible to generate the description
+     * @throws NotImplementedException Not implemented for this kind of task
+     * @throws BadParameterException A mandatory parameter is wrong or missed
+     * @see #createJobDescription(Task)
+     */
+    public static JobDescription createJobDescription(final Task task,
+            final List<String> fileTransfers)
+            throws NoSuccessException, NotImplementedException,
+            BadParameterException {
         JobDescription jd = JobFactory.createJobDescription();
         Properties prTask = Utilities.convertParamsToProperties(
                 task.getAssociatedInfrastructure().getParameters());
         prTask = Utilities.convertParamsToProperties(
                 task.getApplicationDetail().getParameters(), prTask);
+        for (String transfer: fileTransfers) {
+            String previous = prTask.getProperty(JobDescription.FILETRANSFER);
+            if (previous == null) {
+                prTask.setProperty(JobDescription.FILETRANSFER, transfer);
+            } else {
+                prTask.setProperty(JobDescription.FILETRANSFER,
+                        previous + "," + transfer);
+            }
+        }
 
         try {
             setRequiredParam(jd, prTask, JobDescription.EXECUTABLE);
@@ -113,7 +145,7 @@ public final class JobDescriptionFactory {
         setOptionalParam(jd, prTask, JobDescription.QUEUE);
         setOptionalParam(jd, prTask, JobDescription.JOBPROJECT);
         setOptionalParam(jd, prTask, JobDescription.JOBCONTACT, true);
-        return null;
+        return jd;
     }
 
 
@@ -0,0 +1,734 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskTransitionListener;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ogf.saga.task.State;
+
+/**
+ * Monitors the jobs of the submitted tasks.
+ * The tasks <i>SCHEDULED</i> or <i>RUNNING</i> are kept in memory with the
+ * time of their next check. A single thread periodically collects the jobs
+ * to check and groups them by infrastructure and user, so the jobs of a
+ * group are checked with one connection to the infrastructure, in batches of
+ * {@link Constants#MONITORBATCHSIZE} handled by a small pool of threads.
+ * <p>
+ * The interval between two checks of a job doubles every time its state
+ * does not change, so long running jobs are checked less often. The checks
+ * of an infrastructure are limited by their own limiter, so the monitoring
+ * does not take the permissions of the submissions. The
+ * transitions found in a batch are stored with a single update for every
+ * pair of old and new status. Tasks with output files whose job is done are
+ * handed to the {@link OutputStager}, which moves them to <i>DONE</i> after
+ * the retrieval of the files. They are not checked while the stager works
+ * on them and if the stager releases a task without moving it the job is
+ * checked again, so the retrieval is repeated.
+ * <p>
+ * The tasks are loaded from the DB when the monitor starts, then the
+ * monitor follows the transitions of the state machine.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class JobMonitor implements TaskTransitionListener {
+
+    /**
+     * Status of the tasks with a job to monitor.
+     */
+    private static final EnumSet<Task.STATUS> ACTIVE =
+            EnumSet.of(Task.STATUS.SCHEDULED, Task.STATUS.RUNNING);
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(JobMonitor.class);
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * State machine receiving the status changes of the tasks.
+     */
+    private final TaskStateMachine stateMachine;
+
+    /**
+     * Limiter of the concurrent checks on the infrastructures.
+     */
+    private final InfrastructureLimiter limiter;
+
+    /**
+     * Stager retrieving the outputs of the completed jobs.
+     */
+    private final OutputStager stager;
+
+    /**
+     * Number of threads checking the jobs.
+     */
+    private final int threads;
+
+    /**
+     * Minimum time in milliseconds between two checks of a job.
+     */
+    private final long minInterval;
+
+    /**
+     * Maximum time in milliseconds between two checks of a job.
+     */
+    private final long maxInterval;
+
+    /**
+     * Jobs monitored, by task identifier.
+     */
+    private final ConcurrentMap<String, MonitoredJob> jobs =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Thread selecting the jobs to check.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Threads checking the jobs.
+     */
+    private ExecutorService checkers;
+
+
+    /**
+     * Create the monitor.
+     *
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     * @param aStateMachine The state machine managing the task status
+     * @param aLimiter The limiter of the concurrent checks on the
+     * infrastructures. It should not be shared with the submissions
+     * @param aStager The stager retrieving the outputs of the completed jobs
+     * @param someThreads Number of threads checking the jobs
+     * @param aMinInterval Minimum time in seconds between two checks of a
+     * job
+     * @param aMaxInterval Maximum time in seconds between two checks of a
+     * job
+     */
+    public JobMonitor(final EntityManagerFactory anEntityManagerFactory,
+            final TaskStateMachine aStateMachine,
+            final InfrastructureLimiter aLimiter, final OutputStager aStager,
+            final int someThreads, final long aMinInterval,
+            final long aMaxInterval) {
+        this.emf = anEntityManagerFactory;
+        this.stateMachine = aStateMachine;
+        this.limiter = aLimiter;
+        this.stager = aStager;
+        this.threads = someThreads;
+        this.minInterval = TimeUnit.SECONDS.toMillis(aMinInterval);
+        this.maxInterval = Math.max(minInterval,
+                TimeUnit.SECONDS.toMillis(aMaxInterval));
+    }
+
+
+    /**
+     * Start the monitor.
+     * The tasks stored in the DB are loaded in background. The jobs to
+     * check are collected every {@link Constants#MONITORTICK} seconds, or
+     * more often if the minimum interval is shorter.
+     */
+    public final void start() {
+        long tick = Math.max(1, Math.min(minInterval,
+                TimeUnit.SECONDS.toMillis(Constants.MONITORTICK)));
+        checkers = Executors.newFixedThreadPool(threads);
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stop the monitor.
+     */
+    public final void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (checkers != null) {
+            checkers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Retrieves the number of jobs monitored.
+     *
+     * @return The number of jobs
+     */
+    public final int getMonitored() {
+        return jobs.size();
+    }
+
+
+    @Override
+    public final void transitionPerformed(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        if (!ACTIVE.contains(to)) {
+            if (ACTIVE.contains(from)) {
+                jobs.remove(task.getId());
+            }
+            return;
+        }
+        if (task.getNativeId() == null
+                || task.getAssociatedInfrastructureId() == null) {
+            return;
+        }
+        MonitoredJob job = jobs.get(task.getId());
+        if (job != null) {
+            job.changed(to);
+        } else {
+            jobs.put(task.getId(), new MonitoredJob(task.getId(),
+                    task.getNativeId(), task.getAssociatedInfrastructureId(),
+                    task.getUserName(), to));
+        }
+    }
+
+
+    /**
+     * Load the tasks to monitor from the DB.
+     * Tasks are read in pages ordered by identifier.
+     */
+    private void load() {
+        String after = "";
+        int loaded = 0;
+        List<Object[]> rows;
+        do {
+            EntityManager em = emf.createEntityManager();
+            try {
+                rows = em.createNamedQuery("tasks.active", Object[].class).
+                        setParameter("status", ACTIVE).
+                        setParameter("after", after).
+                        setMaxResults(Constants.MONITORBATCHSIZE).
+                        getResultList();
+            } catch (RuntimeException re) {
+                log.error("Impossible to load the tasks to monitor");
+                log.error(re);
+                return;
+            } finally {
+                em.close();
+            }
+            for (Object[] row: rows) {
+                int idx = 0;
+                String taskId = (String) row[idx++];
+                Task.STATUS status = (Task.STATUS) row[idx++];
+                String nativeId = (String) row[idx++];
+                String infraId = (String) row[idx++];
+                String user = (String) row[idx];
+                if (infraId != null) {
+                    jobs.putIfAbsent(taskId, new MonitoredJob(taskId,
+                            nativeId, infraId, user, status));
+                    loaded++;
+                }
+                after = taskId;
+            }
+        } while (rows.size() == Constants.MONITORBATCHSIZE);
+        log.info("Loaded " + loaded + " jobs to monitor");
+    }
+
+
+    /**
+     * Collect the jobs to check and dispatch them to the checkers.
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+        Map<String, List<MonitoredJob>> groups = new HashMap<>();
+        for (MonitoredJob job: jobs.values()) {
+            if (job.isStaged()) {
+                if (!stager.isStaging(job.taskId)) {
+                    job.unstaged(now);
+                }
+                continue;
+            }
+            if (!job.claim(now)) {
+                continue;
+            }
+            List<MonitoredJob> group = groups.get(job.getGroup());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(job.getGroup(), group);
+            }
+            group.add(job);
+        }
+        for (List<MonitoredJob> group: groups.values()) {
+            for (int i = 0; i < group.size();
+                    i += Constants.MONITORBATCHSIZE) {
+                final List<MonitoredJob> batch = group.subList(i,
+                        Math.min(group.size(),
+                                i + Constants.MONITORBATCHSIZE));
+                try {
+                    checkers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkBatch(batch);
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    for (MonitoredJob job: batch) {
+                        job.unchanged(now);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Check the jobs of a batch.
+     * All the jobs belong to the same infrastructure and user.
+     *
+     * @param batch The jobs to check
+     */
+    private void checkBatch(final List<MonitoredJob> batch) {
+        String infraId = batch.get(0).infrastructureId;
+        Map<String, State> states = null;
+        try {
+            Task reference = loadReference(batch);
+            if (reference != null) {
+                limiter.acquire(infraId);
+                try {
+                    List<String> nativeIds = new ArrayList<>(batch.size());
+                    for (MonitoredJob job: batch) {
+                        nativeIds.add(job.nativeId);
+                    }
+                    states = CustomJobFactory.getJobStates(reference,
+                            nativeIds);
+                } finally {
+                    limiter.release(infraId);
+                }
+            }
+        } catch (InfrastructureException ie) {
+            log.warn("Impossible to check the jobs in the infrastructure "
+                    + infraId + ": " + ie.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException re) {
+            log.error("Impossible to check the jobs in the infrastructure "
+                    + infraId);
+            log.error(re);
+        }
+        long now = System.currentTimeMillis();
+        Map<Task.STATUS, Map<Task.STATUS, List<Task>>> transitions =
+                new EnumMap<>(Task.STATUS.class);
+        for (MonitoredJob job: batch) {
+            Task.STATUS to = null;
+            if (states != null) {
+                to = toStatus(states.get(job.nativeId));
+            }
+            if (to == null || !TaskStateMachine.isAllowed(job.status, to)) {
+                job.unchanged(now);
+                continue;
+            }
+            Map<Task.STATUS, List<Task>> fromStatus =
+                    transitions.get(job.status);
+            if (fromStatus == null) {
+                fromStatus = new EnumMap<>(Task.STATUS.class);
+                transitions.put(job.status, fromStatus);
+            }
+            List<Task> tasks = fromStatus.get(to);
+            if (tasks == null) {
+                tasks = new ArrayList<>();
+                fromStatus.put(to, tasks);
+            }
+            tasks.add(job.toTask());
+        }
+        for (Map<Task.STATUS, List<Task>> fromStatus: transitions.values()) {
+            for (Map.Entry<Task.STATUS, List<Task>> tr: fromStatus.
+                    entrySet()) {
+                List<Task> tasks = tr.getValue();
+                if (tr.getKey() == Task.STATUS.DONE) {
+                    tasks = stage(tasks, now);
+                }
+                if (!tasks.isEmpty()) {
+                    moveAll(tasks, tr.getKey(), now);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Hand the tasks with the job done to the stager.
+     * The tasks with output files are not checked while the stager works on
+     * them, the stager moves them to <i>DONE</i> when the files are
+     * retrieved.
+     *
+     * @param tasks The tasks with the job done
+     * @param now The time of the check
+     * @return The tasks without output files, to move to <i>DONE</i>
+     */
+    private List<Task> stage(final List<Task> tasks, final long now) {
+        List<Task> completed;
+        try {
+            completed = stager.stage(tasks);
+        } catch (RuntimeException re) {
+            log.error("Impossible to retrieve the outputs of " + tasks.size()
+                    + " tasks");
+            log.error(re);
+            for (Task task: tasks) {
+                MonitoredJob job = jobs.get(task.getId());
+                if (job != null) {
+                    job.unchanged(now);
+                }
+            }
+            return new ArrayList<>();
+        }
+        for (Task task: tasks) {
+            if (!completed.contains(task)) {
+                MonitoredJob job = jobs.get(task.getId());
+                if (job != null) {
+                    job.staged();
+                }
+            }
+        }
+        return completed;
+    }
+
+
+    /**
+     * Store the transitions of many tasks.
+     * The monitored jobs are updated by the notification of the state
+     * machine. The status of the tasks modified concurrently is read again
+     * from the DB, they remain monitored if they are still active.
+     *
+     * @param tasks The tasks, all with the same status
+     * @param to The new status
+     * @param now The time of the check
+     */
+    private void moveAll(final List<Task> tasks, final Task.STATUS to,
+            final long now) {
+        Task.STATUS from = tasks.get(0).getStatus();
+        try {
+            stateMachine.moveAll(tasks, to);
+        } catch (RuntimeException re) {
+            log.error("Impossible to update " + tasks.size() + " tasks from "
+                    + from + " to " + to);
+            for (Task task: tasks) {
+                MonitoredJob job = jobs.get(task.getId());
+                if (job != null) {
+                    job.unchanged(now);
+                }
+            }
+            return;
+        }
+        List<String> skipped = new ArrayList<>();
+        for (Task task: tasks) {
+            if (task.getStatus() == from) {
+                skipped.add(task.getId());
+            }
+        }
+        if (!skipped.isEmpty()) {
+            refresh(skipped, now);
+        }
+    }
+
+
+    /**
+     * Update the jobs with the status of their tasks in the DB.
+     * Jobs of tasks not active anymore, or deleted, are not monitored.
+     *
+     * @param ids The identifiers of the tasks
+     * @param now The time of the check
+     */
+    private void refresh(final List<String> ids, final long now) {
+        Map<String, Task.STATUS> current = new HashMap<>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            for (Object[] row: em.createNamedQuery("tasks.byIds",
+                    Object[].class).
+                    setParameter("ids", ids).
+                    getResultList()) {
+                current.put((String) row[0], (Task.STATUS) row[1]);
+            }
+        } catch (RuntimeException re) {
+            log.error("Impossible to read the status of " + ids.size()
+                    + " tasks");
+            log.error(re);
+            for (String id: ids) {
+                MonitoredJob job = jobs.get(id);
+                if (job != null) {
+                    job.unchanged(now);
+                }
+            }
+            return;
+        } finally {
+            em.close();
+        }
+        for (String id: ids) {
+            MonitoredJob job = jobs.get(id);
+            if (job == null) {
+                continue;
+            }
+            Task.STATUS status = current.get(id);
+            if (ACTIVE.contains(status)) {
+                job.changed(status);
+            } else {
+                jobs.remove(id, job);
+            }
+        }
+    }
+
+
+    /**
+     * Load a task of the batch with the details of its infrastructure.
+     * The task is used to connect to the infrastructure on behalf of the
+     * user.
+     *
+     * @param batch The jobs to check
+     * @return The task or null if no task of the batch exists
+     */
+    private Task loadReference(final List<MonitoredJob> batch) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            for (MonitoredJob job: batch) {
+                Task task = DetailLoader.findTask(em, job.taskId);
+                if (task != null) {
+                    task.setAssociatedInfrastructureId(job.infrastructureId);
+                    return task;
+                }
+                jobs.remove(job.taskId);
+            }
+            return null;
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Map the state of a job to the status of the task.
+     *
+     * @param state The state of the job
+     * @return The status or null if the state is not known
+     */
+    private static Task.STATUS toStatus(final State state) {
+        if (state == null) {
+            return null;
+        }
+        switch (state) {
+            case NEW:
+                return Task.STATUS.SCHEDULED;
+            case RUNNING:
+            case SUSPENDED:
+                return Task.STATUS.RUNNING;
+            case DONE:
+                return Task.STATUS.DONE;
+            case CANCELED:
+                return Task.STATUS.CANCELLED;
+            case FAILED:
+                return Task.STATUS.ABORTED;
+            default:
+                return null;
+        }
+    }
+
+
+    /**
+     * Job of a monitored task.
+     */
+    private final class MonitoredJob {
+
+        /**
+         * Identifier of the task.
+         */
+        private final String taskId;
+
+        /**
+         * Identifier of the job in the infrastructure.
+         */
+        private final String nativeId;
+
+        /**
+         * Infrastructure executing the job.
+         */
+        private final String infrastructureId;
+
+        /**
+         * Owner of the task.
+         */
+        private final String userName;
+
+        /**
+         * Last known status of the task.
+         */
+        private volatile Task.STATUS status;
+
+        /**
+         * Interval between the checks, in milliseconds.
+         */
+        private long interval;
+
+        /**
+         * Time of the next check, Long.MAX_VALUE while the job is checked.
+         */
+        private long nextCheck;
+
+        /**
+         * True while the outputs of the task are retrieved by the stager.
+         */
+        private boolean staged;
+
+
+        /**
+         * Create the job.
+         *
+         * @param aTaskId The task identifier
+         * @param aNativeId The job identifier
+         * @param anInfrastructureId The infrastructure identifier
+         * @param aUserName The owner of the task
+         * @param aStatus The status of the task
+         */
+        MonitoredJob(final String aTaskId, final String aNativeId,
+                final String anInfrastructureId, final String aUserName,
+                final Task.STATUS aStatus) {
+            this.taskId = aTaskId;
+            this.nativeId = aNativeId;
+            this.infrastructureId = anInfrastructureId;
+            this.userName = aUserName;
+            this.status = aStatus;
+            this.interval = minInterval;
+            this.nextCheck = System.currentTimeMillis() + interval;
+        }
+
+        /**
+         * Retrieves the key of the jobs checked together.
+         *
+         * @return The key
+         */
+        String getGroup() {
+            return infrastructureId + "|" + userName;
+        }
+
+        /**
+         * Reserve the job for a check if it is time.
+         *
+         * @param now The current time
+         * @return True if the job has to be checked
+         */
+        synchronized boolean claim(final long now) {
+            if (staged || nextCheck > now) {
+                return false;
+            }
+            nextCheck = Long.MAX_VALUE;
+            return true;
+        }
+
+        /**
+         * Schedule the next check of a job whose state has not changed.
+         *
+         * @param now The time of the check
+         */
+        synchronized void unchanged(final long now) {
+            interval = Math.min(2 * interval, maxInterval);
+            nextCheck = now + interval;
+        }
+
+        /**
+         * Suspend the checks while the stager retrieves the outputs.
+         */
+        synchronized void staged() {
+            staged = true;
+            nextCheck = Long.MAX_VALUE;
+        }
+
+        /**
+         * Checks if the stager is retrieving the outputs.
+         *
+         * @return True if the checks are suspended
+         */
+        synchronized boolean isStaged() {
+            return staged;
+        }
+
+        /**
+         * Resume the checks of a task released by the stager.
+         * The interval grows as for a job not changed, so a task the stager
+         * cannot complete is not staged again at every check.
+         *
+         * @param now The current time
+         */
+        synchronized void unstaged(final long now) {
+            staged = false;
+            unchanged(now);
+        }
+
+        /**
+         * Update the status and schedule the next check.
+         *
+         * @param aStatus The new status
+         */
+        synchronized void changed(final Task.STATUS aStatus) {
+            status = aStatus;
+            interval = minInterval;
+            nextCheck = System.currentTimeMillis() + interval;
+        }
+
+        /**
+         * Create the task to move to a new status.
+         *
+         * @return The task
+         */
+        Task toTask() {
+            Task task = new Task();
+            task.setId(taskId);
+            task.setStatus(status);
+            task.setUserName(userName);
+            task.setNativeId(nativeId);
+            task.setAssociatedInfrastructureId(infrastructureId);
+            return task;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import org.ogf.saga.error.BadParameterException;
+import org.ogf.saga.error.DoesNotExistException;
+import org.ogf.saga.job.Job;
+
+/**
+ * Creates the jobs for an infrastructure type.
+ * Providers registered in the {@link CustomJobFactory} replace the jSAGA
+ * job service for their type. They are used to add infrastructures not
+ * managed by jSAGA and to replace the remote services with local
+ * implementations when the server is tested.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface JobProvider {
+
+    /**
+     * Create the job for a task.
+     * The job is not started.
+     *
+     * @param task The task to execute
+     * @return The job
+     * @throws InfrastructureException If the infrastructure cannot be used
+     * @throws BadParameterException If the task parameters are not correct
+     */
+    Job createJob(Task task)
+            throws InfrastructureException, BadParameterException;
+
+    /**
+     * Retrieves a job already submitted.
+     * The job is used to monitor the state of the task.
+     *
+     * @param task The task executed by the job
+     * @param nativeId The identifier of the job
+     * @return The job
+     * @throws InfrastructureException If the infrastructure cannot be used
+     * @throws DoesNotExistException If the job is not known by the
+     * infrastructure
+     */
+    Job getJob(Task task, String nativeId)
+            throws InfrastructureException, DoesNotExistException;
+}
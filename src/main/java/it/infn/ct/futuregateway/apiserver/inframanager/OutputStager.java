@@ -0,0 +1,854 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFile;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileOutput;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.storage.ChecksumChannel;
+import it.infn.ct.futuregateway.apiserver.storage.Storage;
+import it.infn.ct.futuregateway.apiserver.storage.UploadChecksums;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ogf.saga.buffer.Buffer;
+import org.ogf.saga.buffer.BufferFactory;
+import org.ogf.saga.error.SagaException;
+import org.ogf.saga.file.File;
+import org.ogf.saga.file.FileFactory;
+import org.ogf.saga.file.SeekMode;
+import org.ogf.saga.namespace.Flags;
+import org.ogf.saga.session.Session;
+import org.ogf.saga.url.URLFactory;
+
+/**
+ * Retrieves the output files of the completed jobs.
+ * When the job of a task with output files is done the task is handed to
+ * the stager by the {@link JobMonitor} and it is moved to <i>DONE</i> only
+ * after all the outputs are in the storage. The files are read with the
+ * data services of the infrastructure from the location defined by the
+ * parameter <i>outputurl</i> of the application or, if missing, of the
+ * infrastructure.
+ * <p>
+ * The files of all the tasks are transferred in parallel by a pool of
+ * threads, with a separate limit for every infrastructure. The transfers
+ * wait for the limit in a queue of their infrastructure and they are
+ * given to the pool only with the permission, so the threads never wait
+ * for a busy infrastructure and the other infrastructures are not
+ * starved. A transfer
+ * interrupted continues from the data already stored and the checksum of
+ * the file is computed while it is written. If the task declares the
+ * checksum of an output the retrieved file has to match it. A task whose
+ * outputs cannot be retrieved after {@link Constants#STAGINGATTEMPTS}
+ * attempts is moved to <i>ABORTED</i>.
+ * <p>
+ * When the staging of a task ends without a transition, because the
+ * stager is stopped or the DB cannot be updated, the task is released and
+ * the monitor checks its job again, so the retrieval is repeated later.
+ * <p>
+ * Tasks whose job completed during a restart of the server are found done
+ * again by the monitor and their transfers continue from the stored data.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class OutputStager {
+
+    /**
+     * Name of the parameter with the location of the output files.
+     */
+    public static final String OUTPUTURLPARAMETER = "outputurl";
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(OutputStager.class);
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * State machine receiving the status changes of the tasks.
+     */
+    private final TaskStateMachine stateMachine;
+
+    /**
+     * Storage receiving the output files.
+     */
+    private final Storage storage;
+
+    /**
+     * Limiter of the concurrent transfers from the infrastructures.
+     */
+    private final InfrastructureLimiter limiter;
+
+    /**
+     * Number of threads transferring the files.
+     */
+    private final int threads;
+
+    /**
+     * Tasks whose outputs are in transfer, by identifier.
+     */
+    private final ConcurrentMap<String, StagedTask> staging =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Transfers waiting for the limit of their infrastructure.
+     */
+    private final ConcurrentMap<String, Queue<FileTransfer>> waiting =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Threads transferring the files.
+     */
+    private ExecutorService transfers;
+
+    /**
+     * Dispatcher of the waiting transfers when a permission is released.
+     * The limiter can be shared with other components, so the transfers
+     * cannot wait only for the permissions released by this stager.
+     */
+    private final InfrastructureLimiter.ReleaseListener dispatcher =
+            new InfrastructureLimiter.ReleaseListener() {
+        @Override
+        public void released(final String infrastructureId) {
+            Queue<FileTransfer> queue = waiting.get(infrastructureId);
+            if (queue != null && !queue.isEmpty()) {
+                dispatch(infrastructureId);
+            }
+        }
+    };
+
+
+    /**
+     * Create the stager.
+     *
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     * @param aStateMachine The state machine managing the task status
+     * @param aStorage The storage receiving the output files
+     * @param aLimiter The limiter of the concurrent transfers from the
+     * infrastructures
+     * @param someThreads Number of threads transferring the files
+     */
+    public OutputStager(final EntityManagerFactory anEntityManagerFactory,
+            final TaskStateMachine aStateMachine, final Storage aStorage,
+            final InfrastructureLimiter aLimiter, final int someThreads) {
+        this.emf = anEntityManagerFactory;
+        this.stateMachine = aStateMachine;
+        this.storage = aStorage;
+        this.limiter = aLimiter;
+        this.threads = someThreads;
+    }
+
+
+    /**
+     * Start the stager.
+     */
+    public final void start() {
+        transfers = Executors.newFixedThreadPool(threads);
+        limiter.addReleaseListener(dispatcher);
+    }
+
+
+    /**
+     * Stop the stager.
+     * The transfers in progress are interrupted, they continue when the
+     * tasks are found done again. The permissions of the transfers not
+     * started are given back to the limiter.
+     */
+    public final void stop() {
+        limiter.removeReleaseListener(dispatcher);
+        if (transfers != null) {
+            for (Runnable r: transfers.shutdownNow()) {
+                if (r instanceof FileTransfer) {
+                    limiter.release(((FileTransfer) r).st.task.
+                            getAssociatedInfrastructureId());
+                }
+            }
+        }
+        waiting.clear();
+    }
+
+
+    /**
+     * Retrieves the number of tasks whose outputs are in transfer.
+     *
+     * @return The number of tasks
+     */
+    public final int getStaging() {
+        return staging.size();
+    }
+
+
+    /**
+     * Checks if the outputs of a task are in transfer.
+     * A task handed to the stager and not in transfer anymore has been
+     * moved to its final status or it has to be staged again.
+     *
+     * @param taskId The task identifier
+     * @return True if the stager is working on the task
+     */
+    public final boolean isStaging(final String taskId) {
+        return staging.containsKey(taskId);
+    }
+
+
+    /**
+     * Start the retrieval of the outputs for tasks whose job is done.
+     * The tasks with output files are moved to <i>DONE</i> by the stager
+     * when the files are stored, the others are returned to the caller.
+     *
+     * @param tasks The tasks with the job done
+     * @return The tasks without output files
+     */
+    public final List<Task> stage(final List<Task> tasks) {
+        List<String> ids = new ArrayList<>(tasks.size());
+        for (Task task: tasks) {
+            ids.add(task.getId());
+        }
+        Set<String> withOutputs;
+        EntityManager em = emf.createEntityManager();
+        try {
+            withOutputs = new HashSet<>(em.createNamedQuery(
+                    "tasks.withOutputs", String.class).
+                    setParameter("ids", ids).
+                    getResultList());
+        } finally {
+            em.close();
+        }
+        List<Task> completed = new ArrayList<>(tasks.size());
+        for (Task task: tasks) {
+            if (!withOutputs.contains(task.getId())) {
+                completed.add(task);
+                continue;
+            }
+            final StagedTask st = new StagedTask(task);
+            if (staging.putIfAbsent(task.getId(), st) != null) {
+                continue;
+            }
+            try {
+                transfers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        prepare(st);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                staging.remove(task.getId());
+                log.warn("Outputs of the task " + task.getId()
+                        + " not retrieved, the stager is stopped. The task "
+                        + "is released");
+            }
+        }
+        return completed;
+    }
+
+
+    /**
+     * Start the transfers of the output files of a task.
+     * Files already retrieved are not transferred again.
+     *
+     * @param st The task
+     */
+    private void prepare(final StagedTask st) {
+        Task task;
+        EntityManager em = emf.createEntityManager();
+        try {
+            task = DetailLoader.findTask(em, st.task.getId());
+        } catch (RuntimeException re) {
+            log.error("Impossible to load the task " + st.task.getId()
+                    + ", the task is released");
+            log.error(re);
+            staging.remove(st.task.getId());
+            return;
+        } finally {
+            em.close();
+        }
+        if (task == null) {
+            staging.remove(st.task.getId());
+            return;
+        }
+        task.setAssociatedInfrastructureId(
+                st.task.getAssociatedInfrastructureId());
+        String baseUrl = getOutputUrl(task);
+        if (baseUrl == null) {
+            log.warn("Location of the outputs not defined for the task "
+                    + task.getId() + ", outputs not retrieved");
+            complete(st);
+            return;
+        }
+        Session session;
+        try {
+            session = CustomJobFactory.getSession(task);
+        } catch (InfrastructureException | RuntimeException ex) {
+            log.error("Impossible to access the infrastructure of the task "
+                    + task.getId() + ": " + ex.getMessage());
+            st.failed = true;
+            complete(st);
+            return;
+        }
+        List<TaskFileOutput> pending = new ArrayList<>();
+        for (TaskFileOutput tfo: task.getOutputFiles()) {
+            if (!TaskFile.FILESTATUS.READY.equals(tfo.getStatus())) {
+                pending.add(tfo);
+            }
+        }
+        if (pending.isEmpty()) {
+            complete(st);
+            return;
+        }
+        st.remaining.set(pending.size());
+        String infraId = task.getAssociatedInfrastructureId();
+        Queue<FileTransfer> queue = getQueue(infraId);
+        for (TaskFileOutput tfo: pending) {
+            queue.add(new FileTransfer(st, session, baseUrl, tfo.getName(),
+                    tfo.getChecksum()));
+        }
+        dispatch(infraId);
+    }
+
+
+    /**
+     * Give the waiting transfers of an infrastructure to the pool.
+     * A transfer is executed only when the limit of its infrastructure
+     * allows it. The transfers are dispatched again at every release of a
+     * permission for the infrastructure, also by other components sharing
+     * the limiter.
+     *
+     * @param infraId The infrastructure identifier
+     */
+    private void dispatch(final String infraId) {
+        Queue<FileTransfer> queue = getQueue(infraId);
+        while (!queue.isEmpty() && limiter.tryAcquire(infraId)) {
+            FileTransfer ft = queue.poll();
+            if (ft == null) {
+                limiter.release(infraId);
+                continue;
+            }
+            try {
+                transfers.execute(ft);
+            } catch (RejectedExecutionException ree) {
+                limiter.release(infraId);
+                ft.st.failed = true;
+                ft.st.fileDone();
+            }
+        }
+    }
+
+
+    /**
+     * Retrieves the queue of the transfers waiting for an infrastructure.
+     *
+     * @param infraId The infrastructure identifier
+     * @return The queue
+     */
+    private Queue<FileTransfer> getQueue(final String infraId) {
+        Queue<FileTransfer> queue = waiting.get(infraId);
+        if (queue == null) {
+            Queue<FileTransfer> newQueue = new ConcurrentLinkedQueue<>();
+            queue = waiting.putIfAbsent(infraId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+
+    /**
+     * Complete the staging of a task.
+     * The checksums of the retrieved files are stored and the task moved to
+     * the final status. The task is released only after the transition, so
+     * the monitor does not check again a task just completed. If the stager
+     * is stopped or the checksums cannot be stored the task is released
+     * without a transition.
+     *
+     * @param st The task
+     */
+    private void complete(final StagedTask st) {
+        try {
+            if (Thread.currentThread().isInterrupted()
+                    || transfers.isShutdown()) {
+                return;
+            }
+            Task.STATUS to = Task.STATUS.DONE;
+            if (st.failed) {
+                to = Task.STATUS.ABORTED;
+            } else if (!st.checksums.isEmpty() && !storeChecksums(st)) {
+                log.warn("Outputs of the task " + st.task.getId()
+                        + " not stored, the task is released");
+                return;
+            }
+            try {
+                if (stateMachine.moveTo(st.task, to)) {
+                    log.info("Outputs of the task " + st.task.getId() + " "
+                            + (st.failed ? "not retrieved" : "retrieved"));
+                }
+            } catch (RuntimeException re) {
+                log.error("Impossible to move the task " + st.task.getId()
+                        + " to " + to + ", the task is released");
+            }
+        } finally {
+            staging.remove(st.task.getId());
+        }
+    }
+
+
+    /**
+     * Store the checksums of the retrieved files and set them as ready.
+     *
+     * @param st The task
+     * @return True if the files are updated
+     */
+    private boolean storeChecksums(final StagedTask st) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction et = null;
+        try {
+            et = em.getTransaction();
+            et.begin();
+            Task task = em.find(Task.class, st.task.getId());
+            if (task == null) {
+                return false;
+            }
+            for (Map.Entry<String, String> file: st.checksums.entrySet()) {
+                TaskFileOutput tfo = task.getOutputFile(file.getKey());
+                if (tfo != null) {
+                    tfo.setStatus(TaskFile.FILESTATUS.READY);
+                    tfo.setChecksum(file.getValue());
+                }
+            }
+            et.commit();
+            return true;
+        } catch (RuntimeException re) {
+            log.error("Impossible to update the outputs of the task "
+                    + st.task.getId());
+            log.error(re);
+            return false;
+        } finally {
+            if (et != null && et.isActive()) {
+                et.rollback();
+            }
+            em.close();
+        }
+    }
+
+
+    /**
+     * Transfer an output file in the storage.
+     * The transfer continues from the data already stored, unless a
+     * previous attempt found a different checksum.
+     *
+     * @param session The session to access the infrastructure
+     * @param baseUrl The location of the outputs
+     * @param taskId The task identifier
+     * @param fileName The file name
+     * @param expected The expected checksum, null if not known
+     * @param restart True to transfer the file from the beginning
+     * @return The checksum of the stored file
+     * @throws IOException If the file cannot be stored or it is not correct
+     * @throws SagaException If the file cannot be read from the
+     * infrastructure
+     */
+    private String transfer(final Session session, final String baseUrl,
+            final String taskId, final String fileName, final String expected,
+            final boolean restart) throws IOException, SagaException {
+        String url = baseUrl;
+        if (!url.endsWith("/")) {
+            url += "/";
+        }
+        File remote = FileFactory.createFile(session,
+                URLFactory.createURL(url + fileName), Flags.READ.getValue());
+        MessageDigest digest;
+        long size;
+        try {
+            long total = remote.getSize();
+            long position = 0;
+            if (!restart) {
+                position = storage.getFileSize(Storage.RESOURCE.TASKS, taskId,
+                        fileName, Constants.OUTPUTFOLDER);
+            }
+            if (position < 0 || position > total) {
+                position = 0;
+            }
+            digest = resumeDigest(taskId, fileName, position);
+            size = position;
+            if (position < total || total == 0) {
+                remote.seek(position, SeekMode.START);
+                size += storage.storeFilePart(Storage.RESOURCE.TASKS, taskId,
+                        new ChecksumChannel(new RemoteFileChannel(remote),
+                                digest),
+                        fileName, Constants.OUTPUTFOLDER, position);
+            }
+            if (size != total) {
+                throw new IOException("Retrieved " + size + " bytes of "
+                        + total);
+            }
+        } finally {
+            remote.close();
+        }
+        String checksum = UploadChecksums.toHex(digest.digest());
+        if (expected != null && !expected.equalsIgnoreCase(checksum)) {
+            throw new ChecksumException("Checksum " + checksum
+                    + " does not match the expected " + expected);
+        }
+        storage.commitFile(Storage.RESOURCE.TASKS, taskId, fileName,
+                Constants.OUTPUTFOLDER, checksum);
+        return checksum;
+    }
+
+
+    /**
+     * Compute the digest of the data already stored.
+     *
+     * @param taskId The task identifier
+     * @param fileName The file name
+     * @param position Size of the stored data
+     * @return The digest of the data before the position
+     * @throws IOException If the stored data cannot be read
+     */
+    private MessageDigest resumeDigest(final String taskId,
+            final String fileName, final long position) throws IOException {
+        if (position == 0) {
+            return UploadChecksums.newDigest();
+        }
+        try (SeekableByteChannel stored = storage.openFile(
+                Storage.RESOURCE.TASKS, taskId, fileName,
+                Constants.OUTPUTFOLDER)) {
+            return UploadChecksums.getDefault().resume(
+                    taskId + "/" + Constants.OUTPUTFOLDER + "/" + fileName,
+                    position, stored);
+        }
+    }
+
+
+    /**
+     * Retrieves the location of the output files of a task.
+     * The application parameter has the precedence on the infrastructure
+     * one.
+     *
+     * @param task The task
+     * @return The URL of the directory with the outputs or null if not
+     * defined
+     */
+    private static String getOutputUrl(final Task task) {
+        String url = null;
+        if (task.getApplicationDetail() != null
+                && task.getApplicationDetail().getParameters() != null) {
+            url = Utilities.getParamterValue(
+                    task.getApplicationDetail().getParameters(),
+                    OUTPUTURLPARAMETER);
+        }
+        if (url == null && task.getAssociatedInfrastructure() != null) {
+            url = Utilities.getParamterValue(
+                    task.getAssociatedInfrastructure().getParameters(),
+                    OUTPUTURLPARAMETER);
+        }
+        return url;
+    }
+
+
+    /**
+     * Checks if the name of an output file can be used in a URL and in the
+     * storage.
+     *
+     * @param fileName The file name
+     * @return True if the name does not refer other directories
+     */
+    private static boolean isValidName(final String fileName) {
+        return fileName != null && !fileName.isEmpty()
+                && !fileName.contains("/") && !fileName.contains("\\")
+                && !fileName.equals("..");
+    }
+
+
+    /**
+     * Task whose outputs are in transfer.
+     */
+    private final class StagedTask {
+
+        /**
+         * The task to move when the transfers complete.
+         */
+        private final Task task;
+
+        /**
+         * Number of files still in transfer.
+         */
+        private final AtomicInteger remaining = new AtomicInteger();
+
+        /**
+         * Checksums of the retrieved files, by name.
+         */
+        private final Map<String, String> checksums =
+                new ConcurrentHashMap<>();
+
+        /**
+         * True if a file cannot be retrieved.
+         */
+        private volatile boolean failed;
+
+
+        /**
+         * Create the staged task.
+         *
+         * @param aTask The task
+         */
+        StagedTask(final Task aTask) {
+            this.task = aTask;
+        }
+
+        /**
+         * Account a completed transfer.
+         * The last transfer completes the staging of the task.
+         */
+        void fileDone() {
+            if (remaining.decrementAndGet() == 0) {
+                complete(this);
+            }
+        }
+    }
+
+
+    /**
+     * Transfer of an output file.
+     */
+    private final class FileTransfer implements Runnable {
+
+        /**
+         * The task of the file.
+         */
+        private final StagedTask st;
+
+        /**
+         * The session to access the infrastructure.
+         */
+        private final Session session;
+
+        /**
+         * The location of the outputs.
+         */
+        private final String baseUrl;
+
+        /**
+         * The file name.
+         */
+        private final String fileName;
+
+        /**
+         * The expected checksum, null if not known.
+         */
+        private final String expected;
+
+
+        /**
+         * Create the transfer.
+         *
+         * @param aStagedTask The task of the file
+         * @param aSession The session to access the infrastructure
+         * @param aBaseUrl The location of the outputs
+         * @param aFileName The file name
+         * @param anExpected The expected checksum, null if not known
+         */
+        FileTransfer(final StagedTask aStagedTask, final Session aSession,
+                final String aBaseUrl, final String aFileName,
+                final String anExpected) {
+            this.st = aStagedTask;
+            this.session = aSession;
+            this.baseUrl = aBaseUrl;
+            this.fileName = aFileName;
+            this.expected = anExpected;
+        }
+
+        /**
+         * Transfer the file.
+         * The transfer is executed with the permission of the limiter,
+         * released at the end.
+         */
+        @Override
+        public void run() {
+            String taskId = st.task.getId();
+            String infraId = st.task.getAssociatedInfrastructureId();
+            try {
+                if (!isValidName(fileName)) {
+                    log.error("Output file name '" + fileName
+                            + "' not valid for the task " + taskId);
+                    st.failed = true;
+                    return;
+                }
+                retrieve(taskId);
+            } finally {
+                limiter.release(infraId);
+                st.fileDone();
+            }
+        }
+
+        /**
+         * Retrieve the file with the configured attempts.
+         *
+         * @param taskId The task identifier
+         */
+        private void retrieve(final String taskId) {
+            boolean restart = false;
+            for (int attempt = 1; attempt <= Constants.STAGINGATTEMPTS;
+                    attempt++) {
+                try {
+                    st.checksums.put(fileName, transfer(session, baseUrl,
+                            taskId, fileName, expected, restart));
+                    return;
+                } catch (ChecksumException ce) {
+                    log.warn("Output " + fileName + " of the task " + taskId
+                            + " not valid: " + ce.getMessage());
+                    restart = true;
+                } catch (IOException | SagaException ex) {
+                    log.warn("Attempt " + attempt + " to retrieve the output "
+                            + fileName + " of the task " + taskId
+                            + " failed: " + ex.getMessage());
+                } catch (RuntimeException re) {
+                    log.error("Impossible to retrieve the output " + fileName
+                            + " of the task " + taskId);
+                    log.error(re);
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            st.failed = true;
+        }
+    }
+
+
+    /**
+     * Error for a retrieved file not matching the expected checksum.
+     */
+    private static final class ChecksumException extends IOException {
+
+        /**
+         * Serial version of the class.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create the exception.
+         *
+         * @param message The message
+         */
+        ChecksumException(final String message) {
+            super(message);
+        }
+    }
+
+
+    /**
+     * Channel reading a remote file.
+     */
+    private static final class RemoteFileChannel
+            implements ReadableByteChannel {
+
+        /**
+         * The remote file.
+         */
+        private final File remote;
+
+        /**
+         * Block used to read the file.
+         */
+        private final byte[] block = new byte[Constants.STAGINGBLOCKSIZE];
+
+        /**
+         * True if the channel is open.
+         */
+        private boolean open = true;
+
+
+        /**
+         * Create the channel.
+         *
+         * @param aRemote The remote file, positioned at the first byte to
+         * read
+         */
+        RemoteFileChannel(final File aRemote) {
+            this.remote = aRemote;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            int len = Math.min(dst.remaining(), block.length);
+            if (len == 0) {
+                return 0;
+            }
+            int read;
+            try {
+                Buffer buf = BufferFactory.createBuffer(block);
+                try {
+                    read = remote.read(buf, len);
+                } finally {
+                    buf.close();
+                }
+            } catch (SagaException se) {
+                throw new IOException(se.getMessage(), se);
+            }
+            if (read <= 0) {
+                return -1;
+            }
+            dst.put(block, 0, read);
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
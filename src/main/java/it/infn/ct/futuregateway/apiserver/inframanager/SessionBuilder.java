@@ -25,12 +25,18 @@ import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import it.infn.ct.futuregateway.apiserver.resources.Params;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
 import java.util.Properties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -67,6 +73,21 @@ public abstract class SessionBuilder {
      */
     private Session session;
 
+    /**
+     * Expiration of the credentials used for the last session.
+     */
+    private Date credentialExpiration;
+
+    /**
+     * Header of a PEM encoded certificate.
+     */
+    private static final String PEMBEGIN = "-----BEGIN CERTIFICATE-----";
+
+    /**
+     * Footer of a PEM encoded certificate.
+     */
+    private static final String PEMEND = "-----END CERTIFICATE-----";
+
     /**
      * Empty builder.
      * Parameters must be provided before the session is created.
@@ -149,20 +170,56 @@ public abstract class SessionBuilder {
 
     /**
      * Retrieves the last created session.
-     * If the session has not been created a new session is generated with the
-     * method <code>createNewSession</code>. Multiple call will return the same
-     * method unless a new session is explicitely requested.
+     * If the session has not been created it is retrieved from the
+     * {@link SessionCache}, which uses the method
+     * <code>createNewSession</code> only if there is not a valid session for
+     * the same infrastructure, user and VO. Multiple call will return the
+     * same session unless a new session is explicitely requested.
      *
      * @return The session.
      * @throws InfrastructureException If a new session cannot be generated
      */
     public final Session getSession() throws InfrastructureException {
         if (session == null) {
-            createNewSession();
+            session = SessionCache.getDefault().getSession(this);
         }
         return session;
     }
 
+    /**
+     * Retrieves the session created by <code>createNewSession</code>.
+     *
+     * @return The session or null if not created
+     */
+    final Session getCreatedSession() {
+        return session;
+    }
+
+    /**
+     * Retrieves the key identifying the sessions of the builder.
+     * Builders with the same key create equivalent sessions so these can be
+     * shared.
+     *
+     * @return The key
+     */
+    public final String getCacheKey() {
+        return getClass().getSimpleName()
+                + "|" + getInfrastructure().getId()
+                + "|" + user
+                + "|" + params.getProperty("vo", "")
+                + ":" + params.getProperty("voroles", "");
+    }
+
+    /**
+     * Retrieves the expiration of the credentials.
+     * The value refers to the credentials read for the last session created.
+     *
+     * @return The expiration time or null if the credentials do not expire
+     */
+    public final Date getCredentialExpiration() {
+        return credentialExpiration;
+    }
+
     /**
      * Set the session.
      *
@@ -180,7 +237,8 @@ public abstract class SessionBuilder {
      *
      * @return A string representation of the proxy
      * @throws InfrastructureException If the proxy for the infrastructure
-     * cannot be retrieved for problems with the parameters
+     * cannot be retrieved for problems with the parameters or with the
+     * remote location
      */
     protected final String readRemoteProxy() throws InfrastructureException {
         URL proxy;
@@ -266,12 +324,51 @@ public abstract class SessionBuilder {
         } catch (IOException ioer) {
             log.error("Impossible to retrieve the remote proxy certificate from"
                     + ": " + proxy.toString());
+            throw new InfrastructureException("Proxy not available for the "
+                    + "infrastructure " + getInfrastructure().getId());
         }
         log.debug("Proxy:\n\n" + strProxy.toString() + "\n\n");
+        credentialExpiration = readExpiration(strProxy.toString());
         return strProxy.toString();
     }
 
 
+    /**
+     * Read the expiration of a proxy certificate.
+     * The expiration is the earliest among the certificates in the proxy.
+     *
+     * @param proxy The PEM encoded proxy
+     * @return The expiration time or null if it cannot be read
+     */
+    private Date readExpiration(final String proxy) {
+        Date expiration = null;
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            int begin = proxy.indexOf(PEMBEGIN);
+            while (begin >= 0) {
+                int end = proxy.indexOf(PEMEND, begin);
+                if (end < 0) {
+                    break;
+                }
+                end += PEMEND.length();
+                X509Certificate cert = (X509Certificate)
+                        cf.generateCertificate(new ByteArrayInputStream(
+                                proxy.substring(begin, end).getBytes(
+                                        StandardCharsets.US_ASCII)));
+                if (expiration == null
+                        || cert.getNotAfter().before(expiration)) {
+                    expiration = cert.getNotAfter();
+                }
+                begin = proxy.indexOf(PEMBEGIN, end);
+            }
+        } catch (CertificateException | ClassCastException ce) {
+            log.warn("Impossible to read the proxy expiration: "
+                    + ce.getMessage());
+        }
+        return expiration;
+    }
+
+
     /**
      * Retrieves the session parameters.
      *
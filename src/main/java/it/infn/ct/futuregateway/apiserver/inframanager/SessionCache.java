@@ -0,0 +1,415 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ogf.saga.session.Session;
+
+/**
+ * Cache of the sessions for the infrastructures.
+ * Sessions are shared among all the submissions with the same key, built
+ * from the infrastructure, the user and the VO/role (see
+ * {@link SessionBuilder#getCacheKey()}). When many submissions require a
+ * missing session at the same time only one of them creates it and the
+ * others wait for the result.
+ * <p>
+ * A session is valid until the credentials used to create it expire, or for
+ * a maximum time if the credentials have not an expiration. Sessions
+ * requested again after their creation are created again in background
+ * before they expire, so the submissions do not wait for the credentials.
+ * Sessions not requested are removed when they expire. Only the requests of
+ * the clients count as use, not the creation of the session.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class SessionCache {
+
+    /**
+     * Logger object.
+     * Based on apache commons logging.
+     */
+    private static final Log LOG = LogFactory.getLog(SessionCache.class);
+
+    /**
+     * Cache shared by the application.
+     */
+    private static final SessionCache DEFAULT = new SessionCache();
+
+    /**
+     * Cached sessions.
+     */
+    private final ConcurrentMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Thread refreshing and removing the sessions.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Maximum lifetime of a session in milliseconds.
+     */
+    private final long maxLifetime;
+
+    /**
+     * Time in milliseconds before the expiration when a session is
+     * refreshed.
+     */
+    private final long refreshMargin;
+
+    /**
+     * Minimum time in milliseconds before a session is refreshed.
+     */
+    private final long minRefreshDelay;
+
+
+    /**
+     * Create an empty cache with the default timing.
+     */
+    private SessionCache() {
+        this(TimeUnit.SECONDS.toMillis(Constants.SESSIONMAXLIFETIME),
+                TimeUnit.SECONDS.toMillis(Constants.SESSIONREFRESHMARGIN),
+                TimeUnit.SECONDS.toMillis(Constants.SESSIONMINREFRESHDELAY));
+    }
+
+
+    /**
+     * Create an empty cache.
+     *
+     * @param aMaxLifetime Maximum lifetime of a session in milliseconds
+     * @param aRefreshMargin Time in milliseconds before the expiration when
+     * a session is refreshed
+     * @param aMinRefreshDelay Minimum time in milliseconds before a session
+     * is refreshed
+     */
+    SessionCache(final long aMaxLifetime, final long aRefreshMargin,
+            final long aMinRefreshDelay) {
+        this.maxLifetime = aMaxLifetime;
+        this.refreshMargin = aRefreshMargin;
+        this.minRefreshDelay = aMinRefreshDelay;
+        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(r, "SessionCacheRefresh");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        stpe.setRemoveOnCancelPolicy(true);
+        scheduler = stpe;
+    }
+
+
+    /**
+     * Retrieves the cache shared by the application.
+     *
+     * @return The session cache
+     */
+    public static SessionCache getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Retrieves the session for a builder.
+     * If the cache does not contain a valid session for the builder key the
+     * builder is used to create a new one.
+     *
+     * @param builder The builder of the session
+     * @return The session
+     * @throws InfrastructureException If the session cannot be created
+     */
+    public Session getSession(final SessionBuilder builder)
+            throws InfrastructureException {
+        String key = builder.getCacheKey();
+        while (true) {
+            Entry entry = entries.get(key);
+            boolean created = false;
+            if (entry == null || entry.isExpired()) {
+                Entry newEntry = new Entry(key, builder);
+                if (!install(key, entry, newEntry)) {
+                    continue;
+                }
+                newEntry.load();
+                entry = newEntry;
+                created = true;
+            }
+            try {
+                if (created) {
+                    return entry.await();
+                }
+                return entry.get();
+            } catch (InfrastructureException ie) {
+                entries.remove(key, entry);
+                throw ie;
+            }
+        }
+    }
+
+
+    /**
+     * Checks if a valid session is cached for a key.
+     *
+     * @param key The session key
+     * @return True if the session is cached and not expired
+     */
+    boolean isCached(final String key) {
+        Entry entry = entries.get(key);
+        return entry != null && !entry.isExpired();
+    }
+
+
+    /**
+     * Remove all the sessions.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+
+    /**
+     * Stop the background activities.
+     * The cache can still be used but the sessions are not refreshed.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        entries.clear();
+    }
+
+
+    /**
+     * Install a new entry in the cache.
+     *
+     * @param key The session key
+     * @param oldEntry The entry to replace or null
+     * @param newEntry The new entry
+     * @return True if the entry is installed, false if the cache was modified
+     * by another thread
+     */
+    private boolean install(final String key, final Entry oldEntry,
+            final Entry newEntry) {
+        if (oldEntry == null) {
+            return entries.putIfAbsent(key, newEntry) == null;
+        }
+        return entries.replace(key, oldEntry, newEntry);
+    }
+
+
+    /**
+     * Schedule the next activity for a loaded entry.
+     * Entries are refreshed before they expire if they have been used,
+     * otherwise they are removed. Sessions with a lifetime shorter than the
+     * refresh margin are not refreshed before a minimum delay, to avoid
+     * creating them again in a loop.
+     *
+     * @param entry The entry
+     */
+    private void schedule(final Entry entry) {
+        long now = System.currentTimeMillis();
+        long delay = Math.max(entry.expiresAt - now - refreshMargin,
+                minRefreshDelay);
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(entry);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException re) {
+            LOG.debug("Session refresh not scheduled: " + re.getMessage());
+        }
+    }
+
+
+    /**
+     * Refresh an entry.
+     *
+     * @param entry The entry to refresh
+     */
+    private void refresh(final Entry entry) {
+        if (entries.get(entry.key) != entry) {
+            return;
+        }
+        if (!entry.used) {
+            LOG.debug("Session " + entry.key + " not used, removed");
+            entries.remove(entry.key, entry);
+            return;
+        }
+        Entry newEntry = new Entry(entry.key, entry.builder);
+        newEntry.load();
+        try {
+            newEntry.await();
+            if (entries.replace(entry.key, entry, newEntry)) {
+                LOG.debug("Session " + entry.key + " refreshed");
+            }
+        } catch (InfrastructureException ie) {
+            LOG.warn("Impossible to refresh the session " + entry.key
+                    + ", it will be created at the next request");
+            entries.remove(entry.key, entry);
+        }
+    }
+
+
+    /**
+     * Session in the cache.
+     */
+    private final class Entry {
+
+        /**
+         * Key of the session.
+         */
+        private final String key;
+
+        /**
+         * Builder creating the session.
+         */
+        private final SessionBuilder builder;
+
+        /**
+         * Creation of the session, shared by the threads requesting it.
+         */
+        private final FutureTask<Session> loader;
+
+        /**
+         * Expiration time of the session.
+         */
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        /**
+         * Time the session was created.
+         */
+        private volatile long loadedAt;
+
+        /**
+         * Whether the session has been requested after its creation.
+         */
+        private volatile boolean used;
+
+
+        /**
+         * Create an entry.
+         *
+         * @param aKey The key of the session
+         * @param aBuilder The builder creating the session
+         */
+        Entry(final String aKey, final SessionBuilder aBuilder) {
+            this.key = aKey;
+            this.builder = aBuilder;
+            this.loader = new FutureTask<>(new Callable<Session>() {
+                @Override
+                public Session call() throws InfrastructureException {
+                    synchronized (builder) {
+                        builder.createNewSession();
+                        return builder.getCreatedSession();
+                    }
+                }
+            });
+        }
+
+
+        /**
+         * Create the session.
+         * The session is created in the calling thread, other threads
+         * requesting the session wait for the result. If the creation
+         * fails the error is reported by {@link #get()}.
+         */
+        void load() {
+            loader.run();
+            loadedAt = System.currentTimeMillis();
+            try {
+                loader.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                return;
+            }
+            long lifetime = maxLifetime;
+            Date credExpiration = builder.getCredentialExpiration();
+            if (credExpiration != null) {
+                lifetime = Math.min(lifetime,
+                        credExpiration.getTime() - loadedAt);
+            }
+            expiresAt = loadedAt + lifetime;
+            schedule(this);
+        }
+
+
+        /**
+         * Checks if the session is expired.
+         *
+         * @return True if the session cannot be used anymore
+         */
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+
+        /**
+         * Retrieves the session for a client, waiting for its creation if
+         * needed.
+         * The request marks the session as used, so it is refreshed before
+         * the expiration.
+         *
+         * @return The session
+         * @throws InfrastructureException If the session cannot be created
+         */
+        Session get() throws InfrastructureException {
+            used = true;
+            return await();
+        }
+
+
+        /**
+         * Retrieves the session without marking it as used.
+         *
+         * @return The session
+         * @throws InfrastructureException If the session cannot be created
+         */
+        Session await() throws InfrastructureException {
+            try {
+                return loader.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InfrastructureException("Interrupted while waiting"
+                        + " the session for " + key);
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof InfrastructureException) {
+                    throw (InfrastructureException) ee.getCause();
+                }
+                throw new InfrastructureException("Impossible to create the"
+                        + " session for " + key + ": "
+                        + ee.getCause().getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.scheduler.InfrastructureScheduler;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Queue of the tasks waiting for the submission.
+ * The durable queue is the DB: a task in status <i>READY</i> is waiting for
+ * the submission. Only a bounded window of these tasks is kept in memory,
+ * waiting for a thread of the submission pool or in submission. When the
+ * window is full new tasks are not accepted and they stay in the DB. The
+ * window bounds the tasks in memory also when the pool creates a thread for
+ * every task, as with virtual threads.
+ * <p>
+ * The DB is periodically scanned to queue the ready tasks not yet in the
+ * window, because they were rejected or because the server was restarted.
+ * Tasks found ready with a native identifier were submitted before a restart
+ * without storing the new status, so they are moved to <i>SCHEDULED</i>
+ * instead of being submitted again. Tasks in the window are skipped by the
+ * scan because their submission is still in progress.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class SubmissionQueue implements SubmissionQueueMXBean {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(SubmissionQueue.class);
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * Executor service for the task submission.
+     */
+    private final ExecutorService es;
+
+    /**
+     * State machine managing the submitted tasks.
+     */
+    private final TaskStateMachine stateMachine;
+
+    /**
+     * Limiter of the concurrent operations on the infrastructures.
+     */
+    private final InfrastructureLimiter limiter;
+
+    /**
+     * Scheduler selecting the infrastructure of the tasks.
+     */
+    private final InfrastructureScheduler scheduler;
+
+    /**
+     * Stager transferring the input files of the tasks.
+     */
+    private final InputStager inputStager;
+
+    /**
+     * Maximum number of tasks in the window.
+     */
+    private final int capacity;
+
+    /**
+     * Tasks in the window with the time they were queued.
+     * A task remains in the window until its submission is completed.
+     */
+    private final ConcurrentMap<String, Long> window =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Tasks waiting for a thread.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * Submissions started.
+     */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * Tasks rejected.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Total waiting time.
+     */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /**
+     * Maximum waiting time.
+     */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Thread scanning the DB for ready tasks.
+     */
+    private ScheduledExecutorService scanner;
+
+    /**
+     * Name of the registered MXBean.
+     */
+    private ObjectName mxBeanName;
+
+
+    /**
+     * Create the submission queue.
+     *
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     * @param anExecutorService An ExecutorService to retrieve threads managing
+     * the task submission
+     * @param aStateMachine The state machine managing the task status
+     * @param aLimiter The limiter of the concurrent operations on the
+     * infrastructures
+     * @param aScheduler The scheduler selecting the infrastructure of the
+     * tasks
+     * @param anInputStager The stager transferring the input files of the
+     * tasks
+     * @param aCapacity Maximum number of tasks in the window
+     */
+    public SubmissionQueue(final EntityManagerFactory anEntityManagerFactory,
+            final ExecutorService anExecutorService,
+            final TaskStateMachine aStateMachine,
+            final InfrastructureLimiter aLimiter,
+            final InfrastructureScheduler aScheduler,
+            final InputStager anInputStager, final int aCapacity) {
+        this.emf = anEntityManagerFactory;
+        this.es = anExecutorService;
+        this.stateMachine = aStateMachine;
+        this.limiter = aLimiter;
+        this.scheduler = aScheduler;
+        this.inputStager = anInputStager;
+        this.capacity = aCapacity;
+    }
+
+
+    /**
+     * Start the queue.
+     * The tasks left in the DB by a previous execution are recovered
+     * immediately, then the DB is scanned periodically.
+     */
+    public final void start() {
+        scanner = Executors.newSingleThreadScheduledExecutor();
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0, Constants.SUBMISSIONQUEUESCANINTERVAL, TimeUnit.SECONDS);
+        try {
+            mxBeanName = new ObjectName(
+                    "it.infn.ct.futuregateway.apiserver:type=SubmissionQueue");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, mxBeanName);
+        } catch (JMException jme) {
+            log.warn("Submission queue metrics not available: "
+                    + jme.getMessage());
+            mxBeanName = null;
+        }
+    }
+
+
+    /**
+     * Stop the queue.
+     * The tasks in the window are not removed from the submission pool.
+     */
+    public final void stop() {
+        if (scanner != null) {
+            scanner.shutdownNow();
+        }
+        if (mxBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().
+                        unregisterMBean(mxBeanName);
+            } catch (JMException jme) {
+                log.warn("Impossible to unregister the queue metrics");
+            }
+        }
+    }
+
+
+    /**
+     * Checks if the queue can accept new tasks.
+     *
+     * @return True if there is space in the window
+     */
+    public final boolean hasCapacity() {
+        return window.size() < capacity;
+    }
+
+
+    /**
+     * Add a task to the queue.
+     * The task has to be already stored in the DB in status <i>READY</i>.
+     * If the window is full the task is rejected but it will be queued by
+     * the next scan of the DB.
+     *
+     * @param taskId The identifier of the task
+     * @return True if the task is in the queue, false if it was rejected
+     */
+    public final boolean offer(final String taskId) {
+        if (window.containsKey(taskId)) {
+            return true;
+        }
+        if (!hasCapacity()) {
+            reject(taskId);
+            return false;
+        }
+        if (window.putIfAbsent(taskId, System.currentTimeMillis()) != null) {
+            return true;
+        }
+        depth.incrementAndGet();
+        try {
+            es.execute(new QueuedSubmission(taskId));
+        } catch (RejectedExecutionException ree) {
+            depth.decrementAndGet();
+            window.remove(taskId);
+            reject(taskId);
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public final int getDepth() {
+        return depth.get();
+    }
+
+
+    @Override
+    public final int getCapacity() {
+        return capacity;
+    }
+
+
+    @Override
+    public final long getSubmitted() {
+        return submitted.get();
+    }
+
+
+    @Override
+    public final long getRejected() {
+        return rejected.get();
+    }
+
+
+    @Override
+    public final long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+
+    @Override
+    public final long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+
+    /**
+     * Account a task not accepted.
+     *
+     * @param taskId The identifier of the task
+     */
+    private void reject(final String taskId) {
+        rejected.incrementAndGet();
+        log.warn("Submission queue full, task " + taskId
+                + " left in the DB");
+    }
+
+
+    /**
+     * Queue the ready tasks stored in the DB.
+     */
+    private void scan() {
+        List<Object[]> readyTasks;
+        EntityManager em = emf.createEntityManager();
+        try {
+            readyTasks = em.createNamedQuery("tasks.byStatus", Object[].class).
+                    setParameter("status", Task.STATUS.READY).
+                    setMaxResults(capacity).
+                    getResultList();
+            for (Object[] row: readyTasks) {
+                String taskId = (String) row[0];
+                if (window.containsKey(taskId)) {
+                    continue;
+                }
+                if (row[1] != null) {
+                    Task task = em.find(Task.class, taskId);
+                    if (task != null
+                            && stateMachine.moveTo(task,
+                                    Task.STATUS.SCHEDULED)) {
+                        log.info("Task " + taskId + " recovered as "
+                                + "scheduled");
+                    }
+                } else if (!offer(taskId)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException re) {
+            log.error("Impossible to scan the ready tasks");
+            log.error(re);
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Submission of a task in the window.
+     */
+    private final class QueuedSubmission implements Runnable {
+
+        /**
+         * Identifier of the task.
+         */
+        private final String taskId;
+
+        /**
+         * Create the submission.
+         *
+         * @param aTaskId The identifier of the task
+         */
+        QueuedSubmission(final String aTaskId) {
+            this.taskId = aTaskId;
+        }
+
+        @Override
+        public void run() {
+            depth.decrementAndGet();
+            submitted.incrementAndGet();
+            Long queued = window.get(taskId);
+            if (queued != null) {
+                long wait = System.currentTimeMillis() - queued;
+                totalWaitTime.addAndGet(wait);
+                long max = maxWaitTime.get();
+                while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+                    max = maxWaitTime.get();
+                }
+            }
+            try {
+                new Submitter(taskId, emf, stateMachine, limiter,
+                        scheduler, inputStager).run();
+            } finally {
+                window.remove(taskId);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+/**
+ * Metrics of the submission queue.
+ * The values are published with JMX.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface SubmissionQueueMXBean {
+
+    /**
+     * Retrieves the number of tasks waiting for a submission thread.
+     *
+     * @return The queue depth
+     */
+    int getDepth();
+
+    /**
+     * Retrieves the maximum number of tasks in memory, waiting or in
+     * submission.
+     *
+     * @return The queue capacity
+     */
+    int getCapacity();
+
+    /**
+     * Retrieves the number of tasks handed to a submission thread.
+     *
+     * @return The number of submissions started
+     */
+    long getSubmitted();
+
+    /**
+     * Retrieves the number of tasks not accepted because the queue was full.
+     * Rejected tasks remain ready in the DB and are queued again later.
+     *
+     * @return The number of rejections
+     */
+    long getRejected();
+
+    /**
+     * Retrieves the total time the submitted tasks waited in the queue.
+     *
+     * @return The time in milliseconds
+     */
+    long getTotalWaitTime();
+
+    /**
+     * Retrieves the longest time a task waited in the queue.
+     *
+     * @return The time in milliseconds
+     */
+    long getMaxWaitTime();
+}
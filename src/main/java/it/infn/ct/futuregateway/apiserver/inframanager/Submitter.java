@@ -21,15 +21,42 @@
 
 package it.infn.ct.futuregateway.apiserver.inframanager;
 
+import it.infn.ct.futuregateway.apiserver.inframanager.scheduler.InfrastructureScheduler;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ogf.saga.error.BadParameterException;
+import org.ogf.saga.error.SagaException;
 import org.ogf.saga.job.Job;
 
 /**
  * The Submitter implements the thread responsible for the
  * submission of a task to the remote infrastructure.
+ * <p>
+ * The task is loaded from the DB when the thread starts so the submission
+ * does not depend on the objects used by the client request. The
+ * infrastructure is selected by the scheduler, which is informed of the
+ * outcome of the submission. After the job is started the native identifier
+ * is stored and the task moves to <i>SCHEDULED</i>. If the native identifier
+ * cannot be stored the job is cancelled, so the task left ready is not
+ * running twice when it is submitted again. The input files are
+ * transferred to the infrastructure by the {@link InputStager} before the
+ * creation of the job.
+ * <p>
+ * The remote operations are performed holding a permission of the
+ * infrastructure limiter so that the number of concurrent submissions to an
+ * infrastructure is bounded, whatever is the number of submission threads.
+ * If the circuit of the infrastructure is open the task is aborted
+ * immediately instead of waiting for the network timeouts.
  *
  * @author Marco Fargetta <marco.fargetta@ct.infn.it>
  */
@@ -41,37 +68,275 @@ public class Submitter implements Runnable {
     private final Log log = LogFactory.getLog(Submitter.class);
 
     /**
-     * Task managed by this thread.
+     * Identifier of the task managed by this thread.
      */
-    private final Task task;
+    private final String taskId;
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * State machine receiving the status changes of the task.
+     */
+    private final TaskStateMachine stateMachine;
+
+    /**
+     * Limiter of the concurrent operations on the infrastructures.
+     */
+    private final InfrastructureLimiter limiter;
+
+    /**
+     * Scheduler selecting the infrastructure.
+     */
+    private final InfrastructureScheduler scheduler;
+
+    /**
+     * Stager transferring the input files.
+     */
+    private final InputStager inputStager;
 
     /**
      * The thread managing the submission of a task.
      * The submission is performed with jSAGA and run in a separate thread.
      *
-     * @param aTask The task managed by the thread
+     * @param aTaskId The identifier of the task managed by the thread
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     * @param aStateMachine The state machine managing the task status
+     * @param aLimiter The limiter of the concurrent operations on the
+     * infrastructures
+     * @param aScheduler The scheduler selecting the infrastructure
+     * @param anInputStager The stager transferring the input files
      */
-    public Submitter(final Task aTask) {
-        this.task = aTask;
+    public Submitter(final String aTaskId,
+            final EntityManagerFactory anEntityManagerFactory,
+            final TaskStateMachine aStateMachine,
+            final InfrastructureLimiter aLimiter,
+            final InfrastructureScheduler aScheduler,
+            final InputStager anInputStager) {
+        this.taskId = aTaskId;
+        this.emf = anEntityManagerFactory;
+        this.stateMachine = aStateMachine;
+        this.limiter = aLimiter;
+        this.scheduler = aScheduler;
+        this.inputStager = anInputStager;
     }
 
 
     @Override
     public final void run() {
+        Task task = loadTask();
+        if (task == null || !Task.STATUS.READY.equals(task.getStatus())) {
+            log.debug("Task " + taskId + " not ready for the submission");
+            return;
+        }
+        String infraId = task.getAssociatedInfrastructureId();
+        if (infraId == null) {
+            Infrastructure infra = scheduler.select(task);
+            if (infra == null) {
+                log.error("No infrastructure available for the task "
+                        + task.getId());
+                stateMachine.moveTo(task, Task.STATUS.ABORTED);
+                return;
+            }
+            infraId = infra.getId();
+            task.setAssociatedInfrastructureId(infraId);
+        }
+        CircuitBreaker breaker = InfrastructureHealth.getDefault().
+                getBreaker(infraId);
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            log.error("Infrastructure " + infraId + " not available for the"
+                    + " task " + task.getId());
+            countSubmission(infraId, false);
+            stateMachine.moveTo(task, Task.STATUS.ABORTED);
+            return;
+        }
+        scheduler.submissionStarted(infraId);
+        List<String> fileTransfers;
+        try {
+            fileTransfers = inputStager.stage(task);
+        } catch (InfrastructureException ie) {
+            log.error("Impossible to transfer the inputs of the task "
+                    + task.getId() + " to the infrastructure " + infraId);
+            log.error(ie);
+            breaker.failure(permit);
+            abort(task, infraId);
+            return;
+        } catch (InterruptedException ie) {
+            log.warn("Submission of the task " + task.getId()
+                    + " interrupted, it will be retried");
+            breaker.release(permit);
+            scheduler.submissionAborted(infraId);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            limiter.acquire(infraId);
+        } catch (InterruptedException ie) {
+            log.warn("Submission of the task " + task.getId()
+                    + " interrupted, it will be retried");
+            breaker.release(permit);
+            scheduler.submissionAborted(infraId);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long start = System.currentTimeMillis();
         Job job;
         try {
-            job = CustomJobFactory.createJob(task);
+            job = CustomJobFactory.createJob(task, fileTransfers);
+            job.run();
+            String nativeId = job.getAttribute(Job.JOBID);
+            long elapsed = System.currentTimeMillis() - start;
+            breaker.success(permit, elapsed);
+            scheduler.submissionCompleted(infraId, elapsed);
+            if (!storeSubmission(task, nativeId)) {
+                cancel(job, nativeId);
+                countSubmission(infraId, false);
+                return;
+            }
         } catch (InfrastructureException ex) {
             log.error("JobFactory does not work");
             log.error(ex);
-            task.setStatus(Task.STATUS.ABORTED);
+            breaker.failure(permit);
+            abort(task, infraId);
+            return;
         } catch (BadParameterException ex) {
             log.error("Paramaters not correct for the task "
                     + task.getId()
-                    + " using the infrastructure "
-                    + task.getAssociatedInfrastructureId());
+                    + " using the infrastructure " + infraId);
+            log.error(ex);
+            breaker.release(permit);
+            abort(task, infraId);
+            return;
+        } catch (SagaException ex) {
+            log.error("Impossible to submit the task " + task.getId()
+                    + " to the infrastructure " + infraId);
             log.error(ex);
-            task.setStatus(Task.STATUS.ABORTED);
+            breaker.failure(permit);
+            abort(task, infraId);
+            return;
+        } finally {
+            limiter.release(infraId);
+        }
+        countSubmission(infraId, true);
+        stateMachine.moveTo(task, Task.STATUS.SCHEDULED);
+    }
+
+
+    /**
+     * Abort a task not submitted.
+     *
+     * @param task The task
+     * @param infraId The infrastructure selected for the task
+     */
+    private void abort(final Task task, final String infraId) {
+        scheduler.submissionAborted(infraId);
+        countSubmission(infraId, false);
+        stateMachine.moveTo(task, Task.STATUS.ABORTED);
+    }
+
+
+    /**
+     * Count the result of a submission.
+     *
+     * @param infraId The infrastructure receiving the task
+     * @param success True if the job was submitted
+     */
+    private void countSubmission(final String infraId,
+            final boolean success) {
+        String outcome = "failure";
+        if (success) {
+            outcome = "success";
+        }
+        Metrics.getDefault().counter(Metrics.SUBMISSIONS,
+                "Submissions to the infrastructures",
+                "infrastructure", infraId, "outcome", outcome).increment();
+    }
+
+
+    /**
+     * Retrieve the task from the DB.
+     *
+     * @return The task or null if it does not exist
+     */
+    private Task loadTask() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return DetailLoader.findTask(em, taskId);
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Store the information of the submitted job.
+     * The update is retried because a task left ready without the native
+     * identifier would be submitted again.
+     *
+     * @param task The submitted task
+     * @param nativeId The identifier of the job in the infrastructure
+     * @return True if the information is stored
+     */
+    private boolean storeSubmission(final Task task, final String nativeId) {
+        task.setNativeId(nativeId);
+        for (int attempt = 1;; attempt++) {
+            EntityManager em = emf.createEntityManager();
+            EntityTransaction et = null;
+            try {
+                et = em.getTransaction();
+                et.begin();
+                em.createNamedQuery("tasks.updateSubmission").
+                        setParameter("nativeId", nativeId).
+                        setParameter("infraId",
+                                task.getAssociatedInfrastructureId()).
+                        setParameter("id", task.getId()).
+                        executeUpdate();
+                et.commit();
+                return true;
+            } catch (RuntimeException re) {
+                log.error("Impossible to store the job " + nativeId
+                        + " of the task " + task.getId() + " (attempt "
+                        + attempt + ")");
+                log.error(re);
+            } finally {
+                if (et != null && et.isActive()) {
+                    et.rollback();
+                }
+                em.close();
+            }
+            if (attempt >= Constants.SUBMISSIONSTOREATTEMPTS) {
+                return false;
+            }
+            try {
+                Thread.sleep(Constants.SUBMISSIONSTOREDELAY);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+
+    /**
+     * Cancel a job whose submission cannot be stored.
+     *
+     * @param job The job
+     * @param nativeId The identifier of the job in the infrastructure
+     */
+    private void cancel(final Job job, final String nativeId) {
+        try {
+            job.cancel();
+            log.warn("Job " + nativeId + " of the task " + taskId
+                    + " cancelled, the task will be submitted again");
+        } catch (SagaException se) {
+            log.error("Impossible to cancel the job " + nativeId
+                    + " of the task " + taskId + ", the task could run "
+                    + "twice");
+            log.error(se);
         }
     }
 }
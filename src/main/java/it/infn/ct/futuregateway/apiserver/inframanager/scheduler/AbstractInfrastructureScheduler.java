@@ -0,0 +1,180 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.InfrastructureHealth;
+import it.infn.ct.futuregateway.apiserver.inframanager.Utilities;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Base class of the schedulers.
+ * It keeps the load of the infrastructures, updated by the submitter and by
+ * the task transitions, and leaves to the policy the choice among the
+ * enabled infrastructures of the application. Infrastructures with the
+ * circuit open are skipped.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public abstract class AbstractInfrastructureScheduler
+        implements InfrastructureScheduler {
+
+    /**
+     * Name of the infrastructure parameter with the weight.
+     */
+    public static final String WEIGHTPARAMETER = "weight";
+
+    /**
+     * Status of the tasks executed by an infrastructure.
+     */
+    private static final EnumSet<Task.STATUS> ACTIVE =
+            EnumSet.of(Task.STATUS.SCHEDULED, Task.STATUS.RUNNING);
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log =
+            LogFactory.getLog(AbstractInfrastructureScheduler.class);
+
+    /**
+     * Load of the infrastructures.
+     */
+    private final ConcurrentMap<String, InfrastructureLoad> loads =
+            new ConcurrentHashMap<>();
+
+
+    @Override
+    public final Infrastructure select(final Task task) {
+        if (task.getApplicationDetail() == null) {
+            return null;
+        }
+        InfrastructureHealth health = InfrastructureHealth.getDefault();
+        List<Infrastructure> candidates = new LinkedList<>();
+        for (Infrastructure infra: task.getApplicationDetail().
+                getInfrastructures()) {
+            if (infra.isEnabled() && health.isAvailable(infra.getId())) {
+                candidates.add(infra);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        return choose(candidates);
+    }
+
+
+    @Override
+    public final void submissionStarted(final String infrastructureId) {
+        getLoad(infrastructureId).submissionStarted();
+    }
+
+
+    @Override
+    public final void submissionCompleted(final String infrastructureId,
+            final long elapsed) {
+        getLoad(infrastructureId).submissionCompleted(elapsed);
+    }
+
+
+    @Override
+    public final void submissionAborted(final String infrastructureId) {
+        getLoad(infrastructureId).submissionAborted();
+    }
+
+
+    @Override
+    public final void transitionPerformed(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        String infraId = task.getAssociatedInfrastructureId();
+        if (infraId == null || ACTIVE.contains(from) == ACTIVE.contains(to)) {
+            return;
+        }
+        if (ACTIVE.contains(to)) {
+            getLoad(infraId).taskStarted();
+        } else {
+            getLoad(infraId).taskTerminated();
+        }
+    }
+
+
+    /**
+     * Retrieves the load of an infrastructure.
+     *
+     * @param infrastructureId The infrastructure identifier
+     * @return The load
+     */
+    public final InfrastructureLoad getLoad(final String infrastructureId) {
+        InfrastructureLoad load = loads.get(infrastructureId);
+        if (load == null) {
+            InfrastructureLoad newLoad = new InfrastructureLoad();
+            load = loads.putIfAbsent(infrastructureId, newLoad);
+            if (load == null) {
+                load = newLoad;
+            }
+        }
+        return load;
+    }
+
+
+    /**
+     * Retrieves the weight of an infrastructure.
+     * The weight is the infrastructure parameter <i>weight</i>, with 1 as
+     * default. Infrastructures with a higher weight receive more tasks.
+     *
+     * @param infra The infrastructure
+     * @return The weight, at least 1
+     */
+    protected final int getWeight(final Infrastructure infra) {
+        String value = Utilities.getParamterValue(infra.getParameters(),
+                WEIGHTPARAMETER);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException nfe) {
+            log.warn("Infrastructure " + infra.getId() + " has a wrong "
+                    + WEIGHTPARAMETER + ": " + value);
+            return 1;
+        }
+    }
+
+
+    /**
+     * Chooses the infrastructure for a task.
+     *
+     * @param candidates The enabled infrastructures of the application, at
+     * least two
+     * @return The selected infrastructure
+     */
+    protected abstract Infrastructure choose(List<Infrastructure> candidates);
+}
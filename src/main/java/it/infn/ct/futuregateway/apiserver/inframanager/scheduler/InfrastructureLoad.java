@@ -0,0 +1,142 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load of an infrastructure.
+ * The counters are kept in memory and they do not include the tasks
+ * submitted before the server was started.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class InfrastructureLoad {
+
+    /**
+     * Submissions in progress.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Tasks submitted and not yet terminated.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Moving average of the submission time, in milliseconds.
+     * The value is negative until the first submission is completed.
+     */
+    private double latency = -1;
+
+
+    /**
+     * Retrieves the tasks assigned to the infrastructure.
+     * These are the tasks in submission plus the tasks submitted and not yet
+     * terminated.
+     *
+     * @return The number of tasks
+     */
+    public final int getOutstanding() {
+        return inFlight.get() + active.get();
+    }
+
+    /**
+     * Retrieves the submissions in progress.
+     *
+     * @return The number of submissions
+     */
+    public final int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Retrieves the exponentially weighted moving average of the submission
+     * time.
+     *
+     * @return The time in milliseconds or a negative value if no
+     * submissions have been completed
+     */
+    public final synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Account a submission started.
+     */
+    final void submissionStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Account a submission completed.
+     *
+     * @param elapsed The time spent to submit the task, in milliseconds
+     */
+    final void submissionCompleted(final long elapsed) {
+        decrement(inFlight);
+        synchronized (this) {
+            if (latency < 0) {
+                latency = elapsed;
+            } else {
+                latency = Constants.SCHEDULEREWMAWEIGHT * elapsed
+                        + (1 - Constants.SCHEDULEREWMAWEIGHT) * latency;
+            }
+        }
+    }
+
+    /**
+     * Account a submission not completed.
+     */
+    final void submissionAborted() {
+        decrement(inFlight);
+    }
+
+    /**
+     * Account a task started in the infrastructure.
+     */
+    final void taskStarted() {
+        active.incrementAndGet();
+    }
+
+    /**
+     * Account a task terminated.
+     */
+    final void taskTerminated() {
+        decrement(active);
+    }
+
+    /**
+     * Decrement a counter without going below zero.
+     * Tasks started before the server was restarted are not counted but
+     * they terminate as the others.
+     *
+     * @param counter The counter
+     */
+    private static void decrement(final AtomicInteger counter) {
+        int value = counter.get();
+        while (value > 0 && !counter.compareAndSet(value, value - 1)) {
+            value = counter.get();
+        }
+    }
+}
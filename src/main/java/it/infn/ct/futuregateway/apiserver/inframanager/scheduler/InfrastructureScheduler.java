@@ -0,0 +1,75 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskTransitionListener;
+
+/**
+ * Selects the infrastructure executing a task.
+ * An application can run on many infrastructures and the scheduler chooses
+ * one of the enabled ones when the task is submitted. The submitter reports
+ * the outcome of every submission and the scheduler, registered as listener
+ * in the task state machine, receives the transitions of the tasks so it can
+ * keep track of the load of the infrastructures.
+ * <p>
+ * Implementations are used by all the submission threads and have to be
+ * thread safe.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface InfrastructureScheduler extends TaskTransitionListener {
+
+    /**
+     * Selects the infrastructure for a task.
+     *
+     * @param task The task to submit
+     * @return The infrastructure or null if the application has not enabled
+     * and available infrastructures
+     */
+    Infrastructure select(Task task);
+
+    /**
+     * Notify the start of a submission.
+     *
+     * @param infrastructureId The infrastructure receiving the task
+     */
+    void submissionStarted(String infrastructureId);
+
+    /**
+     * Notify a completed submission.
+     *
+     * @param infrastructureId The infrastructure receiving the task
+     * @param elapsed The time spent to submit the task, in milliseconds
+     */
+    void submissionCompleted(String infrastructureId, long elapsed);
+
+    /**
+     * Notify a submission not completed.
+     * The task has not been submitted because of an error or because the
+     * submission was interrupted.
+     *
+     * @param infrastructureId The infrastructure selected for the task
+     */
+    void submissionAborted(String infrastructureId);
+}
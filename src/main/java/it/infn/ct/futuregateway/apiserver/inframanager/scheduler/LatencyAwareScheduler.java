@@ -0,0 +1,60 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import java.util.List;
+
+/**
+ * Sends the tasks to the infrastructure expected to accept them first.
+ * The expected time is the moving average of the submission time multiplied
+ * by the submissions the task has to wait, those in progress plus itself,
+ * and divided by the weight of the infrastructure. Infrastructures without
+ * completed submissions are preferred, so they are measured, and ties are
+ * broken by the tasks assigned.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class LatencyAwareScheduler extends AbstractInfrastructureScheduler {
+
+    @Override
+    protected final Infrastructure choose(
+            final List<Infrastructure> candidates) {
+        Infrastructure selected = null;
+        double selectedWait = 0;
+        int selectedOutstanding = 0;
+        for (Infrastructure infra: candidates) {
+            InfrastructureLoad load = getLoad(infra.getId());
+            double wait = Math.max(0, load.getLatency())
+                    * (load.getInFlight() + 1) / getWeight(infra);
+            int outstanding = load.getOutstanding();
+            if (selected == null || wait < selectedWait
+                    || (wait == selectedWait
+                    && outstanding < selectedOutstanding)) {
+                selected = infra;
+                selectedWait = wait;
+                selectedOutstanding = outstanding;
+            }
+        }
+        return selected;
+    }
+}
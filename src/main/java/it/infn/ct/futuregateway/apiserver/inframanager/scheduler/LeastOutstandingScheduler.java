@@ -0,0 +1,53 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import java.util.List;
+
+/**
+ * Sends the tasks to the infrastructure with less tasks assigned.
+ * The tasks assigned, in submission or not yet terminated, are divided by
+ * the weight of the infrastructure so bigger infrastructures receive more
+ * tasks.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class LeastOutstandingScheduler
+        extends AbstractInfrastructureScheduler {
+
+    @Override
+    protected final Infrastructure choose(
+            final List<Infrastructure> candidates) {
+        Infrastructure selected = null;
+        double selectedLoad = 0;
+        for (Infrastructure infra: candidates) {
+            double load = (double) getLoad(infra.getId()).getOutstanding()
+                    / getWeight(infra);
+            if (selected == null || load < selectedLoad) {
+                selected = infra;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+}
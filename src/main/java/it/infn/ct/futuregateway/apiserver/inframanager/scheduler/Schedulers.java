@@ -0,0 +1,81 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+/**
+ * Factory class for infrastructure schedulers.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class Schedulers {
+
+    /**
+     * Policy distributing the tasks by weight.
+     */
+    public static final String ROUNDROBIN = "round-robin";
+
+    /**
+     * Policy selecting the infrastructure with less tasks.
+     */
+    public static final String LEASTOUTSTANDING = "least-outstanding";
+
+    /**
+     * Policy selecting the infrastructure with the shorter expected wait.
+     */
+    public static final String LATENCYAWARE = "latency-aware";
+
+    /**
+     * Avoid the class be instantiable.
+     */
+    private Schedulers() { }
+
+    /**
+     * Create a scheduler.
+     * The policy is one of the built-in policies or the name of a class
+     * implementing {@link InfrastructureScheduler} with a public constructor
+     * without arguments. If the policy is not provided the latency-aware
+     * scheduler is created.
+     *
+     * @param policy The scheduling policy
+     * @return The scheduler
+     * @throws IllegalArgumentException If the policy is not valid
+     */
+    public static InfrastructureScheduler getScheduler(final String policy) {
+        if (policy == null || policy.isEmpty()
+                || LATENCYAWARE.equalsIgnoreCase(policy)) {
+            return new LatencyAwareScheduler();
+        }
+        if (ROUNDROBIN.equalsIgnoreCase(policy)) {
+            return new WeightedRoundRobinScheduler();
+        }
+        if (LEASTOUTSTANDING.equalsIgnoreCase(policy)) {
+            return new LeastOutstandingScheduler();
+        }
+        try {
+            return Class.forName(policy).
+                    asSubclass(InfrastructureScheduler.class).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new IllegalArgumentException("Scheduler policy " + policy
+                    + " not valid", ex);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributes the tasks in proportion to the weight of the infrastructures.
+ * The smooth weighted round-robin spreads the tasks of an infrastructure
+ * along the sequence instead of sending them in bursts.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class WeightedRoundRobinScheduler
+        extends AbstractInfrastructureScheduler {
+
+    /**
+     * Current weight of the infrastructures.
+     */
+    private final Map<String, Integer> current = new HashMap<>();
+
+
+    @Override
+    protected final synchronized Infrastructure choose(
+            final List<Infrastructure> candidates) {
+        Infrastructure selected = null;
+        int selectedWeight = 0;
+        int total = 0;
+        for (Infrastructure infra: candidates) {
+            int weight = getWeight(infra);
+            total += weight;
+            Integer cw = current.get(infra.getId());
+            if (cw == null) {
+                cw = 0;
+            }
+            cw += weight;
+            current.put(infra.getId(), cw);
+            if (selected == null || cw > selectedWeight) {
+                selected = infra;
+                selectedWeight = cw;
+            }
+        }
+        current.put(selected.getId(), selectedWeight - total);
+        return selected;
+    }
+}
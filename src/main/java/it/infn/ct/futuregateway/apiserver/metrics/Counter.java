@@ -0,0 +1,74 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic counter.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class Counter {
+
+    /**
+     * Current value.
+     */
+    private final AtomicLong value = new AtomicLong();
+
+
+    /**
+     * Create the counter.
+     */
+    Counter() {
+    }
+
+
+    /**
+     * Increment the counter by one.
+     */
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+
+    /**
+     * Increment the counter.
+     *
+     * @param amount The increment, ignored if negative
+     */
+    public void add(final long amount) {
+        if (amount > 0) {
+            value.addAndGet(amount);
+        }
+    }
+
+
+    /**
+     * Retrieves the value of the counter.
+     *
+     * @return The value
+     */
+    public long get() {
+        return value.get();
+    }
+}
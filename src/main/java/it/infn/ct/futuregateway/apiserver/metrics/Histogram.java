@@ -0,0 +1,128 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in fixed buckets.
+ * The buckets cover the latency of the REST calls, from few milliseconds to
+ * ten seconds. Longer durations are counted only in the total.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class Histogram {
+
+    /**
+     * Upper bounds of the buckets in seconds.
+     */
+    static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+        0.5, 1, 2.5, 5, 10};
+
+    /**
+     * Upper bounds of the buckets in nanoseconds.
+     */
+    private static final long[] BOUNDS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BOUNDS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Observations in every bucket, not cumulative.
+     */
+    private final AtomicLongArray buckets =
+            new AtomicLongArray(BUCKETS.length);
+
+    /**
+     * Number of observations.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the observations in nanoseconds.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+
+    /**
+     * Create the histogram.
+     */
+    Histogram() {
+    }
+
+
+    /**
+     * Add an observation.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void observe(final long nanos) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (nanos <= BOUNDS[i]) {
+                buckets.incrementAndGet(i);
+                break;
+            }
+        }
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+    }
+
+
+    /**
+     * Retrieves the observations up to a bucket, included.
+     *
+     * @param bucket The index of the bucket in {@link #BUCKETS}
+     * @return The cumulative number of observations
+     */
+    long getCumulativeCount(final int bucket) {
+        long total = 0;
+        for (int i = 0; i <= bucket; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+
+    /**
+     * Retrieves the number of observations.
+     *
+     * @return The number of observations
+     */
+    long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * Retrieves the sum of the observations.
+     *
+     * @return The sum in seconds
+     */
+    double getSum() {
+        return sum.get() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,291 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the metrics updated by the server.
+ * Metrics are grouped in families with the same name and distinguished by
+ * their labels. They are created at the first use and exported with
+ * {@link #writeTo(PrometheusWriter)}. Values computed only when exported,
+ * like the size of the pools, are not registered here.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class Metrics {
+
+    /**
+     * Latency of the REST calls.
+     */
+    public static final String HTTPREQUESTS =
+            "fgapiserver_http_request_duration_seconds";
+
+    /**
+     * Bytes written in the storage.
+     */
+    public static final String STORAGEWRITTEN =
+            "fgapiserver_storage_written_bytes_total";
+
+    /**
+     * Bytes read from the storage.
+     */
+    public static final String STORAGEREAD =
+            "fgapiserver_storage_read_bytes_total";
+
+    /**
+     * Bytes removed from the storage by the reaper.
+     */
+    public static final String STORAGERECLAIMED =
+            "fgapiserver_storage_reclaimed_bytes_total";
+
+    /**
+     * Bytes of the stored files shared with identical files.
+     */
+    public static final String STORAGEDEDUPLICATED =
+            "fgapiserver_storage_deduplicated_bytes_total";
+
+    /**
+     * Submissions to the infrastructures.
+     */
+    public static final String SUBMISSIONS = "fgapiserver_submissions_total";
+
+    /**
+     * Circuits opened for the infrastructures.
+     */
+    public static final String CIRCUITOPENED =
+            "fgapiserver_circuit_opened_total";
+
+    /**
+     * Registry shared by the application.
+     */
+    private static final Metrics DEFAULT = new Metrics();
+
+    /**
+     * Registered families.
+     */
+    private final ConcurrentMap<String, Family> families =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Create an empty registry.
+     */
+    Metrics() {
+    }
+
+
+    /**
+     * Retrieves the registry shared by the application.
+     *
+     * @return The registry
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Retrieves a counter, creating it if needed.
+     *
+     * @param name The name of the counter
+     * @param help The description of the counter
+     * @param namesAndValues Names and values of the labels, alternated
+     * @return The counter
+     */
+    public Counter counter(final String name, final String help,
+            final String... namesAndValues) {
+        return (Counter) getFamily(name, help, PrometheusWriter.COUNTER).
+                get(PrometheusWriter.labels(namesAndValues));
+    }
+
+
+    /**
+     * Retrieves a histogram, creating it if needed.
+     *
+     * @param name The name of the histogram
+     * @param help The description of the histogram
+     * @param namesAndValues Names and values of the labels, alternated
+     * @return The histogram
+     */
+    public Histogram histogram(final String name, final String help,
+            final String... namesAndValues) {
+        return (Histogram) getFamily(name, help, PrometheusWriter.HISTOGRAM).
+                get(PrometheusWriter.labels(namesAndValues));
+    }
+
+
+    /**
+     * Write all the metrics.
+     *
+     * @param out The writer
+     * @throws IOException If the metrics cannot be written
+     */
+    public void writeTo(final PrometheusWriter out) throws IOException {
+        SortedMap<String, Family> sorted = new TreeMap<>(families);
+        for (Family family: sorted.values()) {
+            family.writeTo(out);
+        }
+    }
+
+
+    /**
+     * Retrieves a family, creating it if needed.
+     *
+     * @param name The name of the family
+     * @param help The description of the family
+     * @param type The type of the metrics
+     * @return The family
+     */
+    private Family getFamily(final String name, final String help,
+            final String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family newFamily = new Family(name, help, type);
+            family = families.putIfAbsent(name, newFamily);
+            if (family == null) {
+                family = newFamily;
+            }
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name
+                    + " is a " + family.type);
+        }
+        return family;
+    }
+
+
+    /**
+     * Metrics with the same name.
+     */
+    private static final class Family {
+
+        /**
+         * Name of the metrics.
+         */
+        private final String name;
+
+        /**
+         * Description of the metrics.
+         */
+        private final String help;
+
+        /**
+         * Type of the metrics.
+         */
+        private final String type;
+
+        /**
+         * Metrics for every set of labels.
+         */
+        private final ConcurrentMap<String, Object> children =
+                new ConcurrentHashMap<>();
+
+        /**
+         * Create the family.
+         *
+         * @param aName The name of the metrics
+         * @param aHelp The description of the metrics
+         * @param aType The type of the metrics
+         */
+        Family(final String aName, final String aHelp, final String aType) {
+            this.name = aName;
+            this.help = aHelp;
+            this.type = aType;
+        }
+
+        /**
+         * Retrieves the metric for a set of labels, creating it if needed.
+         *
+         * @param labels The labels text
+         * @return The metric
+         */
+        Object get(final String labels) {
+            Object metric = children.get(labels);
+            if (metric == null) {
+                Object newMetric;
+                if (PrometheusWriter.HISTOGRAM.equals(type)) {
+                    newMetric = new Histogram();
+                } else {
+                    newMetric = new Counter();
+                }
+                metric = children.putIfAbsent(labels, newMetric);
+                if (metric == null) {
+                    metric = newMetric;
+                }
+            }
+            return metric;
+        }
+
+        /**
+         * Write the metrics of the family.
+         *
+         * @param out The writer
+         * @throws IOException If the metrics cannot be written
+         */
+        void writeTo(final PrometheusWriter out) throws IOException {
+            out.family(name, help, type);
+            SortedMap<String, Object> sorted = new TreeMap<>(children);
+            for (Map.Entry<String, Object> child: sorted.entrySet()) {
+                if (child.getValue() instanceof Histogram) {
+                    writeHistogram(out, child.getKey(),
+                            (Histogram) child.getValue());
+                } else {
+                    out.sample(name, child.getKey(),
+                            ((Counter) child.getValue()).get());
+                }
+            }
+        }
+
+        /**
+         * Write the samples of a histogram.
+         *
+         * @param out The writer
+         * @param labels The labels text
+         * @param histogram The histogram
+         * @throws IOException If the metrics cannot be written
+         */
+        private void writeHistogram(final PrometheusWriter out,
+                final String labels, final Histogram histogram)
+                throws IOException {
+            String prefix = labels;
+            if (!prefix.isEmpty()) {
+                prefix += ",";
+            }
+            for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+                out.sample(name + "_bucket", prefix + PrometheusWriter.labels(
+                        "le", Double.toString(Histogram.BUCKETS[i])),
+                        histogram.getCumulativeCount(i));
+            }
+            out.sample(name + "_bucket", prefix
+                    + PrometheusWriter.labels("le", "+Inf"),
+                    histogram.getCount());
+            out.sample(name + "_sum", labels, histogram.getSum());
+            out.sample(name + "_count", labels, histogram.getCount());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the metrics in the Prometheus text format.
+ * Every metric family starts with its help and type lines followed by the
+ * samples. Labels are provided as text built with
+ * {@link #labels(java.lang.String...)}.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class PrometheusWriter {
+
+    /**
+     * Media type of the format.
+     */
+    public static final String CONTENTTYPE =
+            "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Type of the counters.
+     */
+    public static final String COUNTER = "counter";
+
+    /**
+     * Type of the gauges.
+     */
+    public static final String GAUGE = "gauge";
+
+    /**
+     * Type of the histograms.
+     */
+    public static final String HISTOGRAM = "histogram";
+
+    /**
+     * Destination of the text.
+     */
+    private final Writer out;
+
+
+    /**
+     * Create the writer.
+     *
+     * @param anOut The destination of the text
+     */
+    public PrometheusWriter(final Writer anOut) {
+        this.out = anOut;
+    }
+
+
+    /**
+     * Build the text of a set of labels.
+     *
+     * @param namesAndValues Names and values of the labels, alternated
+     * @return The labels text, without the braces
+     */
+    public static String labels(final String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("A value is required for"
+                    + " every label");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            if (value == null) {
+                value = "";
+            }
+            sb.append(value.replace("\\", "\\\\").replace("\"", "\\\"").
+                    replace("\n", "\\n"));
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Start a metric family.
+     *
+     * @param name The name of the metrics
+     * @param help The description of the metrics
+     * @param type The type of the metrics
+     * @throws IOException If the text cannot be written
+     */
+    public void family(final String name, final String help,
+            final String type) throws IOException {
+        out.write("# HELP " + name + " "
+                + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+
+    /**
+     * Write an integer sample.
+     *
+     * @param name The name of the sample
+     * @param labels The labels text, empty if there are no labels
+     * @param value The value
+     * @throws IOException If the text cannot be written
+     */
+    public void sample(final String name, final String labels,
+            final long value) throws IOException {
+        writeSample(name, labels, Long.toString(value));
+    }
+
+
+    /**
+     * Write a sample.
+     *
+     * @param name The name of the sample
+     * @param labels The labels text, empty if there are no labels
+     * @param value The value
+     * @throws IOException If the text cannot be written
+     */
+    public void sample(final String name, final String labels,
+            final double value) throws IOException {
+        String text;
+        if (Double.isInfinite(value)) {
+            if (value > 0) {
+                text = "+Inf";
+            } else {
+                text = "-Inf";
+            }
+        } else {
+            text = Double.toString(value);
+        }
+        writeSample(name, labels, text);
+    }
+
+
+    /**
+     * Write the line of a sample.
+     *
+     * @param name The name of the sample
+     * @param labels The labels text
+     * @param value The value text
+     * @throws IOException If the text cannot be written
+     */
+    private void writeSample(final String name, final String labels,
+            final String value) throws IOException {
+        out.write(name);
+        if (labels != null && !labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+}
@@ -21,6 +21,7 @@
 
 package it.infn.ct.futuregateway.apiserver.resources;
 
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
@@ -34,9 +35,12 @@ import javax.persistence.MappedSuperclass;
 import javax.persistence.OneToMany;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Version;
 import javax.xml.bind.annotation.XmlElement;
-import org.hibernate.annotations.Fetch;
-import org.hibernate.annotations.FetchMode;
+import javax.xml.bind.annotation.XmlTransient;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * The super class of all the elements accessible by the user.
@@ -78,6 +82,11 @@ public abstract class AccessibleElements implements Serializable {
      * associated with an element.
      */
     private boolean enabled = true;
+    /**
+     * The version of the element, incremented at every update.
+     */
+    @XmlTransient
+    private long version;
 
     /**
      * Retrieve the element identifier.
@@ -146,8 +155,9 @@ public abstract class AccessibleElements implements Serializable {
      *
      * @return A list of parameters
      */
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
-    @Fetch(FetchMode.SELECT)
+    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     public List<Params> getParameters() {
         return parameters;
     }
@@ -201,4 +211,27 @@ public abstract class AccessibleElements implements Serializable {
         this.enabled = active;
     }
 
+    /**
+     * Retrieves the version of the element.
+     * The version is incremented at every update and identifies the state
+     * of the element sent to the clients.
+     *
+     * @return The version
+     */
+    @Version
+    @Column(name = "version", columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    @XmlTransient
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the element.
+     * The version is managed by the persistence layer.
+     *
+     * @param aVersion The version
+     */
+    public void setVersion(final long aVersion) {
+        this.version = aVersion;
+    }
 }
@@ -21,10 +21,12 @@
 
 package it.infn.ct.futuregateway.apiserver.resources;
 
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.utils.LinkJaxbAdapter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -33,9 +35,12 @@ import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.PrePersist;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.ws.rs.core.Link;
@@ -47,8 +52,9 @@ import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import org.glassfish.jersey.linking.InjectLink;
 import org.glassfish.jersey.linking.InjectLinks;
-import org.hibernate.annotations.Fetch;
-import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * The Application represents the operation a user can perform in a remote
@@ -62,13 +68,21 @@ import org.hibernate.annotations.FetchMode;
 @NamedQueries({
     @NamedQuery(name = "applications.all",
             query = "SELECT a FROM Application a"),
+    @NamedQuery(name = "applications.version",
+            query = "SELECT a.version FROM Application a WHERE a.id = :id"),
     @NamedQuery(name = "applications.forInfrastructure",
             query = "SELECT a.id FROM Application a INNER JOIN "
-                    + "a.infrastructures i WHERE i.id = :infraId")
+                    + "a.infrastructures i WHERE i.id = :infraId",
+            hints = {@QueryHint(name = "org.hibernate.cacheable",
+                    value = "true")})
 })
+@NamedEntityGraph(name = "applications.detail",
+        attributeNodes = @NamedAttributeNode("infrastructures"))
 
 @Entity
 @Table(name = "Application")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 
 @InjectLinks({
     @InjectLink(value = "applications/{id}", rel = "self"),
@@ -142,8 +156,9 @@ public class Application extends AccessibleElements {
      *
      * @return A list of infrastructures
      */
-    @ManyToMany(cascade = CascadeType.REFRESH, fetch = FetchType.EAGER)
-    @Fetch(FetchMode.SELECT)
+    @ManyToMany(cascade = CascadeType.REFRESH, fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "Application_Infrastructures",
             joinColumns = {@JoinColumn(name = "applicationId",
                     referencedColumnName = "id",
@@ -200,6 +215,25 @@ public class Application extends AccessibleElements {
         this.infrastructureIds = someInfrastructureIds;
     }
 
+    /**
+     * Returns the references for this entity.
+     *
+     * @return The list of Link references
+     */
+    @Transient
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /**
+     * Sets the references for this entity.
+     *
+     * @param someLinks The list of link references
+     */
+    public void setLinks(final List<Link> someLinks) {
+        this.links = someLinks;
+    }
+
     /**
      * Retrieves the type of application.
      *
@@ -0,0 +1,144 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.resources;
+
+import java.util.Collections;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import org.hibernate.Hibernate;
+
+/**
+ * Loads the resources with all the details.
+ * Collections of the resources are lazy so the lists and the queries only
+ * read the data they need. A resource returned to the user, or used for the
+ * submission, needs the full graph and this is loaded before the entity
+ * manager is closed.
+ * <p>
+ * The named entity graph of the resource joins the main collection with the
+ * resource itself. Hibernate cannot join more than one list at once so the
+ * other collections are initialised separately, and the batch fetching
+ * loads the same collection of all the related elements with a single query.
+ * The number of queries does not depend on the size of the collections.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class DetailLoader {
+
+    /**
+     * Hint to apply an entity graph on the load.
+     */
+    private static final String LOADGRAPH = "javax.persistence.loadgraph";
+
+
+    /**
+     * Avoid the class instantiation.
+     */
+    private DetailLoader() { }
+
+
+    /**
+     * Retrieves an application with infrastructures and parameters.
+     *
+     * @param em The entity manager used to load the application
+     * @param id The application id
+     * @return The application or null if it does not exist
+     */
+    public static Application findApplication(final EntityManager em,
+            final String id) {
+        Application app = em.find(Application.class, id,
+                graph(em, "applications.detail"));
+        initialize(app);
+        return app;
+    }
+
+
+    /**
+     * Retrieves an infrastructure with the parameters.
+     *
+     * @param em The entity manager used to load the infrastructure
+     * @param id The infrastructure id
+     * @return The infrastructure or null if it does not exist
+     */
+    public static Infrastructure findInfrastructure(final EntityManager em,
+            final String id) {
+        Infrastructure infra = em.find(Infrastructure.class, id,
+                graph(em, "infrastructures.detail"));
+        if (infra != null) {
+            Hibernate.initialize(infra.getParameters());
+        }
+        return infra;
+    }
+
+
+    /**
+     * Retrieves a task with the files, the arguments, the runtime data and
+     * the details of the application.
+     *
+     * @param em The entity manager used to load the task
+     * @param id The task id
+     * @return The task or null if it does not exist
+     */
+    public static Task findTask(final EntityManager em, final String id) {
+        Task task = em.find(Task.class, id, graph(em, "tasks.detail"));
+        if (task != null) {
+            Hibernate.initialize(task.getInputFiles());
+            Hibernate.initialize(task.getOutputFiles());
+            Hibernate.initialize(task.getArguments());
+            Hibernate.initialize(task.getRuntime());
+            initialize(task.getApplicationDetail());
+        }
+        return task;
+    }
+
+
+    /**
+     * Initialise the collections of an application.
+     *
+     * @param app The application
+     */
+    private static void initialize(final Application app) {
+        if (app == null) {
+            return;
+        }
+        Hibernate.initialize(app.getParameters());
+        Hibernate.initialize(app.getInfrastructures());
+        for (Infrastructure infra: app.getInfrastructures()) {
+            Hibernate.initialize(infra.getParameters());
+        }
+        app.getInfrastructureIds();
+    }
+
+
+    /**
+     * Create the hints to load an entity with a named graph.
+     *
+     * @param em The entity manager
+     * @param name The graph name
+     * @return The hints for the find operation
+     */
+    private static Map<String, Object> graph(final EntityManager em,
+            final String name) {
+        return Collections.<String, Object>singletonMap(LOADGRAPH,
+                em.getEntityGraph(name));
+    }
+}
@@ -24,10 +24,15 @@ package it.infn.ct.futuregateway.apiserver.resources;
 import it.infn.ct.futuregateway.apiserver.utils.LinkJaxbAdapter;
 import java.util.List;
 import java.util.UUID;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.ws.rs.core.Link;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -36,6 +41,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import org.glassfish.jersey.linking.InjectLink;
 import org.glassfish.jersey.linking.InjectLinks;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * The Infrastructure represents the remote infrastructure where application
@@ -209,11 +216,19 @@ import org.glassfish.jersey.linking.InjectLinks;
  *
  * @author Marco Fargetta <marco.fargetta@ct.infn.it>
  */
-@NamedQuery(name = "infrastructures.all",
-        query = "SELECT i FROM Infrastructure i")
+@NamedQueries({
+    @NamedQuery(name = "infrastructures.all",
+            query = "SELECT i FROM Infrastructure i"),
+    @NamedQuery(name = "infrastructures.version",
+            query = "SELECT i.version FROM Infrastructure i WHERE i.id = :id")
+})
+@NamedEntityGraph(name = "infrastructures.detail",
+        attributeNodes = @NamedAttributeNode("parameters"))
 
 @Entity
 @Table(name = "Infrastructure")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 
 @InjectLinks({
     @InjectLink(value = "infrastructures/{id}", rel = "self"),
@@ -237,6 +252,13 @@ public class Infrastructure extends AccessibleElements {
     @XmlJavaTypeAdapter(value = LinkJaxbAdapter.class)
     private List<Link> links;
 
+    /**
+     * State of the circuit breaker of the infrastructure.
+     * This is not stored and it is set only in the details of the
+     * infrastructure.
+     */
+    private String health;
+
 
     /**
      * Initialise the id.
@@ -253,6 +275,48 @@ public class Infrastructure extends AccessibleElements {
         }
     }
 
+    /**
+     * Returns the references for this entity.
+     *
+     * @return The list of Link references
+     */
+    @Transient
+    public List<Link> getLinks() {
+        return links;
+    }
+
+    /**
+     * Sets the references for this entity.
+     *
+     * @param someLinks The list of link references
+     */
+    public void setLinks(final List<Link> someLinks) {
+        this.links = someLinks;
+    }
+
+    /**
+     * Retrieves the state of the circuit breaker.
+     * The state can be <i>closed</i>, the infrastructure receives the tasks,
+     * <i>open</i>, the infrastructure is skipped because the recent
+     * submissions failed, or <i>half-open</i>, a trial submission is
+     * allowed.
+     *
+     * @return The state or null if not set
+     */
+    @Transient
+    public String getHealth() {
+        return health;
+    }
+
+    /**
+     * Sets the state of the circuit breaker.
+     *
+     * @param aHealth The state
+     */
+    public void setHealth(final String aHealth) {
+        this.health = aHealth;
+    }
+
     /**
      * Checks if the infrastructure is virtual.
      *
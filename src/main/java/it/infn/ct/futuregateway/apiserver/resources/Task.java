@@ -21,12 +21,11 @@
  */
 package it.infn.ct.futuregateway.apiserver.resources;
 
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.utils.LinkJaxbAdapter;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
-import java.util.Observable;
-import java.util.Random;
 import java.util.UUID;
 import javax.persistence.CascadeType;
 import javax.persistence.CollectionTable;
@@ -37,8 +36,11 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
@@ -46,6 +48,7 @@ import javax.persistence.PrePersist;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import javax.ws.rs.core.Link;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -54,12 +57,10 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import org.apache.commons.collections4.IterableUtils;
-import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.collections4.Predicate;
 import org.glassfish.jersey.linking.InjectLink;
 import org.glassfish.jersey.linking.InjectLinks;
-import org.hibernate.annotations.Fetch;
-import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.BatchSize;
 
 /**
  * The Task represents any activity a user send to an infrastructure, such as a
@@ -68,15 +69,56 @@ import org.hibernate.annotations.FetchMode;
  * @author Marco Fargetta <marco.fargetta@ct.infn.it>
  */
 @NamedQueries({
-    @NamedQuery(name = "tasks.userAll",
-            query = "SELECT t.id, t.description, t.status, t.dateCreated"
-            + " FROM Task t WHERE t.userName = :user"),
     @NamedQuery(name = "tasks.forApplication",
             query = "SELECT t.id FROM Task t WHERE "
-                    + "t.applicationDetail.id = :appId")
+                    + "t.applicationDetail.id = :appId"),
+    @NamedQuery(name = "tasks.updateStatus",
+            query = "UPDATE Task t SET t.status = :newStatus, "
+                    + "t.lastChange = :now, t.version = t.version + 1 "
+                    + "WHERE t.id = :id "
+                    + "AND t.status = :oldStatus"),
+    @NamedQuery(name = "tasks.updateStatusAll",
+            query = "UPDATE Task t SET t.status = :newStatus, "
+                    + "t.lastChange = :now, t.version = t.version + 1 "
+                    + "WHERE t.id IN :ids AND t.status = :oldStatus "
+                    + "AND t.version = :version"),
+    @NamedQuery(name = "tasks.updateSubmission",
+            query = "UPDATE Task t SET t.nativeId = :nativeId, "
+                    + "t.associatedInfrastructureId = :infraId, "
+                    + "t.version = t.version + 1 WHERE t.id = :id"),
+    @NamedQuery(name = "tasks.byStatus",
+            query = "SELECT t.id, t.nativeId FROM Task t "
+                    + "WHERE t.status = :status ORDER BY t.lastChange"),
+    @NamedQuery(name = "tasks.version",
+            query = "SELECT t.version, t.lastChange FROM Task t "
+                    + "WHERE t.id = :id"),
+    @NamedQuery(name = "tasks.versionsInStatus",
+            query = "SELECT t.id, t.version FROM Task t "
+                    + "WHERE t.id IN :ids AND t.status = :status"),
+    @NamedQuery(name = "tasks.byIds",
+            query = "SELECT t.id, t.status, t.lastChange FROM Task t "
+                    + "WHERE t.id IN :ids"),
+    @NamedQuery(name = "tasks.active",
+            query = "SELECT t.id, t.status, t.nativeId, "
+                    + "t.associatedInfrastructureId, t.userName FROM Task t "
+                    + "WHERE t.status IN :status AND t.nativeId IS NOT NULL "
+                    + "AND t.id > :after ORDER BY t.id"),
+    @NamedQuery(name = "tasks.withOutputs",
+            query = "SELECT DISTINCT t.id FROM Task t JOIN t.outputFiles o "
+                    + "WHERE t.id IN :ids")
+})
+@NamedEntityGraph(name = "tasks.detail", attributeNodes = {
+    @NamedAttributeNode("applicationDetail"),
+    @NamedAttributeNode("inputFiles")
 })
 @Entity
-@Table(name = "Task")
+@Table(name = "Task", indexes = {
+    @Index(name = "task_user_date_idx",
+            columnList = "userName, dateCreated, id"),
+    @Index(name = "task_user_status_date_idx",
+            columnList = "userName, status, dateCreated, id"),
+    @Index(name = "task_status_id_idx", columnList = "status, id")
+})
 
 @InjectLinks({
     @InjectLink(value = "tasks/{id}", rel = "self"),
@@ -85,7 +127,7 @@ import org.hibernate.annotations.FetchMode;
 
 @XmlRootElement(name = "task")
 @XmlAccessorType(XmlAccessType.FIELD)
-public class Task extends Observable implements Serializable {
+public class Task implements Serializable {
 
     /**
      * Possible status for the task.
@@ -219,6 +261,12 @@ public class Task extends Observable implements Serializable {
     @XmlTransient
     private String nativeId;
 
+    /**
+     * Version of the task, incremented at every update.
+     */
+    @XmlTransient
+    private long version;
+
     /**
      * Retrieve the task identifier.
      *
@@ -237,8 +285,6 @@ public class Task extends Observable implements Serializable {
      */
     public void setId(final String anId) {
         this.id = anId;
-        setChanged();
-        notifyObservers();
     }
 
     /**
@@ -280,8 +326,6 @@ public class Task extends Observable implements Serializable {
             applicationId = applicationDetail.getId();
         }
         lastChange = new Date();
-        setChanged();
-        notifyObservers();
     }
 
 
@@ -307,7 +351,6 @@ public class Task extends Observable implements Serializable {
     public void setApplicationId(final String anApplication) {
         this.applicationId = anApplication;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -327,7 +370,6 @@ public class Task extends Observable implements Serializable {
     public void setDescription(final String aDescription) {
         this.description = aDescription;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -342,7 +384,8 @@ public class Task extends Observable implements Serializable {
      *
      * @return The list of arguments
      */
-    @ElementCollection(fetch = FetchType.EAGER)
+    @ElementCollection(fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
     @CollectionTable(name = "application_arguments",
             joinColumns = @JoinColumn(name = "id"))
     @Column(name = "arguments")
@@ -365,7 +408,6 @@ public class Task extends Observable implements Serializable {
     public void setArguments(final List<String> someArguments) {
         this.arguments = someArguments;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -376,8 +418,8 @@ public class Task extends Observable implements Serializable {
      * @return The output files
      */
     @OneToMany(cascade = CascadeType.ALL,
-            fetch = FetchType.EAGER)
-    @Fetch(FetchMode.SELECT)
+            fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
     public List<TaskFileOutput> getOutputFiles() {
         return this.outputFiles;
     }
@@ -393,7 +435,6 @@ public class Task extends Observable implements Serializable {
             final List<TaskFileOutput> someOutputFiles) {
         this.outputFiles = someOutputFiles;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -407,8 +448,8 @@ public class Task extends Observable implements Serializable {
      * @return The input files
      */
     @OneToMany(cascade = CascadeType.ALL,
-            fetch = FetchType.EAGER)
-    @Fetch(FetchMode.SELECT)
+            fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
     public List<TaskFileInput> getInputFiles() {
         return this.inputFiles;
     }
@@ -426,7 +467,6 @@ public class Task extends Observable implements Serializable {
     public void setInputFiles(final List<TaskFileInput> someInputFiles) {
         this.inputFiles = someInputFiles;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -448,9 +488,7 @@ public class Task extends Observable implements Serializable {
      */
     public void setStatus(final STATUS aStatus) {
         lastChange = new Date();
-        setChanged();
         this.status = aStatus;
-        notifyObservers();
     }
 
 
@@ -463,8 +501,8 @@ public class Task extends Observable implements Serializable {
      *
      * @return List of runtime
      */
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
-    @Fetch(FetchMode.SELECT)
+    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
+    @BatchSize(size = Constants.BATCHSIZE)
     public List<RuntimeParams> getRuntime() {
         return runtime;
     }
@@ -481,9 +519,7 @@ public class Task extends Observable implements Serializable {
      */
     public void setRuntime(final List<RuntimeParams> someRuntime) {
         lastChange = new Date();
-        setChanged();
         this.runtime = someRuntime;
-        notifyObservers();
     }
 
     /**
@@ -507,7 +543,6 @@ public class Task extends Observable implements Serializable {
     public void setUserName(final String aUser) {
         this.userName = aUser;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -528,7 +563,6 @@ public class Task extends Observable implements Serializable {
     public void setDateCreated(final Date creationDate) {
         this.dateCreated = creationDate;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -548,8 +582,6 @@ public class Task extends Observable implements Serializable {
      */
     public void setLastChange(final Date newChangeDate) {
         this.lastChange = newChangeDate;
-        lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -570,7 +602,6 @@ public class Task extends Observable implements Serializable {
     public void setLinks(final List<Link> someLinks) {
         this.links = someLinks;
         lastChange = new Date();
-        setChanged();
     }
 
     /**
@@ -597,34 +628,12 @@ public class Task extends Observable implements Serializable {
     /**
      * Retrieves the associated infrastructure Id.
      * This is the Id of the infrastructure selected to execute the task among
-     * the many the application can run on.
+     * the many the application can run on. It is null until the task is
+     * submitted.
      *
      * @return The infrastructure Id
      */
     public String getAssociatedInfrastructureId() {
-        if ((associatedInfrastructureId == null
-                || associatedInfrastructureId.isEmpty())
-                && applicationDetail != null) {
-            List<Infrastructure> infras =
-                    ListUtils.select(applicationDetail.getInfrastructures(),
-                            new Predicate<Infrastructure>() {
-                                @Override
-                                public boolean evaluate(
-                                        final Infrastructure t) {
-                                    return t.isEnabled();
-                                }
-                            }
-                    );
-            Random rand = new Random((new Date()).getTime());
-
-            while (!infras.isEmpty()) {
-                Infrastructure i = infras.remove(rand.nextInt(infras.size()));
-                if (i.isEnabled()) {
-                    setAssociatedInfrastructureId(i.getId());
-                    return associatedInfrastructureId;
-                }
-            }
-        }
         return associatedInfrastructureId;
     }
 
@@ -638,8 +647,6 @@ public class Task extends Observable implements Serializable {
     public void setAssociatedInfrastructureId(final String anInfrastructure) {
         this.associatedInfrastructureId = anInfrastructure;
         lastChange = new Date();
-        setChanged();
-        notifyObservers();
     }
 
     /**
@@ -657,8 +664,29 @@ public class Task extends Observable implements Serializable {
      */
     public void setNativeId(final String aNativeId) {
         this.nativeId = aNativeId;
-        setChanged();
-        notifyObservers();
+    }
+
+    /**
+     * Retrieves the version of the task.
+     * The version is incremented at every update and identifies the state
+     * of the task sent to the clients.
+     *
+     * @return The version
+     */
+    @Version
+    @Column(name = "version", columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the task.
+     * The version is managed by the persistence layer.
+     *
+     * @param aVersion The version
+     */
+    public void setVersion(final long aVersion) {
+        this.version = aVersion;
     }
 
     /**
@@ -675,18 +703,50 @@ public class Task extends Observable implements Serializable {
     public final void updateInputFileStatus(
             final String name, final TaskFile.FILESTATUS aStatus) {
 
-        TaskFileInput tfi = IterableUtils.find(inputFiles,
+        TaskFileInput tfi = getInputFile(name);
+        if (tfi != null) {
+            tfi.setStatus(aStatus);
+            lastChange = new Date();
+        }
+    }
+
+
+    /**
+     * Retrieves an input file.
+     *
+     * @param name The file name
+     * @return The input file or null if the task does not require it
+     */
+    public final TaskFileInput getInputFile(final String name) {
+        if (inputFiles == null) {
+            return null;
+        }
+        return IterableUtils.find(inputFiles,
                 new Predicate<TaskFileInput>() {
             @Override
             public boolean evaluate(final TaskFileInput t) {
                 return t.getName().equals(name);
             }
         });
-        if (tfi != null) {
-            tfi.setStatus(aStatus);
-            lastChange = new Date();
-            setChanged();
-            notifyObservers();
+    }
+
+
+    /**
+     * Retrieves an output file.
+     *
+     * @param name The file name
+     * @return The output file or null if the task does not produce it
+     */
+    public final TaskFileOutput getOutputFile(final String name) {
+        if (outputFiles == null) {
+            return null;
         }
+        return IterableUtils.find(outputFiles,
+                new Predicate<TaskFileOutput>() {
+            @Override
+            public boolean evaluate(final TaskFileOutput t) {
+                return t.getName().equals(name);
+            }
+        });
     }
 }
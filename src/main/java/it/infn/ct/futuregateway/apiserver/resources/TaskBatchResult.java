@@ -0,0 +1,128 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.resources;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The TaskBatchResult represents the outcome of a task in a batch.
+ * A batch is accepted also when some of its tasks are not valid, so every
+ * task has its own status, using the HTTP code the task would receive if
+ * submitted alone.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@XmlRootElement(name = "TaskBatchResult")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class TaskBatchResult {
+
+    /**
+     * HTTP status of the task.
+     */
+    private int status;
+
+    /**
+     * Reason of the failure.
+     */
+    private String message;
+
+    /**
+     * The registered task.
+     */
+    private Task task;
+
+    /**
+     * Create an empty result.
+     */
+    public TaskBatchResult() {
+    }
+
+    /**
+     * Create a result.
+     *
+     * @param aStatus The HTTP status of the task
+     * @param aMessage The reason of the failure or null
+     * @param aTask The registered task or null
+     */
+    public TaskBatchResult(final int aStatus, final String aMessage,
+            final Task aTask) {
+        this.status = aStatus;
+        this.message = aMessage;
+        this.task = aTask;
+    }
+
+    /**
+     * Retrieve the HTTP status of the task.
+     *
+     * @return The status code
+     */
+    public final int getStatus() {
+        return status;
+    }
+
+    /**
+     * Set the HTTP status of the task.
+     *
+     * @param aStatus The status code
+     */
+    public final void setStatus(final int aStatus) {
+        this.status = aStatus;
+    }
+
+    /**
+     * Retrieve the reason of the failure.
+     *
+     * @return The message or null if the task was registered
+     */
+    public final String getMessage() {
+        return message;
+    }
+
+    /**
+     * Set the reason of the failure.
+     *
+     * @param aMessage The message
+     */
+    public final void setMessage(final String aMessage) {
+        this.message = aMessage;
+    }
+
+    /**
+     * Retrieve the registered task.
+     *
+     * @return The task or null if the task was not registered
+     */
+    public final Task getTask() {
+        return task;
+    }
+
+    /**
+     * Set the registered task.
+     *
+     * @param aTask The task
+     */
+    public final void setTask(final Task aTask) {
+        this.task = aTask;
+    }
+}
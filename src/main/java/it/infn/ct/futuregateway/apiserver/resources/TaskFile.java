@@ -83,6 +83,12 @@ public class TaskFile implements Serializable {
      */
     private FILESTATUS status = FILESTATUS.NEEDED;
 
+    /**
+     * Checksum of the file content.
+     * SHA-256 in hexadecimal format, computed when the file is stored.
+     */
+    private String checksum;
+
     /**
      * Retrieve the file identifier.
      *
@@ -159,4 +165,22 @@ public class TaskFile implements Serializable {
         this.url = aUrl;
     }
 
+    /**
+     * Returns the checksum of the file.
+     *
+     * @return The SHA-256 of the content or null if the file is not stored
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Sets the checksum of the file.
+     *
+     * @param aChecksum The SHA-256 of the content in hexadecimal format
+     */
+    public void setChecksum(final String aChecksum) {
+        this.checksum = aChecksum;
+    }
+
 }
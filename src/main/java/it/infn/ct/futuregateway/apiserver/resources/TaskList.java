@@ -60,6 +60,12 @@ public class TaskList {
      */
     private List<Task> tasks;
 
+    /**
+     * Reference to the next page of the collection.
+     * This is null if there are no more tasks to retrieve.
+     */
+    private Link next;
+
     /**
      * Create an empty task list.
      * In this case the tasks cannot be retrieved from the storage but they
@@ -94,4 +100,24 @@ public class TaskList {
     public final void setTasks(final List<Task> someTasks) {
         this.tasks = someTasks;
     }
+
+    /**
+     * Retrieve the reference to the next page.
+     *
+     * @return The reference or null if this is the last page
+     */
+    @XmlElement(name = "next")
+    @XmlJavaTypeAdapter(value = LinkJaxbAdapter.class)
+    public final Link getNext() {
+        return next;
+    }
+
+    /**
+     * Set the reference to the next page.
+     *
+     * @param aNext The reference to the next page
+     */
+    public final void setNext(final Link aNext) {
+        this.next = aNext;
+    }
 }
@@ -0,0 +1,67 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************
+ */
+package it.infn.ct.futuregateway.apiserver.resources.observers;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.SubmissionQueue;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Submits the tasks when they are ready.
+ * Ready tasks are added to the submission queue so the server can return
+ * immediately to the client. If the queue is full the task remains ready in
+ * the DB and the queue will take it later.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class SubmissionTrigger implements TaskTransitionListener {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(SubmissionTrigger.class);
+
+    /**
+     * Queue of the tasks to submit.
+     */
+    private final SubmissionQueue queue;
+
+
+    /**
+     * Create the listener.
+     *
+     * @param aQueue The submission queue
+     */
+    public SubmissionTrigger(final SubmissionQueue aQueue) {
+        this.queue = aQueue;
+    }
+
+
+    @Override
+    public final void transitionPerformed(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        if (Task.STATUS.READY.equals(to) && queue.offer(task.getId())) {
+            log.debug("Queued the task: " + task.getId());
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************
+ */
+package it.infn.ct.futuregateway.apiserver.resources.observers;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Manages the status of the tasks.
+ * The status of a task changes only through this object. Every transition is
+ * validated against the task life cycle, stored with a single update of the
+ * status column and then notified to the registered
+ * {@link TaskTransitionListener}s. The other fields of the task are saved by
+ * the code modifying them, in its own transaction, so a logical operation
+ * results in one write for the data and one for the transition, if any.
+ * <p>
+ * The update is conditional on the previous status. If the task has been
+ * modified concurrently the transition is not performed and the listeners are
+ * not notified.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class TaskStateMachine {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(TaskStateMachine.class);
+
+    /**
+     * Allowed transitions.
+     */
+    private static final Map<Task.STATUS, EnumSet<Task.STATUS>> TRANSITIONS =
+            new EnumMap<>(Task.STATUS.class);
+
+    static {
+        TRANSITIONS.put(Task.STATUS.WAITING, EnumSet.of(Task.STATUS.READY,
+                Task.STATUS.ABORTED, Task.STATUS.CANCELLED));
+        TRANSITIONS.put(Task.STATUS.READY, EnumSet.of(Task.STATUS.SCHEDULED,
+                Task.STATUS.ABORTED, Task.STATUS.CANCELLED));
+        TRANSITIONS.put(Task.STATUS.SCHEDULED, EnumSet.of(Task.STATUS.RUNNING,
+                Task.STATUS.DONE, Task.STATUS.ABORTED,
+                Task.STATUS.CANCELLED));
+        TRANSITIONS.put(Task.STATUS.RUNNING, EnumSet.of(Task.STATUS.DONE,
+                Task.STATUS.ABORTED, Task.STATUS.CANCELLED));
+        TRANSITIONS.put(Task.STATUS.DONE, EnumSet.noneOf(Task.STATUS.class));
+        TRANSITIONS.put(Task.STATUS.ABORTED,
+                EnumSet.noneOf(Task.STATUS.class));
+        TRANSITIONS.put(Task.STATUS.CANCELLED,
+                EnumSet.noneOf(Task.STATUS.class));
+    }
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * Listeners notified of the transitions.
+     */
+    private final List<TaskTransitionListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Create the state machine.
+     *
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     */
+    public TaskStateMachine(final EntityManagerFactory anEntityManagerFactory) {
+        this.emf = anEntityManagerFactory;
+    }
+
+
+    /**
+     * Register a listener.
+     *
+     * @param listener The listener to notify of the transitions
+     */
+    public final void addListener(final TaskTransitionListener listener) {
+        listeners.add(listener);
+    }
+
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener The listener to remove
+     */
+    public final void removeListener(final TaskTransitionListener listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Checks if a transition is part of the task life cycle.
+     *
+     * @param from The current status
+     * @param to The new status
+     * @return True if the task can move from a status to the other
+     */
+    public static boolean isAllowed(final Task.STATUS from,
+            final Task.STATUS to) {
+        return from != null && TRANSITIONS.get(from).contains(to);
+    }
+
+
+    /**
+     * Moves the task to the next status when it is possible.
+     * A waiting task is ready when the application is set and all the input
+     * files have been uploaded.
+     *
+     * @param task The task to evaluate
+     * @return True if the status of the task has changed
+     */
+    public final boolean evaluate(final Task task) {
+        if (!isReady(task)) {
+            return false;
+        }
+        return moveTo(task, Task.STATUS.READY);
+    }
+
+
+    /**
+     * Moves the tasks to the next status when it is possible.
+     * The ready tasks are moved together with a single update.
+     *
+     * @param tasks The tasks to evaluate
+     * @return The number of tasks whose status has changed
+     * @see #evaluate(Task)
+     */
+    public final int evaluateAll(final List<Task> tasks) {
+        List<Task> ready = new ArrayList<>();
+        for (Task task: tasks) {
+            if (isReady(task)) {
+                ready.add(task);
+            }
+        }
+        if (ready.isEmpty()) {
+            return 0;
+        }
+        return moveAll(ready, Task.STATUS.READY);
+    }
+
+
+    /**
+     * Performs a transition.
+     * The new status is stored in the DB only if the task is still in the
+     * status it has in memory. On success the task object is updated and the
+     * listeners notified.
+     *
+     * @param task The task
+     * @param to The new status
+     * @return True if the transition is performed, false if the task was
+     * modified concurrently
+     * @throws IllegalStateException If the transition is not allowed
+     */
+    public final boolean moveTo(final Task task, final Task.STATUS to) {
+        Task.STATUS from = task.getStatus();
+        if (!isAllowed(from, to)) {
+            throw new IllegalStateException("Task " + task.getId()
+                    + " cannot move from " + from + " to " + to);
+        }
+        Date now = new Date();
+        int updated;
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction et = null;
+        try {
+            et = em.getTransaction();
+            et.begin();
+            updated = em.createNamedQuery("tasks.updateStatus").
+                    setParameter("newStatus", to).
+                    setParameter("now", now).
+                    setParameter("id", task.getId()).
+                    setParameter("oldStatus", from).
+                    executeUpdate();
+            et.commit();
+        } catch (RuntimeException re) {
+            log.error("Impossible to update the status of the task "
+                    + task.getId());
+            log.error(re);
+            throw re;
+        } finally {
+            if (et != null && et.isActive()) {
+                et.rollback();
+            }
+            em.close();
+        }
+        if (updated == 0) {
+            log.warn("Task " + task.getId() + " is not in status " + from
+                    + " anymore, transition to " + to + " skipped");
+            return false;
+        }
+        task.setStatus(to);
+        task.setLastChange(now);
+        log.debug("Task " + task.getId() + " moved from " + from + " to "
+                + to);
+        notifyListeners(task, from, to);
+        return true;
+    }
+
+
+    /**
+     * Performs the same transition for many tasks.
+     * The tasks have to be in the same status. The new status is stored with
+     * a single update for all the tasks still in the status they have in
+     * memory, then the tasks are updated and the listeners notified as for
+     * {@link #moveTo(Task, Task.STATUS)}. The update of every task is
+     * conditioned to the version read in the same transaction, with a
+     * single update for the tasks having the same version. If some tasks
+     * are modified concurrently the transaction is rolled back and the
+     * tasks are updated one by one, so the tasks moved by other threads
+     * are not notified again.
+     *
+     * @param tasks The tasks
+     * @param to The new status
+     * @return The number of tasks moved
+     * @throws IllegalStateException If the transition is not allowed for a
+     * task
+     */
+    public final int moveAll(final List<Task> tasks, final Task.STATUS to) {
+        Task.STATUS from = tasks.get(0).getStatus();
+        List<String> ids = new ArrayList<>(tasks.size());
+        for (Task task: tasks) {
+            if (!isAllowed(task.getStatus(), to) || task.getStatus() != from) {
+                throw new IllegalStateException("Task " + task.getId()
+                        + " cannot move from " + task.getStatus() + " to "
+                        + to + " with the other tasks");
+            }
+            ids.add(task.getId());
+        }
+        Date now = new Date();
+        Set<String> moved = new HashSet<>();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction et = null;
+        try {
+            et = em.getTransaction();
+            et.begin();
+            Map<String, Long> versions = findVersions(em, ids, from);
+            Map<Long, List<String>> groups = new HashMap<>();
+            for (Map.Entry<String, Long> v: versions.entrySet()) {
+                List<String> group = groups.get(v.getValue());
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(v.getValue(), group);
+                }
+                group.add(v.getKey());
+            }
+            boolean conflict = false;
+            for (Map.Entry<Long, List<String>> g: groups.entrySet()) {
+                if (updateAll(em, g.getValue(), g.getKey(), from, to, now)
+                        != g.getValue().size()) {
+                    conflict = true;
+                    break;
+                }
+            }
+            if (conflict) {
+                et.rollback();
+                et.begin();
+                for (Map.Entry<String, Long> v: versions.entrySet()) {
+                    if (updateAll(em, Collections.singletonList(v.getKey()),
+                            v.getValue(), from, to, now) == 1) {
+                        moved.add(v.getKey());
+                    }
+                }
+            } else {
+                moved.addAll(versions.keySet());
+            }
+            et.commit();
+        } catch (RuntimeException re) {
+            log.error("Impossible to update the status of " + ids.size()
+                    + " tasks");
+            log.error(re);
+            throw re;
+        } finally {
+            if (et != null && et.isActive()) {
+                et.rollback();
+            }
+            em.close();
+        }
+        int count = 0;
+        for (Task task: tasks) {
+            if (!moved.contains(task.getId())) {
+                log.warn("Task " + task.getId() + " is not in status " + from
+                        + " anymore, transition to " + to + " skipped");
+                continue;
+            }
+            task.setStatus(to);
+            task.setLastChange(now);
+            notifyListeners(task, from, to);
+            count++;
+        }
+        log.debug(count + " tasks moved from " + from + " to " + to);
+        return count;
+    }
+
+
+    /**
+     * Checks if a waiting task can be submitted.
+     *
+     * @param task The task to check
+     * @return True if the application is set and all the input files have
+     * been uploaded
+     */
+    private static boolean isReady(final Task task) {
+        if (task.getId() == null
+                || !Task.STATUS.WAITING.equals(task.getStatus())
+                || task.getApplicationDetail() == null) {
+            return false;
+        }
+        if (task.getInputFiles() != null) {
+            for (TaskFile tf: task.getInputFiles()) {
+                if (tf.getStatus().equals(TaskFile.FILESTATUS.NEEDED)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Updates the status of the tasks with a version.
+     *
+     * @param em The EntityManager
+     * @param ids The identifiers of the tasks to update
+     * @param version The version the tasks have to be in
+     * @param from The status the tasks have to be in
+     * @param to The new status
+     * @param now The time of the transition
+     * @return The number of updated tasks
+     */
+    private static int updateAll(final EntityManager em,
+            final List<String> ids, final long version,
+            final Task.STATUS from, final Task.STATUS to, final Date now) {
+        return em.createNamedQuery("tasks.updateStatusAll").
+                setParameter("newStatus", to).
+                setParameter("now", now).
+                setParameter("ids", ids).
+                setParameter("oldStatus", from).
+                setParameter("version", version).
+                executeUpdate();
+    }
+
+
+    /**
+     * Retrieves the version of the tasks in a status.
+     *
+     * @param em The EntityManager
+     * @param ids The identifiers of the tasks to check
+     * @param status The status
+     * @return The version of the tasks in the status, by identifier
+     */
+    private static Map<String, Long> findVersions(final EntityManager em,
+            final List<String> ids, final Task.STATUS status) {
+        Map<String, Long> found = new HashMap<>();
+        for (Object[] row: em.createNamedQuery("tasks.versionsInStatus",
+                Object[].class).
+                setParameter("ids", ids).
+                setParameter("status", status).
+                getResultList()) {
+            found.put((String) row[0], ((Number) row[1]).longValue());
+        }
+        return found;
+    }
+
+
+    /**
+     * Notify a transition to the listeners.
+     *
+     * @param task The task after the transition
+     * @param from The status before the transition
+     * @param to The new status
+     */
+    private void notifyListeners(final Task task, final Task.STATUS from,
+            final Task.STATUS to) {
+        for (TaskTransitionListener ttl: listeners) {
+            try {
+                ttl.transitionPerformed(task, from, to);
+            } catch (RuntimeException re) {
+                log.error("Listener failed for the task " + task.getId());
+                log.error(re);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************
+ */
+package it.infn.ct.futuregateway.apiserver.resources.observers;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+
+/**
+ * Receives the status transitions of the tasks.
+ * Listeners are registered in the {@link TaskStateMachine} and notified
+ * once for every transition after it has been stored in the DB. They are
+ * the extension point to trigger the following steps of the task (e.g. the
+ * submission) and to collect statistics.
+ * <p>
+ * Notifications are delivered in the thread performing the transition so
+ * the implementations have to return quickly.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface TaskTransitionListener {
+
+    /**
+     * Notify a transition.
+     *
+     * @param task The task after the transition
+     * @param from The status before the transition
+     * @param to The new status
+     */
+    void transitionPerformed(Task task, Task.STATUS from, Task.STATUS to);
+}
@@ -0,0 +1,71 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************
+ */
+package it.infn.ct.futuregateway.apiserver.resources.observers;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the transitions of the tasks.
+ * For every status the counter keeps the number of tasks entering it since
+ * the start of the server. Values can be exported to the monitoring system.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class TransitionCounter implements TaskTransitionListener {
+
+    /**
+     * Number of transitions for every status.
+     */
+    private final Map<Task.STATUS, AtomicLong> counters =
+            new EnumMap<>(Task.STATUS.class);
+
+
+    /**
+     * Create the counter.
+     */
+    public TransitionCounter() {
+        for (Task.STATUS st: Task.STATUS.values()) {
+            counters.put(st, new AtomicLong());
+        }
+    }
+
+
+    @Override
+    public final void transitionPerformed(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        counters.get(to).incrementAndGet();
+    }
+
+
+    /**
+     * Retrieves the number of transitions to a status.
+     *
+     * @param status The status
+     * @return The number of tasks moved to the status
+     */
+    public final long getTransitions(final Task.STATUS status) {
+        return counters.get(status).get();
+    }
+}
@@ -0,0 +1,87 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Channel computing the digest of the data read.
+ * The data are added to the digest while they are moved, so the checksum of
+ * a file is available when the file is written without reading it again.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class ChecksumChannel implements ReadableByteChannel {
+
+    /**
+     * The channel providing the data.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The digest updated with the data.
+     */
+    private final MessageDigest digest;
+
+
+    /**
+     * Create the channel.
+     *
+     * @param aChannel The channel providing the data
+     * @param aDigest The digest to update
+     */
+    public ChecksumChannel(final ReadableByteChannel aChannel,
+            final MessageDigest aDigest) {
+        this.channel = aChannel;
+        this.digest = aDigest;
+    }
+
+
+    @Override
+    public final int read(final ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int read = channel.read(dst);
+        if (read > 0) {
+            ByteBuffer data = dst.duplicate();
+            data.position(start);
+            data.limit(start + read);
+            digest.update(data);
+        }
+        return read;
+    }
+
+
+    @Override
+    public final boolean isOpen() {
+        return channel.isOpen();
+    }
+
+
+    @Override
+    public final void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,460 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Counter;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Storage keeping a single copy of identical files.
+ * The files are written as in the {@link LocalStorage}. When a file is
+ * complete its content is moved in a blob named by its SHA-256, in the
+ * folder <i>blobs</i> of the storage, and the file becomes a hard link to
+ * the blob. Files with the same content, as the inputs of a parameter sweep
+ * uploaded for every task, share the blob and use the disk once.
+ * <p>
+ * The blob of every file is recorded in a reference, in the folder
+ * <i>refs</i> with the same structure of the resources. The number of links
+ * of a blob counts the files using it: when a file is removed or written
+ * again the reference is released and the blob is deleted if no other file
+ * uses it. The reference is written before the file is linked to the
+ * blob, so an interrupted commit cannot leave a shared file without the
+ * reference releasing it. The operations on the blobs are serialised, the
+ * file data are never copied while holding the lock.
+ * <p>
+ * If the file system does not support hard links the storage behaves as the
+ * {@link LocalStorage}.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class ContentAddressedStorage implements Storage {
+
+    /**
+     * Folder of the blobs.
+     */
+    private static final String BLOBFOLDER = "blobs";
+
+    /**
+     * Folder of the references.
+     */
+    private static final String REFFOLDER = "refs";
+
+    /**
+     * Length of the checksum prefix used to split the blobs in folders.
+     */
+    private static final int BLOBPREFIX = 2;
+
+    /**
+     * Format of the checksums naming the blobs.
+     */
+    private static final String CHECKSUMFORMAT = "[0-9a-f]{64}";
+
+    /**
+     * Lock of the operations on the blobs.
+     * The storages created for the same path share the blobs.
+     */
+    private static final Object BLOBLOCK = new Object();
+
+    /**
+     * Bytes of the files linked to an existing blob.
+     */
+    private static final Counter DEDUPLICATED = Metrics.getDefault().
+            counter(Metrics.STORAGEDEDUPLICATED,
+                    "Bytes of the stored files shared with identical files",
+                    "storage", "local");
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(ContentAddressedStorage.class);
+
+    /**
+     * Storage of the files.
+     */
+    private final LocalStorage files;
+
+    /**
+     * Path to the storage area.
+     */
+    private final String path;
+
+
+    /**
+     * Create the storage.
+     *
+     * @param aPath Path to the dedicated storage
+     */
+    public ContentAddressedStorage(final String aPath) {
+        this.path = aPath;
+        this.files = new LocalStorage(aPath);
+    }
+
+
+    @Override
+    public final void storeFile(final RESOURCE res, final String id,
+            final InputStream input, final String destinationName)
+            throws IOException {
+        storeFile(res, id, input, destinationName, null);
+    }
+
+
+    @Override
+    public final void storeFile(final RESOURCE res, final String id,
+            final InputStream input, final String destinationName,
+            final String action) throws IOException {
+        detach(res, id, destinationName, action, 0);
+        files.storeFile(res, id, input, destinationName, action);
+    }
+
+
+    @Override
+    public final long storeFilePart(final RESOURCE res, final String id,
+            final ReadableByteChannel input, final String destinationName,
+            final String action, final long position) throws IOException {
+        detach(res, id, destinationName, action, position);
+        return files.storeFilePart(res, id, input, destinationName, action,
+                position);
+    }
+
+
+    @Override
+    public final void commitFile(final RESOURCE res, final String id,
+            final String fileName, final String action,
+            final String checksum) {
+        if (checksum == null || !checksum.matches(CHECKSUMFORMAT)) {
+            return;
+        }
+        Path file = files.getFilePath(res, id, fileName, action);
+        Path ref = getRefPath(res, id, fileName, action);
+        Path blob = getBlobPath(checksum);
+        try {
+            synchronized (BLOBLOCK) {
+                if (!supportsLinks(file) || Files.notExists(file)) {
+                    return;
+                }
+                if (Files.exists(ref)) {
+                    if (checksum.equals(readRef(ref))) {
+                        return;
+                    }
+                    release(ref);
+                }
+                long size = Files.size(file);
+                boolean shared = Files.exists(blob);
+                if (shared && Files.size(blob) != size) {
+                    log.warn("Blob " + checksum + " has not the size of "
+                            + file + ", file not shared");
+                    return;
+                }
+                Files.createDirectories(ref.getParent());
+                Files.write(ref, checksum.getBytes(StandardCharsets.UTF_8));
+                try {
+                    if (shared) {
+                        Path link = file.resolveSibling("." + fileName
+                                + ".link");
+                        Files.deleteIfExists(link);
+                        Files.createLink(link, blob);
+                        Files.move(link, file,
+                                StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                        DEDUPLICATED.add(size);
+                        log.debug("File " + file + " linked to the blob "
+                                + checksum);
+                    } else {
+                        Files.createDirectories(blob.getParent());
+                        Files.createLink(blob, file);
+                    }
+                } catch (IOException | UnsupportedOperationException ex) {
+                    Files.deleteIfExists(ref);
+                    throw ex;
+                }
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            log.warn("Impossible to share the file " + file + ": "
+                    + ex.getMessage());
+        }
+    }
+
+
+    @Override
+    public final long getFileSize(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        return files.getFileSize(res, id, fileName, action);
+    }
+
+
+    @Override
+    public final SeekableByteChannel openFile(final RESOURCE res,
+            final String id, final String fileName, final String action)
+            throws IOException {
+        return files.openFile(res, id, fileName, action);
+    }
+
+
+    @Override
+    public final long getLastModified(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        return files.getLastModified(res, id, fileName, action);
+    }
+
+
+    @Override
+    public final long transferFile(final RESOURCE res, final String id,
+            final String fileName, final String action, final long position,
+            final long count, final WritableByteChannel output)
+            throws IOException {
+        return files.transferFile(res, id, fileName, action, position, count,
+                output);
+    }
+
+
+    @Override
+    public final void removeAllFiles(final RESOURCE res, final String id)
+            throws IOException {
+        removeFiles(res, id, null);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The blobs of the removed files are deleted when no other file uses
+     * them.
+     */
+    @Override
+    public final void removeFiles(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        Path refs = getRefPath(res, id, "", action);
+        final List<Path> refFiles = new ArrayList<>();
+        if (Files.exists(refs)) {
+            Files.walkFileTree(refs, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                        final BasicFileAttributes attrs) {
+                    refFiles.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        files.removeFiles(res, id, action);
+        synchronized (BLOBLOCK) {
+            for (Path ref: refFiles) {
+                release(ref);
+            }
+        }
+        removeTree(refs);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Files sharing a blob are counted for every resource using them.
+     */
+    @Override
+    public final long getUsedSpace(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        return files.getUsedSpace(res, id, action);
+    }
+
+
+    @Override
+    public final List<String> listResources(final RESOURCE res,
+            final String after, final int max) throws IOException {
+        return files.listResources(res, after, max);
+    }
+
+
+    @Override
+    public final void shutdown() {
+        files.shutdown();
+    }
+
+
+    /**
+     * Separate a file from its blob before writing it.
+     * A file written from the beginning is removed, otherwise its content
+     * is copied so the data of the blob are not modified.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @param position Position of the data to write
+     * @throws IOException If the file cannot be separated
+     */
+    private void detach(final RESOURCE res, final String id,
+            final String fileName, final String action, final long position)
+            throws IOException {
+        Path ref = getRefPath(res, id, fileName, action);
+        if (Files.notExists(ref)) {
+            return;
+        }
+        Path file = files.getFilePath(res, id, fileName, action);
+        if (position > 0) {
+            Path copy = file.resolveSibling("." + fileName + ".copy");
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        synchronized (BLOBLOCK) {
+            release(ref);
+        }
+    }
+
+
+    /**
+     * Release a reference and delete the blob if it is not used anymore.
+     * The caller has to hold the blob lock.
+     *
+     * @param ref The reference
+     * @throws IOException If the reference cannot be read
+     */
+    private void release(final Path ref) throws IOException {
+        if (Files.notExists(ref)) {
+            return;
+        }
+        Path blob = getBlobPath(readRef(ref));
+        Files.delete(ref);
+        if (Files.exists(blob) && getLinks(blob) <= 1) {
+            Files.delete(blob);
+            log.debug("Blob " + blob.getFileName() + " removed");
+        }
+    }
+
+
+    /**
+     * Remove a directory with its content.
+     *
+     * @param dir The directory
+     * @throws IOException If the directory cannot be removed
+     */
+    private static void removeTree(final Path dir) throws IOException {
+        if (Files.notExists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(final Path d,
+                    final IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    /**
+     * Read the checksum of the blob in a reference.
+     *
+     * @param ref The reference
+     * @return The checksum
+     * @throws IOException If the reference cannot be read
+     */
+    private static String readRef(final Path ref) throws IOException {
+        return new String(Files.readAllBytes(ref), StandardCharsets.UTF_8).
+                trim();
+    }
+
+
+    /**
+     * Retrieves the number of hard links of a file.
+     *
+     * @param file The file
+     * @return The number of links
+     * @throws IOException If the file cannot be accessed
+     */
+    private static int getLinks(final Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+
+
+    /**
+     * Checks if the file system of a file supports the hard links.
+     *
+     * @param file The file
+     * @return True if the hard links are counted
+     * @throws IOException If the file system cannot be accessed
+     */
+    boolean supportsLinks(final Path file) throws IOException {
+        return Files.exists(file)
+                && Files.getFileStore(file).supportsFileAttributeView("unix");
+    }
+
+
+    /**
+     * Build the path of a blob.
+     *
+     * @param checksum The checksum of the content
+     * @return The path of the blob
+     */
+    private Path getBlobPath(final String checksum) {
+        return Paths.get(path, BLOBFOLDER,
+                checksum.substring(0, BLOBPREFIX), checksum);
+    }
+
+
+    /**
+     * Build the path of the reference of a file.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name, empty for the folder of the resource
+     * @param action Action the file is associated with, can be null
+     * @return The path of the reference
+     */
+    private Path getRefPath(final RESOURCE res, final String id,
+            final String fileName, final String action) {
+        if (action != null && !action.isEmpty()) {
+            return Paths.get(path, REFFOLDER, res.name().toLowerCase(), id,
+                    action, fileName);
+        }
+        return Paths.get(path, REFFOLDER, res.name().toLowerCase(), id,
+                fileName);
+    }
+}
@@ -21,14 +21,27 @@
 
 package it.infn.ct.futuregateway.apiserver.storage;
 
+import it.infn.ct.futuregateway.apiserver.metrics.Counter;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -46,6 +59,20 @@ public class LocalStorage implements Storage {
      */
     private final Log log = LogFactory.getLog(LocalStorage.class);
 
+    /**
+     * Bytes written in the local storage.
+     */
+    private static final Counter WRITTEN = Metrics.getDefault().counter(
+            Metrics.STORAGEWRITTEN, "Bytes written in the storage",
+            "storage", "local");
+
+    /**
+     * Bytes read from the local storage.
+     */
+    private static final Counter READ = Metrics.getDefault().counter(
+            Metrics.STORAGEREAD, "Bytes read from the storage",
+            "storage", "local");
+
     /**
      * Path to the storage area. The storage are is a location in the local
      * file system where files are saved.
@@ -79,30 +106,118 @@ public class LocalStorage implements Storage {
             final InputStream input, final String destinationName,
             final String operation) throws IOException {
 
-        Path filePath;
-        if (operation != null && !operation.isEmpty()) {
-            filePath = Paths.get(
-                path, res.name().toLowerCase(),
-                id, operation, destinationName);
-        } else {
-            filePath = Paths.get(
-                path, res.name().toLowerCase(),
-                id, destinationName);
-        }
-
-
+        Path filePath = getFilePath(res, id, destinationName, operation);
         Files.createDirectories(filePath.getParent());
         Files.deleteIfExists(filePath);
-        Files.copy(input, filePath);
+        WRITTEN.add(Files.copy(input, filePath));
         log.debug("File " + destinationName + " written at '" + filePath + "'");
     }
 
 
+    @Override
+    public final long storeFilePart(final RESOURCE res, final String id,
+            final ReadableByteChannel input, final String destinationName,
+            final String action, final long position) throws IOException {
+        Path filePath = getFilePath(res, id, destinationName, action);
+        Files.createDirectories(filePath.getParent());
+        long written = 0;
+        try (FileChannel fc = FileChannel.open(filePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (position > fc.size()) {
+                throw new IOException("Position " + position + " is after "
+                        + "the end of the file '" + filePath + "'");
+            }
+            fc.truncate(position);
+            long transferred;
+            do {
+                transferred = fc.transferFrom(input, position + written,
+                        Constants.TRANSFERSIZE);
+                written += transferred;
+            } while (transferred > 0);
+        } finally {
+            WRITTEN.add(written);
+        }
+        log.debug(written + " bytes of " + destinationName + " written at '"
+                + filePath + "' from position " + position);
+        return written;
+    }
+
+
+    @Override
+    public final void commitFile(final RESOURCE res, final String id,
+            final String fileName, final String action,
+            final String checksum) {
+        log.debug("File " + fileName + " of " + id + " completed");
+    }
+
+
+    @Override
+    public final long getFileSize(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        Path filePath = getFilePath(res, id, fileName, action);
+        if (Files.notExists(filePath)) {
+            return -1;
+        }
+        return Files.size(filePath);
+    }
+
+
+    @Override
+    public final SeekableByteChannel openFile(final RESOURCE res,
+            final String id, final String fileName, final String action)
+            throws IOException {
+        return FileChannel.open(getFilePath(res, id, fileName, action),
+                StandardOpenOption.READ);
+    }
+
+
+    @Override
+    public final long getLastModified(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        Path filePath = getFilePath(res, id, fileName, action);
+        if (Files.notExists(filePath)) {
+            return -1;
+        }
+        return Files.getLastModifiedTime(filePath).toMillis();
+    }
+
+
+    @Override
+    public final long transferFile(final RESOURCE res, final String id,
+            final String fileName, final String action, final long position,
+            final long count, final WritableByteChannel output)
+            throws IOException {
+        long sent = 0;
+        try (FileChannel fc = FileChannel.open(
+                getFilePath(res, id, fileName, action),
+                StandardOpenOption.READ)) {
+            while (sent < count) {
+                long transferred = fc.transferTo(position + sent,
+                        Math.min(count - sent, Constants.TRANSFERSIZE),
+                        output);
+                if (transferred <= 0) {
+                    break;
+                }
+                sent += transferred;
+            }
+        } finally {
+            READ.add(sent);
+        }
+        return sent;
+    }
+
+
     @Override
     public final void removeAllFiles(final RESOURCE res, final String id)
             throws IOException {
-        java.nio.file.Path filePath = Paths.get(
-                path, res.name().toLowerCase(), id);
+        removeFiles(res, id, null);
+    }
+
+
+    @Override
+    public final void removeFiles(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        Path filePath = getFilePath(res, id, "", action);
         if (Files.notExists(filePath)) {
             return;
         }
@@ -122,7 +237,77 @@ public class LocalStorage implements Storage {
                     return FileVisitResult.CONTINUE;
                 }
             });
+        } else {
+            Files.delete(filePath);
+        }
+    }
+
+
+    @Override
+    public final long getUsedSpace(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        Path filePath = getFilePath(res, id, "", action);
+        if (Files.notExists(filePath)) {
+            return 0;
+        }
+        final long[] size = {0};
+        Files.walkFileTree(filePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+
+    @Override
+    public final List<String> listResources(final RESOURCE res,
+            final String after, final int max) throws IOException {
+        Path resPath = Paths.get(path, res.name().toLowerCase());
+        if (Files.notExists(resPath)) {
+            return Collections.emptyList();
+        }
+        TreeSet<String> page = new TreeSet<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(resPath)) {
+            for (Path entry: ds) {
+                String id = entry.getFileName().toString();
+                if (after != null && id.compareTo(after) <= 0) {
+                    continue;
+                }
+                page.add(id);
+                if (page.size() > max) {
+                    page.pollLast();
+                }
+            }
+        }
+        return new ArrayList<>(page);
+    }
+
+
+    @Override
+    public final void shutdown() {
+        log.debug("Storage at '" + path + "' closed");
+    }
+
+
+    /**
+     * Build the path of a file in the storage.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with, can be null
+     * @return The path of the file
+     */
+    final Path getFilePath(final RESOURCE res, final String id,
+            final String fileName, final String action) {
+        if (action != null && !action.isEmpty()) {
+            return Paths.get(path, res.name().toLowerCase(), id, action,
+                    fileName);
         }
-        Files.delete(filePath);
+        return Paths.get(path, res.name().toLowerCase(), id, fileName);
     }
 }
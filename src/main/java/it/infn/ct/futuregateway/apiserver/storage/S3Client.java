@@ -0,0 +1,602 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Minimal client of the S3 protocol.
+ * The requests are signed with the AWS signature version 4 and sent with
+ * the path style addressing, supported by AWS and by the compatible object
+ * stores as MinIO or Ceph.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+final class S3Client {
+
+    /**
+     * Status of the successful requests.
+     */
+    static final int OK = HttpURLConnection.HTTP_OK;
+
+    /**
+     * Status of the partial content.
+     */
+    static final int PARTIAL = HttpURLConnection.HTTP_PARTIAL;
+
+    /**
+     * Status of the missing objects.
+     */
+    static final int NOTFOUND = HttpURLConnection.HTTP_NOT_FOUND;
+
+    /**
+     * Algorithm of the signature.
+     */
+    private static final String SIGNATURE = "AWS4-HMAC-SHA256";
+
+    /**
+     * Algorithm of the MAC.
+     */
+    private static final String MAC = "HmacSHA256";
+
+    /**
+     * Characters of the hexadecimal format.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Mask of a byte.
+     */
+    private static final int BYTEMASK = 0xff;
+
+    /**
+     * Bits of a hexadecimal digit.
+     */
+    private static final int HEXBITS = 4;
+
+    /**
+     * Mask of a hexadecimal digit.
+     */
+    private static final int HEXMASK = 0x0f;
+
+    /**
+     * Size of the buffer reading the responses.
+     */
+    private static final int BUFFERSIZE = 8192;
+
+    /**
+     * Hash of the empty payload.
+     */
+    private static final String EMPTYHASH = hex(sha256(new byte[0], 0, 0));
+
+    /**
+     * Endpoint of the service.
+     */
+    private final URI endpoint;
+
+    /**
+     * Region of the bucket.
+     */
+    private final String region;
+
+    /**
+     * Bucket storing the objects.
+     */
+    private final String bucket;
+
+    /**
+     * Access key.
+     */
+    private final String accessKey;
+
+    /**
+     * Secret key.
+     */
+    private final String secretKey;
+
+
+    /**
+     * Create the client.
+     *
+     * @param anEndpoint The endpoint of the service
+     * @param aRegion The region of the bucket
+     * @param aBucket The bucket
+     * @param anAccessKey The access key
+     * @param aSecretKey The secret key
+     */
+    S3Client(final URI anEndpoint, final String aRegion, final String aBucket,
+            final String anAccessKey, final String aSecretKey) {
+        this.endpoint = anEndpoint;
+        this.region = aRegion;
+        this.bucket = aBucket;
+        this.accessKey = anAccessKey;
+        this.secretKey = aSecretKey;
+    }
+
+
+    /**
+     * Retrieves the bucket.
+     *
+     * @return The bucket name
+     */
+    String getBucket() {
+        return bucket;
+    }
+
+
+    /**
+     * Send a request without body.
+     *
+     * @param method The HTTP method
+     * @param key The object key, empty for the bucket
+     * @param query The query parameters
+     * @param headers Additional headers
+     * @return The response
+     * @throws IOException If the service cannot be contacted
+     */
+    Response send(final String method, final String key,
+            final Map<String, String> query, final Map<String, String> headers)
+            throws IOException {
+        return send(method, key, query, headers, null, 0, 0);
+    }
+
+
+    /**
+     * Send a request.
+     *
+     * @param method The HTTP method
+     * @param key The object key, empty for the bucket
+     * @param query The query parameters
+     * @param headers Additional headers
+     * @param body The body, can be null
+     * @param offset The first byte of the body
+     * @param length The size of the body
+     * @return The response
+     * @throws IOException If the service cannot be contacted
+     */
+    Response send(final String method, final String key,
+            final Map<String, String> query, final Map<String, String> headers,
+            final byte[] body, final int offset, final int length)
+            throws IOException {
+        String path = "/" + encode(bucket, false);
+        if (!key.isEmpty()) {
+            path += "/" + encode(key, true);
+        }
+        SortedMap<String, String> params = new TreeMap<>();
+        for (Map.Entry<String, String> p: query.entrySet()) {
+            params.put(encode(p.getKey(), false),
+                    encode(p.getValue(), false));
+        }
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, String> p: params.entrySet()) {
+            if (queryString.length() > 0) {
+                queryString.append('&');
+            }
+            queryString.append(p.getKey()).append('=').append(p.getValue());
+        }
+        String spec = endpoint.getScheme() + "://" + endpoint.getRawAuthority()
+                + path;
+        if (queryString.length() > 0) {
+            spec += "?" + queryString;
+        }
+        URL url = new URL(spec);
+        String host = url.getHost();
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            host += ":" + url.getPort();
+        }
+        String payloadHash = EMPTYHASH;
+        if (body != null) {
+            payloadHash = hex(sha256(body, offset, length));
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String amzDate = format.format(new Date());
+        SortedMap<String, String> signed = new TreeMap<>();
+        signed.put("host", host);
+        signed.put("x-amz-content-sha256", payloadHash);
+        signed.put("x-amz-date", amzDate);
+        for (Map.Entry<String, String> h: headers.entrySet()) {
+            if (h.getKey().toLowerCase().startsWith("x-amz-")) {
+                signed.put(h.getKey().toLowerCase(), h.getValue().trim());
+            }
+        }
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(Constants.S3TIMEOUT);
+        conn.setReadTimeout(Constants.S3TIMEOUT);
+        conn.setRequestProperty("Authorization", sign(method, path,
+                queryString.toString(), signed, payloadHash, amzDate));
+        for (Map.Entry<String, String> h: signed.entrySet()) {
+            if (!h.getKey().equals("host")) {
+                conn.setRequestProperty(h.getKey(), h.getValue());
+            }
+        }
+        for (Map.Entry<String, String> h: headers.entrySet()) {
+            conn.setRequestProperty(h.getKey(), h.getValue());
+        }
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body, offset, length);
+            }
+        }
+        try {
+            int status = conn.getResponseCode();
+            InputStream in;
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                in = conn.getErrorStream();
+            } else {
+                in = conn.getInputStream();
+            }
+            return new Response(status, readAll(in),
+                    conn.getHeaderField("ETag"),
+                    conn.getHeaderFieldLong("Content-Length", -1),
+                    conn.getLastModified());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+
+    /**
+     * Build the authorization header of a request.
+     *
+     * @param method The HTTP method
+     * @param path The encoded path
+     * @param query The canonical query string
+     * @param headers The signed headers, lower case and sorted
+     * @param payloadHash The hash of the body
+     * @param amzDate The time of the request
+     * @return The value of the header
+     */
+    private String sign(final String method, final String path,
+            final String query, final SortedMap<String, String> headers,
+            final String payloadHash, final String amzDate) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> h: headers.entrySet()) {
+            canonicalHeaders.append(h.getKey()).append(':').
+                    append(h.getValue()).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(h.getKey());
+        }
+        String canonicalRequest = method + "\n" + path + "\n" + query + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n"
+                + payloadHash;
+        String date = amzDate.substring(0, amzDate.indexOf('T'));
+        String scope = date + "/" + region + "/s3/aws4_request";
+        byte[] request = canonicalRequest.getBytes(StandardCharsets.UTF_8);
+        String toSign = SIGNATURE + "\n" + amzDate + "\n" + scope + "\n"
+                + hex(sha256(request, 0, request.length));
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(
+                StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        return SIGNATURE + " Credential=" + accessKey + "/" + scope
+                + ", SignedHeaders=" + signedHeaders
+                + ", Signature=" + hex(hmac(key, toSign));
+    }
+
+
+    /**
+     * Parse an XML document.
+     *
+     * @param data The document
+     * @return The DOM of the document
+     * @throws IOException If the document is not valid
+     */
+    static Document parse(final byte[] data) throws IOException {
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setFeature(
+                    "http://apache.org/xml/features/disallow-doctype-decl",
+                    true);
+            return dbf.newDocumentBuilder().parse(
+                    new ByteArrayInputStream(data));
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("Response of the object store not valid: "
+                    + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Retrieves the text of the first element with a name.
+     *
+     * @param doc The document
+     * @param name The element name
+     * @return The text or null if the element is missing
+     */
+    static String getText(final Document doc, final String name) {
+        NodeList nodes = doc.getElementsByTagName(name);
+        if (nodes.getLength() == 0) {
+            return null;
+        }
+        return nodes.item(0).getTextContent();
+    }
+
+
+    /**
+     * Create the parameters of a query.
+     *
+     * @param nameValues Names and values of the parameters, alternated
+     * @return The parameters
+     */
+    static Map<String, String> params(final String... nameValues) {
+        if (nameValues.length == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> params = new TreeMap<>();
+        for (int i = 0; i + 1 < nameValues.length; i += 2) {
+            params.put(nameValues[i], nameValues[i + 1]);
+        }
+        return params;
+    }
+
+
+    /**
+     * Encode a string for the URI of a request.
+     *
+     * @param value The string
+     * @param keepSlash True to leave the slashes not encoded
+     * @return The encoded string
+     */
+    static String encode(final String value, final boolean keepSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b: value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & BYTEMASK);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                    || c == '.' || c == '~' || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(
+                        HEX[(b >> HEXBITS) & HEXMASK])).append(
+                        Character.toUpperCase(HEX[b & HEXMASK]));
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Read a stream until the end.
+     *
+     * @param in The stream, can be null
+     * @return The data
+     * @throws IOException If the stream cannot be read
+     */
+    private static byte[] readAll(final InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[BUFFERSIZE];
+            int read;
+            while ((read = is.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+
+    /**
+     * Compute the SHA-256 of some data.
+     *
+     * @param data The data
+     * @param offset The first byte
+     * @param length The number of bytes
+     * @return The hash
+     */
+    private static byte[] sha256(final byte[] data, final int offset,
+            final int length) {
+        MessageDigest md = UploadChecksums.newDigest();
+        md.update(data, offset, length);
+        return md.digest();
+    }
+
+
+    /**
+     * Compute the HMAC-SHA256 of a string.
+     *
+     * @param key The key
+     * @param data The string
+     * @return The MAC
+     */
+    private static byte[] hmac(final byte[] key, final String data) {
+        try {
+            Mac mac = Mac.getInstance(MAC);
+            mac.init(new SecretKeySpec(key, MAC));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException(MAC + " not supported", gse);
+        }
+    }
+
+
+    /**
+     * Convert bytes in hexadecimal format.
+     *
+     * @param data The bytes
+     * @return The hexadecimal string
+     */
+    private static String hex(final byte[] data) {
+        char[] out = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            out[2 * i] = HEX[(data[i] >> HEXBITS) & HEXMASK];
+            out[2 * i + 1] = HEX[data[i] & HEXMASK];
+        }
+        return new String(out);
+    }
+
+
+    /**
+     * Response of the object store.
+     */
+    static final class Response {
+
+        /**
+         * The HTTP status.
+         */
+        private final int status;
+
+        /**
+         * The body.
+         */
+        private final byte[] body;
+
+        /**
+         * The entity tag.
+         */
+        private final String etag;
+
+        /**
+         * The length of the content.
+         */
+        private final long contentLength;
+
+        /**
+         * The last modification time.
+         */
+        private final long lastModified;
+
+
+        /**
+         * Create the response.
+         *
+         * @param aStatus The HTTP status
+         * @param aBody The body
+         * @param anEtag The entity tag
+         * @param aContentLength The length of the content
+         * @param aLastModified The last modification time
+         */
+        Response(final int aStatus, final byte[] aBody, final String anEtag,
+                final long aContentLength, final long aLastModified) {
+            this.status = aStatus;
+            this.body = aBody;
+            this.etag = anEtag;
+            this.contentLength = aContentLength;
+            this.lastModified = aLastModified;
+        }
+
+        /**
+         * Retrieves the HTTP status.
+         *
+         * @return The status
+         */
+        int getStatus() {
+            return status;
+        }
+
+        /**
+         * Retrieves the body.
+         *
+         * @return The body
+         */
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Retrieves the entity tag.
+         *
+         * @return The tag
+         */
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Retrieves the length of the content.
+         *
+         * @return The length or -1 if not known
+         */
+        long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * Retrieves the last modification time.
+         *
+         * @return The time in milliseconds
+         */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks the request was successful.
+         *
+         * @param operation Description of the operation, for the error
+         * @return The response
+         * @throws IOException If the status is not successful
+         */
+        Response check(final String operation) throws IOException {
+            if (status < HttpURLConnection.HTTP_OK
+                    || status >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                String code = null;
+                if (body.length > 0) {
+                    try {
+                        code = getText(parse(body), "Code");
+                    } catch (IOException ioe) {
+                        code = null;
+                    }
+                }
+                throw new IOException("Object store error for " + operation
+                        + ": " + status + (code != null ? " " + code : ""));
+            }
+            return this;
+        }
+    }
+}
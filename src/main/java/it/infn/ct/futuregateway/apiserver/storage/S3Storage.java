@@ -0,0 +1,1323 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Counter;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Storage in an object store with the S3 protocol.
+ * The storage is defined by the url
+ * <i>s3://&lt;bucket&gt;/&lt;prefix&gt;?endpoint=&lt;url&gt;&amp;region=
+ * &lt;region&gt;</i>. The endpoint is needed for the object stores other
+ * than AWS, as MinIO or Ceph, and the region defaults to <i>us-east-1</i>.
+ * The credentials are read from the system properties
+ * <i>aws.accessKeyId</i> and <i>aws.secretAccessKey</i> or from the
+ * environment variables <i>AWS_ACCESS_KEY_ID</i> and
+ * <i>AWS_SECRET_ACCESS_KEY</i>, so they are not written in the
+ * configuration.
+ * <p>
+ * Files are objects with the key
+ * <i>&lt;prefix&gt;/&lt;resource&gt;/&lt;id&gt;/[&lt;action&gt;/]&lt;name&gt;
+ * </i>, the same layout of {@link LocalStorage}, so all the API Server nodes
+ * using the bucket see the same files.
+ * <p>
+ * Large files are uploaded with a multipart upload sending many parts at
+ * the same time, and downloaded with ranged requests for the parts. The
+ * multipart upload is left open until the file is committed: the parts
+ * smaller than {@link Constants#S3PARTSIZE} at the end of a write are kept
+ * in the hidden object <i>.&lt;name&gt;.part</i>, so a resumed write
+ * continues the upload from its last part and reads back at most a part.
+ * The first part of a write is read in a buffer growing with the data, so
+ * the small files do not take a whole part in memory.
+ * The file is read from the object store only once completed, a file read
+ * before the commit completes the pending upload. A file written from a
+ * position of a completed object keeps the previous content copying it
+ * inside the object store, so the data are not sent again.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class S3Storage implements Storage {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(S3Storage.class);
+
+    /**
+     * Bytes written in the object stores.
+     */
+    private static final Counter WRITTEN = Metrics.getDefault().counter(
+            Metrics.STORAGEWRITTEN, "Bytes written in the storage",
+            "storage", "s3");
+
+    /**
+     * Bytes read from the object stores.
+     */
+    private static final Counter READ = Metrics.getDefault().counter(
+            Metrics.STORAGEREAD, "Bytes read from the storage",
+            "storage", "s3");
+
+    /**
+     * Region used when the url does not specify it.
+     */
+    private static final String DEFAULTREGION = "us-east-1";
+
+    /**
+     * Client of the object store.
+     */
+    private final S3Client client;
+
+    /**
+     * Prefix of the keys, empty or ending with a slash.
+     */
+    private final String prefix;
+
+    /**
+     * Threads moving the parts of the files.
+     */
+    private final ExecutorService transfers;
+
+
+    /**
+     * Create the storage.
+     *
+     * @param anUrl The url of the storage
+     * @throws IllegalArgumentException If the url is not valid or the
+     * credentials are not configured
+     */
+    public S3Storage(final String anUrl) {
+        URI uri = URI.create(anUrl);
+        String bucket = uri.getRawAuthority();
+        if (bucket == null || bucket.isEmpty()) {
+            throw new IllegalArgumentException("Bucket not defined in the "
+                    + "storage url '" + anUrl + "'");
+        }
+        String path = uri.getPath();
+        while (path != null && path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path == null || path.isEmpty()) {
+            prefix = "";
+        } else if (path.endsWith("/")) {
+            prefix = path;
+        } else {
+            prefix = path + "/";
+        }
+        Map<String, String> query = parseQuery(uri.getRawQuery());
+        String region = query.get("region");
+        if (region == null) {
+            region = DEFAULTREGION;
+        }
+        String endpoint = query.get("endpoint");
+        if (endpoint == null) {
+            endpoint = "https://s3." + region + ".amazonaws.com";
+        }
+        String accessKey = getCredential("aws.accessKeyId",
+                "AWS_ACCESS_KEY_ID");
+        String secretKey = getCredential("aws.secretAccessKey",
+                "AWS_SECRET_ACCESS_KEY");
+        client = new S3Client(URI.create(endpoint), region, bucket,
+                accessKey, secretKey);
+        final AtomicInteger threads = new AtomicInteger();
+        transfers = Executors.newFixedThreadPool(Constants.S3TRANSFERTHREADS,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(r, "S3Transfer-"
+                                + threads.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        log.info("Storage in the bucket " + bucket + " of " + endpoint);
+    }
+
+
+    @Override
+    public final void storeFile(final RESOURCE res, final String id,
+            final InputStream input, final String destinationName)
+            throws IOException {
+        storeFile(res, id, input, destinationName, null);
+    }
+
+
+    @Override
+    public final void storeFile(final RESOURCE res, final String id,
+            final InputStream input, final String destinationName,
+            final String action) throws IOException {
+        storeFilePart(res, id, Channels.newChannel(input), destinationName,
+                action, 0);
+    }
+
+
+    @Override
+    public final long storeFilePart(final RESOURCE res, final String id,
+            final ReadableByteChannel input, final String destinationName,
+            final String action, final long position) throws IOException {
+        String key = getKey(res, id, destinationName, action);
+        byte[] kept = null;
+        long copied = 0;
+        S3Client.Response head = client.send("HEAD", key, S3Client.params(),
+                S3Client.params());
+        PendingUpload upload = null;
+        if (head.getStatus() == S3Client.NOTFOUND) {
+            upload = findUpload(key);
+        }
+        if (upload != null) {
+            String tailKey = getTailKey(key);
+            long tail = Math.max(0, getSize(tailKey));
+            if (position > upload.size + tail) {
+                throw new IOException("Position " + position + " is after "
+                        + "the end of the file '" + key + "'");
+            }
+            if (position == 0) {
+                abortUpload(key, upload.id);
+                deleteObject(tailKey);
+                upload = null;
+            } else if (position >= upload.size) {
+                if (position > upload.size) {
+                    kept = getRange(tailKey, 0, position - upload.size - 1);
+                }
+                deleteObject(tailKey);
+            } else {
+                completeUpload(key, upload);
+                upload = null;
+                head = client.send("HEAD", key, S3Client.params(),
+                        S3Client.params());
+            }
+        }
+        if (upload == null && position > 0) {
+            long size = 0;
+            if (head.getStatus() != S3Client.NOTFOUND) {
+                size = head.check("size of " + key).getContentLength();
+            }
+            if (position > size) {
+                throw new IOException("Position " + position + " is after "
+                        + "the end of the file '" + key + "'");
+            }
+            if (position < Constants.S3MINPARTSIZE) {
+                kept = getRange(key, 0, position - 1);
+            } else {
+                copied = position;
+            }
+        }
+        ByteBuffer first;
+        if (kept == null) {
+            first = ByteBuffer.allocate(Constants.S3FIRSTBUFFERSIZE);
+        } else {
+            first = ByteBuffer.allocate(Math.max(kept.length,
+                    Constants.S3FIRSTBUFFERSIZE));
+            first.put(kept);
+        }
+        int filled = first.position();
+        first = readPart(input, first);
+        long written = first.position() - filled;
+        filled = first.position();
+        try {
+            if (upload == null && copied == 0
+                    && filled < Constants.S3PARTSIZE) {
+                client.send("PUT", key, S3Client.params(),
+                        S3Client.params(), first.array(), 0, filled).
+                        check("upload of " + key);
+            } else {
+                written += uploadParts(key, upload, input, first.array(),
+                        filled, copied);
+            }
+        } finally {
+            WRITTEN.add(written);
+        }
+        log.debug(written + " bytes of " + destinationName + " written at '"
+                + key + "' from position " + position);
+        return written;
+    }
+
+
+    @Override
+    public final void commitFile(final RESOURCE res, final String id,
+            final String fileName, final String action,
+            final String checksum) throws IOException {
+        getObjectSize(getKey(res, id, fileName, action));
+        log.debug("File " + fileName + " of " + id + " completed");
+    }
+
+
+    @Override
+    public final long getFileSize(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        String key = getKey(res, id, fileName, action);
+        long size = getSize(key);
+        if (size >= 0) {
+            return size;
+        }
+        PendingUpload upload = findUpload(key);
+        if (upload == null) {
+            return -1;
+        }
+        return upload.size + Math.max(0, getSize(getTailKey(key)));
+    }
+
+
+    @Override
+    public final SeekableByteChannel openFile(final RESOURCE res,
+            final String id, final String fileName, final String action)
+            throws IOException {
+        String key = getKey(res, id, fileName, action);
+        long size = getObjectSize(key);
+        if (size < 0) {
+            throw new NoSuchFileException(key);
+        }
+        return new ObjectChannel(key, size);
+    }
+
+
+    @Override
+    public final long getLastModified(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException {
+        String key = getKey(res, id, fileName, action);
+        if (getObjectSize(key) < 0) {
+            return -1;
+        }
+        return client.send("HEAD", key, S3Client.params(),
+                S3Client.params()).check("time of " + key).getLastModified();
+    }
+
+
+    @Override
+    public final long transferFile(final RESOURCE res, final String id,
+            final String fileName, final String action, final long position,
+            final long count, final WritableByteChannel output)
+            throws IOException {
+        final String key = getKey(res, id, fileName, action);
+        long size = getObjectSize(key);
+        if (size < 0) {
+            throw new NoSuchFileException(key);
+        }
+        long end = Math.min(size, position + count);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        long next = position;
+        long sent = 0;
+        try {
+            while (next < end || !pending.isEmpty()) {
+                while (next < end
+                        && pending.size() < Constants.S3PARALLELPARTS) {
+                    final long first = next;
+                    final long last = Math.min(next + Constants.S3PARTSIZE,
+                            end) - 1;
+                    pending.add(transfers.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            return getRange(key, first, last);
+                        }
+                    }));
+                    next = last + 1;
+                }
+                ByteBuffer data = ByteBuffer.wrap(await(pending.poll()));
+                while (data.hasRemaining()) {
+                    output.write(data);
+                }
+                sent += data.capacity();
+            }
+        } finally {
+            for (Future<byte[]> f: pending) {
+                f.cancel(true);
+            }
+            READ.add(sent);
+        }
+        return sent;
+    }
+
+
+    @Override
+    public final void removeAllFiles(final RESOURCE res, final String id)
+            throws IOException {
+        removeFiles(res, id, null);
+    }
+
+
+    @Override
+    public final void removeFiles(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        String folder = getKey(res, id, "", action);
+        Document uploads = S3Client.parse(client.send("GET", "",
+                S3Client.params("uploads", "", "prefix", folder),
+                S3Client.params()).check("uploads of " + folder).getBody());
+        NodeList pending = uploads.getElementsByTagName("Upload");
+        for (int i = 0; i < pending.getLength(); i++) {
+            Element upload = (Element) pending.item(i);
+            abortUpload(getText(upload, "Key"), getText(upload, "UploadId"));
+        }
+        String token = null;
+        do {
+            Listing page = list(folder, null, null, token);
+            for (String key: page.keys) {
+                S3Client.Response rs = client.send("DELETE", key,
+                        S3Client.params(), S3Client.params());
+                if (rs.getStatus() != S3Client.NOTFOUND) {
+                    rs.check("removal of " + key);
+                }
+            }
+            token = page.next;
+        } while (token != null);
+    }
+
+
+    @Override
+    public final long getUsedSpace(final RESOURCE res, final String id,
+            final String action) throws IOException {
+        String folder = getKey(res, id, "", action);
+        long size = 0;
+        String token = null;
+        do {
+            Listing page = list(folder, null, null, token);
+            for (Long s: page.sizes) {
+                size += s;
+            }
+            token = page.next;
+        } while (token != null);
+        return size;
+    }
+
+
+    @Override
+    public final List<String> listResources(final RESOURCE res,
+            final String after, final int max) throws IOException {
+        String folder = prefix + res.name().toLowerCase() + "/";
+        String startAfter = null;
+        if (after != null) {
+            startAfter = folder + after;
+        }
+        List<String> ids = new ArrayList<>();
+        String token = null;
+        do {
+            Listing page = list(folder, "/", startAfter, token);
+            for (String p: page.folders) {
+                String id = p.substring(folder.length(), p.length() - 1);
+                if (after != null && id.compareTo(after) <= 0) {
+                    continue;
+                }
+                if (ids.size() >= max) {
+                    return ids;
+                }
+                ids.add(id);
+            }
+            token = page.next;
+        } while (token != null);
+        return ids;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The parts in transit are interrupted, so the uploads in progress fail
+     * and are aborted.
+     */
+    @Override
+    public final void shutdown() {
+        transfers.shutdownNow();
+    }
+
+
+    /**
+     * Build the key of a file in the object store.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name, empty for the prefix of all the files
+     * @param action Action the file is associated with, can be null
+     * @return The key of the file
+     */
+    private String getKey(final RESOURCE res, final String id,
+            final String fileName, final String action) {
+        String folder = prefix + res.name().toLowerCase() + "/" + id + "/";
+        if (action != null && !action.isEmpty()) {
+            folder += action + "/";
+        }
+        return folder + fileName;
+    }
+
+
+    /**
+     * Write a file with a multipart upload.
+     * The parts are sent by the transfer threads, reading the next one from
+     * the channel while the previous are in transit. The parts in memory
+     * are limited to {@link Constants#S3PARALLELPARTS} plus the one read.
+     * The data after the last full part are stored in the tail object and
+     * the upload is left open, it is completed with the commit of the file.
+     *
+     * @param key The key of the object
+     * @param upload The pending upload to continue, null to start a new
+     * one
+     * @param input The channel providing the content after the first part
+     * @param first The first part read from the channel
+     * @param firstSize The bytes in the first part
+     * @param copied The bytes at the beginning of the current object to
+     * keep, copied before the first part of a new upload
+     * @return The bytes read from the channel after the first part
+     * @throws IOException If the upload fails
+     */
+    private long uploadParts(final String key, final PendingUpload upload,
+            final ReadableByteChannel input, final byte[] first,
+            final int firstSize, final long copied) throws IOException {
+        String uploadId;
+        int next = 1;
+        if (upload == null) {
+            Document init = S3Client.parse(client.send("POST", key,
+                    S3Client.params("uploads", ""), S3Client.params()).
+                    check("upload of " + key).getBody());
+            uploadId = S3Client.getText(init, "UploadId");
+            if (uploadId == null) {
+                throw new IOException("Upload of " + key + " not started");
+            }
+        } else {
+            uploadId = upload.id;
+            next += upload.etags.size();
+        }
+        Semaphore inFlight = new Semaphore(Constants.S3PARALLELPARTS);
+        List<Future<String>> parts = new ArrayList<>();
+        long read = 0;
+        boolean stored = false;
+        try {
+            if (copied > 0) {
+                long copies = (copied + Constants.S3MAXCOPYPARTSIZE - 1)
+                        / Constants.S3MAXCOPYPARTSIZE;
+                long copySize = (copied + copies - 1) / copies;
+                for (long start = 0; start < copied; start += copySize) {
+                    parts.add(submitPart(inFlight, new PartCopy(key, key,
+                            uploadId, next + parts.size(), start,
+                            Math.min(start + copySize, copied) - 1)));
+                }
+            }
+            byte[] buffer = first;
+            int size = firstSize;
+            while (size == Constants.S3PARTSIZE) {
+                parts.add(submitPart(inFlight, new PartUpload(key, uploadId,
+                        next + parts.size(), buffer, size)));
+                buffer = new byte[Constants.S3PARTSIZE];
+                size = fill(input, buffer, 0);
+                read += size;
+            }
+            for (Future<String> part: parts) {
+                await(part);
+            }
+            if (size > 0) {
+                client.send("PUT", getTailKey(key), S3Client.params(),
+                        S3Client.params(), buffer, 0, size).
+                        check("upload of the end of " + key);
+            }
+            if (upload == null) {
+                deleteObject(key);
+            }
+            stored = true;
+        } finally {
+            if (!stored) {
+                for (Future<String> f: parts) {
+                    f.cancel(true);
+                }
+            }
+        }
+        return read;
+    }
+
+
+    /**
+     * Complete a pending upload.
+     * The tail object is copied in the last part and then removed. An
+     * upload without parts is aborted.
+     *
+     * @param key The key of the object
+     * @param upload The pending upload
+     * @throws IOException If the upload cannot be completed
+     */
+    private void completeUpload(final String key, final PendingUpload upload)
+            throws IOException {
+        String tailKey = getTailKey(key);
+        long tail = getSize(tailKey);
+        List<String> etags = new ArrayList<>(upload.etags);
+        if (tail > 0) {
+            etags.add(new PartCopy(tailKey, key, upload.id, etags.size() + 1,
+                    0, tail - 1).call());
+        }
+        if (etags.isEmpty()) {
+            abortUpload(key, upload.id);
+            return;
+        }
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).
+                    append("</PartNumber><ETag>").append(etags.get(i)).
+                    append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+        S3Client.Response rs = client.send("POST", key,
+                S3Client.params("uploadId", upload.id), S3Client.params(),
+                body, 0, body.length).check("upload of " + key);
+        Document result = S3Client.parse(rs.getBody());
+        if ("Error".equals(result.getDocumentElement().getNodeName())) {
+            throw new IOException("Upload of " + key + " failed: "
+                    + S3Client.getText(result, "Code"));
+        }
+        if (tail >= 0) {
+            deleteObject(tailKey);
+        }
+        log.debug("Upload of " + key + " completed with " + etags.size()
+                + " parts");
+    }
+
+
+    /**
+     * Retrieves the pending upload of an object.
+     * Only the parts numbered without gaps from the first are considered,
+     * the others are replaced when the upload continues.
+     *
+     * @param key The key of the object
+     * @return The upload or null if there is no upload in progress
+     * @throws IOException If the uploads cannot be listed
+     */
+    private PendingUpload findUpload(final String key) throws IOException {
+        Document uploads = S3Client.parse(client.send("GET", "",
+                S3Client.params("uploads", "", "prefix", key),
+                S3Client.params()).check("uploads of " + key).getBody());
+        NodeList nodes = uploads.getElementsByTagName("Upload");
+        PendingUpload upload = null;
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element node = (Element) nodes.item(i);
+            if (key.equals(getText(node, "Key"))) {
+                upload = new PendingUpload(getText(node, "UploadId"));
+            }
+        }
+        if (upload == null) {
+            return null;
+        }
+        String marker = null;
+        do {
+            Map<String, String> query = new TreeMap<>();
+            query.put("uploadId", upload.id);
+            if (marker != null) {
+                query.put("part-number-marker", marker);
+            }
+            Document doc = S3Client.parse(client.send("GET", key, query,
+                    S3Client.params()).check("parts of " + key).getBody());
+            NodeList parts = doc.getElementsByTagName("Part");
+            for (int i = 0; i < parts.getLength(); i++) {
+                Element part = (Element) parts.item(i);
+                if (Integer.parseInt(getText(part, "PartNumber"))
+                        != upload.etags.size() + 1) {
+                    return upload;
+                }
+                upload.etags.add(getText(part, "ETag"));
+                upload.size += Long.parseLong(getText(part, "Size"));
+            }
+            marker = null;
+            if ("true".equals(S3Client.getText(doc, "IsTruncated"))) {
+                marker = S3Client.getText(doc, "NextPartNumberMarker");
+            }
+        } while (marker != null);
+        return upload;
+    }
+
+
+    /**
+     * Retrieves the size of a completed object.
+     * A pending upload of the object is completed before.
+     *
+     * @param key The key of the object
+     * @return The size or -1 if the object does not exist
+     * @throws IOException If the object cannot be accessed
+     */
+    private long getObjectSize(final String key) throws IOException {
+        long size = getSize(key);
+        if (size >= 0) {
+            return size;
+        }
+        PendingUpload upload = findUpload(key);
+        if (upload == null) {
+            return -1;
+        }
+        completeUpload(key, upload);
+        return getSize(key);
+    }
+
+
+    /**
+     * Retrieves the size of an object.
+     *
+     * @param key The key of the object
+     * @return The size or -1 if the object does not exist
+     * @throws IOException If the object cannot be accessed
+     */
+    private long getSize(final String key) throws IOException {
+        S3Client.Response head = client.send("HEAD", key, S3Client.params(),
+                S3Client.params());
+        if (head.getStatus() == S3Client.NOTFOUND) {
+            return -1;
+        }
+        return head.check("size of " + key).getContentLength();
+    }
+
+
+    /**
+     * Remove an object if it exists.
+     *
+     * @param key The key of the object
+     * @throws IOException If the object cannot be removed
+     */
+    private void deleteObject(final String key) throws IOException {
+        S3Client.Response rs = client.send("DELETE", key, S3Client.params(),
+                S3Client.params());
+        if (rs.getStatus() != S3Client.NOTFOUND) {
+            rs.check("removal of " + key);
+        }
+    }
+
+
+    /**
+     * Build the key of the object with the end of a pending upload.
+     *
+     * @param key The key of the file
+     * @return The key of the tail object
+     */
+    private static String getTailKey(final String key) {
+        int slash = key.lastIndexOf('/') + 1;
+        return key.substring(0, slash) + "." + key.substring(slash) + ".part";
+    }
+
+
+    /**
+     * Retrieves the text of the first child element with a name.
+     *
+     * @param element The parent element
+     * @param name The child name
+     * @return The text or null if the child is missing
+     */
+    private static String getText(final Element element, final String name) {
+        NodeList nodes = element.getElementsByTagName(name);
+        if (nodes.getLength() == 0) {
+            return null;
+        }
+        return nodes.item(0).getTextContent();
+    }
+
+
+    /**
+     * Submit the transfer of a part.
+     * The caller waits until there is space for a new part in transit.
+     *
+     * @param inFlight The parts in transit for the upload
+     * @param part The transfer of the part
+     * @return The future providing the ETag of the part
+     * @throws InterruptedIOException If the thread is interrupted while
+     * waiting
+     */
+    private Future<String> submitPart(final Semaphore inFlight,
+            final Callable<String> part) throws InterruptedIOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+        return transfers.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    return part.call();
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Abort a multipart upload.
+     * The errors are only logged, the object store removes the parts of
+     * the uploads not completed by its lifecycle policy.
+     *
+     * @param key The key of the object
+     * @param uploadId The identifier of the upload
+     */
+    private void abortUpload(final String key, final String uploadId) {
+        try {
+            client.send("DELETE", key, S3Client.params("uploadId", uploadId),
+                    S3Client.params()).check("abort of " + key);
+        } catch (IOException ioe) {
+            log.warn("Impossible to abort the upload of " + key + ": "
+                    + ioe.getMessage());
+        }
+    }
+
+
+    /**
+     * Read a range of an object.
+     *
+     * @param key The key of the object
+     * @param first The first byte
+     * @param last The last byte, included
+     * @return The content of the range
+     * @throws IOException If the object cannot be read
+     */
+    private byte[] getRange(final String key, final long first,
+            final long last) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + first + "-" + last);
+        return client.send("GET", key, S3Client.params(), headers).
+                check("read of " + key).getBody();
+    }
+
+
+    /**
+     * Retrieves a page of the objects with a prefix.
+     *
+     * @param keyPrefix The prefix of the keys
+     * @param delimiter The delimiter grouping the keys, can be null
+     * @param startAfter The key after which the listing starts, can be null
+     * @param token The token of the page, null for the first
+     * @return The page
+     * @throws IOException If the objects cannot be listed
+     */
+    private Listing list(final String keyPrefix, final String delimiter,
+            final String startAfter, final String token) throws IOException {
+        Map<String, String> query = new TreeMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", keyPrefix);
+        if (delimiter != null) {
+            query.put("delimiter", delimiter);
+        }
+        if (startAfter != null) {
+            query.put("start-after", startAfter);
+        }
+        if (token != null) {
+            query.put("continuation-token", token);
+        }
+        Document doc = S3Client.parse(client.send("GET", "", query,
+                S3Client.params()).check("listing of " + keyPrefix).
+                getBody());
+        Listing page = new Listing();
+        NodeList contents = doc.getElementsByTagName("Contents");
+        for (int i = 0; i < contents.getLength(); i++) {
+            Element obj = (Element) contents.item(i);
+            page.keys.add(obj.getElementsByTagName("Key").item(0).
+                    getTextContent());
+            page.sizes.add(Long.valueOf(obj.getElementsByTagName("Size").
+                    item(0).getTextContent()));
+        }
+        NodeList folders = doc.getElementsByTagName("CommonPrefixes");
+        for (int i = 0; i < folders.getLength(); i++) {
+            page.folders.add(((Element) folders.item(i)).
+                    getElementsByTagName("Prefix").item(0).getTextContent());
+        }
+        if ("true".equals(S3Client.getText(doc, "IsTruncated"))) {
+            page.next = S3Client.getText(doc, "NextContinuationToken");
+        }
+        return page;
+    }
+
+
+    /**
+     * Read the first part of a file from a channel.
+     * The buffer grows with the data read, up to the size of a part, so the
+     * small files and the data appended to a file do not take a whole part
+     * in memory.
+     *
+     * @param input The channel
+     * @param buffer The buffer, with the data already available before its
+     * position
+     * @return The buffer with the data read, a bigger one if the initial
+     * buffer was not enough
+     * @throws IOException If the channel cannot be read
+     */
+    private static ByteBuffer readPart(final ReadableByteChannel input,
+            final ByteBuffer buffer) throws IOException {
+        ByteBuffer bb = buffer;
+        while (input.read(bb) >= 0) {
+            if (!bb.hasRemaining()) {
+                if (bb.capacity() >= Constants.S3PARTSIZE) {
+                    break;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(
+                        bb.capacity() * 2, Constants.S3PARTSIZE));
+                bb.flip();
+                bigger.put(bb);
+                bb = bigger;
+            }
+        }
+        return bb;
+    }
+
+
+    /**
+     * Read from a channel until a buffer is full or the channel ends.
+     *
+     * @param input The channel
+     * @param buffer The buffer
+     * @param offset The first free byte of the buffer
+     * @return The bytes read
+     * @throws IOException If the channel cannot be read
+     */
+    private static int fill(final ReadableByteChannel input,
+            final byte[] buffer, final int offset) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer, offset,
+                buffer.length - offset);
+        while (bb.hasRemaining() && input.read(bb) >= 0) {
+            continue;
+        }
+        return bb.position() - offset;
+    }
+
+
+    /**
+     * Wait the result of a transfer.
+     *
+     * @param <T> The type of the result
+     * @param transfer The transfer
+     * @return The result
+     * @throws IOException If the transfer failed or the thread is interrupted
+     */
+    private static <T> T await(final Future<T> transfer) throws IOException {
+        try {
+            return transfer.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException("Transfer failed: "
+                    + ee.getCause().getMessage());
+        }
+    }
+
+
+    /**
+     * Parse the query of the storage url.
+     *
+     * @param rawQuery The query, can be null
+     * @return The parameters
+     */
+    private static Map<String, String> parseQuery(final String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> params = new HashMap<>();
+        try {
+            for (String param: rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, eq),
+                            "UTF-8"), URLDecoder.decode(
+                            param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+        return params;
+    }
+
+
+    /**
+     * Retrieves a credential.
+     *
+     * @param property The system property
+     * @param variable The environment variable used if the property is not
+     * defined
+     * @return The credential
+     * @throws IllegalArgumentException If the credential is not defined
+     */
+    private static String getCredential(final String property,
+            final String variable) {
+        String value = System.getProperty(property);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(variable);
+        }
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Credentials of the object "
+                    + "store not defined, set " + property + " or "
+                    + variable);
+        }
+        return value;
+    }
+
+
+    /**
+     * Page of a listing.
+     */
+    private static final class Listing {
+
+        /**
+         * Keys of the objects.
+         */
+        private final List<String> keys = new ArrayList<>();
+
+        /**
+         * Sizes of the objects.
+         */
+        private final List<Long> sizes = new ArrayList<>();
+
+        /**
+         * Prefixes grouping the other objects.
+         */
+        private final List<String> folders = new ArrayList<>();
+
+        /**
+         * Token of the next page, null if this is the last.
+         */
+        private String next;
+    }
+
+
+    /**
+     * Multipart upload of a file not committed yet.
+     */
+    private static final class PendingUpload {
+
+        /**
+         * Identifier of the upload.
+         */
+        private final String id;
+
+        /**
+         * ETags of the parts uploaded, in order.
+         */
+        private final List<String> etags = new ArrayList<>();
+
+        /**
+         * Bytes of the parts uploaded.
+         */
+        private long size;
+
+        /**
+         * Create the upload.
+         *
+         * @param anId The identifier of the upload
+         */
+        PendingUpload(final String anId) {
+            this.id = anId;
+        }
+    }
+
+
+    /**
+     * Upload of a part.
+     */
+    private final class PartUpload implements Callable<String> {
+
+        /**
+         * Key of the object.
+         */
+        private final String key;
+
+        /**
+         * Identifier of the upload.
+         */
+        private final String uploadId;
+
+        /**
+         * Number of the part.
+         */
+        private final int number;
+
+        /**
+         * Content of the part.
+         */
+        private final byte[] data;
+
+        /**
+         * Bytes of the part.
+         */
+        private final int size;
+
+        /**
+         * Create the upload.
+         *
+         * @param aKey The key of the object
+         * @param anUploadId The identifier of the upload
+         * @param aNumber The number of the part
+         * @param someData The buffer with the content
+         * @param aSize The bytes of the part
+         */
+        PartUpload(final String aKey, final String anUploadId,
+                final int aNumber, final byte[] someData, final int aSize) {
+            this.key = aKey;
+            this.uploadId = anUploadId;
+            this.number = aNumber;
+            this.data = someData;
+            this.size = aSize;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return client.send("PUT", key, S3Client.params("partNumber",
+                    Integer.toString(number), "uploadId", uploadId),
+                    S3Client.params(), data, 0, size).
+                    check("part " + number + " of " + key).getEtag();
+        }
+    }
+
+
+    /**
+     * Copy of a part from an existing object.
+     */
+    private final class PartCopy implements Callable<String> {
+
+        /**
+         * Key of the object copied.
+         */
+        private final String source;
+
+        /**
+         * Key of the object.
+         */
+        private final String key;
+
+        /**
+         * Identifier of the upload.
+         */
+        private final String uploadId;
+
+        /**
+         * Number of the part.
+         */
+        private final int number;
+
+        /**
+         * First byte copied.
+         */
+        private final long first;
+
+        /**
+         * Last byte copied, included.
+         */
+        private final long last;
+
+        /**
+         * Create the copy.
+         *
+         * @param aSource The key of the object copied
+         * @param aKey The key of the object
+         * @param anUploadId The identifier of the upload
+         * @param aNumber The number of the part
+         * @param aFirst The first byte copied
+         * @param aLast The last byte copied, included
+         */
+        PartCopy(final String aSource, final String aKey,
+                final String anUploadId, final int aNumber, final long aFirst,
+                final long aLast) {
+            this.source = aSource;
+            this.key = aKey;
+            this.uploadId = anUploadId;
+            this.number = aNumber;
+            this.first = aFirst;
+            this.last = aLast;
+        }
+
+        @Override
+        public String call() throws IOException {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("x-amz-copy-source", "/" + client.getBucket() + "/"
+                    + S3Client.encode(source, true));
+            headers.put("x-amz-copy-source-range", "bytes=" + first + "-"
+                    + last);
+            String etag = S3Client.getText(S3Client.parse(client.send("PUT",
+                    key, S3Client.params("partNumber",
+                            Integer.toString(number), "uploadId", uploadId),
+                    headers).check("copy of part " + number + " of " + key).
+                    getBody()), "ETag");
+            if (etag == null) {
+                throw new IOException("Copy of part " + number + " of " + key
+                        + " failed");
+            }
+            return etag;
+        }
+    }
+
+
+    /**
+     * Channel reading an object.
+     * The object is read in blocks of {@link Constants#S3READBLOCKSIZE}
+     * bytes with ranged requests.
+     */
+    private final class ObjectChannel implements SeekableByteChannel {
+
+        /**
+         * Key of the object.
+         */
+        private final String key;
+
+        /**
+         * Size of the object when the channel was opened.
+         */
+        private final long size;
+
+        /**
+         * Current position.
+         */
+        private long position;
+
+        /**
+         * Last block read.
+         */
+        private byte[] block;
+
+        /**
+         * Position of the last block.
+         */
+        private long blockStart;
+
+        /**
+         * True until the channel is closed.
+         */
+        private boolean open = true;
+
+        /**
+         * Create the channel.
+         *
+         * @param aKey The key of the object
+         * @param aSize The size of the object
+         */
+        ObjectChannel(final String aKey, final long aSize) {
+            this.key = aKey;
+            this.size = aSize;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            checkOpen();
+            if (position >= size) {
+                return -1;
+            }
+            if (block == null || position < blockStart
+                    || position >= blockStart + block.length) {
+                block = getRange(key, position, Math.min(position
+                        + Constants.S3READBLOCKSIZE, size) - 1);
+                blockStart = position;
+                READ.add(block.length);
+                if (block.length == 0) {
+                    return -1;
+                }
+            }
+            int offset = (int) (position - blockStart);
+            int len = Math.min(dst.remaining(), block.length - offset);
+            dst.put(block, offset, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            checkOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition)
+                throws IOException {
+            checkOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            checkOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long newSize) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            block = null;
+        }
+
+        /**
+         * Checks the channel is open.
+         *
+         * @throws ClosedChannelException If the channel is closed
+         */
+        private void checkOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -23,6 +23,10 @@ package it.infn.ct.futuregateway.apiserver.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 
 /**
  *
@@ -58,6 +62,48 @@ public interface Storage {
     void removeAllFiles(final RESOURCE res, final String id)
             throws IOException;
 
+    /**
+     * Remove the files of a resource associated with an action.
+     * Nothing is done if the resource has not files for the action.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the files are associated with
+     * @param action Action the files are associated with, null to remove all
+     * the files of the resource
+     * @throws IOException In case the files cannot be removed
+     */
+    void removeFiles(final RESOURCE res, final String id,
+            final String action) throws IOException;
+
+    /**
+     * Retrieves the space used by the files of a resource.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the files are associated with
+     * @param action Action the files are associated with, null to include
+     * all the files of the resource
+     * @return The size in bytes, 0 if there are not files
+     * @throws IOException In case the files cannot be accessed
+     */
+    long getUsedSpace(final RESOURCE res, final String id,
+            final String action) throws IOException;
+
+    /**
+     * Retrieves the identifiers of the resources with files in the storage.
+     * The identifiers are returned in lexicographic order starting after a
+     * given one, so the storage can be scanned in pages without keeping all
+     * the identifiers in memory.
+     *
+     * @param res The resource type
+     * @param after The last identifier of the previous page, null to start
+     * from the first
+     * @param max Maximum number of identifiers to return
+     * @return The identifiers, an empty list if there are no more resources
+     * @throws IOException In case the storage cannot be read
+     */
+    List<String> listResources(final RESOURCE res, final String after,
+            final int max) throws IOException;
+
     /**
      * Create the directory to store the input. Create a directory inside the
      * temporary store with path "<taskId>/input". This is used to store the
@@ -95,4 +141,113 @@ public interface Storage {
     void storeFile(final RESOURCE res, final String id,
             final InputStream input, final String destinationName,
             final String action) throws IOException;
+
+    /**
+     * Write a file, or a part of it, from a channel.
+     * The content is written in the final location starting at the given
+     * position and the data after the position, if any, are discarded. A
+     * file can be uploaded in many parts writing each one at the end of the
+     * previous.
+     * <p>
+     * The data are moved from the channel to the file without intermediate
+     * copies in memory or in other files.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource to associate the files
+     * @param input Channel providing the content
+     * @param destinationName File destination
+     * @param action Action the file is associated with
+     * @param position Position in the file where the content is written.
+     * It cannot be greater than the current size of the file
+     * @return The number of bytes written
+     * @throws IOException In case the file cannot be written
+     */
+    long storeFilePart(final RESOURCE res, final String id,
+            final ReadableByteChannel input, final String destinationName,
+            final String action, final long position) throws IOException;
+
+    /**
+     * Mark a stored file as complete.
+     * The file will not be modified anymore unless it is written again
+     * from the beginning. Storages can use the checksum to keep a single
+     * copy of identical files.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @param checksum SHA-256 of the file in hexadecimal format
+     * @throws IOException In case the file cannot be accessed
+     */
+    void commitFile(final RESOURCE res, final String id,
+            final String fileName, final String action,
+            final String checksum) throws IOException;
+
+    /**
+     * Retrieves the size of a stored file.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @return The size in bytes or -1 if the file does not exist
+     * @throws IOException In case the file cannot be accessed
+     */
+    long getFileSize(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException;
+
+    /**
+     * Open a stored file for reading.
+     * The channel has to be closed by the caller.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @return The channel to read the file
+     * @throws IOException In case the file cannot be opened
+     */
+    SeekableByteChannel openFile(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException;
+
+    /**
+     * Retrieves the last modification time of a stored file.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @return The time in milliseconds or -1 if the file does not exist
+     * @throws IOException In case the file cannot be accessed
+     */
+    long getLastModified(final RESOURCE res, final String id,
+            final String fileName, final String action) throws IOException;
+
+    /**
+     * Send a stored file, or a part of it, to a channel.
+     * The data are moved by the storage to the channel, letting the system
+     * avoid the copies in memory when the channel supports it.
+     *
+     * @param res The resource type
+     * @param id The ID of the resource the file is associated with
+     * @param fileName The file name
+     * @param action Action the file is associated with
+     * @param position Position of the first byte to send
+     * @param count Number of bytes to send
+     * @param output The channel receiving the data
+     * @return The number of bytes sent
+     * @throws IOException In case the file cannot be read or the channel
+     * written
+     */
+    long transferFile(final RESOURCE res, final String id,
+            final String fileName, final String action, final long position,
+            final long count, final WritableByteChannel output)
+            throws IOException;
+
+    /**
+     * Release the resources of the storage, as the threads and the
+     * connections.
+     * The storage cannot be used after the shutdown.
+     */
+    void shutdown();
 }
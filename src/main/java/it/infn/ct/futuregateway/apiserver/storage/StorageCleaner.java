@@ -0,0 +1,138 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Removes in background the files of the deleted resources.
+ * The removal of a directory tree can take long, so the requests deleting a
+ * resource complete when the DB is updated and the files are removed later
+ * by a single thread. A failed removal is retried a few times, then the
+ * files are left in the storage and an error is logged.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class StorageCleaner {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(StorageCleaner.class);
+
+    /**
+     * Thread removing the files.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+
+    /**
+     * Create the cleaner.
+     */
+    public StorageCleaner() {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "StorageCleaner");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+
+    /**
+     * Schedule the removal of the files of a resource.
+     *
+     * @param store The storage containing the files
+     * @param res The resource type
+     * @param id The resource identifier
+     */
+    public final void removeAllFiles(final Storage store,
+            final Storage.RESOURCE res, final String id) {
+        schedule(store, res, id, 1, 0);
+    }
+
+
+    /**
+     * Stop the cleaner.
+     * Removals already started are completed, the retries are discarded.
+     */
+    public final void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(
+                    Constants.MAXTHREADWAIT, TimeUnit.MINUTES)) {
+                log.warn("Storage cleaner not terminated");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Schedule an attempt to remove the files.
+     *
+     * @param store The storage containing the files
+     * @param res The resource type
+     * @param id The resource identifier
+     * @param attempt The number of the attempt
+     * @param delay The delay in seconds
+     */
+    private void schedule(final Storage store, final Storage.RESOURCE res,
+            final String id, final int attempt, final long delay) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        store.removeAllFiles(res, id);
+                        log.debug("Files of " + res + " " + id + " removed");
+                    } catch (IOException ioe) {
+                        if (attempt < Constants.CLEANUPATTEMPTS) {
+                            log.warn("Impossible to remove the files of "
+                                    + res + " " + id + ", retry later");
+                            schedule(store, res, id, attempt + 1,
+                                    Constants.CLEANUPRETRYDELAY);
+                        } else {
+                            log.error("Impossible to remove the files of "
+                                    + res + " " + id + ": "
+                                    + ioe.getMessage());
+                        }
+                    }
+                }
+            }, delay, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException ree) {
+            log.warn("Storage cleaner stopped, files of " + res + " " + id
+                    + " not removed");
+        }
+    }
+}
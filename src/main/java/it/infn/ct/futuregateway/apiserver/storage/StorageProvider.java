@@ -0,0 +1,45 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+/**
+ * Provider of the storages for a URL scheme.
+ * Providers are registered in {@link Storages} and they are used to create
+ * the storage when the URL of the cache uses their scheme.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface StorageProvider {
+
+    /**
+     * Create a storage.
+     *
+     * @param url The url to the storage
+     * @param deduplicate True to keep a single copy of identical files, if
+     * the storage supports it
+     * @return A storage access object
+     * @throws IllegalArgumentException If the url is not valid for the
+     * provider
+     */
+    Storage create(final String url, final boolean deduplicate);
+}
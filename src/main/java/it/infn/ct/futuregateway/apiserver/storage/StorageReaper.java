@@ -0,0 +1,291 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Counter;
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Removes the files the tasks do not need anymore.
+ * The storage is periodically scanned: the task directories are listed
+ * once per scan and checked in batches, every batch against the DB with a
+ * single query. Directories of
+ * tasks not in the DB, left by failed or interrupted deletions, are removed.
+ * The outputs of the tasks completed before the retention period are
+ * removed as well, while the task and its input files are kept.
+ * <p>
+ * The scan runs in its own thread and pauses after every batch, so it does
+ * not compete with the requests for the disk. The bytes reclaimed are
+ * logged at the end of the scan and exported in the server metrics.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class StorageReaper {
+
+    /**
+     * Status of the tasks which cannot change anymore.
+     */
+    private static final EnumSet<Task.STATUS> ENDED = EnumSet.of(
+            Task.STATUS.DONE, Task.STATUS.ABORTED, Task.STATUS.CANCELLED);
+
+    /**
+     * Bytes of the deleted tasks reclaimed.
+     */
+    private static final Counter ORPHANS = Metrics.getDefault().counter(
+            Metrics.STORAGERECLAIMED, "Bytes removed from the storage by "
+            + "the reaper", "reason", "orphan");
+
+    /**
+     * Bytes of the expired outputs reclaimed.
+     */
+    private static final Counter EXPIRED = Metrics.getDefault().counter(
+            Metrics.STORAGERECLAIMED, "Bytes removed from the storage by "
+            + "the reaper", "reason", "expired");
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(StorageReaper.class);
+
+    /**
+     * EntityManagerFactory registered for the persistence.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * Storage to clean.
+     */
+    private final Storage store;
+
+    /**
+     * Number of directories checked together.
+     */
+    private final int batchSize;
+
+    /**
+     * Pause in milliseconds after every batch.
+     */
+    private final long batchPause;
+
+    /**
+     * Retention of the outputs in milliseconds.
+     */
+    private final long retention;
+
+    /**
+     * Thread scanning the storage.
+     */
+    private ScheduledExecutorService scheduler;
+
+
+    /**
+     * Create the reaper.
+     *
+     * @param anEntityManagerFactory An EntityManagerFactory to retrieve the
+     * persistence context
+     * @param aStore The storage to clean
+     * @param aBatchSize Number of directories checked together
+     * @param aBatchPause Pause in milliseconds after every batch
+     * @param aRetention Time in days the outputs of the completed tasks are
+     * kept. A value lower than 1 keeps the outputs
+     */
+    public StorageReaper(final EntityManagerFactory anEntityManagerFactory,
+            final Storage aStore, final int aBatchSize,
+            final long aBatchPause, final long aRetention) {
+        this.emf = anEntityManagerFactory;
+        this.store = aStore;
+        this.batchSize = aBatchSize;
+        this.batchPause = aBatchPause;
+        this.retention = TimeUnit.DAYS.toMillis(aRetention);
+    }
+
+
+    /**
+     * Start the periodic scans.
+     * The first scan is performed after the interval so it does not slow
+     * down the start of the server.
+     *
+     * @param interval Time in seconds between two scans
+     */
+    public final void start(final long interval) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(r, "StorageReaper");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stop the scans.
+     * A scan in progress is interrupted at the end of the current batch.
+     */
+    public final void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Scan the storage and remove the files not needed.
+     *
+     * @return The bytes reclaimed
+     */
+    public final long reap() {
+        long reclaimed = 0;
+        int checked = 0;
+        try {
+            List<String> all = store.listResources(Storage.RESOURCE.TASKS,
+                    null, Integer.MAX_VALUE);
+            while (checked < all.size()
+                    && !Thread.currentThread().isInterrupted()) {
+                if (checked > 0) {
+                    Thread.sleep(batchPause);
+                }
+                List<String> ids = all.subList(checked,
+                        Math.min(all.size(), checked + batchSize));
+                reclaimed += reapBatch(ids);
+                checked += ids.size();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException ex) {
+            log.error("Storage scan interrupted after " + checked
+                    + " tasks: " + ex.getMessage());
+        }
+        log.info("Storage scan checked " + checked + " tasks and reclaimed "
+                + reclaimed + " bytes");
+        return reclaimed;
+    }
+
+
+    /**
+     * Remove the files not needed for a batch of tasks.
+     *
+     * @param ids The identifiers of the tasks in the storage
+     * @return The bytes reclaimed
+     */
+    private long reapBatch(final List<String> ids) {
+        Map<String, Object[]> tasks = findTasks(ids);
+        Date expiration = null;
+        if (retention > 0) {
+            expiration = new Date(System.currentTimeMillis() - retention);
+        }
+        long reclaimed = 0;
+        for (String id: ids) {
+            Object[] task = tasks.get(id);
+            if (task == null) {
+                reclaimed += remove(id, null, ORPHANS);
+            } else if (expiration != null && ENDED.contains(task[1])
+                    && task[2] != null
+                    && ((Date) task[2]).before(expiration)) {
+                reclaimed += remove(id, Constants.OUTPUTFOLDER, EXPIRED);
+            }
+        }
+        return reclaimed;
+    }
+
+
+    /**
+     * Retrieves the tasks of a batch from the DB.
+     *
+     * @param ids The identifiers of the tasks
+     * @return The id, status and last change of the tasks found, indexed by
+     * id
+     */
+    private Map<String, Object[]> findTasks(final List<String> ids) {
+        Map<String, Object[]> tasks = new HashMap<>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Object[]> rows = em.createNamedQuery("tasks.byIds",
+                    Object[].class).
+                    setParameter("ids", ids).
+                    getResultList();
+            for (Object[] row: rows) {
+                tasks.put((String) row[0], row);
+            }
+        } finally {
+            em.close();
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Remove the files of a task.
+     *
+     * @param id The task identifier
+     * @param action The action of the files to remove, null for all the
+     * files
+     * @param counter The counter of the bytes reclaimed
+     * @return The bytes reclaimed
+     */
+    private long remove(final String id, final String action,
+            final Counter counter) {
+        try {
+            long size = store.getUsedSpace(Storage.RESOURCE.TASKS, id,
+                    action);
+            if (action != null && size == 0) {
+                return 0;
+            }
+            store.removeFiles(Storage.RESOURCE.TASKS, id, action);
+            counter.add(size);
+            log.debug("Removed " + size + " bytes of the task " + id);
+            return size;
+        } catch (NoSuchFileException nsfe) {
+            log.debug("Files of the task " + id + " already removed");
+        } catch (IOException ioe) {
+            log.warn("Impossible to remove the files of the task " + id
+                    + ": " + ioe.getMessage());
+        }
+        return 0;
+    }
+}
@@ -21,20 +21,97 @@
 
 package it.infn.ct.futuregateway.apiserver.storage;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Factory class for storages.
  * The storage is the cache storage used by the API Service to store temporary
  * files.
+ * <p>
+ * The storage is selected by the scheme of the url. Urls without scheme, or
+ * with the scheme <i>file</i>, are in the local file system. The scheme
+ * <i>s3</i> selects an object store (see {@link S3Storage}), so many API
+ * Server nodes can share the files of the tasks. Other schemes can be
+ * supported registering a {@link StorageProvider}.
+ * <p>
+ * Storages are created once for every url and shared by the callers until
+ * the {@link #shutdown()}.
  *
  * @author Marco Fargetta <marco.fargetta@ct.infn.it>
  */
 public final class Storages {
 
+    /**
+     * Scheme of the local file system.
+     */
+    public static final String FILESCHEME = "file";
+
+    /**
+     * Scheme of the object stores.
+     */
+    public static final String S3SCHEME = "s3";
+
+    /**
+     * Storage providers registered for the url schemes.
+     */
+    private static final ConcurrentMap<String, StorageProvider> PROVIDERS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Storages already created.
+     */
+    private static final ConcurrentMap<String, Storage> STORAGES =
+            new ConcurrentHashMap<>();
+
+    static {
+        PROVIDERS.put(FILESCHEME, new StorageProvider() {
+            @Override
+            public Storage create(final String url,
+                    final boolean deduplicate) {
+                String path = getLocalPath(url);
+                if (deduplicate) {
+                    return new ContentAddressedStorage(path);
+                }
+                return new LocalStorage(path);
+            }
+        });
+        PROVIDERS.put(S3SCHEME, new StorageProvider() {
+            @Override
+            public Storage create(final String url,
+                    final boolean deduplicate) {
+                return new S3Storage(url);
+            }
+        });
+    }
+
     /**
      * Avoid the class be instantiable.
      */
     private Storages() { }
 
+    /**
+     * Register a storage provider.
+     * The provider replaces the one registered for the same scheme, the
+     * storages already created are not affected.
+     *
+     * @param scheme The url scheme
+     * @param provider The provider
+     */
+    public static void registerProvider(final String scheme,
+            final StorageProvider provider) {
+        PROVIDERS.put(scheme.toLowerCase(), provider);
+    }
+
+    /**
+     * Remove a storage provider.
+     *
+     * @param scheme The url scheme
+     */
+    public static void unregisterProvider(final String scheme) {
+        PROVIDERS.remove(scheme.toLowerCase());
+    }
+
     /**
      * Create a storage access object.
      * The storage object is selected depending on the protocol specified in
@@ -45,6 +122,87 @@ public final class Storages {
      * @return A storage access object
      */
     public static Storage getStorage(final String url) {
-        return new LocalStorage(url);
+        return getStorage(url, false);
+    }
+
+    /**
+     * Create a storage access object, optionally sharing identical files.
+     * With the deduplication the files in the local file system are stored
+     * by {@link ContentAddressedStorage}.
+     *
+     * @param url The url to the storage
+     * @param deduplicate True to keep a single copy of identical files
+     * @return A storage access object
+     * @throws IllegalArgumentException If the url scheme is not supported
+     */
+    public static Storage getStorage(final String url,
+            final boolean deduplicate) {
+        String key = deduplicate + " " + url;
+        Storage storage = STORAGES.get(key);
+        if (storage != null) {
+            return storage;
+        }
+        StorageProvider provider = PROVIDERS.get(getScheme(url));
+        if (provider == null) {
+            throw new IllegalArgumentException("Storage '" + url
+                    + "' not supported");
+        }
+        storage = provider.create(url, deduplicate);
+        Storage previous = STORAGES.putIfAbsent(key, storage);
+        if (previous != null) {
+            return previous;
+        }
+        return storage;
+    }
+
+    /**
+     * Shut down the storages created.
+     * The storages requested after the shutdown are created again.
+     */
+    public static void shutdown() {
+        for (String key: STORAGES.keySet()) {
+            Storage storage = STORAGES.remove(key);
+            if (storage != null) {
+                storage.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the path of a storage in the local file system.
+     *
+     * @param url The url to the storage
+     * @return The path or null if the storage is not in the local file
+     * system
+     */
+    public static String getLocalPath(final String url) {
+        if (!FILESCHEME.equals(getScheme(url))) {
+            return null;
+        }
+        String path = url;
+        if (path.startsWith(FILESCHEME + ":")) {
+            path = path.substring(FILESCHEME.length() + 1);
+            if (path.startsWith("//")) {
+                path = path.substring(2);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Retrieves the scheme of a storage url.
+     * Paths of the local file system, including the Windows ones starting
+     * with the drive letter, have the scheme <i>file</i>.
+     *
+     * @param url The url to the storage
+     * @return The scheme in lower case
+     */
+    private static String getScheme(final String url) {
+        int colon = url.indexOf(':');
+        if (colon <= 1 || url.lastIndexOf('/', colon) != -1
+                || url.lastIndexOf('\\', colon) != -1) {
+            return FILESCHEME;
+        }
+        return url.substring(0, colon).toLowerCase();
     }
 }
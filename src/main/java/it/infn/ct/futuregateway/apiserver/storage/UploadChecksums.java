@@ -0,0 +1,239 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checksums of the files uploaded in many parts.
+ * The digest of a partial upload is kept in memory with the number of bytes
+ * it includes, so the next part continues the computation. If the digest is
+ * not available, because too many uploads are pending or the server was
+ * restarted, it is computed again from the data already stored.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class UploadChecksums {
+
+    /**
+     * Algorithm of the checksum.
+     */
+    public static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Checksums shared by the application.
+     */
+    private static final UploadChecksums DEFAULT = new UploadChecksums();
+
+    /**
+     * Mask to convert a byte in an unsigned value.
+     */
+    private static final int BYTEMASK = 0xff;
+
+    /**
+     * Size of the buffer used to read the stored data.
+     */
+    private static final int BUFFERSIZE = 64 * 1024;
+
+    /**
+     * Initial capacity of the map of the pending uploads.
+     */
+    private static final int INITIALCAPACITY = 16;
+
+    /**
+     * Load factor of the map of the pending uploads.
+     */
+    private static final float LOADFACTOR = 0.75f;
+
+    /**
+     * Digests of the partial uploads.
+     * The least recently used uploads are removed when the map is full.
+     */
+    private final Map<String, Pending> pending =
+            new LinkedHashMap<String, Pending>(INITIALCAPACITY, LOADFACTOR,
+                    true) {
+                /**
+                 * Serial version of the map.
+                 */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<String, Pending> eldest) {
+                    return size() > Constants.MAXPENDINGUPLOADS;
+                }
+            };
+
+
+    /**
+     * Create the checksum registry.
+     */
+    private UploadChecksums() { }
+
+
+    /**
+     * Retrieves the checksums shared by the application.
+     *
+     * @return The checksum registry
+     */
+    public static UploadChecksums getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * Retrieves the digest to continue an upload.
+     * If the digest of the previous parts is not available it is computed
+     * from the stored file.
+     *
+     * @param key The identifier of the upload
+     * @param position Position of the new part
+     * @param stored The data already stored, used only if the digest has to
+     * be computed again. It can be null when the position is 0
+     * @return The digest including the data before the position
+     * @throws IOException If the stored data cannot be read
+     */
+    public MessageDigest resume(final String key, final long position,
+            final SeekableByteChannel stored) throws IOException {
+        Pending p;
+        synchronized (pending) {
+            p = pending.remove(key);
+        }
+        if (p != null && p.size == position) {
+            return p.digest;
+        }
+        MessageDigest digest = newDigest();
+        if (position > 0) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFERSIZE);
+            long remaining = position;
+            stored.position(0);
+            while (remaining > 0) {
+                buf.clear();
+                if (remaining < buf.capacity()) {
+                    buf.limit((int) remaining);
+                }
+                int read = stored.read(buf);
+                if (read < 0) {
+                    throw new IOException("Stored data shorter than "
+                            + position + " bytes");
+                }
+                buf.flip();
+                digest.update(buf);
+                remaining -= read;
+            }
+        }
+        return digest;
+    }
+
+
+    /**
+     * Keep the digest of a partial upload.
+     *
+     * @param key The identifier of the upload
+     * @param digest The digest of the data received
+     * @param size The number of bytes included in the digest
+     */
+    public void suspend(final String key, final MessageDigest digest,
+            final long size) {
+        synchronized (pending) {
+            pending.put(key, new Pending(digest, size));
+        }
+    }
+
+
+    /**
+     * Remove the digest of an upload.
+     *
+     * @param key The identifier of the upload
+     */
+    public void remove(final String key) {
+        synchronized (pending) {
+            pending.remove(key);
+        }
+    }
+
+
+    /**
+     * Create an empty digest.
+     *
+     * @return The digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(ALGORITHM + " not supported", nsae);
+        }
+    }
+
+
+    /**
+     * Convert a digest value in hexadecimal format.
+     *
+     * @param value The digest value
+     * @return The hexadecimal string
+     */
+    public static String toHex(final byte[] value) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b: value) {
+            hex.append(String.format("%02x", b & BYTEMASK));
+        }
+        return hex.toString();
+    }
+
+
+    /**
+     * Digest of a partial upload.
+     */
+    private static final class Pending {
+
+        /**
+         * The digest.
+         */
+        private final MessageDigest digest;
+
+        /**
+         * Bytes included in the digest.
+         */
+        private final long size;
+
+
+        /**
+         * Create the pending digest.
+         *
+         * @param aDigest The digest
+         * @param aSize Bytes included in the digest
+         */
+        Pending(final MessageDigest aDigest, final long aSize) {
+            this.digest = aDigest;
+            this.size = aSize;
+        }
+    }
+}
@@ -59,6 +59,379 @@ public final class Constants {
      */
     public static final int MAXTHREADWAIT = 5;
 
+    /**
+     * Thread mode using a pool of platform threads.
+     */
+    public static final String THREADMODEPLATFORM = "platform";
+
+    /**
+     * Thread mode using a virtual thread per activity.
+     */
+    public static final String THREADMODEVIRTUAL = "virtual";
+
+    /**
+     * Default maximum number of concurrent submissions to an infrastructure.
+     */
+    public static final int DEFAULTMAXPERINFRASTRUCTURE = 50;
+
+    /**
+     * Maximum lifetime of a cached session.
+     * Time in seconds a session to an infrastructure is reused when the
+     * credentials have no expiration or expire later.
+     */
+    public static final int SESSIONMAXLIFETIME = 3600;
+
+    /**
+     * Advance for the renewal of the cached sessions.
+     * Time in seconds before the expiration when a session in use is created
+     * again.
+     */
+    public static final int SESSIONREFRESHMARGIN = 300;
+
+    /**
+     * Minimum delay for the renewal of the cached sessions.
+     * Time in seconds before a new session is created again, also when its
+     * lifetime is shorter than the refresh margin.
+     */
+    public static final int SESSIONMINREFRESHDELAY = 60;
+
+    /**
+     * Default size of the submission queue.
+     * Maximum number of tasks waiting in memory for a submission thread.
+     * Other ready tasks remain in the DB until there is space in the queue.
+     */
+    public static final int DEFAULTSUBMISSIONQUEUESIZE = 500;
+
+    /**
+     * Interval between the scans of the DB for ready tasks.
+     * Time in seconds between two checks of the DB looking for tasks ready
+     * and not yet in the submission queue.
+     */
+    public static final int SUBMISSIONQUEUESCANINTERVAL = 30;
+
+    /**
+     * Number of attempts to store the identifier of a submitted job.
+     */
+    public static final int SUBMISSIONSTOREATTEMPTS = 3;
+
+    /**
+     * Interval between the attempts to store a submitted job.
+     * Time in milliseconds before retrying a failed update.
+     */
+    public static final long SUBMISSIONSTOREDELAY = 1000;
+
+    /**
+     * Weight of the last sample in the moving average of the submission
+     * time used by the schedulers.
+     */
+    public static final double SCHEDULEREWMAWEIGHT = 0.2;
+
+    /**
+     * Number of recent submissions used to evaluate the health of an
+     * infrastructure.
+     */
+    public static final int BREAKERWINDOW = 20;
+
+    /**
+     * Minimum number of submissions in the window before the circuit of an
+     * infrastructure can open.
+     */
+    public static final int BREAKERMINCALLS = 5;
+
+    /**
+     * Fraction of failed or slow submissions opening the circuit.
+     */
+    public static final double BREAKERFAILURERATIO = 0.5;
+
+    /**
+     * Time in seconds a circuit stays open before a trial submission.
+     */
+    public static final long BREAKEROPENTIME = 60;
+
+    /**
+     * Time in seconds after which a submission is considered slow.
+     * Slow submissions are accounted as failures for the circuit breaker.
+     */
+    public static final long BREAKERSLOWSUBMISSION = 120;
+
+    /**
+     * Time in seconds between two checks for the jobs to monitor.
+     */
+    public static final long MONITORTICK = 10;
+
+    /**
+     * Minimum time in seconds between two status checks of a job.
+     * The interval is used for the jobs just submitted or whose status has
+     * changed.
+     */
+    public static final long MONITORMININTERVAL = 30;
+
+    /**
+     * Maximum time in seconds between two status checks of a job.
+     * The interval doubles at every check not changing the job status up to
+     * this value.
+     */
+    public static final long MONITORMAXINTERVAL = 1800;
+
+    /**
+     * Maximum number of jobs checked with a single connection to the
+     * infrastructure and of tasks loaded with a single query.
+     */
+    public static final int MONITORBATCHSIZE = 200;
+
+    /**
+     * Default number of threads checking the jobs.
+     */
+    public static final int DEFAULTMONITORTHREADS = 4;
+
+    /**
+     * Default maximum number of concurrent status checks on an
+     * infrastructure.
+     * The checks have their own limit, separated from the submissions.
+     */
+    public static final int DEFAULTMONITORPERINFRASTRUCTURE = 2;
+
+    /**
+     * Default number of threads transferring the input and output files.
+     */
+    public static final int DEFAULTSTAGINGTHREADS = 8;
+
+    /**
+     * Default maximum number of concurrent file transfers with an
+     * infrastructure.
+     */
+    public static final int DEFAULTSTAGINGPERINFRASTRUCTURE = 4;
+
+    /**
+     * Number of attempts to retrieve an output file.
+     * Every attempt continues from the data already stored.
+     */
+    public static final int STAGINGATTEMPTS = 3;
+
+    /**
+     * Size in bytes of the blocks read from the remote output files.
+     */
+    public static final int STAGINGBLOCKSIZE = 64 * 1024;
+
+    /**
+     * Maximum number of input transfers remembered to avoid repeating them.
+     */
+    public static final int STAGEDINPUTSCACHESIZE = 10000;
+
+    /**
+     * Time in seconds an input transfer is trusted without checking the
+     * file in the infrastructure again.
+     */
+    public static final long STAGEDINPUTSTTL = 600;
+
+    /**
+     * Characters separating the file transfers in the job descriptions.
+     * They cannot be used in the names of the input files.
+     */
+    public static final String FILETRANSFERSEPARATORS = ",;>";
+
+    /**
+     * Time suggested to the clients before retrying a rejected request.
+     * The value, in seconds, is sent in the <i>Retry-After</i> header when
+     * the server cannot accept new tasks.
+     */
+    public static final long RETRYAFTER = 30;
+
+    /**
+     * Default page size for the collections.
+     * Number of elements returned in a collection page when the client does
+     * not specify a limit.
+     */
+    public static final int DEFAULTPAGESIZE = 100;
+
+    /**
+     * Maximum page size for the collections.
+     * Requests asking for bigger pages are limited to this value.
+     */
+    public static final int MAXPAGESIZE = 1000;
+
+    /**
+     * Number of rows fetched from the DB at once when a collection is
+     * streamed.
+     */
+    public static final int FETCHSIZE = 100;
+
+    /**
+     * Number of lazy collections loaded with a single query.
+     * When a collection is accessed the same collection of other entities in
+     * the persistence context is loaded together.
+     */
+    public static final int BATCHSIZE = 50;
+
+    /**
+     * Number of entities written to the DB with a single flush.
+     * Inserts are sent to the DB in JDBC batches, the value has to match
+     * the property <i>hibernate.jdbc.batch_size</i>.
+     */
+    public static final int INSERTBATCHSIZE = 50;
+
+    /**
+     * Maximum number of tasks created with a single request.
+     */
+    public static final int MAXBATCHTASKS = 1000;
+
+    /**
+     * Maximum number of bytes moved with a single transfer.
+     * Uploads are moved from the request to the file in blocks of this size.
+     */
+    public static final long TRANSFERSIZE = 8 * 1024 * 1024;
+
+    /**
+     * Size in bytes of the parts moved to and from the object stores.
+     * The objects are uploaded and downloaded in parts of this size, many
+     * at the same time. It cannot be lower than {@link #S3MINPARTSIZE}.
+     */
+    public static final int S3PARTSIZE = 8 * 1024 * 1024;
+
+    /**
+     * Initial size of the buffer for the first part of a file.
+     * The buffer grows with the data read, so small files do not allocate a
+     * whole part.
+     */
+    public static final int S3FIRSTBUFFERSIZE = 64 * 1024;
+
+    /**
+     * Minimum size in bytes of the parts of a multipart upload, except the
+     * last one.
+     */
+    public static final long S3MINPARTSIZE = 5 * 1024 * 1024;
+
+    /**
+     * Maximum size in bytes of a part copied from an existing object.
+     */
+    public static final long S3MAXCOPYPARTSIZE = 5L * 1024 * 1024 * 1024;
+
+    /**
+     * Number of parts of a single transfer moved at the same time.
+     */
+    public static final int S3PARALLELPARTS = 4;
+
+    /**
+     * Number of threads moving the parts of all the transfers.
+     */
+    public static final int S3TRANSFERTHREADS = 16;
+
+    /**
+     * Size in bytes of the blocks read by the channels of the objects.
+     */
+    public static final int S3READBLOCKSIZE = 1024 * 1024;
+
+    /**
+     * Timeout in milliseconds of the connections to the object stores.
+     */
+    public static final int S3TIMEOUT = 60000;
+
+    /**
+     * Maximum number of partial uploads tracked in memory.
+     * The checksum of an upload interrupted for longer is computed again
+     * from the stored data when it is resumed.
+     */
+    public static final int MAXPENDINGUPLOADS = 1000;
+
+    /**
+     * HTTP status for a partial upload.
+     * The response reports in the <i>Range</i> header the bytes received.
+     */
+    public static final int RESUMEINCOMPLETE = 308;
+
+    /**
+     * Folder of the task output files in the storage.
+     */
+    public static final String OUTPUTFOLDER = "output";
+
+    /**
+     * Default size of the thread pool for the slow requests.
+     * Requests performing long I/O operations, like uploads, deletions and
+     * large listings, are executed by this pool instead of the container
+     * threads.
+     */
+    public static final int DEFAULTASYNCPOOLSIZE = 20;
+
+    /**
+     * Default number of slow requests waiting for a thread.
+     * When the queue is full the requests are rejected.
+     */
+    public static final int DEFAULTASYNCQUEUESIZE = 200;
+
+    /**
+     * Timeout of the slow requests.
+     * Time in seconds after which the client receives an error if the
+     * request has not completed.
+     */
+    public static final long ASYNCTIMEOUT = 120;
+
+    /**
+     * Timeout of the uploads.
+     * Time in seconds after which the client receives an error if the
+     * upload has not completed.
+     */
+    public static final long ASYNCUPLOADTIMEOUT = 3600;
+
+    /**
+     * Number of attempts to remove the files of a deleted resource.
+     */
+    public static final int CLEANUPATTEMPTS = 3;
+
+    /**
+     * Interval between the attempts to remove the files.
+     * Time in seconds before retrying a failed removal.
+     */
+    public static final long CLEANUPRETRYDELAY = 60;
+
+    /**
+     * Interval between the runs of the storage reaper.
+     * Time in seconds between two scans of the storage looking for the files
+     * of deleted tasks and for expired outputs.
+     */
+    public static final long DEFAULTREAPERINTERVAL = 3600;
+
+    /**
+     * Number of task directories checked together by the storage reaper.
+     */
+    public static final int DEFAULTREAPERBATCHSIZE = 200;
+
+    /**
+     * Pause between the batches of the storage reaper.
+     * Time in milliseconds the reaper waits after every batch so the scan
+     * does not saturate the disk.
+     */
+    public static final long DEFAULTREAPERBATCHPAUSE = 500;
+
+    /**
+     * Retention of the task outputs.
+     * Time in days the output files of a completed task are kept. A value
+     * lower than 1 keeps the outputs until the task is deleted.
+     */
+    public static final long DEFAULTOUTPUTRETENTION = 30;
+
+    /**
+     * Maximum number of events waiting for a subscriber.
+     * Subscribers not able to receive the events at the rate they are
+     * produced are disconnected when their buffer is full.
+     */
+    public static final int SSEBUFFERSIZE = 100;
+
+    /**
+     * Number of threads writing the events to the subscribers.
+     */
+    public static final int SSEWRITERS = 4;
+
+    /**
+     * Interval between the heartbeats sent to the subscribers.
+     * Time in seconds after which the closed connections are detected.
+     */
+    public static final long SSEHEARTBEAT = 30;
+
+    /**
+     * Number of attempts to update an entity modified concurrently.
+     */
+    public static final int UPDATEATTEMPTS = 3;
+
     /**
      * Mime type produced by the server.
      */
@@ -75,11 +448,62 @@ public final class Constants {
      */
     public static final String CACHEDIR = "CacheDir";
 
+    /**
+     * Name of the attribute enabling the deduplication of the stored files.
+     */
+    public static final String STORAGEDEDUPLICATION = "StorageDeduplication";
+
     /**
      * Name of the attribute referring the thread pool for task submission.
      */
     public static final String SUBMISSIONPOOL = "SubmissionThreadPool";
 
+    /**
+     * Name of the attribute referring the submission queue.
+     */
+    public static final String SUBMISSIONQUEUE = "SubmissionQueue";
+
+    /**
+     * Name of the attribute referring the persistence statistics.
+     */
+    public static final String PERSISTENCESTATISTICS =
+            "PersistenceStatistics";
+
+    /**
+     * Name of the attribute referring the task state machine.
+     */
+    public static final String TASKSTATEMACHINE = "TaskStateMachine";
+
+    /**
+     * Name of the attribute referring the task transition counter.
+     */
+    public static final String TASKTRANSITIONCOUNTER = "TransitionCounter";
+
+    /**
+     * Name of the attribute referring the thread pool for slow requests.
+     */
+    public static final String ASYNCPOOL = "AsyncThreadPool";
+
+    /**
+     * Name of the attribute referring the storage cleaner.
+     */
+    public static final String STORAGECLEANER = "StorageCleaner";
+
+    /**
+     * Name of the attribute referring the task event broadcaster.
+     */
+    public static final String TASKEVENTS = "TaskEventBroadcaster";
+
+    /**
+     * Name of the attribute referring the job monitor.
+     */
+    public static final String JOBMONITOR = "JobMonitor";
+
+    /**
+     * Name of the attribute referring the output stager.
+     */
+    public static final String OUTPUTSTAGER = "OutputStager";
+
     /**
      * Avoid the class be instantiable.
      */
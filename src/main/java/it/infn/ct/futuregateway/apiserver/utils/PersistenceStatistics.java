@@ -0,0 +1,171 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.utils;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Statistics of the persistence layer.
+ * Values are read from the Hibernate statistics, enabled in the persistence
+ * units, and published as an MXBean.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class PersistenceStatistics implements PersistenceStatisticsMXBean {
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(PersistenceStatistics.class);
+
+    /**
+     * Statistics of the session factory.
+     */
+    private final Statistics stats;
+
+    /**
+     * Name of the registered MXBean.
+     */
+    private ObjectName mxBeanName;
+
+
+    /**
+     * Create the statistics for an entity manager factory.
+     *
+     * @param anEntityManagerFactory The EntityManagerFactory to monitor
+     * @throws PersistenceException If the factory is not provided by
+     * Hibernate
+     */
+    public PersistenceStatistics(
+            final EntityManagerFactory anEntityManagerFactory) {
+        this.stats = anEntityManagerFactory.unwrap(SessionFactory.class).
+                getStatistics();
+    }
+
+
+    /**
+     * Publish the statistics with JMX.
+     */
+    public final void register() {
+        try {
+            mxBeanName = new ObjectName("it.infn.ct.futuregateway.apiserver:"
+                    + "type=PersistenceStatistics");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, mxBeanName);
+        } catch (JMException jme) {
+            log.warn("Persistence metrics not available: "
+                    + jme.getMessage());
+            mxBeanName = null;
+        }
+    }
+
+
+    /**
+     * Remove the statistics from JMX.
+     */
+    public final void unregister() {
+        if (mxBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().
+                        unregisterMBean(mxBeanName);
+            } catch (JMException jme) {
+                log.warn("Impossible to unregister the persistence metrics");
+            }
+            mxBeanName = null;
+        }
+    }
+
+
+    @Override
+    public final long getSecondLevelCacheHitCount() {
+        return stats.getSecondLevelCacheHitCount();
+    }
+
+
+    @Override
+    public final long getSecondLevelCacheMissCount() {
+        return stats.getSecondLevelCacheMissCount();
+    }
+
+
+    @Override
+    public final long getSecondLevelCachePutCount() {
+        return stats.getSecondLevelCachePutCount();
+    }
+
+
+    @Override
+    public final long getQueryCacheHitCount() {
+        return stats.getQueryCacheHitCount();
+    }
+
+
+    @Override
+    public final long getQueryCacheMissCount() {
+        return stats.getQueryCacheMissCount();
+    }
+
+
+    @Override
+    public final long getQueryExecutionCount() {
+        return stats.getQueryExecutionCount();
+    }
+
+
+    @Override
+    public final long getEntityLoadCount() {
+        return stats.getEntityLoadCount();
+    }
+
+
+    @Override
+    public final long getSessionOpenCount() {
+        return stats.getSessionOpenCount();
+    }
+
+
+    @Override
+    public final long getSessionCloseCount() {
+        return stats.getSessionCloseCount();
+    }
+
+
+    @Override
+    public final long getTransactionCount() {
+        return stats.getTransactionCount();
+    }
+
+
+    @Override
+    public final long getConnectCount() {
+        return stats.getConnectCount();
+    }
+}
@@ -0,0 +1,113 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.utils;
+
+/**
+ * Metrics of the persistence layer.
+ * The values are published with JMX and report the effectiveness of the
+ * second level and query caches.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public interface PersistenceStatisticsMXBean {
+
+    /**
+     * Retrieves the number of entities and collections found in the second
+     * level cache.
+     *
+     * @return The number of cache hits
+     */
+    long getSecondLevelCacheHitCount();
+
+    /**
+     * Retrieves the number of entities and collections not found in the
+     * second level cache and loaded from the DB.
+     *
+     * @return The number of cache misses
+     */
+    long getSecondLevelCacheMissCount();
+
+    /**
+     * Retrieves the number of entities and collections stored in the second
+     * level cache.
+     *
+     * @return The number of cache puts
+     */
+    long getSecondLevelCachePutCount();
+
+    /**
+     * Retrieves the number of query results found in the query cache.
+     *
+     * @return The number of cache hits
+     */
+    long getQueryCacheHitCount();
+
+    /**
+     * Retrieves the number of cacheable queries executed on the DB.
+     *
+     * @return The number of cache misses
+     */
+    long getQueryCacheMissCount();
+
+    /**
+     * Retrieves the number of queries executed on the DB.
+     *
+     * @return The number of queries
+     */
+    long getQueryExecutionCount();
+
+    /**
+     * Retrieves the number of entities loaded from the DB.
+     *
+     * @return The number of entities
+     */
+    long getEntityLoadCount();
+
+    /**
+     * Retrieves the number of sessions, or entity managers, opened.
+     *
+     * @return The number of sessions
+     */
+    long getSessionOpenCount();
+
+    /**
+     * Retrieves the number of sessions, or entity managers, closed.
+     *
+     * @return The number of sessions
+     */
+    long getSessionCloseCount();
+
+    /**
+     * Retrieves the number of transactions completed.
+     *
+     * @return The number of transactions
+     */
+    long getTransactionCount();
+
+    /**
+     * Retrieves the number of connections requested to the DB.
+     *
+     * @return The number of connections
+     */
+    long getConnectCount();
+}
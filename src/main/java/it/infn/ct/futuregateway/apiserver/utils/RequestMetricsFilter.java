@@ -0,0 +1,115 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.utils;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import java.io.IOException;
+import java.util.List;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.ext.Provider;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.uri.UriTemplate;
+
+/**
+ * Measure the latency of the REST calls.
+ * The latency goes from the request, before the matching, to the response
+ * filters, so the time to write a streamed entity is not included. The
+ * filter runs before the matching so also the requests not matching any
+ * resource, answered with <i>404</i>, are measured. Calls are grouped by
+ * method, resource template and status, so the number of series does not
+ * depend on the resource identifiers.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@Provider
+@PreMatching
+public class RequestMetricsFilter implements ContainerRequestFilter,
+        ContainerResponseFilter {
+
+    /**
+     * Property storing the start time of the request.
+     */
+    private static final String STARTPROPERTY =
+            RequestMetricsFilter.class.getName() + ".start";
+
+    /**
+     * Resource of the requests not matching any resource.
+     */
+    private static final String UNMATCHED = "unmatched";
+
+    @Override
+    public final void filter(final ContainerRequestContext cReqC)
+            throws IOException {
+        cReqC.setProperty(STARTPROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public final void filter(final ContainerRequestContext cReqC,
+            final ContainerResponseContext cRespC) throws IOException {
+        Object start = cReqC.getProperty(STARTPROPERTY);
+        if (!(start instanceof Long)) {
+            return;
+        }
+        Metrics.getDefault().histogram(Metrics.HTTPREQUESTS,
+                "Latency of the REST calls",
+                "method", cReqC.getMethod(),
+                "resource", getResource(cReqC),
+                "status", Integer.toString(cRespC.getStatus())).
+                observe(System.nanoTime() - (Long) start);
+    }
+
+    /**
+     * Build the template of the resource matched by the request.
+     *
+     * @param cReqC The request context
+     * @return The resource template
+     */
+    private static String getResource(final ContainerRequestContext cReqC) {
+        if (!(cReqC.getUriInfo() instanceof ExtendedUriInfo)) {
+            return UNMATCHED;
+        }
+        List<UriTemplate> templates =
+                ((ExtendedUriInfo) cReqC.getUriInfo()).getMatchedTemplates();
+        if (templates == null || templates.isEmpty()) {
+            return UNMATCHED;
+        }
+        StringBuilder resource = new StringBuilder();
+        for (int i = templates.size() - 1; i >= 0; i--) {
+            String template = templates.get(i).getTemplate();
+            if (template.isEmpty() || "/".equals(template)) {
+                continue;
+            }
+            if (!template.startsWith("/")) {
+                resource.append('/');
+            }
+            resource.append(template);
+        }
+        if (resource.length() == 0) {
+            return "/";
+        }
+        return resource.toString();
+    }
+}
@@ -22,10 +22,13 @@
  */
 package it.infn.ct.futuregateway.apiserver.utils;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.naming.Context;
@@ -39,6 +42,12 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Custom creation of an ExecutorService using the parameters
  * provided in the context.
+ * <p>
+ * The attribute <i>mode</i> selects the kind of threads. With the value
+ * <i>platform</i>, the default, the ExecutorService is a bounded thread pool.
+ * With the value <i>virtual</i> every activity runs in a new virtual thread,
+ * if the JVM supports them, so activities blocked on remote I/O do not
+ * consume the threads of the system.
  *
  * @author Marco Fargetta <marco.fargetta@ct.infn.it>
  * @see java.util.concurrent.ExecutorService
@@ -50,6 +59,11 @@ public class ThreadPoolFactory implements ObjectFactory {
      */
     private final Log log = LogFactory.getLog(ThreadPoolFactory.class);
 
+    /**
+     * Static logger object used by the factory methods.
+     */
+    private static final Log LOG = LogFactory.getLog(ThreadPoolFactory.class);
+
     @Override
     public final Object getObjectInstance(final Object obj, final Name name,
             final Context ctx, final Hashtable<?, ?> env) throws Exception {
@@ -59,7 +73,9 @@ public class ThreadPoolFactory implements ObjectFactory {
         int threadPoolSize = Constants.DEFAULTTHREADPOOLSIZE;
         int maxThreadPoolSize = Constants.MAXTHREADPOOLSIZETIMES
                 * threadPoolSize;
-        int maxThreadIdleTime = Constants.MAXTHREADPOOLSIZETIMES;
+        int maxThreadIdleTime = Constants.MAXTHREADIDLELIFE;
+        int queueSize = Constants.DEFAULTSUBMISSIONQUEUESIZE;
+        String mode = Constants.THREADMODEPLATFORM;
         while (addrs.hasMoreElements()) {
             RefAddr addr = (RefAddr) addrs.nextElement();
             String addrName = addr.getType();
@@ -89,31 +105,76 @@ public class ThreadPoolFactory implements ObjectFactory {
                                 + " correct. Default value applied.");
                     }
                     break;
+                case "mode":
+                    mode = addrValue;
+                    break;
+                case "queueSize":
+                    try {
+                        queueSize = Integer.parseInt(addrValue);
+                    } catch (NumberFormatException nfe) {
+                        log.warn("Attribute queueSize format not correct."
+                                + " Default value applied.");
+                    }
+                    break;
                 default:
             }
         }
         log.info("A new thread pool created with name: " + name.toString());
+        if (Constants.THREADMODEVIRTUAL.equalsIgnoreCase(mode)) {
+            return ThreadPoolFactory.getVirtualThreadExecutor();
+        }
         return (ThreadPoolFactory.getThreadPool(threadPoolSize,
-                maxThreadPoolSize, maxThreadIdleTime));
+                maxThreadPoolSize, maxThreadIdleTime, queueSize));
     }
 
     /**
      * Create a new ExecutorService.
      * The ExecutorService is based on the ThreadPoolExecutor but only
      * a subset of parameter can be specified.
+     * <p>
+     * The queue of the pool is bounded. When it is full new threads are
+     * created up to the maximum size and then the new activities are
+     * rejected with a RejectedExecutionException.
      *
      * @param threadPoolSize The initial and minimum size of the pool
      * @param maxThreadPoolSize The maximum size of the pool
      * @param maxThreadIdleTime The time in milliseconds a thread can be idle
+     * @param queueSize The maximum number of activities waiting for a thread
      * @return The new ExecutorService
      */
     public static ExecutorService getThreadPool(final int threadPoolSize,
-                final int maxThreadPoolSize, final int maxThreadIdleTime) {
+                final int maxThreadPoolSize, final int maxThreadIdleTime,
+                final int queueSize) {
         return new ThreadPoolExecutor(
                 threadPoolSize,
                 maxThreadPoolSize,
                 maxThreadIdleTime,
                 TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>());
+                new ArrayBlockingQueue<Runnable>(queueSize));
+    }
+
+    /**
+     * Create a new ExecutorService based on virtual threads.
+     * Every activity is executed in a new virtual thread. The executor is
+     * created by reflection because virtual threads are not available in
+     * the Java version the application is compiled for. If the JVM does
+     * not support them a cached thread pool is returned; in both cases the
+     * number of threads is not bounded so the callers have to limit the
+     * activities they submit.
+     *
+     * @return The new ExecutorService
+     */
+    public static ExecutorService getVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            LOG.info("Virtual thread executor created");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException ex) {
+            LOG.warn("Virtual threads not supported by the JVM. A cached"
+                    + " thread pool is used");
+            return Executors.newCachedThreadPool();
+        }
     }
 }
@@ -21,10 +21,12 @@
 
 package it.infn.ct.futuregateway.apiserver.v1;
 
+import it.infn.ct.futuregateway.apiserver.utils.RequestMetricsFilter;
 import it.infn.ct.futuregateway.apiserver.utils.StatusFilter;
 import javax.ws.rs.ApplicationPath;
 import org.glassfish.jersey.linking.DeclarativeLinkingFeature;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 
 /**
@@ -40,7 +42,9 @@ public class ApiServer extends ResourceConfig {
     public ApiServer() {
         packages("it.infn.ct.futuregateway.apiserver.v1");
         register(StatusFilter.class);
+        register(RequestMetricsFilter.class);
         register(DeclarativeLinkingFeature.class);
         register(MultiPartFeature.class);
+        register(SseFeature.class);
     }
 }
@@ -24,11 +24,11 @@ package it.infn.ct.futuregateway.apiserver.v1;
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.utils.annotations.Status;
 import it.infn.ct.futuregateway.apiserver.resources.Application;
-import it.infn.ct.futuregateway.apiserver.resources.ApplicationList;
 import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.ws.rs.BadRequestException;
@@ -37,10 +37,17 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.Session;
 
 /**
  * The ApplicationCollectionService provide the REST APIs for the application
@@ -62,21 +69,89 @@ public class ApplicationCollectionService extends BaseService {
 
     /**
      * Retrieves the list of applications.
+     * The list is streamed to the client while the applications are read
+     * from the DB. The fields not requested for the list are cleaned.
      *
-     * @return The application collection
+     * @param asyncResponse The response resumed with the collection, written
+     * by a thread of the asynchronous pool
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final ApplicationList listApplications() {
-        ApplicationList apps;
-        try {
-            apps = new ApplicationList(retrieveApplicationList());
-        } catch (RuntimeException re) {
-            getResponse().setStatus(
-                    Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
-            throw re;
+    public final void listApplications(
+            @Suspended final AsyncResponse asyncResponse) {
+        final UriBuilder baseUri = getUriInfo().getBaseUriBuilder();
+        final StreamingOutput list =
+                new CollectionStreamingOutput<Application>(
+                getEntityManagerFactory(), getProviders(), Application.class,
+                "applications", Link.fromUriBuilder(
+                        baseUri.clone().path("applications")).rel("self").
+                        build()) {
+            /**
+             * Application built from the previous rows.
+             */
+            private Application current;
+
+            @Override
+            protected Query createQuery(final Session session) {
+                return session.createQuery("SELECT app.id, app.name,"
+                        + " app.dateCreated, app.enabled, app.type, i.id"
+                        + " FROM Application app"
+                        + " LEFT JOIN app.infrastructures i"
+                        + " ORDER BY app.id");
+            }
+
+            @Override
+            protected Application toElement(final Object[] row) {
+                int idElem = 0;
+                String appId = (String) row[idElem++];
+                if (current != null && current.getId().equals(appId)) {
+                    addInfrastructure(current, (String) row[row.length - 1]);
+                    return null;
+                }
+                Application app = new Application();
+                app.setId(appId);
+                app.setName((String) row[idElem++]);
+                app.setDateCreated((Date) row[idElem++]);
+                app.setEnabled((Boolean) row[idElem++]);
+                app.setType((Application.TYPE) row[idElem++]);
+                app.setInfrastructureIds(new LinkedList<String>());
+                addInfrastructure(app, (String) row[idElem]);
+                List<Link> links = new LinkedList<>();
+                links.add(Link.fromUriBuilder(baseUri.clone().
+                        path("applications/{id}")).rel("self").
+                        build(app.getId()));
+                app.setLinks(links);
+                current = app;
+                return app;
+            }
+
+            @Override
+            protected Link createNextLink(final Application last) {
+                return null;
+            }
+        };
+        executeAsync(asyncResponse, Constants.ASYNCTIMEOUT,
+                new Callable<StreamingOutput>() {
+                    @Override
+                    public StreamingOutput call() {
+                        return list;
+                    }
+                });
+    }
+
+
+    /**
+     * Add an infrastructure to the summary of an application.
+     *
+     * @param app The application
+     * @param infraId The infrastructure id, null if the application has no
+     * infrastructures
+     */
+    private static void addInfrastructure(final Application app,
+            final String infraId) {
+        if (infraId != null) {
+            app.getInfrastructureIds().add(infraId);
         }
-        return apps;
     }
 
 
@@ -129,41 +204,4 @@ public class ApplicationCollectionService extends BaseService {
         }
         return application;
     }
-
-
-    /**
-     * Retrieve the application list.
-     * The fields not requested for the list are cleaned.
-     * @return The list of applications
-     */
-    private List<Application> retrieveApplicationList() {
-        List<Application> lstApps;
-        EntityManager em = getEntityManager();
-        EntityTransaction et = null;
-        try {
-            et = em.getTransaction();
-            et.begin();
-            lstApps = em.createNamedQuery("applications.all",
-                    Application.class).
-                    getResultList();
-            et.commit();
-        } catch (RuntimeException re) {
-            if (et != null && et.isActive()) {
-                et.rollback();
-            }
-            log.error("Impossible to retrieve the Application list");
-            log.error(re);
-            throw new RuntimeException("Impossible to access the "
-                    + "application list");
-        } finally {
-            em.close();
-        }
-        if (lstApps != null) {
-            for (Application ap: lstApps) {
-                ap.setDescription(null);
-                ap.setParameters(null);
-            }
-        }
-        return lstApps;
-    }
 }
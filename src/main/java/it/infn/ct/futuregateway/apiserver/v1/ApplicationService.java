@@ -23,6 +23,7 @@ package it.infn.ct.futuregateway.apiserver.v1;
 
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
@@ -35,6 +36,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -63,18 +66,22 @@ public class ApplicationService extends BaseService {
      *
      * @param id The application id. This is a path parameter retrieved from
      * the URL
-     * @return The application
+     * @param req The request, used to evaluate the preconditions
+     * @return The application, with the <i>ETag</i> header
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final Application getAppDetails(@PathParam("id") final String id) {
+    public final Response getAppDetails(@PathParam("id") final String id,
+            @Context final Request req) {
         Application app;
         EntityManager em = getEntityManager();
         try {
-            app = em.find(Application.class, id);
-            log.debug("Find the application " + id + " associated with "
-                    + app.getInfrastructureIds().size() + " infrastructures "
-                    + "and " + app.getParameters().size() + " parameters");
+            Response.ResponseBuilder rb = evaluatePreconditions(em,
+                    "applications.version", id, req);
+            if (rb != null) {
+                return rb.build();
+            }
+            app = DetailLoader.findApplication(em, id);
         } catch (IllegalArgumentException re) {
             log.error("Impossible to retrieve the application");
             log.error(re);
@@ -86,7 +93,12 @@ public class ApplicationService extends BaseService {
         if (app == null) {
             throw new NotFoundException();
         } else {
-            return app;
+            log.debug("Find the application " + id + " associated with "
+                    + app.getInfrastructureIds().size() + " infrastructures "
+                    + "and " + app.getParameters().size() + " parameters");
+            return Response.ok(app).
+                    tag(createEntityTag(app.getVersion())).
+                    build();
         }
     }
 
@@ -130,6 +142,7 @@ public class ApplicationService extends BaseService {
                             Response.Status.CONFLICT);
                 }
                 et.commit();
+                evictFromCache(Application.class, id);
             } catch (WebApplicationException wex) {
                 throw wex;
             } catch (RuntimeException re) {
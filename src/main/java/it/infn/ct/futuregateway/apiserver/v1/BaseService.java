@@ -21,15 +21,33 @@
 
 package it.infn.ct.futuregateway.apiserver.v1;
 
+import it.infn.ct.futuregateway.apiserver.inframanager.SubmissionQueue;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
 import it.infn.ct.futuregateway.apiserver.storage.Storage;
+import it.infn.ct.futuregateway.apiserver.storage.StorageCleaner;
 import it.infn.ct.futuregateway.apiserver.storage.Storages;
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -57,6 +75,23 @@ abstract class BaseService {
     @Context
     private HttpServletResponse response;
 
+    /**
+     * Used to build the references to other resources.
+     */
+    @Context
+    private UriInfo uriInfo;
+
+    /**
+     * Used to retrieve the writers for the streamed entities.
+     */
+    @Context
+    private Providers providers;
+
+    /**
+     * Servlet context of the application.
+     */
+    private ServletContext servletContext;
+
     /**
      * Return the EntityManager.
      * Create a JPA EntityManger from the EntityMangerFactory registered
@@ -65,7 +100,7 @@ abstract class BaseService {
      * @return The EntityManager
      */
     protected final EntityManager getEntityManager() {
-        EntityManagerFactory emf = (EntityManagerFactory) getRequest().
+        EntityManagerFactory emf = (EntityManagerFactory)
                 getServletContext().getAttribute(Constants.SESSIONFACTORY);
         return emf.createEntityManager();
     }
@@ -79,8 +114,23 @@ abstract class BaseService {
      * @return The EntityManagerFactory
      */
     protected final EntityManagerFactory getEntityManagerFactory() {
-        return (EntityManagerFactory) getRequest().
-                getServletContext().getAttribute(Constants.SESSIONFACTORY);
+        return (EntityManagerFactory) getServletContext().
+                getAttribute(Constants.SESSIONFACTORY);
+    }
+
+
+    /**
+     * Remove an element from the second level cache.
+     * Writes performed with the entity manager keep the cache updated. The
+     * element is removed explicitly after operations, like the deletion,
+     * which can leave stale references in the cached data.
+     *
+     * @param entity The class of the element
+     * @param id The element id
+     */
+    protected final void evictFromCache(final Class<?> entity,
+            final String id) {
+        getEntityManagerFactory().getCache().evict(entity, id);
     }
 
     /**
@@ -114,6 +164,43 @@ abstract class BaseService {
         return response;
     }
 
+    /**
+     * Retrieve the servlet context.
+     * The context is read from the request the first time and then reused,
+     * so it is available also to the operations executed in other threads
+     * after the request has been suspended.
+     *
+     * @return The servlet context
+     */
+    protected final ServletContext getServletContext() {
+        if (servletContext == null) {
+            servletContext = getRequest().getServletContext();
+        }
+        return servletContext;
+    }
+
+    /**
+     * Retrieve the URI information.
+     * The URI information of the request are used to build the references
+     * not managed by the declarative linking.
+     *
+     * @return The URI information
+     */
+    protected final UriInfo getUriInfo() {
+        return uriInfo;
+    }
+
+    /**
+     * Retrieve the providers.
+     * The providers registered in the application are used to serialise the
+     * entities when the response is streamed.
+     *
+     * @return The providers
+     */
+    protected final Providers getProviders() {
+        return providers;
+    }
+
     /**
      * Retrieve the file cache directory path.
      * Get the path to the cache directory from the context parameter. The
@@ -123,20 +210,22 @@ abstract class BaseService {
      * @return The path where file are temporary stored
      */
     protected final String getCacheDirPath() {
-        return (String) getRequest().
-                getServletContext().
+        return (String) getServletContext().
                 getAttribute(Constants.CACHEDIR);
     }
 
     /**
      * Retrieve the storage area manager.
      * The storage area manager allows to store file associated with tasks
-     * and/or applications.
+     * and/or applications. Identical files are stored once if the context
+     * parameter <i>StorageDeduplication</i> is true.
      *
      * @return The storage manager
      */
     protected final Storage getStorage() {
-        return Storages.getStorage(getCacheDirPath());
+        return Storages.getStorage(getCacheDirPath(), Boolean.TRUE.equals(
+                getServletContext().getAttribute(
+                        Constants.STORAGEDEDUPLICATION)));
     }
 
 
@@ -148,8 +237,202 @@ abstract class BaseService {
      * @return The thread pool
      */
     protected final ExecutorService getSubmissionThreadPool() {
-        return (ExecutorService) getRequest().
-                getServletContext().
+        return (ExecutorService) getServletContext().
                 getAttribute(Constants.SUBMISSIONPOOL);
     }
+
+
+    /**
+     * Retrieve the submission queue.
+     * Tasks ready for the execution wait in this queue for a thread of the
+     * submission pool.
+     *
+     * @return The submission queue
+     */
+    protected final SubmissionQueue getSubmissionQueue() {
+        return (SubmissionQueue) getServletContext().
+                getAttribute(Constants.SUBMISSIONQUEUE);
+    }
+
+
+    /**
+     * Retrieve the task state machine.
+     * All the status changes of the tasks have to be performed by the
+     * state machine.
+     *
+     * @return The task state machine
+     */
+    protected final TaskStateMachine getTaskStateMachine() {
+        return (TaskStateMachine) getServletContext().
+                getAttribute(Constants.TASKSTATEMACHINE);
+    }
+
+
+    /**
+     * Retrieve the thread pool for the slow requests.
+     *
+     * @return The thread pool
+     */
+    protected final ExecutorService getAsyncExecutor() {
+        return (ExecutorService) getServletContext().
+                getAttribute(Constants.ASYNCPOOL);
+    }
+
+
+    /**
+     * Retrieve the storage cleaner.
+     * The cleaner removes in background the files of the deleted resources.
+     *
+     * @return The storage cleaner
+     */
+    protected final StorageCleaner getStorageCleaner() {
+        return (StorageCleaner) getServletContext().
+                getAttribute(Constants.STORAGECLEANER);
+    }
+
+
+    /**
+     * Evaluate the preconditions of a conditional request for an entity.
+     * The state of the entity is identified by its version, read with a
+     * named query on the version column, so the entity is not loaded when
+     * the client already has the current representation. The query receives
+     * the entity id as parameter <i>id</i> and returns the version or the
+     * version and the time of the last change.
+     *
+     * @param em The EntityManager
+     * @param queryName The named query retrieving the version
+     * @param id The entity id
+     * @param req The request
+     * @return The response to send if the preconditions are not met, null
+     * if the entity has to be sent
+     * @throws NotFoundException If the entity does not exist
+     */
+    protected final Response.ResponseBuilder evaluatePreconditions(
+            final EntityManager em, final String queryName, final String id,
+            final Request req) {
+        return evaluatePreconditions(em, queryName, id, null, req);
+    }
+
+
+    /**
+     * Evaluate the preconditions of a conditional request for an entity
+     * whose representation includes a state not stored in the DB.
+     *
+     * @param em The EntityManager
+     * @param queryName The named query retrieving the version
+     * @param id The entity id
+     * @param variant The state not stored, or null
+     * @param req The request
+     * @return The response to send if the preconditions are not met, null
+     * if the entity has to be sent
+     * @throws NotFoundException If the entity does not exist
+     * @see #evaluatePreconditions(EntityManager, String, String, Request)
+     */
+    protected final Response.ResponseBuilder evaluatePreconditions(
+            final EntityManager em, final String queryName, final String id,
+            final String variant, final Request req) {
+        List<?> rows = em.createNamedQuery(queryName).
+                setParameter("id", id).
+                getResultList();
+        if (rows.isEmpty()) {
+            throw new NotFoundException();
+        }
+        Object version = rows.get(0);
+        Date lastModified = null;
+        if (version instanceof Object[]) {
+            lastModified = (Date) ((Object[]) version)[1];
+            version = ((Object[]) version)[0];
+        }
+        EntityTag tag = createEntityTag((Long) version, variant);
+        if (lastModified == null) {
+            return req.evaluatePreconditions(tag);
+        }
+        return req.evaluatePreconditions(lastModified, tag);
+    }
+
+
+    /**
+     * Create the entity tag of an entity version.
+     * The tag is weak because the representation depends also on the
+     * request, as for the links.
+     *
+     * @param version The version of the entity
+     * @return The entity tag
+     */
+    protected static EntityTag createEntityTag(final long version) {
+        return createEntityTag(version, null);
+    }
+
+
+    /**
+     * Create the entity tag of an entity version with a state not stored.
+     *
+     * @param version The version of the entity
+     * @param variant The state not stored, or null
+     * @return The entity tag
+     */
+    protected static EntityTag createEntityTag(final long version,
+            final String variant) {
+        if (variant == null) {
+            return new EntityTag(Long.toString(version), true);
+        }
+        return new EntityTag(version + "-" + variant, true);
+    }
+
+
+    /**
+     * Retrieve the broadcaster of the task events.
+     *
+     * @return The task event broadcaster
+     */
+    protected final TaskEventBroadcaster getTaskEventBroadcaster() {
+        return (TaskEventBroadcaster) getServletContext().
+                getAttribute(Constants.TASKEVENTS);
+    }
+
+
+    /**
+     * Execute an operation in the thread pool for the slow requests.
+     * The container thread is released and the response is sent when the
+     * operation completes. The result of the operation is the response
+     * entity, null for an empty response, and its exceptions are mapped as
+     * for the synchronous methods. If the pool is full or the operation does
+     * not complete before the timeout the client receives the status 503.
+     * <p>
+     * The operation runs outside the request, so it can use only the objects
+     * retrieved before this call and the shared ones available from the
+     * servlet context.
+     *
+     * @param asyncResponse The suspended response
+     * @param timeout The timeout in seconds
+     * @param operation The operation
+     */
+    protected final void executeAsync(final AsyncResponse asyncResponse,
+            final long timeout, final Callable<?> operation) {
+        ExecutorService executor = getAsyncExecutor();
+        asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+            @Override
+            public void handleTimeout(final AsyncResponse ar) {
+                ar.resume(new ServiceUnavailableException(
+                        Constants.RETRYAFTER));
+            }
+        });
+        asyncResponse.setTimeout(timeout, TimeUnit.SECONDS);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        asyncResponse.resume(operation.call());
+                    } catch (Exception ex) {
+                        asyncResponse.resume(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            log.warn("Too many slow requests, request rejected");
+            asyncResponse.resume(new ServiceUnavailableException(
+                    Constants.RETRYAFTER));
+        }
+    }
 }
@@ -0,0 +1,349 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * Stream a collection to the client while it is read from the DB.
+ * The elements are read with a forward only cursor and each of them is
+ * serialised as soon as it is available, so the memory used does not depend
+ * on the size of the collection and the first bytes are sent to the client
+ * without waiting for the full list.
+ * <p>
+ * The output has the same structure of the collection classes
+ * (<i>TaskList</i>, <i>ApplicationList</i>, <i>InfrastructureList</i>) and
+ * the elements are serialised with the writer registered for the mime type
+ * of the server. Since the declarative linking does not process the streamed
+ * elements the references have to be added by the implementations.
+ *
+ * @param <E> Type of the elements in the collection
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+abstract class CollectionStreamingOutput<E> implements StreamingOutput {
+
+    /**
+     * Logger object.
+     * Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(CollectionStreamingOutput.class);
+
+    /**
+     * EntityManagerFactory used to open the cursor.
+     */
+    private final EntityManagerFactory emf;
+
+    /**
+     * Name of the collection field.
+     */
+    private final String collectionName;
+
+    /**
+     * Reference to the collection.
+     */
+    private final Link self;
+
+    /**
+     * Class of the elements.
+     */
+    private final Class<E> elementClass;
+
+    /**
+     * Writer for the elements.
+     */
+    private final MessageBodyWriter<E> writer;
+
+    /**
+     * Maximum number of elements to write.
+     * A negative value means no limit.
+     */
+    private int maxElements = -1;
+
+
+    /**
+     * Create the output for a collection.
+     *
+     * @param anEmf The EntityManagerFactory for the DB access
+     * @param someProviders The providers registered in the application
+     * @param aClass The class of the elements in the collection
+     * @param aCollectionName The name of the collection field
+     * @param aSelf The reference to the collection
+     */
+    CollectionStreamingOutput(final EntityManagerFactory anEmf,
+            final Providers someProviders, final Class<E> aClass,
+            final String aCollectionName, final Link aSelf) {
+        this.emf = anEmf;
+        this.elementClass = aClass;
+        this.collectionName = aCollectionName;
+        this.self = aSelf;
+        this.writer = someProviders.getMessageBodyWriter(aClass, aClass,
+                new Annotation[0], MediaType.valueOf(Constants.INDIGOMIMETYPE));
+        if (writer == null) {
+            throw new InternalServerErrorException("No writer available for "
+                    + aClass.getSimpleName());
+        }
+    }
+
+
+    /**
+     * Sets the maximum number of elements to write.
+     * If the cursor has more elements the reference to the next page is
+     * added at the end of the collection.
+     *
+     * @param max The maximum number of elements
+     * @return This output
+     */
+    public final CollectionStreamingOutput<E> setMaxElements(final int max) {
+        this.maxElements = max;
+        return this;
+    }
+
+
+    /**
+     * Create the query providing the elements.
+     *
+     * @param session The session where the query is executed
+     * @return The query
+     */
+    protected abstract Query createQuery(Session session);
+
+
+    /**
+     * Convert a row of the query in the element to write.
+     * Elements built from many rows, as when a collection is joined, return
+     * null for the rows adding data to the previous element. The element is
+     * written when the next one is returned or the cursor ends.
+     *
+     * @param row The row retrieved from the DB
+     * @return The element or null if the row belongs to the previous element
+     */
+    protected abstract E toElement(Object[] row);
+
+
+    /**
+     * Create the reference to the next page.
+     * Collections without pages return null.
+     *
+     * @param last The last element written
+     * @return The reference to the next page or null
+     */
+    protected abstract Link createNextLink(E last);
+
+
+    @Override
+    public final void write(final OutputStream output) throws IOException {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction et = null;
+        try {
+            et = em.getTransaction();
+            et.begin();
+            Session session = em.unwrap(Session.class);
+            ScrollableResults rows = createQuery(session).
+                    setReadOnly(true).
+                    setFetchSize(Constants.FETCHSIZE).
+                    scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                writeCollection(session, rows, output);
+            } finally {
+                rows.close();
+            }
+            et.commit();
+        } catch (RuntimeException re) {
+            log.error("Impossible to stream the " + collectionName + " list");
+            log.error(re);
+            throw new InternalServerErrorException("Impossible to access the "
+                    + collectionName + " list");
+        } finally {
+            if (et != null && et.isActive()) {
+                et.rollback();
+            }
+            em.close();
+        }
+    }
+
+
+    /**
+     * Write the collection from the cursor.
+     *
+     * @param session The session used by the cursor
+     * @param rows The cursor
+     * @param output The stream where the collection is written
+     * @throws IOException If the stream cannot be written
+     */
+    private void writeCollection(final Session session,
+            final ScrollableResults rows, final OutputStream output)
+            throws IOException {
+        OutputStream elementOutput = new FilterOutputStream(output) {
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+                    throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        print(output, "{\"_links\":[" + toJson(self) + "],\""
+                + collectionName + "\":[");
+        int count = 0;
+        E last = null;
+        E pending = null;
+        boolean more = false;
+        while (rows.next()) {
+            Object[] row = rows.get();
+            E element = toElement(row);
+            for (Object col: row) {
+                if (col != null && session.contains(col)) {
+                    session.evict(col);
+                }
+            }
+            if (element == null) {
+                continue;
+            }
+            if (pending != null) {
+                writeElement(pending, count, output, elementOutput);
+                last = pending;
+                count++;
+                if (count % Constants.FETCHSIZE == 0) {
+                    session.clear();
+                    output.flush();
+                }
+            }
+            pending = element;
+            if (maxElements >= 0 && count == maxElements) {
+                more = true;
+                pending = null;
+                break;
+            }
+        }
+        if (pending != null) {
+            writeElement(pending, count, output, elementOutput);
+        }
+        print(output, "]");
+        if (more) {
+            Link next = createNextLink(last);
+            if (next != null) {
+                print(output, ",\"next\":" + toJson(next));
+            }
+        }
+        print(output, "}");
+        output.flush();
+    }
+
+
+    /**
+     * Write an element of the collection.
+     *
+     * @param element The element to write
+     * @param position The number of elements already written
+     * @param output The stream where the collection is written
+     * @param elementOutput The stream used by the writer of the elements
+     * @throws IOException If the stream cannot be written
+     */
+    private void writeElement(final E element, final int position,
+            final OutputStream output, final OutputStream elementOutput)
+            throws IOException {
+        if (position > 0) {
+            print(output, ",");
+        }
+        writer.writeTo(element, elementClass, elementClass,
+                new Annotation[0],
+                MediaType.valueOf(Constants.INDIGOMIMETYPE),
+                new MultivaluedHashMap<String, Object>(), elementOutput);
+    }
+
+
+    /**
+     * Write a string in the output.
+     *
+     * @param output The output stream
+     * @param text The text to write
+     * @throws IOException If the stream cannot be written
+     */
+    private static void print(final OutputStream output, final String text)
+            throws IOException {
+        output.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Convert a link in the JSON format used for the references.
+     * The format is the same generated by the LinkJaxbAdapter.
+     *
+     * @param link The link to convert
+     * @return The JSON representation
+     */
+    private static String toJson(final Link link) {
+        StringBuilder json = new StringBuilder("{\"href\":");
+        json.append(quote(link.getUri().toString()));
+        for (Map.Entry<String, String> param: link.getParams().entrySet()) {
+            json.append(',').append(quote(param.getKey())).append(':').
+                    append(quote(param.getValue()));
+        }
+        return json.append('}').toString();
+    }
+
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param value The string
+     * @return The quoted string
+     */
+    private static String quote(final String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c: value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,253 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Value of the <i>Content-Range</i> header.
+ * The header has the format <code>bytes first-last/total</code>, where the
+ * range can be <code>*</code> when no data are sent and the total can be
+ * <code>*</code> when it is not known.
+ * <p>
+ * The range is also built from the <i>Range</i> header of a request, with the
+ * format <code>bytes=first-last</code>, to answer with a part of a file.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+final class ContentRange {
+
+    /**
+     * Format of the header.
+     */
+    private static final Pattern FORMAT = Pattern.compile(
+            "bytes\\s+(?:(\\d+)-(\\d+)|\\*)/(\\d+|\\*)");
+
+    /**
+     * Format of the <i>Range</i> header with a single range.
+     */
+    private static final Pattern REQUESTFORMAT = Pattern.compile(
+            "bytes=(\\d*)-(\\d*)");
+
+    /**
+     * Group of the first byte in the format.
+     */
+    private static final int FIRSTGROUP = 1;
+
+    /**
+     * Group of the last byte in the format.
+     */
+    private static final int LASTGROUP = 2;
+
+    /**
+     * Group of the total size in the format.
+     */
+    private static final int TOTALGROUP = 3;
+
+    /**
+     * Position of the first byte, -1 if the range is not specified.
+     */
+    private final long first;
+
+    /**
+     * Position of the last byte, -1 if the range is not specified.
+     */
+    private final long last;
+
+    /**
+     * Total size, -1 if it is not known.
+     */
+    private final long total;
+
+
+    /**
+     * Create the range.
+     *
+     * @param aFirst Position of the first byte, -1 for no range
+     * @param aLast Position of the last byte, -1 for no range
+     * @param aTotal Total size, -1 if not known
+     */
+    ContentRange(final long aFirst, final long aLast, final long aTotal) {
+        this.first = aFirst;
+        this.last = aLast;
+        this.total = aTotal;
+    }
+
+
+    /**
+     * Parse the header.
+     *
+     * @param header The header value
+     * @return The range or null if the header is not provided
+     * @throws BadRequestException If the header is not valid
+     */
+    static ContentRange parse(final String header) {
+        if (header == null || header.isEmpty()) {
+            return null;
+        }
+        Matcher m = FORMAT.matcher(header.trim());
+        if (!m.matches()) {
+            throw new BadRequestException("Content-Range '" + header
+                    + "' not valid");
+        }
+        long aFirst = -1;
+        long aLast = -1;
+        long aTotal = -1;
+        try {
+            if (m.group(FIRSTGROUP) != null) {
+                aFirst = Long.parseLong(m.group(FIRSTGROUP));
+                aLast = Long.parseLong(m.group(LASTGROUP));
+            }
+            if (!"*".equals(m.group(TOTALGROUP))) {
+                aTotal = Long.parseLong(m.group(TOTALGROUP));
+            }
+        } catch (NumberFormatException nfe) {
+            throw new BadRequestException("Content-Range '" + header
+                    + "' not valid");
+        }
+        if (aLast < aFirst || (aTotal >= 0 && aLast >= aTotal)) {
+            throw new BadRequestException("Content-Range '" + header
+                    + "' not valid");
+        }
+        return new ContentRange(aFirst, aLast, aTotal);
+    }
+
+
+    /**
+     * Build the range requested for a file.
+     * Only single ranges are supported, for multiple ranges or not valid
+     * headers the full file is sent as allowed by RFC 7233.
+     *
+     * @param header The <i>Range</i> header value
+     * @param size The size of the file
+     * @return The range to send or null if the full file has to be sent
+     * @throws WebApplicationException With status 416 if the range is outside
+     * the file
+     */
+    static ContentRange forRequest(final String header, final long size) {
+        if (header == null) {
+            return null;
+        }
+        Matcher m = REQUESTFORMAT.matcher(header.trim());
+        if (!m.matches() || (m.group(FIRSTGROUP).isEmpty()
+                && m.group(LASTGROUP).isEmpty())) {
+            return null;
+        }
+        long aFirst;
+        long aLast = size - 1;
+        try {
+            if (m.group(FIRSTGROUP).isEmpty()) {
+                aFirst = Math.max(0,
+                        size - Long.parseLong(m.group(LASTGROUP)));
+            } else {
+                aFirst = Long.parseLong(m.group(FIRSTGROUP));
+                if (!m.group(LASTGROUP).isEmpty()) {
+                    aLast = Math.min(aLast,
+                            Long.parseLong(m.group(LASTGROUP)));
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        if (aFirst > aLast) {
+            throw new WebApplicationException(Response.status(
+                    Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE).
+                    header("Content-Range",
+                            new ContentRange(-1, -1, size).toString()).
+                    build());
+        }
+        return new ContentRange(aFirst, aLast, size);
+    }
+
+
+    /**
+     * Retrieves the number of bytes in the range.
+     *
+     * @return The number of bytes
+     */
+    long getLength() {
+        return last - first + 1;
+    }
+
+
+    /**
+     * Checks if the header includes the range of the data.
+     *
+     * @return True if the positions are available
+     */
+    boolean hasRange() {
+        return first >= 0;
+    }
+
+
+    /**
+     * Retrieves the position of the first byte.
+     *
+     * @return The position or -1 if the range is not specified
+     */
+    long getFirst() {
+        return first;
+    }
+
+
+    /**
+     * Retrieves the position of the last byte.
+     *
+     * @return The position or -1 if the range is not specified
+     */
+    long getLast() {
+        return last;
+    }
+
+
+    /**
+     * Retrieves the total size.
+     *
+     * @return The size or -1 if not known
+     */
+    long getTotal() {
+        return total;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder value = new StringBuilder("bytes ");
+        if (hasRange()) {
+            value.append(first).append('-').append(last);
+        } else {
+            value.append('*');
+        }
+        value.append('/');
+        if (total >= 0) {
+            value.append(total);
+        } else {
+            value.append('*');
+        }
+        return value.toString();
+    }
+}
@@ -24,9 +24,10 @@ package it.infn.ct.futuregateway.apiserver.v1;
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.utils.annotations.Status;
 import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
-import it.infn.ct.futuregateway.apiserver.resources.InfrastructureList;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.ws.rs.Consumes;
@@ -34,10 +35,17 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.Session;
 
 /**
  * The InfrastructureCollectionService provide the REST APIs for the
@@ -59,21 +67,59 @@ public class InfrastructureCollectionService extends BaseService {
 
     /**
      * Retrieves the list of infrastructures.
+     * The list is streamed to the client while the infrastructures are read
+     * from the DB. The fields not requested for the list are cleaned.
      *
-     * @return The infrastructure collection
+     * @param asyncResponse The response resumed with the collection, written
+     * by a thread of the asynchronous pool
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final InfrastructureList listInfrastructures() {
-        InfrastructureList infra;
-        try {
-            infra = new InfrastructureList(retrieveInfrastructureList());
-        } catch (RuntimeException re) {
-            getResponse().setStatus(
-                    Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
-            throw re;
-        }
-        return infra;
+    public final void listInfrastructures(
+            @Suspended final AsyncResponse asyncResponse) {
+        final UriBuilder baseUri = getUriInfo().getBaseUriBuilder();
+        final StreamingOutput list =
+                new CollectionStreamingOutput<Infrastructure>(
+                getEntityManagerFactory(), getProviders(), Infrastructure.class,
+                "infrastructures", Link.fromUriBuilder(
+                        baseUri.clone().path("infrastructure")).rel("self").
+                        build()) {
+            @Override
+            protected Query createQuery(final Session session) {
+                return session.createQuery("SELECT i.id, i.name,"
+                        + " i.dateCreated, i.enabled, i.virtual"
+                        + " FROM Infrastructure i");
+            }
+
+            @Override
+            protected Infrastructure toElement(final Object[] row) {
+                int idElem = 0;
+                Infrastructure infra = new Infrastructure();
+                infra.setId((String) row[idElem++]);
+                infra.setName((String) row[idElem++]);
+                infra.setDateCreated((Date) row[idElem++]);
+                infra.setEnabled((Boolean) row[idElem++]);
+                infra.setVirtual((Boolean) row[idElem]);
+                List<Link> links = new LinkedList<>();
+                links.add(Link.fromUriBuilder(baseUri.clone().
+                        path("infrastructures/{id}")).rel("self").
+                        build(infra.getId()));
+                infra.setLinks(links);
+                return infra;
+            }
+
+            @Override
+            protected Link createNextLink(final Infrastructure last) {
+                return null;
+            }
+        };
+        executeAsync(asyncResponse, Constants.ASYNCTIMEOUT,
+                new Callable<StreamingOutput>() {
+                    @Override
+                    public StreamingOutput call() {
+                        return list;
+                    }
+                });
     }
 
 
@@ -110,41 +156,4 @@ public class InfrastructureCollectionService extends BaseService {
         }
         return infra;
     }
-
-
-    /**
-     * Retrieve the application list.
-     * The fields not requested for the list are cleaned.
-     * @return The list of applications
-     */
-    private List<Infrastructure> retrieveInfrastructureList() {
-        List<Infrastructure> lstInfras;
-        EntityManager em = getEntityManager();
-        EntityTransaction et = null;
-        try {
-            et = em.getTransaction();
-            et.begin();
-            lstInfras = em.createNamedQuery("infrastructures.all",
-                    Infrastructure.class).
-                    getResultList();
-            et.commit();
-        } catch (RuntimeException re) {
-            if (et != null && et.isActive()) {
-                et.rollback();
-            }
-            log.error("Impossible to retrieve the infrastructure list");
-            log.error(re);
-            throw new RuntimeException("Impossible to access the "
-                    + "infrastructures list");
-        } finally {
-            em.close();
-        }
-        if (lstInfras != null) {
-            for (Infrastructure in: lstInfras) {
-                in.setDescription(null);
-                in.setParameters(null);
-            }
-        }
-        return lstInfras;
-    }
 }
@@ -21,7 +21,9 @@
 
 package it.infn.ct.futuregateway.apiserver.v1;
 
+import it.infn.ct.futuregateway.apiserver.inframanager.InfrastructureHealth;
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
 import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import java.util.List;
 import javax.persistence.EntityManager;
@@ -35,6 +37,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -58,20 +62,28 @@ public class InfrastructureService extends BaseService {
     /**
      * Retrieve the infrastructure details.
      * Infrastructure details include all the information needed to access the
-     * remote infrastructure.
+     * remote infrastructure and the state of its circuit breaker.
      *
      * @param id The infrastructure id. This is a path parameter retrieved from
      * the URL
-     * @return The infrastructure
+     * @param req The request, used to evaluate the preconditions
+     * @return The infrastructure, with the <i>ETag</i> header
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final Infrastructure getInfraDetails(
-            @PathParam("id") final String id) {
+    public final Response getInfraDetails(
+            @PathParam("id") final String id, @Context final Request req) {
         Infrastructure infra;
+        String health = InfrastructureHealth.getDefault().getState(id).
+                toString();
         EntityManager em = getEntityManager();
         try {
-            infra = em.find(Infrastructure.class, id);
+            Response.ResponseBuilder rb = evaluatePreconditions(em,
+                    "infrastructures.version", id, health, req);
+            if (rb != null) {
+                return rb.build();
+            }
+            infra = DetailLoader.findInfrastructure(em, id);
         } catch (IllegalArgumentException re) {
             log.error("Impossible to retrieve the application");
             log.error(re);
@@ -83,7 +95,10 @@ public class InfrastructureService extends BaseService {
         if (infra == null) {
             throw new NotFoundException();
         } else {
-            return infra;
+            infra.setHealth(health);
+            return Response.ok(infra).
+                    tag(createEntityTag(infra.getVersion(), health)).
+                    build();
         }
     }
 
@@ -123,6 +138,8 @@ public class InfrastructureService extends BaseService {
                             Response.Status.CONFLICT);
                 }
                 et.commit();
+                evictFromCache(Infrastructure.class, id);
+                InfrastructureHealth.getDefault().remove(id);
             } catch (WebApplicationException wex) {
                 throw wex;
             } catch (RuntimeException re) {
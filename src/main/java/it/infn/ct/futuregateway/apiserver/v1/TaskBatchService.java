@@ -0,0 +1,159 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskBatchResult;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The TaskBatchService registers many tasks with a single request.
+ * All the tasks are stored in one transaction, with the inserts sent to the
+ * DB in JDBC batches, and the ready tasks are moved to the submission queue
+ * with a single status update. Tasks not valid are reported in the response
+ * without affecting the others.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@Path("/tasks/batch")
+public class TaskBatchService extends BaseService {
+
+    /**
+     * Logger object.
+     * Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(TaskBatchService.class);
+
+
+    /**
+     * Register a list of tasks.
+     * The response contains a result for every task, in the same order of
+     * the request.
+     *
+     * @param tasks The tasks to register
+     * @return The results of the tasks
+     */
+    @POST
+    @Consumes({MediaType.APPLICATION_JSON, Constants.INDIGOMIMETYPE})
+    @Produces(Constants.INDIGOMIMETYPE)
+    public final Response createTasks(final List<Task> tasks) {
+        if (tasks == null || tasks.isEmpty()) {
+            throw new BadRequestException("No tasks provided");
+        }
+        if (tasks.size() > Constants.MAXBATCHTASKS) {
+            throw new BadRequestException("A batch cannot contain more than "
+                    + Constants.MAXBATCHTASKS + " tasks");
+        }
+        if (!getSubmissionQueue().hasCapacity()) {
+            throw new ServiceUnavailableException(Constants.RETRYAFTER);
+        }
+        String user = getUser();
+        Date now = new Date();
+        List<TaskBatchResult> results = new ArrayList<>(tasks.size());
+        List<Task> accepted = new ArrayList<>(tasks.size());
+        Map<String, Application> apps = new HashMap<>();
+        EntityManager em = getEntityManager();
+        EntityTransaction et = null;
+        try {
+            et = em.getTransaction();
+            et.begin();
+            for (Task task: tasks) {
+                String appId = task.getApplicationId();
+                if (appId == null) {
+                    results.add(new TaskBatchResult(
+                            Response.Status.BAD_REQUEST.getStatusCode(),
+                            "A valid application for the task must be"
+                            + " provided", null));
+                    continue;
+                }
+                if (!apps.containsKey(appId)) {
+                    apps.put(appId, em.find(Application.class, appId));
+                }
+                Application app = apps.get(appId);
+                if (app == null) {
+                    results.add(new TaskBatchResult(
+                            Response.Status.BAD_REQUEST.getStatusCode(),
+                            "Application id not valid", null));
+                    continue;
+                }
+                try {
+                    TaskService.checkInputNames(task);
+                } catch (BadRequestException bre) {
+                    results.add(new TaskBatchResult(
+                            Response.Status.BAD_REQUEST.getStatusCode(),
+                            bre.getMessage(), null));
+                    continue;
+                }
+                task.setDateCreated(now);
+                task.setUserName(user);
+                task.setStatus(Task.STATUS.WAITING);
+                task.setApplicationDetail(app);
+                em.persist(task);
+                accepted.add(task);
+                results.add(new TaskBatchResult(
+                        Response.Status.CREATED.getStatusCode(), null, task));
+                if (accepted.size() % Constants.INSERTBATCHSIZE == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            et.commit();
+            log.debug("New tasks registered: " + accepted.size());
+        } catch (RuntimeException re) {
+            log.error("Impossible to create the tasks");
+            log.debug(re);
+            throw new InternalServerErrorException(
+                    "Impossible to create the tasks");
+        } finally {
+            if (et != null && et.isActive()) {
+                et.rollback();
+            }
+            em.close();
+        }
+        if (!accepted.isEmpty()) {
+            getTaskStateMachine().evaluateAll(accepted);
+        }
+        return Response.ok(
+                new GenericEntity<List<TaskBatchResult>>(results) { }).
+                build();
+    }
+}
@@ -25,11 +25,11 @@ import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.utils.annotations.Status;
 import it.infn.ct.futuregateway.apiserver.resources.Application;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
-import it.infn.ct.futuregateway.apiserver.resources.TaskList;
-import it.infn.ct.futuregateway.apiserver.resources.observers.TaskObserver;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.ws.rs.BadRequestException;
@@ -38,10 +38,20 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Query;
+import org.hibernate.Session;
 
 
 /**
@@ -53,6 +63,11 @@ import org.apache.commons.logging.LogFactory;
  */
 @Path("/tasks")
 public class TaskCollectionService extends BaseService {
+    /**
+     * Separator between the fields of the cursor keyset.
+     */
+    private static final String CURSORSEPARATOR = ":";
+
     /**
      * Logger object.
      * Based on apache commons logging.
@@ -63,26 +78,90 @@ public class TaskCollectionService extends BaseService {
     /**
      * Retrieves the list of tasks.
      *
-     * The list includes only the tasks associated to the user.
+     * The list includes only the tasks associated to the user. Tasks are
+     * ordered by creation date, newest first, and returned in pages. The
+     * position in the collection is identified by an opaque cursor, provided
+     * in the <i>next</i> reference of the previous page, so the cost of a
+     * request does not depend on the number of tasks the user owns.
+     * <p>
+     * The page is streamed to the client while the tasks are read from the
+     * DB so large pages do not need to be kept in memory.
      *
-     * @return The task collection
+     * @param limit Maximum number of tasks in the page
+     * @param after Cursor of the last task in the previous page
+     * @param status Status of the tasks to include. Multiple values are
+     * allowed
+     * @param from Include only tasks created from this date (ISO 8601)
+     * @param to Include only tasks created before this date (ISO 8601)
+     * @param asyncResponse The response resumed with the collection, written
+     * by a thread of the asynchronous pool
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final TaskList listTasks() {
-        TaskList tasks;
-        try {
-            tasks = new TaskList(retrieveTaskList());
-        } catch (RuntimeException re) {
-            getResponse().setStatus(
-                    Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
-            throw re;
-        }
-        return tasks;
+    public final void listTasks(
+            @QueryParam("limit") final String limit,
+            @QueryParam("after") final String after,
+            @QueryParam("status") final List<String> status,
+            @QueryParam("from") final String from,
+            @QueryParam("to") final String to,
+            @Suspended final AsyncResponse asyncResponse) {
+        final int pageSize = parseLimit(limit);
+        final Object[] cursor = parseCursor(after);
+        final List<Task.STATUS> lstStatus = parseStatus(status);
+        final Date fromDate = parseDate(from);
+        final Date toDate = parseDate(to);
+        final String user = getUser();
+        final UriBuilder baseUri = getUriInfo().getBaseUriBuilder();
+        final UriBuilder requestUri = getUriInfo().getRequestUriBuilder();
+        final StreamingOutput list = new CollectionStreamingOutput<Task>(
+                getEntityManagerFactory(), getProviders(), Task.class, "tasks",
+                Link.fromUriBuilder(baseUri.clone().path("tasks")).
+                        rel("self").build()) {
+            @Override
+            protected Query createQuery(final Session session) {
+                return createTaskListQuery(session, user, cursor, lstStatus,
+                        fromDate, toDate);
+            }
+
+            @Override
+            protected Task toElement(final Object[] row) {
+                int idElem = 0;
+                Task tmpTask = new Task();
+                tmpTask.setId((String) row[idElem++]);
+                tmpTask.setDescription((String) row[idElem++]);
+                tmpTask.setStatus((Task.STATUS) row[idElem++]);
+                tmpTask.setDateCreated((Date) row[idElem]);
+                List<Link> links = new LinkedList<>();
+                links.add(Link.fromUriBuilder(baseUri.clone().
+                        path("tasks/{id}")).rel("self").
+                        build(tmpTask.getId()));
+                links.add(Link.fromUriBuilder(baseUri.clone().
+                        path("tasks/{id}/input")).rel("input").
+                        build(tmpTask.getId()));
+                tmpTask.setLinks(links);
+                return tmpTask;
+            }
+
+            @Override
+            protected Link createNextLink(final Task last) {
+                return Link.fromUri(requestUri.clone().
+                        replaceQueryParam("after", createCursor(last)).
+                        build()).rel("next").build();
+            }
+        }.setMaxElements(pageSize);
+        executeAsync(asyncResponse, Constants.ASYNCTIMEOUT,
+                new Callable<StreamingOutput>() {
+                    @Override
+                    public StreamingOutput call() {
+                        return list;
+                    }
+                });
     }
 
     /**
      * Register a new task.
+     * If the submission queue is full the task is not accepted and the
+     * client is asked to retry later.
      *
      * @param task The task to register
      * @return The task registered
@@ -96,8 +175,10 @@ public class TaskCollectionService extends BaseService {
             throw new BadRequestException("A valid application for the task"
                     + " must be provided");
         }
-        task.addObserver(new TaskObserver(getEntityManagerFactory(),
-                getSubmissionThreadPool()));
+        TaskService.checkInputNames(task);
+        if (!getSubmissionQueue().hasCapacity()) {
+            throw new ServiceUnavailableException(Constants.RETRYAFTER);
+        }
         task.setDateCreated(new Date());
         task.setUserName(getUser());
         task.setStatus(Task.STATUS.WAITING);
@@ -127,50 +208,171 @@ public class TaskCollectionService extends BaseService {
             }
             em.close();
         }
+        getTaskStateMachine().evaluate(task);
         return task;
     }
 
 
     /**
-     * Retrieve a task list for the user.
-     * Tasks are retrieved from the storage for the user performing the request.
+     * Create the query for the task list of a user.
+     * The query uses the keyset of the task, creation date and id, so the
+     * database can use the index and skip the previous pages without reading
+     * them.
      *
-     * @return A list of tasks
+     * @param session The session where the query is executed
+     * @param user The owner of the tasks
+     * @param cursor Keyset of the last task already returned, null to start
+     * from the first task
+     * @param status Status to include, empty for all
+     * @param from Minimum creation date or null
+     * @param to Maximum creation date (excluded) or null
+     * @return The query
      */
-    private List<Task> retrieveTaskList() {
-        List<Task> lstTasks = new LinkedList<>();
-        EntityManager em = getEntityManager();
-        EntityTransaction et = null;
-        List<Object[]> taskList = null;
+    private static Query createTaskListQuery(final Session session,
+            final String user, final Object[] cursor,
+            final List<Task.STATUS> status, final Date from, final Date to) {
+        StringBuilder hql = new StringBuilder(
+                "SELECT t.id, t.description, t.status, t.dateCreated"
+                + " FROM Task t WHERE t.userName = :user");
+        if (!status.isEmpty()) {
+            hql.append(" AND t.status IN (:status)");
+        }
+        if (from != null) {
+            hql.append(" AND t.dateCreated >= :from");
+        }
+        if (to != null) {
+            hql.append(" AND t.dateCreated < :to");
+        }
+        if (cursor != null) {
+            hql.append(" AND (t.dateCreated < :cursorDate"
+                    + " OR (t.dateCreated = :cursorDate"
+                    + " AND t.id < :cursorId))");
+        }
+        hql.append(" ORDER BY t.dateCreated DESC, t.id DESC");
+
+        Query query = session.createQuery(hql.toString());
+        query.setParameter("user", user);
+        if (!status.isEmpty()) {
+            query.setParameterList("status", status);
+        }
+        if (from != null) {
+            query.setTimestamp("from", from);
+        }
+        if (to != null) {
+            query.setTimestamp("to", to);
+        }
+        if (cursor != null) {
+            query.setTimestamp("cursorDate", (Date) cursor[0]);
+            query.setParameter("cursorId", cursor[1]);
+        }
+        return query;
+    }
+
+
+    /**
+     * Parse the page size requested by the client.
+     *
+     * @param limit The value of the limit parameter
+     * @return The page size
+     */
+    private int parseLimit(final String limit) {
+        if (limit == null || limit.isEmpty()) {
+            return Constants.DEFAULTPAGESIZE;
+        }
+        int pageSize;
         try {
-            et = em.getTransaction();
-            et.begin();
-            taskList = em.createNamedQuery("tasks.userAll").
-                    setParameter("user", getUser()).
-                    getResultList();
-            et.commit();
-        } catch (RuntimeException re) {
-            if (et != null && et.isActive()) {
-                et.rollback();
-            }
-            log.error("Impossible to retrieve the task list");
-            log.error(re);
-            throw new RuntimeException("Impossible to access the task list");
-        } finally {
-            em.close();
+            pageSize = Integer.parseInt(limit);
+        } catch (NumberFormatException nfe) {
+            throw new BadRequestException("Parameter limit must be a number");
         }
-        if (taskList != null && !taskList.isEmpty()) {
-            for (Object[] elem: taskList) {
-                int idElem = 0;
-                Task tmpTask = new Task();
-                tmpTask.setId((String) elem[idElem++]);
-                tmpTask.setDescription((String) elem[idElem++]);
-                tmpTask.setStatus((Task.STATUS) elem[idElem++]);
-                tmpTask.setDateCreated((Date) elem[idElem]);
-                lstTasks.add(tmpTask);
+        if (pageSize < 1) {
+            throw new BadRequestException("Parameter limit must be positive");
+        }
+        return Math.min(pageSize, Constants.MAXPAGESIZE);
+    }
+
+
+    /**
+     * Parse the status filter.
+     *
+     * @param status The values of the status parameter
+     * @return The list of status to include
+     */
+    private List<Task.STATUS> parseStatus(final List<String> status) {
+        List<Task.STATUS> lstStatus = new LinkedList<>();
+        if (status == null) {
+            return lstStatus;
+        }
+        for (String st: status) {
+            try {
+                lstStatus.add(Task.STATUS.valueOf(st.toUpperCase()));
+            } catch (IllegalArgumentException iae) {
+                throw new BadRequestException("Status '" + st
+                        + "' not valid");
             }
         }
-        return lstTasks;
+        return lstStatus;
+    }
+
+
+    /**
+     * Parse a date filter.
+     *
+     * @param date The date in ISO 8601 format
+     * @return The date or null if not provided
+     */
+    private Date parseDate(final String date) {
+        if (date == null || date.isEmpty()) {
+            return null;
+        }
+        try {
+            return DatatypeConverter.parseDateTime(date).getTime();
+        } catch (IllegalArgumentException iae) {
+            throw new BadRequestException("Date '" + date + "' not valid");
+        }
+    }
+
+
+    /**
+     * Create the cursor pointing to a task.
+     * The cursor is the hex encoding of the task keyset so it can be used in
+     * the URL without escaping.
+     *
+     * @param task The task
+     * @return The cursor
+     */
+    private String createCursor(final Task task) {
+        String keyset = task.getDateCreated().getTime()
+                + CURSORSEPARATOR + task.getId();
+        return DatatypeConverter.printHexBinary(
+                keyset.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Parse the cursor provided by the client.
+     *
+     * @param cursor The cursor
+     * @return An array with the date and the id of the task or null if the
+     * cursor is not provided
+     */
+    private Object[] parseCursor(final String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String keyset = new String(
+                    DatatypeConverter.parseHexBinary(cursor),
+                    StandardCharsets.UTF_8);
+            int sep = keyset.indexOf(CURSORSEPARATOR);
+            return new Object[] {
+                new Date(Long.parseLong(keyset.substring(0, sep))),
+                keyset.substring(sep + 1)
+            };
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new BadRequestException("Cursor '" + cursor
+                    + "' not valid");
+        }
     }
 
 }
@@ -0,0 +1,391 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskTransitionListener;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.DatatypeConverter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+/**
+ * Pushes the status transitions of the tasks to the clients.
+ * Clients subscribe with a Server-Sent Events connection to all their tasks
+ * or to a single one. Every transition is delivered only to the
+ * subscribers of the user owning the task.
+ * <p>
+ * Events are queued in a bounded buffer for every subscriber and written by
+ * a small pool of threads, so the thread performing the transition never
+ * waits for the clients. A subscriber whose buffer is full is disconnected:
+ * the client can reconnect and read the current status of its tasks. A
+ * periodic heartbeat detects the connections closed by the clients.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class TaskEventBroadcaster implements TaskTransitionListener {
+
+    /**
+     * Name of the events reporting the status.
+     */
+    public static final String STATUSEVENT = "status";
+
+    /**
+     * Logger object. Based on apache commons logging.
+     */
+    private final Log log = LogFactory.getLog(TaskEventBroadcaster.class);
+
+    /**
+     * Subscribers of every user.
+     * The set of a user is removed when its last subscriber is closed. The
+     * sets are modified holding their lock, so a subscriber is never added
+     * to a set already removed.
+     */
+    private final ConcurrentMap<String, Set<Subscriber>> subscribers =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Threads writing the events.
+     */
+    private final ExecutorService writers;
+
+    /**
+     * Thread sending the heartbeats.
+     */
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * Identifier of the last event.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+
+    /**
+     * Create the broadcaster.
+     */
+    public TaskEventBroadcaster() {
+        writers = Executors.newFixedThreadPool(Constants.SSEWRITERS);
+        heartbeat = Executors.newSingleThreadScheduledExecutor();
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sendHeartbeat();
+            }
+        }, Constants.SSEHEARTBEAT, Constants.SSEHEARTBEAT, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Register a new subscriber.
+     * When the subscription is for a single task the current status of the
+     * task is sent immediately, so the client does not miss the transitions
+     * performed before the connection.
+     *
+     * @param user The user receiving the events
+     * @param task The task to follow or null for all the tasks of the user
+     * @return The output to return to the client
+     */
+    public final EventOutput subscribe(final String user, final Task task) {
+        EventOutput output = new EventOutput();
+        String taskId = null;
+        if (task != null) {
+            taskId = task.getId();
+        }
+        Subscriber sub = new Subscriber(user, taskId, output);
+        boolean added = false;
+        while (!added) {
+            Set<Subscriber> userSubs = subscribers.get(user);
+            if (userSubs == null) {
+                Set<Subscriber> newSubs = new CopyOnWriteArraySet<>();
+                userSubs = subscribers.putIfAbsent(user, newSubs);
+                if (userSubs == null) {
+                    userSubs = newSubs;
+                }
+            }
+            synchronized (userSubs) {
+                if (subscribers.get(user) == userSubs) {
+                    userSubs.add(sub);
+                    added = true;
+                }
+            }
+        }
+        if (task != null) {
+            sub.offer(createEvent(task, null, task.getStatus()));
+        }
+        log.debug("New subscriber for the user " + user);
+        return output;
+    }
+
+
+    @Override
+    public final void transitionPerformed(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        if (task.getUserName() == null) {
+            return;
+        }
+        Set<Subscriber> userSubs = subscribers.get(task.getUserName());
+        if (userSubs == null || userSubs.isEmpty()) {
+            return;
+        }
+        OutboundEvent event = createEvent(task, from, to);
+        for (Subscriber sub: userSubs) {
+            if (sub.accepts(task.getId())) {
+                sub.offer(event);
+            }
+        }
+    }
+
+
+    /**
+     * Retrieves the number of connected subscribers.
+     *
+     * @return The number of subscribers
+     */
+    public final int getSubscriberCount() {
+        int count = 0;
+        for (Set<Subscriber> userSubs: subscribers.values()) {
+            count += userSubs.size();
+        }
+        return count;
+    }
+
+
+    /**
+     * Disconnect all the subscribers and stop the threads.
+     */
+    public final void shutdown() {
+        heartbeat.shutdownNow();
+        for (Set<Subscriber> userSubs: subscribers.values()) {
+            for (Subscriber sub: userSubs) {
+                sub.close();
+            }
+        }
+        writers.shutdownNow();
+    }
+
+
+    /**
+     * Create the event for a transition.
+     * The data are a JSON object with the task id, the new and the previous
+     * status and the time of the change.
+     *
+     * @param task The task
+     * @param from The previous status, null if not known
+     * @param to The new status
+     * @return The event
+     */
+    private OutboundEvent createEvent(final Task task,
+            final Task.STATUS from, final Task.STATUS to) {
+        StringBuilder data = new StringBuilder("{\"id\":\"").
+                append(task.getId()).append("\",\"status\":\"").
+                append(to).append('"');
+        if (from != null) {
+            data.append(",\"previous\":\"").append(from).append('"');
+        }
+        if (task.getLastChange() != null) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(task.getLastChange());
+            data.append(",\"last_change\":\"").
+                    append(DatatypeConverter.printDateTime(cal)).append('"');
+        }
+        data.append('}');
+        return new OutboundEvent.Builder().
+                id(Long.toString(sequence.incrementAndGet())).
+                name(STATUSEVENT).
+                mediaType(MediaType.APPLICATION_JSON_TYPE).
+                data(String.class, data.toString()).
+                build();
+    }
+
+
+    /**
+     * Send a comment to all the subscribers.
+     * Writing on a connection closed by the client fails and the subscriber
+     * is removed.
+     */
+    private void sendHeartbeat() {
+        OutboundEvent ping = new OutboundEvent.Builder().
+                comment("heartbeat").build();
+        for (Set<Subscriber> userSubs: subscribers.values()) {
+            for (Subscriber sub: userSubs) {
+                sub.offer(ping);
+            }
+        }
+    }
+
+
+    /**
+     * Connection of a client.
+     */
+    private final class Subscriber implements Runnable {
+
+        /**
+         * User receiving the events.
+         */
+        private final String user;
+
+        /**
+         * Task followed, null for all the tasks.
+         */
+        private final String taskId;
+
+        /**
+         * Output of the connection.
+         */
+        private final EventOutput output;
+
+        /**
+         * Events waiting to be written.
+         */
+        private final BlockingQueue<OutboundEvent> buffer =
+                new ArrayBlockingQueue<>(Constants.SSEBUFFERSIZE);
+
+        /**
+         * True when a writer thread has been requested.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+
+        /**
+         * Create the subscriber.
+         *
+         * @param aUser The user receiving the events
+         * @param aTaskId The task followed or null for all the tasks
+         * @param anOutput The output of the connection
+         */
+        Subscriber(final String aUser, final String aTaskId,
+                final EventOutput anOutput) {
+            this.user = aUser;
+            this.taskId = aTaskId;
+            this.output = anOutput;
+        }
+
+
+        /**
+         * Checks if the subscriber is interested to a task.
+         *
+         * @param aTaskId The task identifier
+         * @return True if the events of the task have to be sent
+         */
+        boolean accepts(final String aTaskId) {
+            return taskId == null || taskId.equals(aTaskId);
+        }
+
+
+        /**
+         * Queue an event.
+         * If the buffer is full the subscriber is disconnected.
+         *
+         * @param event The event
+         */
+        void offer(final OutboundEvent event) {
+            if (output.isClosed()) {
+                close();
+                return;
+            }
+            if (!buffer.offer(event)) {
+                log.warn("Subscriber of the user " + user + " is too slow,"
+                        + " connection closed");
+                close();
+                return;
+            }
+            schedule();
+        }
+
+
+        /**
+         * Request a writer thread if there is not one already.
+         */
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this);
+                } catch (RejectedExecutionException ree) {
+                    close();
+                }
+            }
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                OutboundEvent event = buffer.poll();
+                while (event != null) {
+                    output.write(event);
+                    event = buffer.poll();
+                }
+            } catch (IOException ioe) {
+                log.debug("Subscriber of the user " + user
+                        + " disconnected");
+                close();
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+            if (!buffer.isEmpty()) {
+                schedule();
+            }
+        }
+
+
+        /**
+         * Remove the subscriber and close the connection.
+         * The set of the user is removed if this was the last subscriber.
+         */
+        void close() {
+            Set<Subscriber> userSubs = subscribers.get(user);
+            if (userSubs != null) {
+                synchronized (userSubs) {
+                    userSubs.remove(this);
+                    if (userSubs.isEmpty()) {
+                        subscribers.remove(user, userSubs);
+                    }
+                }
+            }
+            buffer.clear();
+            try {
+                output.close();
+            } catch (IOException ioe) {
+                log.debug("Connection already closed: " + ioe.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
+
+/**
+ * The TaskEventService pushes the status of the tasks to the clients.
+ * The stream is an alternative to the polling of the task details: every
+ * status transition of a task owned by the user is sent as a Server-Sent
+ * Event named <i>status</i>.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+@Path("/tasks/events")
+public class TaskEventService extends BaseService {
+
+    /**
+     * Subscribes to the status transitions of all the tasks of the user.
+     *
+     * @return The stream of events
+     */
+    @GET
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public final EventOutput getTaskEvents() {
+        return getTaskEventBroadcaster().subscribe(getUser(), null);
+    }
+}
@@ -23,30 +23,57 @@
 package it.infn.ct.futuregateway.apiserver.v1;
 
 import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.storage.ChecksumChannel;
 import it.infn.ct.futuregateway.apiserver.storage.Storage;
+import it.infn.ct.futuregateway.apiserver.storage.UploadChecksums;
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
 import it.infn.ct.futuregateway.apiserver.resources.TaskFile;
-import it.infn.ct.futuregateway.apiserver.resources.observers.TaskObserver;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileInput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 
 /**
  * The TaskService provides the REST APIs for the task as defined in the
@@ -67,17 +94,28 @@ public class TaskService extends BaseService {
      * Retrieves the task details. Task details include all the fields a task
      * consist of as described in the documentation. This include all the
      * information included in the task collection and many others.
+     * <p>
+     * The response includes the <i>ETag</i> and the <i>Last-Modified</i>
+     * headers. Conditional requests for a task not modified are answered
+     * with the status 304 without loading the task.
      *
      * @param id The task id. This is a path parameter retrieved from the url
+     * @param req The request, used to evaluate the preconditions
      * @return The task
      */
     @GET
     @Produces(Constants.INDIGOMIMETYPE)
-    public final Task getTaskDetails(@PathParam("id") final String id) {
+    public final Response getTaskDetails(@PathParam("id") final String id,
+            @Context final Request req) {
         Task task;
         EntityManager em = getEntityManager();
         try {
-            task = em.find(Task.class, id);
+            Response.ResponseBuilder rb = evaluatePreconditions(em,
+                    "tasks.version", id, req);
+            if (rb != null) {
+                return rb.build();
+            }
+            task = DetailLoader.findTask(em, id);
         } catch (IllegalArgumentException re) {
             log.error("Impossible to retrieve the task");
             log.error(re);
@@ -89,19 +127,76 @@ public class TaskService extends BaseService {
             throw new NotFoundException();
         } else {
             log.debug("Associated " + task.getInputFiles().size() + " files");
-            return task;
+            return Response.ok(task).
+                    tag(createEntityTag(task.getVersion())).
+                    lastModified(task.getLastChange()).
+                    build();
         }
     }
 
 
+    /**
+     * Subscribes to the status transitions of the task.
+     * The current status is sent as first event, then an event is sent for
+     * every transition.
+     *
+     * @param id The task id retrieved from the url path
+     * @return The stream of events
+     * @see TaskEventService
+     */
+    @Path("/events")
+    @GET
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public final EventOutput getTaskEvents(@PathParam("id") final String id) {
+        Task task;
+        EntityManager em = getEntityManager();
+        try {
+            task = em.find(Task.class, id);
+        } catch (IllegalArgumentException re) {
+            log.error("Impossible to retrieve the task");
+            log.error(re);
+            throw new BadRequestException("Task '" + id + "' has a problem!");
+        } finally {
+            em.close();
+        }
+        if (task == null) {
+            throw new NotFoundException();
+        }
+        return getTaskEventBroadcaster().subscribe(getUser(), task);
+    }
+
+
     /**
      * Removes the task. Task is deleted and all the associated activities and
      * or files removed.
+     * <p>
+     * The task is removed from the DB in a thread of the asynchronous pool
+     * and the associated files are deleted later in background, so the
+     * response does not wait for the storage.
      *
      * @param id Id of the task to remove
+     * @param asyncResponse The response resumed when the task is removed
      */
     @DELETE
-    public final void deleteTask(@PathParam("id") final String id) {
+    public final void deleteTask(@PathParam("id") final String id,
+            @Suspended final AsyncResponse asyncResponse) {
+        executeAsync(asyncResponse, Constants.ASYNCTIMEOUT,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        removeTask(id);
+                        return null;
+                    }
+                });
+    }
+
+
+    /**
+     * Removes the task from the DB and schedules the removal of its files.
+     *
+     * @param id Id of the task to remove
+     */
+    private void removeTask(final String id) {
         Task task;
         EntityManager em = getEntityManager();
         try {
@@ -120,17 +215,11 @@ public class TaskService extends BaseService {
                 }
                 log.error(re);
                 log.error("Impossible to remove the task");
-                em.close();
                 throw new InternalServerErrorException("Errore to remove "
                         + "the task " + id);
             }
-            try {
-                Storage store = getStorage();
-                store.removeAllFiles(Storage.RESOURCE.TASKS, id);
-            } catch (IOException ex) {
-                log.error("Impossible to remove the directory associated with "
-                        + "the task " + id);
-            }
+            getStorageCleaner().removeAllFiles(getStorage(),
+                    Storage.RESOURCE.TASKS, id);
         } catch (IllegalArgumentException re) {
             log.error("Impossible to retrieve the task list");
             log.error(re);
@@ -150,53 +239,537 @@ public class TaskService extends BaseService {
      *
      * @param id The task id retrieved from the url path
      * @param lstFiles List of file in the POST body
+     * @param asyncResponse The response resumed when the files are stored
      */
     @Path("/input")
     @POST
     @Consumes({MediaType.MULTIPART_FORM_DATA})
     public final void setInputFile(@PathParam("id") final String id,
-            @FormDataParam("file") final List<FormDataBodyPart> lstFiles) {
+            @FormDataParam("file") final List<FormDataBodyPart> lstFiles,
+            @Suspended final AsyncResponse asyncResponse) {
         if (lstFiles == null || lstFiles.isEmpty()) {
             throw new BadRequestException("Input not accessible!");
         }
+        executeAsync(asyncResponse, Constants.ASYNCUPLOADTIMEOUT,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        storeInputFiles(id, lstFiles);
+                        return null;
+                    }
+                });
+    }
+
+
+    /**
+     * Stores the input files received as multipart form data.
+     *
+     * @param id The task id
+     * @param lstFiles List of file in the POST body
+     */
+    private void storeInputFiles(final String id,
+            final List<FormDataBodyPart> lstFiles) {
         EntityManager em = getEntityManager();
-        Task task = em.find(Task.class, id);
-        task.addObserver(new TaskObserver(getEntityManagerFactory(),
-                getSubmissionThreadPool()));
-        if (task == null) {
-            throw new NotFoundException("Task " + id + " does not exist");
+        try {
+            if (em.find(Task.class, id) == null) {
+                throw new NotFoundException("Task " + id + " does not exist");
+            }
+        } finally {
+            em.close();
         }
-        for (FormDataBodyPart fdbp : lstFiles) {
-            final String fName =
-                    fdbp.getFormDataContentDisposition().getFileName();
-            try {
-                Storage store = getStorage();
+        Map<String, String> checksums = new HashMap<>();
+        try {
+            Storage store = getStorage();
+            for (FormDataBodyPart fdbp : lstFiles) {
+                String fileName =
+                        fdbp.getFormDataContentDisposition().getFileName();
+                checkFileName(fileName);
+                MessageDigest digest = UploadChecksums.newDigest();
                 store.storeFile(Storage.RESOURCE.TASKS, id,
-                        fdbp.getValueAs(InputStream.class),
-                        fName);
-                EntityTransaction et = em.getTransaction();
-                try {
-                    et.begin();
-                    task.updateInputFileStatus(
-                            fName, TaskFile.FILESTATUS.READY);
-                    et.commit();
-                } catch (RuntimeException re) {
-                    if (et != null && et.isActive()) {
-                        et.rollback();
+                        new DigestInputStream(
+                                fdbp.getValueAs(InputStream.class), digest),
+                        fileName);
+                String checksum = UploadChecksums.toHex(digest.digest());
+                store.commitFile(Storage.RESOURCE.TASKS, id, fileName, null,
+                        checksum);
+                checksums.put(fileName, checksum);
+            }
+        } catch (IOException ex) {
+            log.error(ex);
+            throw new InternalServerErrorException("Errore to store input "
+                    + "files");
+        }
+        setInputsReady(id, checksums);
+    }
+
+
+    /**
+     * Uploads an input file streaming the request body.
+     * The body is written in the storage while it is received and the
+     * checksum is computed on the fly, so the file is not kept in memory or
+     * copied in temporary files.
+     * <p>
+     * A file can be uploaded in many parts with the <i>Content-Range</i>
+     * header. Each part has to start inside the data already received, the
+     * following data are replaced. A partial upload is answered with the
+     * status 308 and the <i>Range</i> header reporting the bytes stored. A
+     * request with the range <code>bytes *&#47;total</code> and without body
+     * retrieves the bytes stored and completes the upload if they are all
+     * available.
+     * <p>
+     * When the file is complete the input is <i>READY</i> and the response
+     * includes the checksum in the <i>Digest</i> header.
+     *
+     * @param id The task id retrieved from the url path
+     * @param fileName The name of the input file
+     * @param contentRange The <i>Content-Range</i> header
+     * @param body The file content
+     * @param asyncResponse The response resumed with the status of the
+     * upload
+     */
+    @Path("/input/{file}")
+    @PUT
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public final void uploadInputFile(@PathParam("id") final String id,
+            @PathParam("file") final String fileName,
+            @HeaderParam("Content-Range") final String contentRange,
+            final InputStream body,
+            @Suspended final AsyncResponse asyncResponse) {
+        checkFileName(fileName);
+        final ContentRange range = ContentRange.parse(contentRange);
+        executeAsync(asyncResponse, Constants.ASYNCUPLOADTIMEOUT,
+                new Callable<Response>() {
+                    @Override
+                    public Response call() {
+                        return storeInputFile(id, fileName, range, body);
+                    }
+                });
+    }
+
+
+    /**
+     * Stores the received part of an input file.
+     *
+     * @param id The task id
+     * @param fileName The name of the input file
+     * @param range The range of the part, null if the body is the full file
+     * @param body The file content
+     * @return The response with the status of the upload
+     */
+    private Response storeInputFile(final String id, final String fileName,
+            final ContentRange range, final InputStream body) {
+        checkInputFile(id, fileName);
+        Storage store = getStorage();
+        String key = id + "/" + fileName;
+        MessageDigest digest;
+        long size;
+        try {
+            long stored = Math.max(0, store.getFileSize(
+                    Storage.RESOURCE.TASKS, id, fileName, null));
+            long position = 0;
+            if (range != null && range.hasRange()) {
+                position = range.getFirst();
+            } else if (range != null) {
+                position = stored;
+            }
+            if (position > stored) {
+                throw new WebApplicationException(addReceivedRange(
+                        Response.status(Response.Status.
+                                REQUESTED_RANGE_NOT_SATISFIABLE),
+                        stored).build());
+            }
+            digest = resumeDigest(store, id, fileName, key, position);
+            size = position;
+            if (range == null || range.hasRange()) {
+                size += store.storeFilePart(Storage.RESOURCE.TASKS, id,
+                        new ChecksumChannel(Channels.newChannel(body), digest),
+                        fileName, null, position);
+            }
+        } catch (IOException ioe) {
+            log.error(ioe);
+            UploadChecksums.getDefault().remove(key);
+            throw new InternalServerErrorException("Error to store the input "
+                    + "file " + fileName);
+        }
+        if (range != null && range.getTotal() >= 0
+                && size > range.getTotal()) {
+            UploadChecksums.getDefault().remove(key);
+            throw new BadRequestException("Received more data than the "
+                    + "file size");
+        }
+        if (range != null && size != range.getTotal()) {
+            UploadChecksums.getDefault().suspend(key, digest, size);
+            return addReceivedRange(Response.status(
+                    Constants.RESUMEINCOMPLETE), size).build();
+        }
+        UploadChecksums.getDefault().remove(key);
+        byte[] checksum = digest.digest();
+        String hex = UploadChecksums.toHex(checksum);
+        try {
+            store.commitFile(Storage.RESOURCE.TASKS, id, fileName, null, hex);
+        } catch (IOException ioe) {
+            log.error(ioe);
+            throw new InternalServerErrorException("Error to store the input "
+                    + "file " + fileName);
+        }
+        setInputsReady(id, Collections.singletonMap(fileName, hex));
+        return Response.noContent().header("Digest",
+                UploadChecksums.ALGORITHM + "="
+                + DatatypeConverter.printBase64Binary(checksum)).build();
+    }
+
+
+    /**
+     * Downloads an input file.
+     *
+     * @param id The task id retrieved from the url path
+     * @param fileName The name of the input file
+     * @param range The <i>Range</i> header
+     * @param ifRange The <i>If-Range</i> header
+     * @param req The request, used to evaluate the preconditions
+     * @return The file content
+     * @see #sendFile
+     */
+    @Path("/input/{file}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public final Response getInputFile(@PathParam("id") final String id,
+            @PathParam("file") final String fileName,
+            @HeaderParam("Range") final String range,
+            @HeaderParam("If-Range") final String ifRange,
+            @Context final Request req) {
+        return sendFile(id, fileName, false, range, ifRange, req);
+    }
+
+
+    /**
+     * Downloads an output file.
+     *
+     * @param id The task id retrieved from the url path
+     * @param fileName The name of the output file
+     * @param range The <i>Range</i> header
+     * @param ifRange The <i>If-Range</i> header
+     * @param req The request, used to evaluate the preconditions
+     * @return The file content
+     * @see #sendFile
+     */
+    @Path("/output/{file}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public final Response getOutputFile(@PathParam("id") final String id,
+            @PathParam("file") final String fileName,
+            @HeaderParam("Range") final String range,
+            @HeaderParam("If-Range") final String ifRange,
+            @Context final Request req) {
+        return sendFile(id, fileName, true, range, ifRange, req);
+    }
+
+
+    /**
+     * Send a file of the task.
+     * The file is moved from the storage to the response by the storage
+     * itself, without reading it in memory. A single range can be requested
+     * with the <i>Range</i> header and the answer has status 206.
+     * <p>
+     * The entity tag is the checksum of the file, when available, otherwise
+     * a weak tag built from size and modification time. Requests with
+     * <i>If-None-Match</i> matching the tag receive the status 304, requests
+     * with <i>If-Range</i> not matching receive the full file.
+     *
+     * @param id The task id
+     * @param fileName The file name
+     * @param output True for an output file, false for an input file
+     * @param range The <i>Range</i> header
+     * @param ifRange The <i>If-Range</i> header
+     * @param req The request, used to evaluate the preconditions
+     * @return The response
+     */
+    private Response sendFile(final String id, final String fileName,
+            final boolean output, final String range, final String ifRange,
+            final Request req) {
+        checkFileName(fileName);
+        String folder = null;
+        if (output) {
+            folder = Constants.OUTPUTFOLDER;
+        }
+        final String action = folder;
+        String checksum = getFileChecksum(id, fileName, output);
+        final Storage store = getStorage();
+        long size;
+        long lastModified;
+        try {
+            size = store.getFileSize(Storage.RESOURCE.TASKS, id, fileName,
+                    action);
+            lastModified = store.getLastModified(Storage.RESOURCE.TASKS, id,
+                    fileName, action);
+        } catch (IOException ioe) {
+            log.error(ioe);
+            throw new InternalServerErrorException("Impossible to access the "
+                    + "file " + fileName);
+        }
+        if (size < 0) {
+            throw new NotFoundException("File " + fileName + " not available");
+        }
+        EntityTag tag;
+        if (checksum != null) {
+            tag = new EntityTag(checksum);
+        } else {
+            tag = new EntityTag(Long.toHexString(size) + "-"
+                    + Long.toHexString(lastModified), true);
+        }
+        Date modified = new Date(lastModified);
+        Response.ResponseBuilder rb = req.evaluatePreconditions(modified, tag);
+        if (rb != null) {
+            return rb.tag(tag).build();
+        }
+        ContentRange part = null;
+        if (ifRange == null
+                || (!tag.isWeak() && ifRange.equals(tag.toString()))) {
+            part = ContentRange.forRequest(range, size);
+        }
+        long first = 0;
+        long length = size;
+        if (part != null) {
+            first = part.getFirst();
+            length = part.getLength();
+            rb = Response.status(Response.Status.PARTIAL_CONTENT).
+                    header("Content-Range", part.toString());
+        } else {
+            rb = Response.ok();
+        }
+        final long position = first;
+        final long count = length;
+        StreamingOutput content = new StreamingOutput() {
+            @Override
+            public void write(final OutputStream os) throws IOException {
+                store.transferFile(Storage.RESOURCE.TASKS, id, fileName,
+                        action, position, count, Channels.newChannel(os));
+            }
+        };
+        return rb.entity(content).
+                type(MediaType.APPLICATION_OCTET_STREAM_TYPE).
+                header("Accept-Ranges", "bytes").
+                header("Content-Length", count).
+                tag(tag).
+                lastModified(modified).
+                build();
+    }
+
+
+    /**
+     * Retrieves the checksum of a file of the task.
+     *
+     * @param id The task id
+     * @param fileName The file name
+     * @param output True for an output file, false for an input file
+     * @return The checksum or null if not available
+     * @throws NotFoundException If the task or the file does not exist
+     */
+    private String getFileChecksum(final String id, final String fileName,
+            final boolean output) {
+        EntityManager em = getEntityManager();
+        try {
+            Task task = em.find(Task.class, id);
+            if (task == null) {
+                throw new NotFoundException("Task " + id + " does not exist");
+            }
+            TaskFile file;
+            if (output) {
+                file = task.getOutputFile(fileName);
+            } else {
+                file = task.getInputFile(fileName);
+            }
+            if (file == null) {
+                throw new NotFoundException("File " + fileName + " is not "
+                        + "associated with the task " + id);
+            }
+            return file.getChecksum();
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Checks an input file can be uploaded.
+     *
+     * @param id The task id
+     * @param fileName The name of the input file
+     * @throws NotFoundException If the task or the input does not exist
+     * @throws WebApplicationException If the task does not accept inputs
+     */
+    private void checkInputFile(final String id, final String fileName) {
+        EntityManager em = getEntityManager();
+        try {
+            Task task = em.find(Task.class, id);
+            if (task == null) {
+                throw new NotFoundException("Task " + id + " does not exist");
+            }
+            if (task.getInputFile(fileName) == null) {
+                throw new NotFoundException("File " + fileName + " is not "
+                        + "an input of the task " + id);
+            }
+            if (!Task.STATUS.WAITING.equals(task.getStatus())) {
+                throw new WebApplicationException("The task " + id
+                        + " is not waiting for input files",
+                        Response.Status.CONFLICT);
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Retrieves the digest to continue an upload.
+     *
+     * @param store The storage with the file
+     * @param id The task id
+     * @param fileName The name of the input file
+     * @param key The identifier of the upload
+     * @param position Position of the new data
+     * @return The digest of the data before the position
+     * @throws IOException If the stored data cannot be read
+     */
+    private MessageDigest resumeDigest(final Storage store, final String id,
+            final String fileName, final String key, final long position)
+            throws IOException {
+        if (position == 0) {
+            return UploadChecksums.getDefault().resume(key, 0, null);
+        }
+        try (SeekableByteChannel stored = store.openFile(
+                Storage.RESOURCE.TASKS, id, fileName, null)) {
+            return UploadChecksums.getDefault().resume(key, position, stored);
+        }
+    }
+
+
+    /**
+     * Sets the input files as uploaded.
+     * The status of the task is evaluated after the update. If the task is
+     * modified concurrently, as for uploads of other files, the update is
+     * repeated with the new version of the task.
+     *
+     * @param id The task id
+     * @param checksums The checksums of the files, indexed by name
+     */
+    private void setInputsReady(final String id,
+            final Map<String, String> checksums) {
+        Task task = null;
+        int attempt = 0;
+        while (task == null) {
+            attempt++;
+            EntityManager em = getEntityManager();
+            EntityTransaction et = null;
+            try {
+                et = em.getTransaction();
+                et.begin();
+                task = em.find(Task.class, id);
+                if (task == null) {
+                    throw new NotFoundException("Task " + id
+                            + " does not exist");
+                }
+                for (Map.Entry<String, String> file : checksums.entrySet()) {
+                    task.updateInputFileStatus(file.getKey(),
+                            TaskFile.FILESTATUS.READY);
+                    TaskFileInput tfi = task.getInputFile(file.getKey());
+                    if (tfi != null) {
+                        tfi.setChecksum(file.getValue());
                     }
+                }
+                et.commit();
+            } catch (NotFoundException nfe) {
+                throw nfe;
+            } catch (RuntimeException re) {
+                task = null;
+                if (!isConcurrentUpdate(re)
+                        || attempt >= Constants.UPDATEATTEMPTS) {
                     log.error(re);
                     log.error("Impossible to update the task");
                     throw new InternalServerErrorException("Errore to update "
                             + "the task");
-                } finally {
-                    em.close();
                 }
-            } catch (IOException ex) {
-                log.error(ex);
-                throw new InternalServerErrorException("Errore to store input "
-                        + "files");
+                log.debug("Task " + id + " modified concurrently, update "
+                        + "repeated");
+            } finally {
+                if (et != null && et.isActive()) {
+                    et.rollback();
+                }
+                em.close();
+            }
+        }
+        getTaskStateMachine().evaluate(task);
+    }
+
+
+    /**
+     * Checks if an update failed because the entity was modified
+     * concurrently.
+     *
+     * @param re The exception of the update
+     * @return True if the version of the entity has changed
+     */
+    private static boolean isConcurrentUpdate(final RuntimeException re) {
+        return re instanceof OptimisticLockException
+                || re.getCause() instanceof OptimisticLockException;
+    }
+
+
+    /**
+     * Checks a file name can be used in the storage and in the job
+     * descriptions.
+     * Names including path elements or the characters separating the file
+     * transfers of a job are not accepted.
+     *
+     * @param fileName The file name
+     * @throws BadRequestException If the name is not valid
+     */
+    static void checkFileName(final String fileName) {
+        if (fileName.isEmpty() || fileName.contains("/")
+                || fileName.contains("\\") || fileName.equals("..")) {
+            throw new BadRequestException("File name '" + fileName
+                    + "' not valid");
+        }
+        for (char c: Constants.FILETRANSFERSEPARATORS.toCharArray()) {
+            if (fileName.indexOf(c) >= 0) {
+                throw new BadRequestException("File name '" + fileName
+                        + "' not valid, it cannot contain '" + c + "'");
+            }
+        }
+    }
+
+
+    /**
+     * Checks the names of the input files of a new task.
+     *
+     * @param task The task
+     * @throws BadRequestException If a name is not valid
+     */
+    static void checkInputNames(final Task task) {
+        if (task.getInputFiles() == null) {
+            return;
+        }
+        for (TaskFileInput tfi: task.getInputFiles()) {
+            if (tfi.getName() != null) {
+                checkFileName(tfi.getName());
             }
         }
-        em.close();
+    }
+
+
+    /**
+     * Add the <i>Range</i> header reporting the bytes received.
+     * The header is not added if no bytes have been received.
+     *
+     * @param rb The response builder
+     * @param size The number of bytes received
+     * @return The response builder
+     */
+    private static Response.ResponseBuilder addReceivedRange(
+            final Response.ResponseBuilder rb, final long size) {
+        if (size > 0) {
+            rb.header("Range", "bytes=0-" + (size - 1));
+        }
+        return rb;
     }
 }
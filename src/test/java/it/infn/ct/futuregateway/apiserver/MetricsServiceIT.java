@@ -0,0 +1,76 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver;
+
+import it.infn.ct.futuregateway.apiserver.metrics.Metrics;
+import it.infn.ct.futuregateway.apiserver.utils.RequestMetricsFilter;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Integration tests for the metrics.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class MetricsServiceIT extends JerseyTest {
+
+    @Override
+    protected final Application configure() {
+        return new ResourceConfig(MetricsService.class,
+                RequestMetricsFilter.class);
+    }
+
+
+    /**
+     * Test the metrics include the REST calls and the submission.
+     * The calls not matching a resource are counted as well.
+     */
+    @Test
+    public final void testMetrics() {
+        Response rs = target("/v1.0/missing").request().get();
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(),
+                rs.getStatus());
+        rs.close();
+        target("/metrics").request().get().close();
+
+        rs = target("/metrics").request().get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), rs.getStatus());
+        Assert.assertTrue(rs.getMediaType().toString().startsWith(
+                "text/plain"));
+        String metrics = rs.readEntity(String.class);
+        Assert.assertTrue(metrics.contains("# TYPE " + Metrics.HTTPREQUESTS
+                + " histogram"));
+        Assert.assertTrue(metrics.contains(Metrics.HTTPREQUESTS
+                + "_count{method=\"GET\",resource=\"/metrics\","
+                + "status=\"200\"}"));
+        Assert.assertTrue(metrics.contains(Metrics.HTTPREQUESTS
+                + "_count{method=\"GET\",resource=\"unmatched\","
+                + "status=\"404\"}"));
+        Assert.assertTrue(metrics.contains(
+                "fgapiserver_task_transitions_total"));
+        Assert.assertTrue(metrics.contains("fgapiserver_jpa_sessions_total"));
+    }
+}
@@ -0,0 +1,142 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the circuit breaker.
+ * The circuit stays open for a short time so the half-open state is
+ * reached during the test.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * Time in milliseconds the circuit stays open.
+     */
+    private static final long OPENTIME = 100;
+
+    /**
+     * Time of a fast submission in milliseconds.
+     */
+    private static final long FAST = 10;
+
+    /**
+     * The circuit under test.
+     */
+    private CircuitBreaker breaker;
+
+
+    /**
+     * Create a closed circuit.
+     */
+    @Before
+    public final void setUp() {
+        breaker = new CircuitBreaker("breaker-test", OPENTIME);
+    }
+
+
+    /**
+     * Test the circuit opens when the failures reach the threshold.
+     */
+    @Test
+    public final void testOpen() {
+        for (int i = 0; i < Constants.BREAKERMINCALLS; i++) {
+            Assert.assertEquals(CircuitBreaker.STATE.CLOSED,
+                    breaker.getState());
+            breaker.failure(breaker.tryAcquire());
+        }
+        Assert.assertEquals(CircuitBreaker.STATE.OPEN, breaker.getState());
+        Assert.assertNull(breaker.tryAcquire());
+    }
+
+
+    /**
+     * Test a single trial is admitted in the half-open state and its
+     * success closes the circuit.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testTrial() throws Exception {
+        open();
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        Assert.assertNotNull(trial);
+        Assert.assertNull(breaker.tryAcquire());
+        breaker.release(trial);
+        trial = breaker.tryAcquire();
+        Assert.assertNotNull(trial);
+        breaker.failure(trial);
+        Assert.assertEquals(CircuitBreaker.STATE.OPEN, breaker.getState());
+        Thread.sleep(OPENTIME * 2);
+        trial = breaker.tryAcquire();
+        breaker.success(trial, FAST);
+        Assert.assertEquals(CircuitBreaker.STATE.CLOSED, breaker.getState());
+    }
+
+
+    /**
+     * Test the outcomes of the submissions admitted before the circuit
+     * opened do not decide the half-open state.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testLateOutcomes() throws Exception {
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        CircuitBreaker.Permit lateFailure = breaker.tryAcquire();
+        open();
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        Assert.assertNotNull(trial);
+        breaker.success(late, FAST);
+        Assert.assertEquals(CircuitBreaker.STATE.HALF_OPEN,
+                breaker.getState());
+        breaker.failure(lateFailure);
+        Assert.assertEquals(CircuitBreaker.STATE.HALF_OPEN,
+                breaker.getState());
+        breaker.release(late);
+        Assert.assertNull(breaker.tryAcquire());
+        breaker.success(trial, FAST);
+        Assert.assertEquals(CircuitBreaker.STATE.CLOSED, breaker.getState());
+    }
+
+
+    /**
+     * Open the circuit and wait for the half-open state.
+     *
+     * @throws InterruptedException If the thread is interrupted
+     */
+    private void open() throws InterruptedException {
+        for (int i = 0; i < Constants.BREAKERMINCALLS; i++) {
+            breaker.failure(breaker.tryAcquire());
+        }
+        Assert.assertEquals(CircuitBreaker.STATE.OPEN, breaker.getState());
+        Thread.sleep(OPENTIME * 2);
+        Assert.assertEquals(CircuitBreaker.STATE.HALF_OPEN,
+                breaker.getState());
+    }
+}
@@ -0,0 +1,206 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.load.LocalJobProvider;
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.storage.LocalStorage;
+import java.nio.file.Files;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ogf.saga.job.Job;
+
+/**
+ * Integration tests for the monitoring of the jobs.
+ * The jobs are simulated by the {@link LocalJobProvider} and checked with
+ * short intervals.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class JobMonitorIT {
+
+    /**
+     * Maximum time in milliseconds to wait for a task.
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Duration in milliseconds of the jobs ending.
+     */
+    private static final long JOBDURATION = 1500;
+
+    /**
+     * Time in milliseconds a never ending job is monitored.
+     */
+    private static final long OBSERVATION = 9000;
+
+    /**
+     * Minimum interval in seconds between two checks of a job.
+     */
+    private static final long MININTERVAL = 1;
+
+    /**
+     * Maximum interval in seconds between two checks of a job.
+     */
+    private static final long MAXINTERVAL = 4;
+
+    /**
+     * Minimum number of checks expected for a never ending job.
+     */
+    private static final int MINCHECKS = 2;
+
+    /**
+     * Maximum number of checks expected for a never ending job.
+     * With a fixed interval the job would be checked nine times.
+     */
+    private static final int MAXCHECKS = 5;
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Application of the tasks.
+     */
+    private static Application app;
+
+    /**
+     * The stager of the outputs.
+     */
+    private OutputStager stager;
+
+    /**
+     * The monitor under test.
+     */
+    private JobMonitor monitor;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        emf = TaskData.createPersistence("jobmonitor");
+        app = TaskData.storeApplication(emf, LocalJobProvider.TYPE, null);
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Create the stager.
+     *
+     * @throws Exception If the storage cannot be created
+     */
+    @Before
+    public final void setUp() throws Exception {
+        stager = new OutputStager(emf, new TaskStateMachine(emf),
+                new LocalStorage(Files.createTempDirectory("fgmonitor").
+                        toString()),
+                new InfrastructureLimiter(1), 1);
+        stager.start();
+    }
+
+
+    /**
+     * Stop the monitor and the stager.
+     */
+    @After
+    public final void tearDown() {
+        if (monitor != null) {
+            monitor.stop();
+        }
+        stager.stop();
+        CustomJobFactory.unregisterProvider(LocalJobProvider.TYPE);
+    }
+
+
+    /**
+     * Test a task is moved to <i>DONE</i> when its job ends.
+     *
+     * @throws Exception If the job cannot be submitted
+     */
+    @Test
+    public final void testJobDone() throws Exception {
+        LocalJobProvider provider = new LocalJobProvider(0, 0, JOBDURATION);
+        Task task = submit(provider);
+        Assert.assertEquals(Task.STATUS.DONE, TaskData.waitStatus(emf,
+                task.getId(), Task.STATUS.DONE, TIMEOUT));
+        Assert.assertTrue(provider.getChecks(task.getNativeId()) > 1);
+    }
+
+
+    /**
+     * Test the checks of a job not changing status become less frequent.
+     *
+     * @throws Exception If the job cannot be submitted
+     */
+    @Test
+    public final void testBackoff() throws Exception {
+        LocalJobProvider provider = new LocalJobProvider(0, 0);
+        Task task = submit(provider);
+        Thread.sleep(OBSERVATION);
+        int checks = provider.getChecks(task.getNativeId());
+        Assert.assertTrue("Job checked " + checks + " times",
+                checks >= MINCHECKS && checks <= MAXCHECKS);
+        Assert.assertEquals(Task.STATUS.RUNNING,
+                TaskData.getStatus(emf, task.getId()));
+    }
+
+
+    /**
+     * Submit a job and start to monitor its task.
+     *
+     * @param provider The provider of the job
+     * @return The task, running
+     * @throws Exception If the job cannot be submitted
+     */
+    private Task submit(final LocalJobProvider provider) throws Exception {
+        CustomJobFactory.registerProvider(LocalJobProvider.TYPE, provider);
+        Job job = provider.createJob(null);
+        job.run();
+        Task task = TaskData.storeTask(emf, app,
+                job.getAttribute(Job.JOBID), Task.STATUS.RUNNING);
+        TaskStateMachine tsm = new TaskStateMachine(emf);
+        monitor = new JobMonitor(emf, tsm, new InfrastructureLimiter(1),
+                stager, 1, MININTERVAL, MAXINTERVAL);
+        tsm.addListener(monitor);
+        monitor.start();
+        return task;
+    }
+}
@@ -0,0 +1,201 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import it.infn.ct.futuregateway.apiserver.storage.LocalStorage;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the retrieval of the output files.
+ * The tasks run on an infrastructure whose data services cannot be
+ * accessed, so every transfer fails.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class OutputStagerIT {
+
+    /**
+     * Maximum time in milliseconds to wait for a task.
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Application of the tasks.
+     */
+    private static Application app;
+
+    /**
+     * Time in milliseconds the outputs wait for the limiter.
+     */
+    private static final long HOLD = 1000;
+
+    /**
+     * Limiter shared with the input staging.
+     */
+    private InfrastructureLimiter limiter;
+
+    /**
+     * The stager under test.
+     */
+    private OutputStager stager;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        emf = TaskData.createPersistence("outputstager");
+        app = TaskData.storeApplication(emf, "local", "file:///outputs");
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Create the stager.
+     *
+     * @throws Exception If the storage cannot be created
+     */
+    @Before
+    public final void setUp() throws Exception {
+        limiter = new InfrastructureLimiter(1);
+        stager = new OutputStager(emf, new TaskStateMachine(emf),
+                new LocalStorage(Files.createTempDirectory("fgstager").
+                        toString()),
+                limiter, 2);
+        stager.start();
+    }
+
+
+    /**
+     * Stop the stager.
+     */
+    @After
+    public final void tearDown() {
+        stager.stop();
+    }
+
+
+    /**
+     * Test a task whose outputs cannot be retrieved is aborted.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testTransferFailure() throws Exception {
+        Task task = TaskData.storeTask(emf, app, "job-1",
+                Task.STATUS.RUNNING, "out.txt", "err.txt");
+        List<Task> completed = stager.stage(
+                Collections.singletonList(task));
+        Assert.assertTrue(completed.isEmpty());
+        Assert.assertEquals(Task.STATUS.ABORTED, TaskData.waitStatus(emf,
+                task.getId(), Task.STATUS.ABORTED, TIMEOUT));
+        Assert.assertFalse(stager.isStaging(task.getId()));
+    }
+
+
+    /**
+     * Test the outputs waiting for a permission held by the input staging
+     * are transferred when the permission is released.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testLimiterHeldByInputs() throws Exception {
+        Task task = TaskData.storeTask(emf, app, "job-4",
+                Task.STATUS.RUNNING, "out.txt");
+        String infraId = task.getAssociatedInfrastructureId();
+        limiter.acquire(infraId);
+        try {
+            List<Task> completed = stager.stage(
+                    Collections.singletonList(task));
+            Assert.assertTrue(completed.isEmpty());
+            Thread.sleep(HOLD);
+            Assert.assertTrue(stager.isStaging(task.getId()));
+            Assert.assertEquals(Task.STATUS.RUNNING,
+                    TaskData.getStatus(emf, task.getId()));
+        } finally {
+            limiter.release(infraId);
+        }
+        Assert.assertEquals(Task.STATUS.ABORTED, TaskData.waitStatus(emf,
+                task.getId(), Task.STATUS.ABORTED, TIMEOUT));
+        Assert.assertFalse(stager.isStaging(task.getId()));
+    }
+
+
+    /**
+     * Test the tasks without outputs are returned to the caller.
+     */
+    @Test
+    public final void testNoOutputs() {
+        Task task = TaskData.storeTask(emf, app, "job-2",
+                Task.STATUS.RUNNING);
+        List<Task> completed = stager.stage(
+                Collections.singletonList(task));
+        Assert.assertEquals(1, completed.size());
+        Assert.assertFalse(stager.isStaging(task.getId()));
+    }
+
+
+    /**
+     * Test a task not staged because the stager is stopped is released
+     * without changing its status.
+     */
+    @Test
+    public final void testStoppedStager() {
+        stager.stop();
+        Task task = TaskData.storeTask(emf, app, "job-3",
+                Task.STATUS.RUNNING, "out.txt");
+        List<Task> completed = stager.stage(
+                Collections.singletonList(task));
+        Assert.assertTrue(completed.isEmpty());
+        Assert.assertFalse(stager.isStaging(task.getId()));
+        Assert.assertEquals(Task.STATUS.RUNNING,
+                TaskData.getStatus(emf, task.getId()));
+    }
+}
@@ -0,0 +1,277 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Params;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ogf.saga.session.Session;
+
+/**
+ * Unit tests for the session cache.
+ * The sessions are created by a builder counting the creations, with
+ * lifetimes of few hundreds milliseconds.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class SessionCacheTest {
+
+    /**
+     * Lifetime in milliseconds of the sessions.
+     */
+    private static final long LIFETIME = 2000;
+
+    /**
+     * Time in milliseconds before the expiration when a session is
+     * refreshed.
+     */
+    private static final long MARGIN = 1500;
+
+    /**
+     * Minimum time in milliseconds before a session is refreshed.
+     */
+    private static final long MINDELAY = 100;
+
+    /**
+     * Time in milliseconds to wait for the refresh of a session.
+     */
+    private static final long REFRESHWAIT = 1000;
+
+    /**
+     * Time in milliseconds needed to create a session.
+     */
+    private static final long CREATIONTIME = 200;
+
+    /**
+     * Number of threads requesting the same session.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of sessions created.
+     */
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * Infrastructure of the sessions.
+     */
+    private Infrastructure infra;
+
+    /**
+     * The cache under test.
+     */
+    private SessionCache cache;
+
+
+    /**
+     * Create the cache.
+     */
+    @Before
+    public final void setUp() {
+        infra = new Infrastructure();
+        infra.setId("infra-cache");
+        infra.setParameters(new LinkedList<Params>());
+        cache = new SessionCache(LIFETIME, MARGIN, MINDELAY);
+    }
+
+
+    /**
+     * Stop the cache.
+     */
+    @After
+    public final void tearDown() {
+        cache.shutdown();
+    }
+
+
+    /**
+     * Test many threads requesting a missing session share a single
+     * creation.
+     *
+     * @throws Exception If the session cannot be retrieved
+     */
+    @Test
+    public final void testSingleCreation() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Session>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(pool.submit(new Callable<Session>() {
+                    @Override
+                    public Session call() throws InfrastructureException {
+                        return cache.getSession(new CountingBuilder(false));
+                    }
+                }));
+            }
+            Session session = results.get(0).get();
+            for (Future<Session> result: results) {
+                Assert.assertSame(session, result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, created.get());
+    }
+
+
+    /**
+     * Test an expired session is created again.
+     *
+     * @throws Exception If the session cannot be retrieved
+     */
+    @Test
+    public final void testExpiration() throws Exception {
+        cache.shutdown();
+        cache = new SessionCache(MINDELAY, 0, LIFETIME);
+        CountingBuilder builder = new CountingBuilder(false);
+        Session session = cache.getSession(builder);
+        Assert.assertSame(session, cache.getSession(builder));
+        Thread.sleep(MINDELAY * 2);
+        Assert.assertFalse(cache.isCached(builder.getCacheKey()));
+        Assert.assertNotSame(session, cache.getSession(builder));
+        Assert.assertEquals(2, created.get());
+    }
+
+
+    /**
+     * Test a session not requested after the creation is removed instead
+     * of being refreshed.
+     *
+     * @throws Exception If the session cannot be retrieved
+     */
+    @Test
+    public final void testIdleNotRefreshed() throws Exception {
+        CountingBuilder builder = new CountingBuilder(false);
+        cache.getSession(builder);
+        Thread.sleep(REFRESHWAIT);
+        Assert.assertEquals(1, created.get());
+        Assert.assertFalse(cache.isCached(builder.getCacheKey()));
+    }
+
+
+    /**
+     * Test a session requested after the creation is refreshed before the
+     * expiration.
+     *
+     * @throws Exception If the session cannot be retrieved
+     */
+    @Test
+    public final void testUsedRefreshed() throws Exception {
+        CountingBuilder builder = new CountingBuilder(false);
+        Session session = cache.getSession(builder);
+        Assert.assertSame(session, cache.getSession(builder));
+        Thread.sleep(REFRESHWAIT);
+        Assert.assertEquals(2, created.get());
+        Assert.assertTrue(cache.isCached(builder.getCacheKey()));
+        Assert.assertNotSame(session, cache.getSession(builder));
+        Assert.assertEquals(2, created.get());
+    }
+
+
+    /**
+     * Test a failed creation is not cached.
+     */
+    @Test
+    public final void testFailure() {
+        CountingBuilder builder = new CountingBuilder(true);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getSession(builder);
+                Assert.fail("Session created with a failing builder");
+            } catch (InfrastructureException ie) {
+                Assert.assertFalse(cache.isCached(builder.getCacheKey()));
+            }
+        }
+        Assert.assertEquals(2, created.get());
+    }
+
+
+    /**
+     * Builder counting the created sessions.
+     * The sessions are proxies without a behaviour.
+     */
+    private final class CountingBuilder extends SessionBuilder {
+
+        /**
+         * Whether the creation fails.
+         */
+        private final boolean failing;
+
+        /**
+         * Create the builder.
+         *
+         * @param fail True if the creation has to fail
+         */
+        CountingBuilder(final boolean fail) {
+            super(infra, "user");
+            this.failing = fail;
+        }
+
+        @Override
+        public void createNewSession() throws InfrastructureException {
+            created.incrementAndGet();
+            try {
+                Thread.sleep(CREATIONTIME);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new InfrastructureException("Session not available");
+            }
+            setSession((Session) Proxy.newProxyInstance(
+                    Session.class.getClassLoader(),
+                    new Class<?>[] {Session.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(final Object proxy,
+                                final Method method, final Object[] args) {
+                            if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    }));
+        }
+
+        @Override
+        public String getVO() {
+            return "";
+        }
+    }
+}
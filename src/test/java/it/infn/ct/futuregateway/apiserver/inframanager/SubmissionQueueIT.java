@@ -0,0 +1,210 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.observers.TaskStateMachine;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManagerFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the submission queue.
+ * The submission pool has a single thread kept busy by the test, so the
+ * queued tasks remain in the window and they are never submitted.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class SubmissionQueueIT {
+
+    /**
+     * Maximum time in milliseconds to wait for a task.
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Time in milliseconds given to the scan of the DB.
+     */
+    private static final long SCANTIME = 1000;
+
+    /**
+     * Number of tasks in the window.
+     */
+    private static final int CAPACITY = 3;
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Application of the tasks.
+     */
+    private static Application app;
+
+    /**
+     * Thread of the submission pool, busy until the end of the test.
+     */
+    private ExecutorService pool;
+
+    /**
+     * Signal releasing the thread of the pool.
+     */
+    private CountDownLatch busy;
+
+    /**
+     * The queue under test.
+     */
+    private SubmissionQueue queue;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        emf = TaskData.createPersistence("submissionqueue");
+        app = TaskData.storeApplication(emf, "local", null);
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Create the queue with a busy submission pool.
+     */
+    @Before
+    public final void setUp() {
+        busy = new CountDownLatch(1);
+        pool = Executors.newSingleThreadExecutor();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        queue = new SubmissionQueue(emf, pool, new TaskStateMachine(emf),
+                new InfrastructureLimiter(1), null, null, CAPACITY);
+    }
+
+
+    /**
+     * Stop the queue and discard the queued submissions.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @After
+    public final void tearDown() throws Exception {
+        queue.stop();
+        pool.shutdownNow();
+        pool.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Test the tasks beyond the capacity of the window are rejected.
+     */
+    @Test
+    public final void testCapacity() {
+        for (int i = 0; i < CAPACITY; i++) {
+            Assert.assertTrue(queue.offer("task-" + i));
+        }
+        Assert.assertTrue(queue.offer("task-0"));
+        Assert.assertFalse(queue.hasCapacity());
+        Assert.assertEquals(CAPACITY, queue.getDepth());
+        Assert.assertFalse(queue.offer("task-" + CAPACITY));
+        Assert.assertEquals(1, queue.getRejected());
+        Assert.assertEquals(CAPACITY, queue.getDepth());
+    }
+
+
+    /**
+     * Test a task rejected by the pool is not kept in the window.
+     */
+    @Test
+    public final void testPoolRejection() {
+        pool.shutdown();
+        Assert.assertFalse(queue.offer("task-rejected"));
+        Assert.assertEquals(1, queue.getRejected());
+        Assert.assertEquals(0, queue.getDepth());
+        Assert.assertTrue(queue.hasCapacity());
+    }
+
+
+    /**
+     * Test the ready tasks in the DB are queued and the ones already
+     * submitted are recovered as scheduled.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testRecovery() throws Exception {
+        Task submitted = TaskData.storeTask(emf, app, "job-recovered",
+                Task.STATUS.READY);
+        Task ready = TaskData.storeTask(emf, app, null, Task.STATUS.READY);
+        queue.start();
+        Assert.assertEquals(Task.STATUS.SCHEDULED, TaskData.waitStatus(emf,
+                submitted.getId(), Task.STATUS.SCHEDULED, TIMEOUT));
+        Assert.assertTrue(queue.offer(ready.getId()));
+        Assert.assertTrue(queue.getDepth() >= 1);
+        Assert.assertEquals(Task.STATUS.READY,
+                TaskData.getStatus(emf, ready.getId()));
+    }
+
+
+    /**
+     * Test a task in the window is not recovered by the scan while its
+     * submission is in progress, even if the job identifier is stored.
+     *
+     * @throws Exception If the test is interrupted
+     */
+    @Test
+    public final void testWindowNotRecovered() throws Exception {
+        Task task = TaskData.storeTask(emf, app, "job-in-progress",
+                Task.STATUS.READY);
+        Assert.assertTrue(queue.offer(task.getId()));
+        queue.start();
+        Thread.sleep(SCANTIME);
+        Assert.assertEquals(Task.STATUS.READY,
+                TaskData.getStatus(emf, task.getId()));
+    }
+}
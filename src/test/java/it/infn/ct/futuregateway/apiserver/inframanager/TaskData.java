@@ -0,0 +1,231 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.inframanager;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Params;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileOutput;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+/**
+ * Tasks submitted to an infrastructure, stored in an in-memory DB.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class TaskData {
+
+    /**
+     * Time in milliseconds between two reads of the task status.
+     */
+    private static final long POLLINTERVAL = 100;
+
+
+    /**
+     * Utility class cannot be allocated.
+     */
+    private TaskData() { }
+
+
+    /**
+     * Create an in-memory DB.
+     *
+     * @param name The name of the DB
+     * @return The EntityManagerFactory of the DB
+     */
+    public static EntityManagerFactory createPersistence(final String name) {
+        Map<String, String> props = new HashMap<>();
+        props.put("javax.persistence.jdbc.url", "jdbc:hsqldb:mem:" + name);
+        props.put("hibernate.hbm2ddl.auto", "create-drop");
+        return Persistence.createEntityManagerFactory(
+                "it.infn.ct.futuregateway.apiserver.app", props);
+    }
+
+
+    /**
+     * Store an enabled infrastructure with an application using it.
+     *
+     * @param emf The EntityManagerFactory of the DB
+     * @param type The infrastructure type
+     * @param outputUrl Location of the output files, null if not defined
+     * @return The application, with the infrastructure
+     */
+    public static Application storeApplication(
+            final EntityManagerFactory emf, final String type,
+            final String outputUrl) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Infrastructure infra = new Infrastructure();
+            infra.setName("infra-" + type);
+            infra.setDescription("Test infrastructure");
+            infra.setEnabled(true);
+            infra.setDateCreated(new Date());
+            List<Params> params = new LinkedList<>();
+            params.add(newParam("type", type));
+            params.add(newParam("jobservice", type + "://localhost"));
+            if (outputUrl != null) {
+                params.add(newParam(OutputStager.OUTPUTURLPARAMETER,
+                        outputUrl));
+            }
+            infra.setParameters(params);
+            em.persist(infra);
+            List<Infrastructure> infras = new LinkedList<>();
+            infras.add(infra);
+            Application app = new Application();
+            app.setName("app-" + type);
+            app.setDescription("Test application");
+            app.setEnabled(true);
+            app.setDateCreated(new Date());
+            app.setInfrastructures(infras);
+            em.persist(app);
+            em.getTransaction().commit();
+            return app;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+
+    /**
+     * Store a task whose job is in execution.
+     *
+     * @param emf The EntityManagerFactory of the DB
+     * @param app The application of the task
+     * @param nativeId The identifier of the job
+     * @param status The status of the task
+     * @param outputs Names of the output files
+     * @return The task, as known by the job monitor
+     */
+    public static Task storeTask(final EntityManagerFactory emf,
+            final Application app, final String nativeId,
+            final Task.STATUS status, final String... outputs) {
+        String infraId = app.getInfrastructures().get(0).getId();
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Task task = new Task();
+            task.setApplicationId(app.getId());
+            task.setApplicationDetail(em.find(Application.class,
+                    app.getId()));
+            task.setDescription("Test task");
+            task.setUserName("test");
+            task.setDateCreated(new Date());
+            task.setLastChange(new Date());
+            task.setStatus(status);
+            task.setNativeId(nativeId);
+            task.setAssociatedInfrastructureId(infraId);
+            if (outputs.length > 0) {
+                List<TaskFileOutput> files = new LinkedList<>();
+                for (String name: outputs) {
+                    TaskFileOutput out = new TaskFileOutput();
+                    out.setName(name);
+                    files.add(out);
+                }
+                task.setOutputFiles(files);
+            }
+            em.persist(task);
+            em.getTransaction().commit();
+            Task monitored = new Task();
+            monitored.setId(task.getId());
+            monitored.setStatus(status);
+            monitored.setUserName(task.getUserName());
+            monitored.setNativeId(nativeId);
+            monitored.setAssociatedInfrastructureId(infraId);
+            return monitored;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+
+    /**
+     * Read the status of a task from the DB.
+     *
+     * @param emf The EntityManagerFactory of the DB
+     * @param taskId The task identifier
+     * @return The status
+     */
+    public static Task.STATUS getStatus(final EntityManagerFactory emf,
+            final String taskId) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(Task.class, taskId).getStatus();
+        } finally {
+            em.close();
+        }
+    }
+
+
+    /**
+     * Wait until a task reaches a status.
+     *
+     * @param emf The EntityManagerFactory of the DB
+     * @param taskId The task identifier
+     * @param status The expected status
+     * @param timeout Maximum time to wait in milliseconds
+     * @return The last status read
+     * @throws InterruptedException If the thread is interrupted
+     */
+    public static Task.STATUS waitStatus(final EntityManagerFactory emf,
+            final String taskId, final Task.STATUS status,
+            final long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        Task.STATUS current = getStatus(emf, taskId);
+        while (current != status && System.currentTimeMillis() < end) {
+            Thread.sleep(POLLINTERVAL);
+            current = getStatus(emf, taskId);
+        }
+        return current;
+    }
+
+
+    /**
+     * Create a parameter.
+     *
+     * @param name The name
+     * @param value The value
+     * @return The parameter
+     */
+    private static Params newParam(final String name, final String value) {
+        Params p = new Params();
+        p.setName(name);
+        p.setValue(value);
+        p.setDescription(name);
+        return p;
+    }
+}
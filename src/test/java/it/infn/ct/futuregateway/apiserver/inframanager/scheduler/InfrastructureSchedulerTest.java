@@ -0,0 +1,274 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.inframanager.scheduler;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Params;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the infrastructure schedulers.
+ * The infrastructures have unique identifiers so their circuits are always
+ * closed.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class InfrastructureSchedulerTest {
+
+    /**
+     * Tolerance in the comparison of the latencies.
+     */
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Submission time in milliseconds of a fast infrastructure.
+     */
+    private static final long FAST = 100;
+
+    /**
+     * Submission time in milliseconds of a slow infrastructure.
+     */
+    private static final long SLOW = 300;
+
+    /**
+     * Weight of the big infrastructure.
+     */
+    private static final int BIGWEIGHT = 5;
+
+    /**
+     * Counter making unique the infrastructure identifiers.
+     */
+    private static int counter;
+
+    /**
+     * Prefix of the infrastructure identifiers of a test.
+     */
+    private String prefix;
+
+
+    /**
+     * Create a new prefix for the infrastructures of the test.
+     */
+    @Before
+    public final void setUp() {
+        prefix = "sched-" + (counter++) + "-";
+    }
+
+
+    /**
+     * Test the weighted round-robin sequence is smooth and proportional to
+     * the weights.
+     */
+    @Test
+    public final void testWeightedRoundRobin() {
+        Task task = createTask(createInfrastructure("a", BIGWEIGHT),
+                createInfrastructure("b", 1), createInfrastructure("c", 1));
+        InfrastructureScheduler scheduler = new WeightedRoundRobinScheduler();
+        String[] expected = {"a", "a", "b", "a", "c", "a", "a"};
+        for (int round = 0; round < 2; round++) {
+            for (String id: expected) {
+                Assert.assertEquals(prefix + id,
+                        scheduler.select(task).getId());
+            }
+        }
+    }
+
+
+    /**
+     * Test the disabled infrastructures are not selected.
+     */
+    @Test
+    public final void testDisabled() {
+        Infrastructure disabled = createInfrastructure("a", BIGWEIGHT);
+        disabled.setEnabled(false);
+        Task task = createTask(disabled, createInfrastructure("b", 1));
+        InfrastructureScheduler scheduler = new WeightedRoundRobinScheduler();
+        for (int i = 0; i < BIGWEIGHT; i++) {
+            Assert.assertEquals(prefix + "b", scheduler.select(task).getId());
+        }
+        disabled = createInfrastructure("c", 1);
+        disabled.setEnabled(false);
+        Assert.assertNull(scheduler.select(createTask(disabled)));
+    }
+
+
+    /**
+     * Test the infrastructure with less tasks, relative to the weight, is
+     * selected.
+     */
+    @Test
+    public final void testLeastOutstanding() {
+        Task task = createTask(createInfrastructure("a", 1),
+                createInfrastructure("b", 1));
+        AbstractInfrastructureScheduler scheduler =
+                new LeastOutstandingScheduler();
+        scheduler.submissionStarted(prefix + "a");
+        Assert.assertEquals(prefix + "b", scheduler.select(task).getId());
+        scheduler.submissionStarted(prefix + "b");
+        scheduler.transitionPerformed(createTask(prefix + "b"),
+                Task.STATUS.READY, Task.STATUS.SCHEDULED);
+        Assert.assertEquals(prefix + "a", scheduler.select(task).getId());
+
+        task = createTask(createInfrastructure("c", BIGWEIGHT),
+                createInfrastructure("d", 1));
+        scheduler.submissionStarted(prefix + "c");
+        scheduler.submissionStarted(prefix + "c");
+        scheduler.submissionStarted(prefix + "d");
+        Assert.assertEquals(prefix + "c", scheduler.select(task).getId());
+    }
+
+
+    /**
+     * Test the moving average of the submission time.
+     */
+    @Test
+    public final void testLatencyAverage() {
+        InfrastructureLoad load = new InfrastructureLoad();
+        Assert.assertTrue(load.getLatency() < 0);
+        load.submissionStarted();
+        load.submissionCompleted(FAST);
+        Assert.assertEquals(FAST, load.getLatency(), DELTA);
+        load.submissionStarted();
+        load.submissionCompleted(SLOW);
+        Assert.assertEquals(Constants.SCHEDULEREWMAWEIGHT * SLOW
+                + (1 - Constants.SCHEDULEREWMAWEIGHT) * FAST,
+                load.getLatency(), DELTA);
+    }
+
+
+    /**
+     * Test the infrastructure expected to accept the task first is
+     * selected, preferring the ones not measured yet.
+     */
+    @Test
+    public final void testLatencyAware() {
+        Task task = createTask(createInfrastructure("a", 1),
+                createInfrastructure("b", 1));
+        AbstractInfrastructureScheduler scheduler =
+                new LatencyAwareScheduler();
+        scheduler.submissionStarted(prefix + "a");
+        scheduler.submissionCompleted(prefix + "a", SLOW);
+        Assert.assertEquals(prefix + "b", scheduler.select(task).getId());
+        scheduler.submissionStarted(prefix + "b");
+        scheduler.submissionCompleted(prefix + "b", FAST);
+        Assert.assertEquals(prefix + "b", scheduler.select(task).getId());
+        scheduler.submissionStarted(prefix + "b");
+        scheduler.submissionStarted(prefix + "b");
+        scheduler.submissionStarted(prefix + "b");
+        Assert.assertEquals(prefix + "a", scheduler.select(task).getId());
+    }
+
+
+    /**
+     * Test the load counters return to zero when the submissions and the
+     * tasks end, and they do not go below zero.
+     */
+    @Test
+    public final void testLoadRelease() {
+        AbstractInfrastructureScheduler scheduler =
+                new LeastOutstandingScheduler();
+        String id = prefix + "a";
+        Task task = createTask(id);
+        scheduler.submissionStarted(id);
+        scheduler.submissionStarted(id);
+        Assert.assertEquals(2, scheduler.getLoad(id).getInFlight());
+        scheduler.submissionCompleted(id, FAST);
+        scheduler.transitionPerformed(task, Task.STATUS.READY,
+                Task.STATUS.SCHEDULED);
+        scheduler.submissionAborted(id);
+        Assert.assertEquals(0, scheduler.getLoad(id).getInFlight());
+        Assert.assertEquals(1, scheduler.getLoad(id).getOutstanding());
+        scheduler.transitionPerformed(task, Task.STATUS.SCHEDULED,
+                Task.STATUS.RUNNING);
+        Assert.assertEquals(1, scheduler.getLoad(id).getOutstanding());
+        scheduler.transitionPerformed(task, Task.STATUS.RUNNING,
+                Task.STATUS.DONE);
+        Assert.assertEquals(0, scheduler.getLoad(id).getOutstanding());
+        scheduler.transitionPerformed(task, Task.STATUS.RUNNING,
+                Task.STATUS.ABORTED);
+        scheduler.submissionAborted(id);
+        Assert.assertEquals(0, scheduler.getLoad(id).getOutstanding());
+        Assert.assertEquals(0, scheduler.getLoad(id).getInFlight());
+    }
+
+
+    /**
+     * Create an enabled infrastructure.
+     *
+     * @param name The name, appended to the prefix for the identifier
+     * @param weight The weight
+     * @return The infrastructure
+     */
+    private Infrastructure createInfrastructure(final String name,
+            final int weight) {
+        Infrastructure infra = new Infrastructure();
+        infra.setId(prefix + name);
+        infra.setName(name);
+        infra.setEnabled(true);
+        List<Params> params = new LinkedList<>();
+        Params p = new Params();
+        p.setName(AbstractInfrastructureScheduler.WEIGHTPARAMETER);
+        p.setValue(Integer.toString(weight));
+        params.add(p);
+        infra.setParameters(params);
+        return infra;
+    }
+
+
+    /**
+     * Create a task for an application running on some infrastructures.
+     *
+     * @param infras The infrastructures of the application
+     * @return The task
+     */
+    private static Task createTask(final Infrastructure... infras) {
+        Application app = new Application();
+        List<Infrastructure> lst = new LinkedList<>();
+        for (Infrastructure infra: infras) {
+            lst.add(infra);
+        }
+        app.setInfrastructures(lst);
+        Task task = new Task();
+        task.setApplicationDetail(app);
+        return task;
+    }
+
+
+    /**
+     * Create a task assigned to an infrastructure.
+     *
+     * @param infraId The infrastructure identifier
+     * @return The task
+     */
+    private static Task createTask(final String infraId) {
+        Task task = new Task();
+        task.setAssociatedInfrastructureId(infraId);
+        return task;
+    }
+}
@@ -0,0 +1,236 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.load;
+
+import it.infn.ct.futuregateway.apiserver.APIContextListener;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.v1.ApiServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.simple.SimpleContainerFactory;
+
+/**
+ * The application running in the Simple HTTP server.
+ * The services read the shared objects from the servlet context, so the
+ * server provides a minimal servlet context initialised by the
+ * {@link APIContextListener}. The DB is an in-memory HSQLDB.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class EmbeddedServer implements Closeable {
+
+    /**
+     * Attributes of the servlet context.
+     */
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * Initialisation parameters of the servlet context.
+     */
+    private final Map<String, String> initParameters;
+
+    /**
+     * The servlet context.
+     */
+    private final ServletContext context;
+
+    /**
+     * The listener initialising the context.
+     */
+    private final APIContextListener listener = new APIContextListener();
+
+    /**
+     * The base URI of the services.
+     */
+    private final URI baseUri;
+
+    /**
+     * The HTTP server.
+     */
+    private Closeable server;
+
+
+    /**
+     * Create the server.
+     *
+     * @param aBaseUri The base URI of the services
+     * @param someInitParameters The initialisation parameters of the
+     * context
+     */
+    public EmbeddedServer(final URI aBaseUri,
+            final Map<String, String> someInitParameters) {
+        this.baseUri = aBaseUri;
+        this.initParameters = new HashMap<>(someInitParameters);
+        this.context = proxy(ServletContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object p, final Method m,
+                    final Object[] args) {
+                switch (m.getName()) {
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "removeAttribute":
+                        attributes.remove((String) args[0]);
+                        return null;
+                    case "getInitParameter":
+                        return initParameters.get((String) args[0]);
+                    default:
+                        return objectMethod(p, m, args);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Start the application.
+     */
+    public void start() {
+        Map<String, String> dbProperties = new HashMap<>();
+        dbProperties.put("javax.persistence.jdbc.url",
+                "jdbc:hsqldb:mem:loadtest");
+        dbProperties.put("hibernate.hbm2ddl.auto", "create");
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory(
+                "it.infn.ct.futuregateway.apiserver.app", dbProperties);
+        attributes.put(Constants.SESSIONFACTORY, emf);
+        listener.contextInitialized(new ServletContextEvent(context));
+
+        final HttpServletRequest request = proxy(HttpServletRequest.class,
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object p, final Method m,
+                            final Object[] args) {
+                        if ("getServletContext".equals(m.getName())) {
+                            return context;
+                        }
+                        return objectMethod(p, m, args);
+                    }
+                });
+        final HttpServletResponse response = proxy(
+                HttpServletResponse.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object p, final Method m,
+                            final Object[] args) {
+                        return objectMethod(p, m, args);
+                    }
+                });
+        ResourceConfig config = new ApiServer();
+        config.register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(request).to(HttpServletRequest.class);
+                bind(response).to(HttpServletResponse.class);
+            }
+        });
+        server = SimpleContainerFactory.create(baseUri, config);
+    }
+
+
+    /**
+     * Stop the application.
+     *
+     * @throws IOException If the server cannot be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } finally {
+            listener.contextDestroyed(new ServletContextEvent(context));
+            EntityManagerFactory emf = (EntityManagerFactory)
+                    attributes.get(Constants.SESSIONFACTORY);
+            if (emf != null) {
+                emf.close();
+            }
+        }
+    }
+
+
+    /**
+     * Retrieve an attribute of the servlet context.
+     *
+     * @param name The attribute name
+     * @return The attribute value
+     */
+    public Object getAttribute(final String name) {
+        return attributes.get(name);
+    }
+
+
+    /**
+     * Create a proxy implementing an interface.
+     *
+     * @param <T> The type of the interface
+     * @param type The interface
+     * @param handler The handler of the methods
+     * @return The proxy
+     */
+    private static <T> T proxy(final Class<T> type,
+            final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[]{type}, handler));
+    }
+
+
+    /**
+     * Implement the methods of <i>Object</i> for a proxy.
+     *
+     * @param p The proxy
+     * @param m The invoked method
+     * @param args The arguments
+     * @return The method result
+     */
+    private static Object objectMethod(final Object p, final Method m,
+            final Object[] args) {
+        switch (m.getName()) {
+            case "hashCode":
+                return System.identityHashCode(p);
+            case "equals":
+                return p == args[0];
+            case "toString":
+                return "Embedded server stand-in";
+            default:
+                throw new UnsupportedOperationException("Method "
+                        + m.getName() + " not available in the embedded"
+                        + " server");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the latencies of an operation.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class LatencyRecorder {
+
+    /**
+     * Percentage of the median.
+     */
+    public static final double MEDIAN = 50;
+
+    /**
+     * Percentage of the tail latency.
+     */
+    public static final double TAIL = 99;
+
+    /**
+     * Maximum percentage.
+     */
+    private static final double ALL = 100;
+
+    /**
+     * Name of the operation.
+     */
+    private final String name;
+
+    /**
+     * Recorded latencies in nanoseconds.
+     */
+    private final List<Long> samples = new ArrayList<>();
+
+
+    /**
+     * Create the recorder.
+     *
+     * @param aName The name of the operation
+     */
+    public LatencyRecorder(final String aName) {
+        this.name = aName;
+    }
+
+
+    /**
+     * Record an operation.
+     *
+     * @param startNanos The start time of the operation, as returned by
+     * {@link System#nanoTime()}
+     */
+    public void record(final long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        synchronized (samples) {
+            samples.add(latency);
+        }
+    }
+
+
+    /**
+     * Retrieve the number of recorded operations.
+     *
+     * @return The number of operations
+     */
+    public int getCount() {
+        synchronized (samples) {
+            return samples.size();
+        }
+    }
+
+
+    /**
+     * Retrieve a percentile of the latency.
+     *
+     * @param percentage The percentage of operations with a lower latency
+     * @return The latency in milliseconds, 0 if no operation was recorded
+     */
+    public double getPercentile(final double percentage) {
+        long[] sorted;
+        synchronized (samples) {
+            sorted = new long[samples.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = samples.get(i);
+            }
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentage / ALL * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%-12s count=%-7d p50=%9.1fms p99=%9.1fms",
+                name, getCount(), getPercentile(MEDIAN),
+                getPercentile(TAIL));
+    }
+}
@@ -0,0 +1,491 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.load;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.CustomJobFactory;
+import it.infn.ct.futuregateway.apiserver.inframanager.SubmissionQueue;
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Params;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileInput;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import it.infn.ct.futuregateway.apiserver.v1.TestData;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Load test of the task submission.
+ * The application is started in process with an in-memory DB and the
+ * infrastructures use the {@link LocalJobProvider}, so the test measures
+ * the server without the remote services. Tasks arrive at a fixed rate,
+ * independently of the server response time. Every task is created, its
+ * input files are uploaded and then its status is polled until the
+ * submission completes.
+ * <p>
+ * The test is configured with the system properties:
+ * <ul>
+ * <li><i>load.port</i>: port of the HTTP server</li>
+ * <li><i>load.rate</i>: tasks created every second</li>
+ * <li><i>load.duration</i>: seconds of task creation</li>
+ * <li><i>load.latency</i>: milliseconds of every submission</li>
+ * <li><i>load.failureRate</i>: probability of a submission failure</li>
+ * <li><i>load.infrastructures</i>: number of infrastructures</li>
+ * <li><i>load.inputSize</i>: size in bytes of the input files</li>
+ * <li><i>load.pollInterval</i>: milliseconds between status requests</li>
+ * <li><i>load.timeout</i>: seconds to wait the submission of a task</li>
+ * </ul>
+ * The submission parameters of the context, like
+ * <i>SubmissionQueueSize</i>, can be provided as system properties with the
+ * same name.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class LoadHarness {
+
+    /**
+     * Default port of the HTTP server.
+     */
+    private static final int DEFAULTPORT = 9998;
+
+    /**
+     * Default tasks created every second.
+     */
+    private static final int DEFAULTRATE = 10;
+
+    /**
+     * Default seconds of task creation.
+     */
+    private static final int DEFAULTDURATION = 60;
+
+    /**
+     * Default milliseconds of every submission.
+     */
+    private static final long DEFAULTLATENCY = 500;
+
+    /**
+     * Default probability of a submission failure.
+     */
+    private static final String DEFAULTFAILURERATE = "0.01";
+
+    /**
+     * Default number of infrastructures.
+     */
+    private static final int DEFAULTINFRASTRUCTURES = 2;
+
+    /**
+     * Default size in bytes of the input files.
+     */
+    private static final int DEFAULTINPUTSIZE = 1024;
+
+    /**
+     * Default milliseconds between status requests.
+     */
+    private static final long DEFAULTPOLLINTERVAL = 200;
+
+    /**
+     * Default seconds to wait the submission of a task.
+     */
+    private static final int DEFAULTTIMEOUT = 120;
+
+    /**
+     * Context parameters read from the system properties.
+     */
+    private static final List<String> CONTEXTPARAMETERS = Arrays.asList(
+            "SubmissionQueueSize", "SubmissionMaxPerInfrastructure",
+            "SubmissioneThreadPoolSize", "SubmissionThreadMode");
+
+    /**
+     * Base URI of the services.
+     */
+    private final URI baseUri = URI.create("http://localhost:"
+            + Integer.getInteger("load.port", DEFAULTPORT) + "/v1.0/");
+
+    /**
+     * Tasks created every second.
+     */
+    private final int rate = Integer.getInteger("load.rate", DEFAULTRATE);
+
+    /**
+     * Seconds of task creation.
+     */
+    private final int duration = Integer.getInteger("load.duration",
+            DEFAULTDURATION);
+
+    /**
+     * Milliseconds between status requests.
+     */
+    private final long pollInterval = Long.getLong("load.pollInterval",
+            DEFAULTPOLLINTERVAL);
+
+    /**
+     * Seconds to wait the submission of a task.
+     */
+    private final int timeout = Integer.getInteger("load.timeout",
+            DEFAULTTIMEOUT);
+
+    /**
+     * Content of the input files.
+     */
+    private final byte[] inputContent = new byte[Integer.getInteger(
+            "load.inputSize", DEFAULTINPUTSIZE)];
+
+    /**
+     * Applications used by the tasks.
+     */
+    private final List<String> applications = new LinkedList<>();
+
+    /**
+     * Latency of the task creation.
+     */
+    private final LatencyRecorder creation = new LatencyRecorder("create");
+
+    /**
+     * Latency of the input upload.
+     */
+    private final LatencyRecorder upload = new LatencyRecorder("upload");
+
+    /**
+     * Time from the creation to the submission of a task.
+     */
+    private final LatencyRecorder submission =
+            new LatencyRecorder("submission");
+
+    /**
+     * Tasks started.
+     */
+    private final AtomicInteger started = new AtomicInteger();
+
+    /**
+     * Tasks not accepted by the server.
+     */
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * Tasks aborted by the server.
+     */
+    private final AtomicInteger aborted = new AtomicInteger();
+
+    /**
+     * Tasks not submitted before the timeout.
+     */
+    private final AtomicInteger timedOut = new AtomicInteger();
+
+    /**
+     * Tasks failed for an error in the requests.
+     */
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * Generator for the application selection.
+     */
+    private final Random rnd = new Random();
+
+
+    /**
+     * Create the harness.
+     */
+    private LoadHarness() {
+        rnd.nextBytes(inputContent);
+    }
+
+
+    /**
+     * Run the load test.
+     *
+     * @param args Not used
+     * @throws Exception If the server cannot be started or stopped
+     */
+    public static void main(final String[] args) throws Exception {
+        new LoadHarness().run();
+    }
+
+
+    /**
+     * Start the server, perform the test and print the results.
+     *
+     * @throws IOException If the server cannot be started or stopped
+     * @throws InterruptedException If the test is interrupted
+     */
+    private void run() throws IOException, InterruptedException {
+        CustomJobFactory.registerProvider(LocalJobProvider.TYPE,
+                new LocalJobProvider(
+                        Long.getLong("load.latency", DEFAULTLATENCY),
+                        Double.parseDouble(System.getProperty(
+                                "load.failureRate", DEFAULTFAILURERATE))));
+        Map<String, String> params = new HashMap<>();
+        params.put("CacheDir",
+                Files.createTempDirectory("fgload").toString());
+        for (String name: CONTEXTPARAMETERS) {
+            if (System.getProperty(name) != null) {
+                params.put(name, System.getProperty(name));
+            }
+        }
+        EmbeddedServer server = new EmbeddedServer(baseUri, params);
+        server.start();
+        Client client = ClientBuilder.newClient();
+        try {
+            WebTarget api = client.target(baseUri);
+            seed(api);
+            long elapsed = drive(api);
+            report(elapsed, (SubmissionQueue) server.getAttribute(
+                    Constants.SUBMISSIONQUEUE));
+        } finally {
+            client.close();
+            server.close();
+            CustomJobFactory.unregisterProvider(LocalJobProvider.TYPE);
+        }
+    }
+
+
+    /**
+     * Register the infrastructures and the application.
+     *
+     * @param api The target of the services
+     */
+    private void seed(final WebTarget api) {
+        List<String> infras = new LinkedList<>();
+        int numInfras = Integer.getInteger("load.infrastructures",
+                DEFAULTINFRASTRUCTURES);
+        for (int i = 0; i < numInfras; i++) {
+            Infrastructure infra = TestData.createInfrastructure();
+            infra.setEnabled(true);
+            List<Params> params = new LinkedList<>();
+            if (infra.getParameters() != null) {
+                params.addAll(infra.getParameters());
+            }
+            params.add(newParam("type", LocalJobProvider.TYPE));
+            params.add(newParam("jobservice",
+                    LocalJobProvider.TYPE + "://localhost"));
+            infra.setParameters(params);
+            infras.add(api.path("infrastructures").
+                    request(Constants.INDIGOMIMETYPE).
+                    post(Entity.entity(infra, Constants.INDIGOMIMETYPE),
+                            Infrastructure.class).getId());
+        }
+        Application app = TestData.createApplication();
+        app.setEnabled(true);
+        app.setInfrastructureIds(infras);
+        applications.add(api.path("applications").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(app, Constants.INDIGOMIMETYPE),
+                        Application.class).getId());
+    }
+
+
+    /**
+     * Create the tasks at the configured rate and wait their submission.
+     *
+     * @param api The target of the services
+     * @return The test duration in nanoseconds
+     * @throws InterruptedException If the test is interrupted
+     */
+    private long drive(final WebTarget api) throws InterruptedException {
+        final ExecutorService clients = Executors.newCachedThreadPool();
+        ScheduledExecutorService arrivals =
+                Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        arrivals.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                started.incrementAndGet();
+                clients.execute(new TaskDriver(api));
+            }
+        }, 0, TimeUnit.SECONDS.toMicros(1) / rate, TimeUnit.MICROSECONDS);
+        TimeUnit.SECONDS.sleep(duration);
+        arrivals.shutdownNow();
+        clients.shutdown();
+        if (!clients.awaitTermination(timeout, TimeUnit.SECONDS)) {
+            clients.shutdownNow();
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    /**
+     * Print the results.
+     *
+     * @param elapsed The test duration in nanoseconds
+     * @param queue The submission queue of the server
+     */
+    private void report(final long elapsed, final SubmissionQueue queue) {
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.println(String.format("tasks: started=%d submitted=%d"
+                + " rejected=%d aborted=%d timeout=%d errors=%d",
+                started.get(), submission.getCount(), rejected.get(),
+                aborted.get(), timedOut.get(), errors.get()));
+        System.out.println(String.format("throughput: %.2f tasks/s"
+                + " (offered %d tasks/s)",
+                submission.getCount() / seconds, rate));
+        System.out.println(creation);
+        System.out.println(upload);
+        System.out.println(submission);
+        if (queue != null) {
+            System.out.println(String.format("queue: rejected=%d"
+                    + " max wait=%dms", queue.getRejected(),
+                    queue.getMaxWaitTime()));
+        }
+    }
+
+
+    /**
+     * Create a parameter.
+     *
+     * @param name The parameter name
+     * @param value The parameter value
+     * @return The parameter
+     */
+    private static Params newParam(final String name, final String value) {
+        Params p = new Params();
+        p.setName(name);
+        p.setValue(value);
+        return p;
+    }
+
+
+    /**
+     * Client performing the operations of a task.
+     */
+    private final class TaskDriver implements Runnable {
+
+        /**
+         * The target of the services.
+         */
+        private final WebTarget api;
+
+        /**
+         * Create the client.
+         *
+         * @param anApi The target of the services
+         */
+        TaskDriver(final WebTarget anApi) {
+            this.api = anApi;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            Task task = TestData.createTask();
+            synchronized (rnd) {
+                task.setApplicationId(applications.get(
+                        rnd.nextInt(applications.size())));
+            }
+            try {
+                Response rs = api.path("tasks").
+                        request(Constants.INDIGOMIMETYPE).
+                        post(Entity.entity(task, Constants.INDIGOMIMETYPE));
+                if (rs.getStatus()
+                        == Response.Status.SERVICE_UNAVAILABLE.
+                        getStatusCode()) {
+                    rs.close();
+                    rejected.incrementAndGet();
+                    return;
+                }
+                Task created = rs.readEntity(Task.class);
+                creation.record(begin);
+                uploadInputs(created);
+                waitSubmission(created.getId(), begin);
+            } catch (ProcessingException | WebApplicationException ex) {
+                errors.incrementAndGet();
+            } catch (InterruptedException ie) {
+                timedOut.incrementAndGet();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Upload the input files of a task.
+         *
+         * @param task The task
+         */
+        private void uploadInputs(final Task task) {
+            if (task.getInputFiles() == null
+                    || task.getInputFiles().isEmpty()) {
+                return;
+            }
+            long begin = System.nanoTime();
+            for (TaskFileInput tfi: task.getInputFiles()) {
+                Response rs = api.path("tasks").path(task.getId()).
+                        path("input").path(tfi.getName()).request().
+                        put(Entity.entity(inputContent,
+                                MediaType.APPLICATION_OCTET_STREAM));
+                rs.close();
+                if (rs.getStatusInfo().getFamily()
+                        != Response.Status.Family.SUCCESSFUL) {
+                    throw new WebApplicationException(rs);
+                }
+            }
+            upload.record(begin);
+        }
+
+        /**
+         * Poll the status of a task until it is submitted.
+         *
+         * @param id The task identifier
+         * @param begin The creation time of the task
+         * @throws InterruptedException If the thread is interrupted
+         */
+        private void waitSubmission(final String id, final long begin)
+                throws InterruptedException {
+            long deadline = begin + TimeUnit.SECONDS.toNanos(timeout);
+            while (System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(pollInterval);
+                Task task = api.path("tasks").path(id).
+                        request(Constants.INDIGOMIMETYPE).get(Task.class);
+                switch (task.getStatus()) {
+                    case SCHEDULED:
+                    case RUNNING:
+                    case DONE:
+                        submission.record(begin);
+                        return;
+                    case ABORTED:
+                    case CANCELLED:
+                        aborted.incrementAndGet();
+                        return;
+                    default:
+                        break;
+                }
+            }
+            timedOut.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.load;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.JobProvider;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ogf.saga.error.NoSuccessException;
+import org.ogf.saga.job.Job;
+import org.ogf.saga.task.State;
+
+/**
+ * Job provider simulating a remote job service.
+ * The jobs are not executed: the submission waits for the configured
+ * latency and then fails with the configured probability. Submitted jobs
+ * are reported as running, also when retrieved by the monitor, until the
+ * configured duration is elapsed and then as done. The provider counts the
+ * status checks of every job.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public final class LocalJobProvider implements JobProvider {
+
+    /**
+     * Infrastructure type managed by the provider.
+     */
+    public static final String TYPE = "local";
+
+    /**
+     * Latency of the submission in milliseconds.
+     */
+    private final long latency;
+
+    /**
+     * Probability of a submission failure.
+     */
+    private final double failureRate;
+
+    /**
+     * Duration of the jobs in milliseconds, not positive if they never end.
+     */
+    private final long duration;
+
+    /**
+     * Generator of the failures.
+     */
+    private final Random rnd = new Random();
+
+    /**
+     * Counter for the job identifiers.
+     */
+    private final AtomicLong jobCounter = new AtomicLong();
+
+    /**
+     * End time of the submitted jobs, by job identifier.
+     */
+    private final ConcurrentMap<String, Long> ends =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Number of status checks, by job identifier.
+     */
+    private final ConcurrentMap<String, AtomicInteger> checks =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Create the provider for jobs never ending.
+     *
+     * @param aLatency Latency of the submission in milliseconds
+     * @param aFailureRate Probability of a submission failure, between 0
+     * and 1
+     */
+    public LocalJobProvider(final long aLatency, final double aFailureRate) {
+        this(aLatency, aFailureRate, 0);
+    }
+
+
+    /**
+     * Create the provider.
+     *
+     * @param aLatency Latency of the submission in milliseconds
+     * @param aFailureRate Probability of a submission failure, between 0
+     * and 1
+     * @param aDuration Duration of the jobs in milliseconds after the
+     * submission, not positive if the jobs never end
+     */
+    public LocalJobProvider(final long aLatency, final double aFailureRate,
+            final long aDuration) {
+        this.latency = aLatency;
+        this.failureRate = aFailureRate;
+        this.duration = aDuration;
+    }
+
+
+    /**
+     * Retrieves the number of status checks of a job.
+     *
+     * @param nativeId The job identifier
+     * @return The number of checks
+     */
+    public int getChecks(final String nativeId) {
+        AtomicInteger count = checks.get(nativeId);
+        if (count == null) {
+            return 0;
+        }
+        return count.get();
+    }
+
+
+    @Override
+    public Job createJob(final Task task) {
+        String jobId = "[" + TYPE + "://localhost]-["
+                + jobCounter.incrementAndGet() + "]";
+        return (Job) Proxy.newProxyInstance(Job.class.getClassLoader(),
+                new Class<?>[]{Job.class}, new LocalJob(jobId, State.NEW));
+    }
+
+
+    @Override
+    public Job getJob(final Task task, final String nativeId) {
+        AtomicInteger count = checks.get(nativeId);
+        if (count == null) {
+            checks.putIfAbsent(nativeId, new AtomicInteger());
+            count = checks.get(nativeId);
+        }
+        count.incrementAndGet();
+        State state = State.RUNNING;
+        Long end = ends.get(nativeId);
+        if (end != null && end <= System.currentTimeMillis()) {
+            state = State.DONE;
+        }
+        return (Job) Proxy.newProxyInstance(Job.class.getClassLoader(),
+                new Class<?>[]{Job.class}, new LocalJob(nativeId, state));
+    }
+
+
+    /**
+     * Simulate the submission of a job.
+     *
+     * @throws NoSuccessException If the submission fails
+     */
+    private void submit() throws NoSuccessException {
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new NoSuccessException("Submission interrupted");
+        }
+        boolean failed;
+        synchronized (rnd) {
+            failed = rnd.nextDouble() < failureRate;
+        }
+        if (failed) {
+            throw new NoSuccessException("Simulated submission failure");
+        }
+    }
+
+
+    /**
+     * Implementation of the job methods used by the server.
+     * Other methods are not supported.
+     */
+    private final class LocalJob implements InvocationHandler {
+
+        /**
+         * Identifier of the job.
+         */
+        private final String jobId;
+
+        /**
+         * State of the job.
+         */
+        private volatile State state;
+
+        /**
+         * Create the job.
+         *
+         * @param aJobId The job identifier
+         * @param aState The initial state
+         */
+        LocalJob(final String aJobId, final State aState) {
+            this.jobId = aJobId;
+            this.state = aState;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "run":
+                    submit();
+                    if (duration > 0) {
+                        ends.put(jobId,
+                                System.currentTimeMillis() + duration);
+                    }
+                    state = State.RUNNING;
+                    return null;
+                case "getAttribute":
+                    if (Job.JOBID.equals(args[0])) {
+                        return jobId;
+                    }
+                    return null;
+                case "getState":
+                    return state;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return jobId;
+                default:
+                    throw new UnsupportedOperationException("Method "
+                            + method.getName() + " not available for the "
+                            + "local jobs");
+            }
+        }
+    }
+}
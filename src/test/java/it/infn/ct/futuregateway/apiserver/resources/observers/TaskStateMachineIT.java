@@ -0,0 +1,294 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package it.infn.ct.futuregateway.apiserver.resources.observers;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.TaskData;
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.persistence.EntityManagerFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the task state machine.
+ * The transitions are recorded by a listener so the tests can check every
+ * transition performed is notified exactly once.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class TaskStateMachineIT {
+
+    /**
+     * Number of tasks moved together.
+     */
+    private static final int TASKS = 10;
+
+    /**
+     * Number of threads moving the same tasks.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Application of the tasks.
+     */
+    private static Application app;
+
+    /**
+     * Transitions notified, as task identifier, old and new status.
+     */
+    private final List<String> transitions =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * The state machine under test.
+     */
+    private TaskStateMachine tsm;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        emf = TaskData.createPersistence("statemachine");
+        app = TaskData.storeApplication(emf, "local", null);
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Create the state machine with a listener recording the transitions.
+     */
+    @Before
+    public final void setUp() {
+        transitions.clear();
+        tsm = new TaskStateMachine(emf);
+        tsm.addListener(new TaskTransitionListener() {
+            @Override
+            public void transitionPerformed(final Task task,
+                    final Task.STATUS from, final Task.STATUS to) {
+                transitions.add(task.getId() + ":" + from + ":" + to);
+            }
+        });
+    }
+
+
+    /**
+     * Test the transitions of the task life cycle.
+     */
+    @Test
+    public final void testAllowed() {
+        Assert.assertTrue(TaskStateMachine.isAllowed(Task.STATUS.WAITING,
+                Task.STATUS.READY));
+        Assert.assertTrue(TaskStateMachine.isAllowed(Task.STATUS.READY,
+                Task.STATUS.SCHEDULED));
+        Assert.assertTrue(TaskStateMachine.isAllowed(Task.STATUS.SCHEDULED,
+                Task.STATUS.DONE));
+        Assert.assertTrue(TaskStateMachine.isAllowed(Task.STATUS.RUNNING,
+                Task.STATUS.CANCELLED));
+        Assert.assertFalse(TaskStateMachine.isAllowed(Task.STATUS.WAITING,
+                Task.STATUS.SCHEDULED));
+        Assert.assertFalse(TaskStateMachine.isAllowed(Task.STATUS.RUNNING,
+                Task.STATUS.READY));
+        Assert.assertFalse(TaskStateMachine.isAllowed(Task.STATUS.READY,
+                Task.STATUS.READY));
+        Assert.assertFalse(TaskStateMachine.isAllowed(null,
+                Task.STATUS.READY));
+        for (Task.STATUS to: Task.STATUS.values()) {
+            Assert.assertFalse(TaskStateMachine.isAllowed(Task.STATUS.DONE,
+                    to));
+            Assert.assertFalse(TaskStateMachine.isAllowed(
+                    Task.STATUS.ABORTED, to));
+            Assert.assertFalse(TaskStateMachine.isAllowed(
+                    Task.STATUS.CANCELLED, to));
+        }
+    }
+
+
+    /**
+     * Test a transition outside the life cycle is refused.
+     */
+    @Test
+    public final void testDenied() {
+        Task task = TaskData.storeTask(emf, app, "job-denied",
+                Task.STATUS.DONE);
+        try {
+            tsm.moveTo(task, Task.STATUS.RUNNING);
+            Assert.fail("Transition from DONE to RUNNING performed");
+        } catch (IllegalStateException ise) {
+            Assert.assertEquals(Task.STATUS.DONE, task.getStatus());
+        }
+        Assert.assertEquals(Task.STATUS.DONE,
+                TaskData.getStatus(emf, task.getId()));
+        Assert.assertTrue(transitions.isEmpty());
+    }
+
+
+    /**
+     * Test a transition is stored and notified once.
+     */
+    @Test
+    public final void testMove() {
+        Task task = TaskData.storeTask(emf, app, "job-move",
+                Task.STATUS.READY);
+        Assert.assertTrue(tsm.moveTo(task, Task.STATUS.SCHEDULED));
+        Assert.assertEquals(Task.STATUS.SCHEDULED, task.getStatus());
+        Assert.assertEquals(Task.STATUS.SCHEDULED,
+                TaskData.getStatus(emf, task.getId()));
+        Assert.assertEquals(Collections.singletonList(task.getId()
+                + ":READY:SCHEDULED"), transitions);
+    }
+
+
+    /**
+     * Test a task modified concurrently is not moved.
+     * The second transition starts from a status the task has not anymore
+     * so the conditional update does not match.
+     */
+    @Test
+    public final void testConcurrentMove() {
+        Task task = TaskData.storeTask(emf, app, "job-concurrent",
+                Task.STATUS.READY);
+        Task stale = copy(task);
+        Assert.assertTrue(tsm.moveTo(task, Task.STATUS.ABORTED));
+        Assert.assertFalse(tsm.moveTo(stale, Task.STATUS.SCHEDULED));
+        Assert.assertEquals(Task.STATUS.READY, stale.getStatus());
+        Assert.assertEquals(Task.STATUS.ABORTED,
+                TaskData.getStatus(emf, task.getId()));
+        Assert.assertEquals(Collections.singletonList(task.getId()
+                + ":READY:ABORTED"), transitions);
+    }
+
+
+    /**
+     * Test a bulk transition skips the tasks modified concurrently.
+     */
+    @Test
+    public final void testMoveAll() {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++) {
+            tasks.add(TaskData.storeTask(emf, app, "job-all-" + i,
+                    Task.STATUS.READY));
+        }
+        Task cancelled = copy(tasks.get(0));
+        Assert.assertTrue(tsm.moveTo(cancelled, Task.STATUS.CANCELLED));
+        transitions.clear();
+        List<Task> stale = new ArrayList<>();
+        for (Task task: tasks) {
+            stale.add(copy(task));
+        }
+        Assert.assertEquals(TASKS - 1,
+                tsm.moveAll(tasks, Task.STATUS.SCHEDULED));
+        Assert.assertEquals(Task.STATUS.READY, tasks.get(0).getStatus());
+        Assert.assertEquals(Task.STATUS.CANCELLED,
+                TaskData.getStatus(emf, tasks.get(0).getId()));
+        Assert.assertEquals(TASKS - 1, transitions.size());
+        Assert.assertEquals(0, tsm.moveAll(stale, Task.STATUS.SCHEDULED));
+        Assert.assertEquals(TASKS - 1, transitions.size());
+    }
+
+
+    /**
+     * Test the same tasks moved by many threads are moved and notified
+     * exactly once.
+     *
+     * @throws Exception If a thread fails
+     */
+    @Test
+    public final void testConcurrentMoveAll() throws Exception {
+        final List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++) {
+            tasks.add(TaskData.storeTask(emf, app, "job-race-" + i,
+                    Task.STATUS.READY));
+        }
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        int moved = 0;
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final List<Task> copies = new ArrayList<>();
+                for (Task task: tasks) {
+                    copies.add(copy(task));
+                }
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return tsm.moveAll(copies, Task.STATUS.SCHEDULED);
+                    }
+                }));
+            }
+            for (Future<Integer> result: results) {
+                moved += result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(TASKS, moved);
+        Assert.assertEquals(TASKS, transitions.size());
+        Assert.assertEquals(TASKS, new HashSet<>(transitions).size());
+        for (Task task: tasks) {
+            Assert.assertEquals(Task.STATUS.SCHEDULED,
+                    TaskData.getStatus(emf, task.getId()));
+        }
+    }
+
+
+    /**
+     * Create a copy of a task with the same identifier and status.
+     *
+     * @param task The task
+     * @return The copy
+     */
+    private static Task copy(final Task task) {
+        Task t = new Task();
+        t.setId(task.getId());
+        t.setStatus(task.getStatus());
+        return t;
+    }
+}
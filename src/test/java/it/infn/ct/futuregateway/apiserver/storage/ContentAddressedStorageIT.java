@@ -0,0 +1,250 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration tests for the storage sharing identical files.
+ * The tests sharing the files run only if the temporary folder supports
+ * the hard links.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class ContentAddressedStorageIT {
+
+    /**
+     * Content of the shared files.
+     */
+    private static final byte[] CONTENT = "shared content".getBytes(
+            StandardCharsets.UTF_8);
+
+    /**
+     * Content written over a shared file.
+     */
+    private static final byte[] OTHER = "other content".getBytes(
+            StandardCharsets.UTF_8);
+
+    /**
+     * Name of the files.
+     */
+    private static final String FILENAME = "input.txt";
+
+    /**
+     * Path of the storage.
+     */
+    private Path dir;
+
+    /**
+     * Storage under test.
+     */
+    private ContentAddressedStorage storage;
+
+
+    /**
+     * Create the storage.
+     *
+     * @throws Exception If the storage cannot be created
+     */
+    @Before
+    public final void setUp() throws Exception {
+        dir = Files.createTempDirectory("fgcas");
+        storage = new ContentAddressedStorage(dir.toString());
+    }
+
+
+    /**
+     * Test two tasks with the same file share a blob.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testShared() throws Exception {
+        assumeLinks();
+        store(storage, "task-1", CONTENT);
+        store(storage, "task-2", CONTENT);
+        Assert.assertEquals(1, countBlobs());
+        Assert.assertTrue(Files.isSameFile(getFile("task-1"),
+                getFile("task-2")));
+        Assert.assertArrayEquals(CONTENT, read("task-2"));
+    }
+
+
+    /**
+     * Test the blob is removed with the last task using it.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testRemove() throws Exception {
+        assumeLinks();
+        store(storage, "task-1", CONTENT);
+        store(storage, "task-2", CONTENT);
+        storage.removeAllFiles(Storage.RESOURCE.TASKS, "task-1");
+        Assert.assertEquals(1, countBlobs());
+        Assert.assertArrayEquals(CONTENT, read("task-2"));
+        storage.removeAllFiles(Storage.RESOURCE.TASKS, "task-2");
+        Assert.assertEquals(0, countBlobs());
+    }
+
+
+    /**
+     * Test writing a shared file does not modify the other tasks.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testDetach() throws Exception {
+        assumeLinks();
+        store(storage, "task-1", CONTENT);
+        store(storage, "task-2", CONTENT);
+        store(storage, "task-3", CONTENT);
+        storage.storeFile(Storage.RESOURCE.TASKS, "task-1",
+                new ByteArrayInputStream(OTHER), FILENAME);
+        storage.storeFilePart(Storage.RESOURCE.TASKS, "task-2",
+                Channels.newChannel(new ByteArrayInputStream(OTHER)),
+                FILENAME, null, CONTENT.length);
+        Assert.assertArrayEquals(OTHER, read("task-1"));
+        Assert.assertEquals(CONTENT.length + OTHER.length,
+                read("task-2").length);
+        Assert.assertArrayEquals(CONTENT, read("task-3"));
+        storage.removeAllFiles(Storage.RESOURCE.TASKS, "task-3");
+        Assert.assertEquals(0, countBlobs());
+    }
+
+
+    /**
+     * Test a file system without hard links stores the files as the local
+     * storage.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testNoLinks() throws Exception {
+        ContentAddressedStorage plain = new ContentAddressedStorage(
+                dir.toString()) {
+            @Override
+            boolean supportsLinks(final Path file) {
+                return false;
+            }
+        };
+        store(plain, "task-1", CONTENT);
+        store(plain, "task-2", CONTENT);
+        Assert.assertEquals(0, countBlobs());
+        Assert.assertFalse(Files.isSameFile(getFile("task-1"),
+                getFile("task-2")));
+        plain.removeAllFiles(Storage.RESOURCE.TASKS, "task-1");
+        Assert.assertTrue(Files.notExists(getFile("task-1")));
+        Assert.assertArrayEquals(CONTENT, read("task-2"));
+    }
+
+
+    /**
+     * Skip the test if the temporary folder does not support hard links.
+     *
+     * @throws IOException If the folder cannot be accessed
+     */
+    private void assumeLinks() throws IOException {
+        Assume.assumeTrue(Files.getFileStore(dir).
+                supportsFileAttributeView("unix"));
+    }
+
+
+    /**
+     * Store and commit a file of a task.
+     *
+     * @param store The storage
+     * @param id The task identifier
+     * @param content The content of the file
+     * @throws Exception If the file cannot be stored
+     */
+    private static void store(final Storage store, final String id,
+            final byte[] content) throws Exception {
+        store.storeFile(Storage.RESOURCE.TASKS, id,
+                new ByteArrayInputStream(content), FILENAME);
+        MessageDigest digest = UploadChecksums.newDigest();
+        store.commitFile(Storage.RESOURCE.TASKS, id, FILENAME, null,
+                UploadChecksums.toHex(digest.digest(content)));
+    }
+
+
+    /**
+     * Build the path of the file of a task.
+     *
+     * @param id The task identifier
+     * @return The path
+     */
+    private Path getFile(final String id) {
+        return Paths.get(dir.toString(), "tasks", id, FILENAME);
+    }
+
+
+    /**
+     * Read the file of a task.
+     *
+     * @param id The task identifier
+     * @return The content
+     * @throws IOException If the file cannot be read
+     */
+    private byte[] read(final String id) throws IOException {
+        return Files.readAllBytes(getFile(id));
+    }
+
+
+    /**
+     * Count the blobs in the storage.
+     *
+     * @return The number of blobs
+     * @throws IOException If the blobs cannot be read
+     */
+    private int countBlobs() throws IOException {
+        Path blobs = dir.resolve("blobs");
+        if (Files.notExists(blobs)) {
+            return 0;
+        }
+        final int[] count = {0};
+        Files.walkFileTree(blobs, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) {
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+}
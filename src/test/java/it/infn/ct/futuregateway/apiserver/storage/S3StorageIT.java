@@ -0,0 +1,238 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration tests for the S3 storage.
+ * The tests run only when the variable <i>FGAPISERVER_S3_URL</i> defines
+ * the url of a bucket, as an example of a local MinIO:
+ * <i>s3://test/fgapiserver?endpoint=http://localhost:9000</i>. The
+ * credentials are read from the usual AWS variables.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class S3StorageIT {
+
+    /**
+     * Storage under test.
+     */
+    private Storage storage;
+
+    /**
+     * Task owning the files of the test.
+     */
+    private String taskId;
+
+
+    /**
+     * Create the storage if the object store is configured.
+     */
+    @Before
+    public final void setUp() {
+        String url = System.getenv("FGAPISERVER_S3_URL");
+        Assume.assumeTrue(url != null && !url.isEmpty());
+        storage = Storages.getStorage(url);
+        taskId = UUID.randomUUID().toString();
+    }
+
+
+    /**
+     * Remove the files of the test.
+     *
+     * @throws Exception If the files cannot be removed
+     */
+    @After
+    public final void tearDown() throws Exception {
+        if (storage != null) {
+            storage.removeAllFiles(Storage.RESOURCE.TASKS, taskId);
+        }
+    }
+
+
+    /**
+     * Test a small file is stored, read and removed.
+     *
+     * @throws Exception If the storage is not accessible
+     */
+    @Test
+    public final void testSmallFile() throws Exception {
+        byte[] data = randomData(1024);
+        storage.storeFile(Storage.RESOURCE.TASKS, taskId,
+                new ByteArrayInputStream(data), "small.txt", "input");
+        Assert.assertEquals(data.length, storage.getFileSize(
+                Storage.RESOURCE.TASKS, taskId, "small.txt", "input"));
+        Assert.assertTrue(storage.getLastModified(Storage.RESOURCE.TASKS,
+                taskId, "small.txt", "input") > 0);
+        Assert.assertArrayEquals(data, read(storage, taskId, "small.txt",
+                0, data.length));
+        try (SeekableByteChannel sbc = storage.openFile(
+                Storage.RESOURCE.TASKS, taskId, "small.txt", "input")) {
+            sbc.position(data.length - 10);
+            ByteBuffer bb = ByteBuffer.allocate(20);
+            Assert.assertEquals(10, sbc.read(bb));
+            Assert.assertEquals(-1, sbc.read(bb));
+        }
+        Assert.assertEquals(data.length, storage.getUsedSpace(
+                Storage.RESOURCE.TASKS, taskId, null));
+        storage.removeFiles(Storage.RESOURCE.TASKS, taskId, "input");
+        Assert.assertEquals(-1, storage.getFileSize(
+                Storage.RESOURCE.TASKS, taskId, "small.txt", "input"));
+    }
+
+
+    /**
+     * Test a large file is uploaded in parts and resumed.
+     * The upload is resumed both before and after the minimum part size,
+     * so the previous content is downloaded in the first case and copied
+     * in the object store in the second.
+     *
+     * @throws Exception If the storage is not accessible
+     */
+    @Test
+    public final void testMultipartResume() throws Exception {
+        byte[] data = randomData(2 * Constants.S3PARTSIZE + 1000);
+        int[] positions = {0, 1000, (int) Constants.S3MINPARTSIZE + 1000};
+        for (int position: positions) {
+            storage.storeFilePart(Storage.RESOURCE.TASKS, taskId,
+                    Channels.newChannel(new ByteArrayInputStream(data, 0,
+                            position)), "large.bin", "input", 0);
+            long written = storage.storeFilePart(Storage.RESOURCE.TASKS,
+                    taskId, Channels.newChannel(new ByteArrayInputStream(
+                            data, position, data.length - position)),
+                    "large.bin", "input", position);
+            Assert.assertEquals(data.length - position, written);
+            Assert.assertArrayEquals(data, read(storage, taskId,
+                    "large.bin", 0, data.length));
+        }
+        byte[] range = read(storage, taskId, "large.bin",
+                Constants.S3PARTSIZE - 10, Constants.S3PARTSIZE);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data,
+                Constants.S3PARTSIZE - 10, 2 * Constants.S3PARTSIZE - 10),
+                range);
+    }
+
+
+    /**
+     * Test a large file written in many calls continues the pending upload.
+     * The file is completed by the commit, without copying the content
+     * already uploaded.
+     *
+     * @throws Exception If the storage is not accessible
+     */
+    @Test
+    public final void testPendingUpload() throws Exception {
+        byte[] data = randomData(3 * Constants.S3PARTSIZE + 1000);
+        int[] positions = {0, Constants.S3PARTSIZE + 1000,
+            2 * Constants.S3PARTSIZE + 500, data.length};
+        for (int i = 0; i + 1 < positions.length; i++) {
+            long written = storage.storeFilePart(Storage.RESOURCE.TASKS,
+                    taskId, Channels.newChannel(new ByteArrayInputStream(
+                            data, positions[i],
+                            positions[i + 1] - positions[i])),
+                    "pending.bin", "input", positions[i]);
+            Assert.assertEquals(positions[i + 1] - positions[i], written);
+            Assert.assertEquals(positions[i + 1], storage.getFileSize(
+                    Storage.RESOURCE.TASKS, taskId, "pending.bin", "input"));
+        }
+        storage.commitFile(Storage.RESOURCE.TASKS, taskId, "pending.bin",
+                "input", null);
+        Assert.assertArrayEquals(data, read(storage, taskId, "pending.bin",
+                0, data.length));
+        Assert.assertEquals(data.length, storage.getUsedSpace(
+                Storage.RESOURCE.TASKS, taskId, "input"));
+    }
+
+
+    /**
+     * Test the resources are listed in pages.
+     *
+     * @throws Exception If the storage is not accessible
+     */
+    @Test
+    public final void testListResources() throws Exception {
+        storage.storeFile(Storage.RESOURCE.TASKS, taskId,
+                new ByteArrayInputStream(randomData(10)), "file.txt");
+        boolean found = false;
+        String after = null;
+        List<String> page;
+        do {
+            page = storage.listResources(Storage.RESOURCE.TASKS, after, 2);
+            Assert.assertTrue(page.size() <= 2);
+            found |= page.contains(taskId);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (!page.isEmpty());
+        Assert.assertTrue(found);
+    }
+
+
+    /**
+     * Read a range of a file of the task.
+     *
+     * @param st The storage
+     * @param id The task
+     * @param name The file name
+     * @param position The first byte
+     * @param count The bytes to read
+     * @return The content
+     * @throws Exception If the file cannot be read
+     */
+    private static byte[] read(final Storage st, final String id,
+            final String name, final long position, final long count)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        st.transferFile(Storage.RESOURCE.TASKS, id, name, "input", position,
+                count, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Generate random data.
+     *
+     * @param size The size
+     * @return The data
+     */
+    private static byte[] randomData(final int size) {
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
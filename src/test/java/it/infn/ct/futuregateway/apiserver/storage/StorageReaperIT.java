@@ -0,0 +1,268 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package it.infn.ct.futuregateway.apiserver.storage;
+
+import it.infn.ct.futuregateway.apiserver.inframanager.TaskData;
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.utils.Constants;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the removal of the files not needed.
+ * The files are in a local storage and the tasks in an in-memory DB.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class StorageReaperIT {
+
+    /**
+     * Content of the files.
+     */
+    private static final byte[] CONTENT = "test file content".getBytes();
+
+    /**
+     * Number of directories checked together.
+     */
+    private static final int BATCHSIZE = 2;
+
+    /**
+     * Number of orphan directories, more than a batch.
+     */
+    private static final int ORPHANS = 5;
+
+    /**
+     * Retention of the outputs in days.
+     */
+    private static final long RETENTION = 1;
+
+    /**
+     * Status of the tasks whose outputs can expire.
+     */
+    private static final EnumSet<Task.STATUS> ENDED = EnumSet.of(
+            Task.STATUS.DONE, Task.STATUS.ABORTED, Task.STATUS.CANCELLED);
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Application of the tasks.
+     */
+    private static Application app;
+
+    /**
+     * Storage to clean.
+     */
+    private Storage storage;
+
+    /**
+     * The reaper under test.
+     */
+    private StorageReaper reaper;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        emf = TaskData.createPersistence("storagereaper");
+        app = TaskData.storeApplication(emf, "local", null);
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Create the storage and the reaper.
+     *
+     * @throws Exception If the storage cannot be created
+     */
+    @Before
+    public final void setUp() throws Exception {
+        storage = new LocalStorage(Files.createTempDirectory("fgreaper").
+                toString());
+        reaper = new StorageReaper(emf, storage, BATCHSIZE, 0, RETENTION);
+    }
+
+
+    /**
+     * Test the files of the tasks not in the DB are removed and the files
+     * of the tasks in the DB are kept, whatever their status.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testOrphans() throws Exception {
+        for (int i = 0; i < ORPHANS; i++) {
+            store("orphan-" + i, null);
+            store("orphan-" + i, Constants.OUTPUTFOLDER);
+        }
+        List<Task> live = new ArrayList<>();
+        for (Task.STATUS status: Task.STATUS.values()) {
+            Task task = TaskData.storeTask(emf, app, "job-live", status);
+            store(task.getId(), null);
+            store(task.getId(), Constants.OUTPUTFOLDER);
+            live.add(task);
+        }
+        Assert.assertEquals(2L * ORPHANS * CONTENT.length, reaper.reap());
+        Assert.assertEquals(live.size(), storage.listResources(
+                Storage.RESOURCE.TASKS, null, ORPHANS + live.size()).size());
+        for (int i = 0; i < ORPHANS; i++) {
+            Assert.assertEquals(0, storage.getUsedSpace(
+                    Storage.RESOURCE.TASKS, "orphan-" + i, null));
+        }
+        for (Task task: live) {
+            Assert.assertEquals(2L * CONTENT.length, storage.getUsedSpace(
+                    Storage.RESOURCE.TASKS, task.getId(), null));
+        }
+        Assert.assertEquals(0, reaper.reap());
+    }
+
+
+    /**
+     * Test only the outputs of the tasks ended before the retention are
+     * removed. The inputs of the expired tasks, the files of the active
+     * tasks and the files of the tasks ended recently are kept.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testExpired() throws Exception {
+        List<Task> aged = new ArrayList<>();
+        List<Task> recent = new ArrayList<>();
+        for (Task.STATUS status: Task.STATUS.values()) {
+            Task task = TaskData.storeTask(emf, app, "job-aged", status);
+            age(task.getId());
+            aged.add(task);
+            recent.add(TaskData.storeTask(emf, app, "job-recent", status));
+        }
+        for (Task t: aged) {
+            store(t.getId(), null);
+            store(t.getId(), Constants.OUTPUTFOLDER);
+        }
+        for (Task t: recent) {
+            store(t.getId(), null);
+            store(t.getId(), Constants.OUTPUTFOLDER);
+        }
+        Assert.assertEquals(ENDED.size() * CONTENT.length, reaper.reap());
+        for (Task t: aged) {
+            long outputs = CONTENT.length;
+            if (ENDED.contains(t.getStatus())) {
+                outputs = 0;
+            }
+            Assert.assertEquals(t.getStatus().toString(), outputs,
+                    storage.getUsedSpace(Storage.RESOURCE.TASKS, t.getId(),
+                            Constants.OUTPUTFOLDER));
+            Assert.assertEquals(CONTENT.length + outputs,
+                    storage.getUsedSpace(Storage.RESOURCE.TASKS, t.getId(),
+                            null));
+        }
+        for (Task t: recent) {
+            Assert.assertEquals(2L * CONTENT.length, storage.getUsedSpace(
+                    Storage.RESOURCE.TASKS, t.getId(), null));
+        }
+        Assert.assertEquals(0, reaper.reap());
+    }
+
+
+    /**
+     * Test the outputs are kept when the retention is disabled, while the
+     * orphans are still removed.
+     *
+     * @throws Exception If the files cannot be accessed
+     */
+    @Test
+    public final void testNoRetention() throws Exception {
+        reaper = new StorageReaper(emf, storage, BATCHSIZE, 0, 0);
+        Task task = TaskData.storeTask(emf, app, "job-kept",
+                Task.STATUS.DONE);
+        age(task.getId());
+        store(task.getId(), null);
+        store(task.getId(), Constants.OUTPUTFOLDER);
+        store("orphan-kept", Constants.OUTPUTFOLDER);
+        Assert.assertEquals(CONTENT.length, reaper.reap());
+        Assert.assertEquals(2L * CONTENT.length, storage.getUsedSpace(
+                Storage.RESOURCE.TASKS, task.getId(), null));
+        Assert.assertEquals(0, storage.getUsedSpace(Storage.RESOURCE.TASKS,
+                "orphan-kept", null));
+    }
+
+
+    /**
+     * Store a file for a task.
+     *
+     * @param id The task identifier
+     * @param action The action of the file, null for the inputs
+     * @throws Exception If the file cannot be stored
+     */
+    private void store(final String id, final String action)
+            throws Exception {
+        storage.storeFile(Storage.RESOURCE.TASKS, id,
+                new ByteArrayInputStream(CONTENT), "file.txt", action);
+    }
+
+
+    /**
+     * Move the last change of a task before the retention period.
+     *
+     * @param id The task identifier
+     */
+    private void age(final String id) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.find(Task.class, id).setLastChange(new Date(
+                    System.currentTimeMillis()
+                    - TimeUnit.DAYS.toMillis(RETENTION + 1)));
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/***********************************************************************
+ * Copyright (c) 2015:
+ * Istituto Nazionale di Fisica Nucleare (INFN), Italy
+ * Consorzio COMETA (COMETA), Italy
+ *
+ * See http://www.infn.it and and http://www.consorzio-cometa.it for details on
+ * the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************
+ */
+package it.infn.ct.futuregateway.apiserver.v1;
+
+import it.infn.ct.futuregateway.apiserver.resources.Application;
+import it.infn.ct.futuregateway.apiserver.resources.DetailLoader;
+import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
+import it.infn.ct.futuregateway.apiserver.resources.Task;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Integration tests for the queries loading the resource details.
+ * The resources are stored in an in-memory DB with the cache disabled and
+ * the statistics of Hibernate count the statements executed to load them.
+ *
+ * @author Marco Fargetta <marco.fargetta@ct.infn.it>
+ */
+public class DetailQueriesIT {
+
+    /**
+     * EntityManagerFactory for the in-memory DB.
+     */
+    private static EntityManagerFactory emf;
+
+    /**
+     * Statistics of the persistence.
+     */
+    private static Statistics stats;
+
+
+    /**
+     * Create the in-memory DB.
+     */
+    @BeforeClass
+    public static void createPersistence() {
+        Map<String, String> props = new HashMap<>();
+        props.put("javax.persistence.jdbc.url",
+                "jdbc:hsqldb:mem:detailqueries");
+        props.put("hibernate.hbm2ddl.auto", "create-drop");
+        props.put("javax.persistence.sharedCache.mode", "NONE");
+        props.put("hibernate.cache.use_second_level_cache", "false");
+        props.put("hibernate.cache.use_query_cache", "false");
+        props.put("hibernate.generate_statistics", "true");
+        emf = Persistence.createEntityManagerFactory(
+                "it.infn.ct.futuregateway.apiserver.app", props);
+        stats = emf.unwrap(SessionFactory.class).getStatistics();
+    }
+
+
+    /**
+     * Close the in-memory DB.
+     */
+    @AfterClass
+    public static void closePersistence() {
+        emf.close();
+    }
+
+
+    /**
+     * Tests the application details are loaded with a number of queries
+     * independent of the associated infrastructures.
+     */
+    @Test
+    public final void testApplicationDetailQueries() {
+        String smallApp = storeApplication(1);
+        String bigApp = storeApplication(TestData.MAX_ENTITIES_IN_LIST);
+
+        long smallQueries = countApplicationQueries(smallApp);
+        long bigQueries = countApplicationQueries(bigApp);
+        Assert.assertEquals(smallQueries, bigQueries);
+    }
+
+
+    /**
+     * Tests the task details are loaded with a number of queries
+     * independent of the associated application.
+     */
+    @Test
+    public final void testTaskDetailQueries() {
+        String smallTask = storeTask(storeApplication(1));
+        String bigTask = storeTask(
+                storeApplication(TestData.MAX_ENTITIES_IN_LIST));
+
+        long smallQueries = countTaskQueries(smallTask);
+        long bigQueries = countTaskQueries(bigTask);
+        Assert.assertEquals(smallQueries, bigQueries);
+    }
+
+
+    /**
+     * Load an application and count the queries.
+     * The full application has to be available after the entity manager is
+     * closed.
+     *
+     * @param id The application id
+     * @return The number of queries
+     */
+    private long countApplicationQueries(final String id) {
+        Application app;
+        stats.clear();
+        EntityManager em = emf.createEntityManager();
+        try {
+            app = DetailLoader.findApplication(em, id);
+        } finally {
+            em.close();
+        }
+        long queries = stats.getPrepareStatementCount();
+        Assert.assertNotNull(app);
+        Assert.assertTrue(Hibernate.isInitialized(app.getParameters()));
+        Assert.assertTrue(Hibernate.isInitialized(app.getInfrastructures()));
+        for (Infrastructure infra: app.getInfrastructures()) {
+            Assert.assertTrue(Hibernate.isInitialized(infra.getParameters()));
+        }
+        Assert.assertEquals(app.getInfrastructures().size(),
+                app.getInfrastructureIds().size());
+        return queries;
+    }
+
+
+    /**
+     * Load a task and count the queries.
+     * The full task has to be available after the entity manager is closed.
+     *
+     * @param id The task id
+     * @return The number of queries
+     */
+    private long countTaskQueries(final String id) {
+        Task task;
+        stats.clear();
+        EntityManager em = emf.createEntityManager();
+        try {
+            task = DetailLoader.findTask(em, id);
+        } finally {
+            em.close();
+        }
+        long queries = stats.getPrepareStatementCount();
+        Assert.assertNotNull(task);
+        Assert.assertTrue(Hibernate.isInitialized(task.getInputFiles()));
+        Assert.assertTrue(Hibernate.isInitialized(task.getOutputFiles()));
+        Assert.assertTrue(Hibernate.isInitialized(task.getArguments()));
+        Assert.assertTrue(Hibernate.isInitialized(task.getRuntime()));
+        Application app = task.getApplicationDetail();
+        Assert.assertNotNull(app);
+        for (Infrastructure infra: app.getInfrastructures()) {
+            Assert.assertTrue(Hibernate.isInitialized(infra.getParameters()));
+        }
+        return queries;
+    }
+
+
+    /**
+     * Store an application with its infrastructures.
+     *
+     * @param numInfras Number of infrastructures of the application
+     * @return The application id
+     */
+    private String storeApplication(final int numInfras) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            List<Infrastructure> infras = new LinkedList<>();
+            for (int i = 0; i < numInfras; i++) {
+                Infrastructure infra = TestData.createInfrastructure();
+                em.persist(infra);
+                infras.add(infra);
+            }
+            Application app = TestData.createApplication();
+            app.setInfrastructures(infras);
+            em.persist(app);
+            em.getTransaction().commit();
+            return app.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+
+    /**
+     * Store a task for an application.
+     *
+     * @param appId The application id
+     * @return The task id
+     */
+    private String storeTask(final String appId) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Task task = TestData.createTask();
+            task.setApplicationId(appId);
+            task.setApplicationDetail(em.find(Application.class, appId));
+            task.setUserName("test");
+            task.setDateCreated(new Date());
+            task.setStatus(Task.STATUS.WAITING);
+            em.persist(task);
+            em.getTransaction().commit();
+            return task.getId();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
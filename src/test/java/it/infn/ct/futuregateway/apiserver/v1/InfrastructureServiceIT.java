@@ -69,6 +69,7 @@ public class InfrastructureServiceIT extends JerseyTest {
         Assert.assertEquals(newInfra.isEnabled(), infra.isEnabled());
         Assert.assertEquals(newInfra.getName(), infra.getName());
         Assert.assertEquals(newInfra.getDescription(), infra.getDescription());
+        Assert.assertEquals("closed", infra.getHealth());
         target("/v1.0/infrastructures/" + infra.getId()).
                 request().delete();
     }
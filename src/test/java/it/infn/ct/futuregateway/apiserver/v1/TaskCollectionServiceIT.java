@@ -25,10 +25,15 @@ import it.infn.ct.futuregateway.apiserver.utils.Constants;
 import it.infn.ct.futuregateway.apiserver.resources.Application;
 import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
+import it.infn.ct.futuregateway.apiserver.resources.TaskBatchResult;
 import it.infn.ct.futuregateway.apiserver.resources.TaskList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -56,7 +61,8 @@ public class TaskCollectionServiceIT extends JerseyTest {
 
     @Override
     protected final javax.ws.rs.core.Application configure() {
-        return new ResourceConfig(TaskCollectionService.class);
+        return new ResourceConfig(TaskCollectionService.class,
+                TaskBatchService.class);
     }
 
 
@@ -149,6 +155,69 @@ public class TaskCollectionServiceIT extends JerseyTest {
     }
 
 
+    /**
+     * Test the collection pages.
+     * Pages are retrieved following the next reference until the last one.
+     * There are at least three pages and every task has to be retrieved
+     * exactly once.
+     */
+    @Test
+    public final void testListTasksPages() {
+        Response rs;
+        rs = target("/v1.0/tasks").queryParam("limit", 0).
+                request(Constants.INDIGOMIMETYPE).get();
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),
+                rs.getStatus());
+        rs = target("/v1.0/tasks").queryParam("after", "wrongCursor").
+                request(Constants.INDIGOMIMETYPE).get();
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),
+                rs.getStatus());
+
+        int numTasks = 5
+                + (int) (Math.random() * TestData.MAX_ENTITIES_IN_LIST);
+        Set<String> created = new HashSet<>();
+        for (int i = 0; i < numTasks; i++) {
+            Task newTask = TestData.createTask();
+            newTask.setApplicationId(
+                    apps.get((int) (Math.random() * apps.size())));
+            rs = target("/v1.0/tasks").request(Constants.INDIGOMIMETYPE).
+                    post(Entity.entity(newTask, Constants.INDIGOMIMETYPE));
+            created.add(rs.readEntity(Task.class).getId());
+        }
+        List<Task> lstTask = new LinkedList<>();
+        rs = target("/v1.0/tasks").queryParam("limit", 2).
+                request(Constants.INDIGOMIMETYPE).get();
+        TaskList page = rs.readEntity(TaskList.class);
+        lstTask.addAll(page.getTasks());
+        int pages = 1;
+        while (page.getNext() != null) {
+            pages++;
+            Assert.assertEquals(2, page.getTasks().size());
+            rs = client().target(page.getNext()).
+                    request(Constants.INDIGOMIMETYPE).get();
+            Assert.assertEquals(Response.Status.OK.getStatusCode(),
+                    rs.getStatus());
+            page = rs.readEntity(TaskList.class);
+            lstTask.addAll(page.getTasks());
+        }
+        Assert.assertTrue(pages >= 3);
+        Assert.assertEquals(numTasks, lstTask.size());
+        Set<String> retrieved = new HashSet<>();
+        for (Task t: lstTask) {
+            Assert.assertTrue(retrieved.add(t.getId()));
+        }
+        Assert.assertEquals(created, retrieved);
+        rs = target("/v1.0/tasks").queryParam("status", "DONE").
+                request(Constants.INDIGOMIMETYPE).get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), rs.getStatus());
+        Assert.assertTrue(rs.readEntity(TaskList.class).getTasks().isEmpty());
+        for (Task remTask: lstTask) {
+            target("/v1.0/tasks/" + remTask.getId()).
+                request().delete();
+        }
+    }
+
+
     /**
      * Test to add a task.
      */
@@ -199,6 +268,48 @@ public class TaskCollectionServiceIT extends JerseyTest {
     }
 
 
+    /**
+     * Test to add many tasks with a single request.
+     */
+    @Test
+    public final void testAddTaskBatch() {
+        Response rs;
+        rs = target("/v1.0/tasks/batch").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(new GenericEntity<List<Task>>(
+                        new LinkedList<Task>()) { },
+                        Constants.INDIGOMIMETYPE));
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),
+                rs.getStatus());
+
+        List<Task> tasks = new LinkedList<>();
+        Task task = TestData.createTask();
+        task.setApplicationId(apps.get((int) (Math.random() * apps.size())));
+        tasks.add(task);
+        task = TestData.createTask();
+        task.setApplicationId(RandomStringUtils.randomAlphanumeric(
+                (int) (1 + (Math.random() * TestData.MAX_STRING_LENGTH))));
+        tasks.add(task);
+        rs = target("/v1.0/tasks/batch").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(new GenericEntity<List<Task>>(tasks) { },
+                        Constants.INDIGOMIMETYPE));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(),
+                rs.getStatus());
+        List<TaskBatchResult> results =
+                rs.readEntity(new GenericType<List<TaskBatchResult>>() { });
+        Assert.assertEquals(tasks.size(), results.size());
+        Assert.assertEquals(Response.Status.CREATED.getStatusCode(),
+                results.get(0).getStatus());
+        Assert.assertNotNull(results.get(0).getTask().getId());
+        Assert.assertEquals(Response.Status.BAD_REQUEST.getStatusCode(),
+                results.get(1).getStatus());
+        Assert.assertNull(results.get(1).getTask());
+        target("/v1.0/tasks/" + results.get(0).getTask().getId()).
+                request().delete();
+    }
+
+
     /**
      * Try to remove the application when one or more tasks exist.
      */
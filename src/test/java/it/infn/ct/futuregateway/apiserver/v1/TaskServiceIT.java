@@ -26,13 +26,24 @@ import it.infn.ct.futuregateway.apiserver.resources.Application;
 import it.infn.ct.futuregateway.apiserver.resources.Infrastructure;
 import it.infn.ct.futuregateway.apiserver.resources.Task;
 import it.infn.ct.futuregateway.apiserver.resources.TaskFile;
+import it.infn.ct.futuregateway.apiserver.resources.TaskFileInput;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.collections4.IterableUtils;
 import org.apache.commons.collections4.Transformer;
+import org.glassfish.jersey.media.sse.EventInput;
+import org.glassfish.jersey.media.sse.InboundEvent;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
 import org.junit.After;
@@ -192,4 +203,197 @@ public class TaskServiceIT extends  JerseyTest {
         Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(),
                 rs.getStatus());
     }
+
+
+    /**
+     * Test the upload of an input file in many parts.
+     *
+     * @throws NoSuchAlgorithmException If the checksum cannot be computed
+     */
+    @Test
+    public final void testInputUpload() throws NoSuchAlgorithmException {
+        Task testTask = TestData.createTask();
+        testTask.setApplicationId(
+                apps.get((int) (Math.random() * apps.size())));
+        List<TaskFileInput> inputs = new LinkedList<>();
+        TaskFileInput in = new TaskFileInput();
+        in.setName("input.txt");
+        inputs.add(in);
+        testTask.setInputFiles(inputs);
+        Response rs = target("/v1.0/tasks").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(testTask, Constants.INDIGOMIMETYPE));
+        String id = rs.readEntity(Task.class).getId();
+        String content = "0123456789";
+        int half = content.length() / 2;
+        String path = "/v1.0/tasks/" + id + "/input/input.txt";
+
+        rs = target(path).request().
+                header("Content-Range", "bytes 0-" + (half - 1) + "/"
+                        + content.length()).
+                put(Entity.entity(content.substring(0, half),
+                        MediaType.APPLICATION_OCTET_STREAM));
+        Assert.assertEquals(Constants.RESUMEINCOMPLETE, rs.getStatus());
+        Assert.assertEquals("bytes=0-" + (half - 1),
+                rs.getHeaderString("Range"));
+
+        rs = target(path).request().
+                header("Content-Range", "bytes */" + content.length()).
+                put(Entity.entity("", MediaType.APPLICATION_OCTET_STREAM));
+        Assert.assertEquals(Constants.RESUMEINCOMPLETE, rs.getStatus());
+        Assert.assertEquals("bytes=0-" + (half - 1),
+                rs.getHeaderString("Range"));
+
+        rs = target(path).request().
+                header("Content-Range", "bytes " + (half + 1) + "-"
+                        + (content.length() - 1) + "/" + content.length()).
+                put(Entity.entity(content.substring(half + 1),
+                        MediaType.APPLICATION_OCTET_STREAM));
+        Assert.assertEquals(
+                Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.
+                        getStatusCode(), rs.getStatus());
+
+        rs = target(path).request().
+                header("Content-Range", "bytes " + half + "-"
+                        + (content.length() - 1) + "/" + content.length()).
+                put(Entity.entity(content.substring(half),
+                        MediaType.APPLICATION_OCTET_STREAM));
+        Assert.assertEquals(Response.Status.NO_CONTENT.getStatusCode(),
+                rs.getStatus());
+        byte[] checksum = MessageDigest.getInstance("SHA-256").
+                digest(content.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("SHA-256="
+                + DatatypeConverter.printBase64Binary(checksum),
+                rs.getHeaderString("Digest"));
+
+        Task task = target("/v1.0/tasks/" + id).
+                request(Constants.INDIGOMIMETYPE).get(Task.class);
+        TaskFile uploaded = task.getInputFile("input.txt");
+        Assert.assertNotNull(uploaded);
+        Assert.assertEquals(TaskFile.FILESTATUS.READY, uploaded.getStatus());
+        Assert.assertEquals(DatatypeConverter.printHexBinary(checksum).
+                toLowerCase(), uploaded.getChecksum());
+        target("/v1.0/tasks/" + id).request().delete();
+    }
+
+
+    /**
+     * Test the download of an input file with ranges and entity tags.
+     */
+    @Test
+    public final void testInputDownload() {
+        Task testTask = TestData.createTask();
+        testTask.setApplicationId(
+                apps.get((int) (Math.random() * apps.size())));
+        List<TaskFileInput> inputs = new LinkedList<>();
+        TaskFileInput in = new TaskFileInput();
+        in.setName("input.txt");
+        inputs.add(in);
+        testTask.setInputFiles(inputs);
+        Response rs = target("/v1.0/tasks").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(testTask, Constants.INDIGOMIMETYPE));
+        String id = rs.readEntity(Task.class).getId();
+        String content = "0123456789";
+        int half = content.length() / 2;
+        String path = "/v1.0/tasks/" + id + "/input/input.txt";
+        rs = target(path).request().put(Entity.entity(content,
+                MediaType.APPLICATION_OCTET_STREAM));
+        Assert.assertEquals(Response.Status.NO_CONTENT.getStatusCode(),
+                rs.getStatus());
+
+        rs = target(path).request().get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(),
+                rs.getStatus());
+        Assert.assertEquals(content, rs.readEntity(String.class));
+        Assert.assertNotNull(rs.getEntityTag());
+
+        rs = target(path).request().
+                header("Range", "bytes=" + half + "-").get();
+        Assert.assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(),
+                rs.getStatus());
+        Assert.assertEquals("bytes " + half + "-" + (content.length() - 1)
+                + "/" + content.length(),
+                rs.getHeaderString("Content-Range"));
+        Assert.assertEquals(content.substring(half),
+                rs.readEntity(String.class));
+
+        rs = target(path).request().
+                header("Range", "bytes=" + content.length() + "-").get();
+        Assert.assertEquals(
+                Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.
+                        getStatusCode(), rs.getStatus());
+
+        rs = target(path).request().get();
+        String tag = rs.getHeaderString("ETag");
+        rs = target(path).request().header("If-None-Match", tag).get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),
+                rs.getStatus());
+
+        rs = target("/v1.0/tasks/" + id + "/output/missing.txt").
+                request().get();
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(),
+                rs.getStatus());
+        target("/v1.0/tasks/" + id).request().delete();
+    }
+
+
+    /**
+     * Test the subscription to the events of a task.
+     */
+    @Test
+    public final void testTaskEvents() {
+        Response rs;
+        rs = target("/v1.0/tasks/" + UUID.randomUUID() + "/events").
+                request(SseFeature.SERVER_SENT_EVENTS).get();
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(),
+                rs.getStatus());
+
+        Task testTask = TestData.createTask();
+        testTask.setApplicationId(
+                apps.get((int) (Math.random() * apps.size())));
+        rs = target("/v1.0/tasks").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(testTask, Constants.INDIGOMIMETYPE));
+        String id = rs.readEntity(Task.class).getId();
+        EventInput events = target("/v1.0/tasks/" + id + "/events").
+                register(SseFeature.class).
+                request(SseFeature.SERVER_SENT_EVENTS).
+                get(EventInput.class);
+        InboundEvent event = events.read();
+        events.close();
+        Assert.assertEquals(TaskEventBroadcaster.STATUSEVENT,
+                event.getName());
+        Assert.assertTrue(event.readData(String.class).contains(id));
+        target("/v1.0/tasks/" + id).request().delete();
+    }
+
+
+    /**
+     * Test the conditional retrieval of the task details.
+     */
+    @Test
+    public final void testTaskConditionalDetails() {
+        Task testTask = TestData.createTask();
+        testTask.setApplicationId(
+                apps.get((int) (Math.random() * apps.size())));
+        Response rs = target("/v1.0/tasks").
+                request(Constants.INDIGOMIMETYPE).
+                post(Entity.entity(testTask, Constants.INDIGOMIMETYPE));
+        String id = rs.readEntity(Task.class).getId();
+        rs = target("/v1.0/tasks/" + id).
+                request(Constants.INDIGOMIMETYPE).get();
+        Assert.assertEquals(Response.Status.OK.getStatusCode(),
+                rs.getStatus());
+        EntityTag tag = rs.getEntityTag();
+        Assert.assertNotNull(tag);
+        Assert.assertNotNull(rs.getLastModified());
+        rs = target("/v1.0/tasks/" + id).
+                request(Constants.INDIGOMIMETYPE).
+                header(HttpHeaders.IF_NONE_MATCH, tag).get();
+        Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(),
+                rs.getStatus());
+        Assert.assertEquals(tag, rs.getEntityTag());
+        target("/v1.0/tasks/" + id).request().delete();
+    }
 }